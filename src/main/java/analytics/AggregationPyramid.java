@@ -0,0 +1,347 @@
+package analytics;
+
+import data.datapoints.DataPoint;
+import data.datapoints.StockDataPoint;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * Weekly, monthly, and quarterly aggregates of a history (open, high, low, and close of each period, along with the
+ * indices of its first and last data points), so a graph spanning years of daily data only needs to visit the last
+ * data point of each period. Each appended data point either extends the latest period of every level or starts a new
+ * one, taking O(1) time. The pyramid can be truncated back to any number of data points (e.g. when part of a history
+ * is rewritten), which drops the periods containing the removed data points; each level then re-absorbs the kept data
+ * points of its latest period as they are appended again.
+ */
+public class AggregationPyramid {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private LevelSeries[] levels;
+    private int size;
+
+    // the resolutions the history is aggregated at, from finest to coarsest
+    public enum Level {
+        WEEKLY,
+        MONTHLY,
+        QUARTERLY
+    }
+
+    /**
+     * Initializes class member variables. The pyramid starts out with no data points.
+     */
+    public AggregationPyramid() {
+        this.levels = new LevelSeries[Level.values().length];
+        this.size = 0;
+
+        for (Level level : Level.values()) {
+            levels[level.ordinal()] = new LevelSeries(level);
+        }
+    }
+
+    /**
+     * Adds the next data point of the history to every level which has not absorbed it yet. Data points without a high
+     * and low (i.e. which are not stock data points) use the higher and lower of their open and close instead.
+     *
+     * @param dataPoint The data point, dated after every data point already added.
+     */
+    public void append(DataPoint dataPoint) {
+        for (LevelSeries levelSeries : levels) {
+            if (levelSeries.absorbed == size) {
+                levelSeries.absorb(dataPoint, size);
+            }
+        }
+
+        size++;
+    }
+
+    /**
+     * Removes every data point from the specified index onward. Each level drops the periods containing a removed data
+     * point, so the kept data points of its latest period have to be appended again, starting from size().
+     *
+     * @param newSize The number of data points to keep.
+     */
+    public void truncate(int newSize) {
+        if (newSize >= size) {
+            return;
+        }
+
+        size = Math.max(newSize, 0);
+
+        for (LevelSeries levelSeries : levels) {
+            levelSeries.truncate(newSize);
+            size = Math.min(size, levelSeries.absorbed);
+        }
+    }
+
+    /**
+     * Gets the number of data points every level has absorbed, i.e. the index of the next data point to be appended.
+     *
+     * @return The number of data points.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Chooses the coarsest level which still has at least the specified number of periods ending within a range of the
+     * history.
+     *
+     * @param fromIndex The index of the first data point in the range.
+     * @param toIndex The index of the last data point in the range.
+     * @param minPoints The number of data points needed.
+     * @return The level; null if even weekly periods are too few, in which case every daily data point is needed.
+     */
+    public Level chooseLevel(int fromIndex, int toIndex, int minPoints) {
+        for (int i = levels.length - 1; i >= 0; i--) {
+            LevelSeries levelSeries = levels[i];
+
+            if (levelSeries.getLastPeriodThrough(toIndex) - levelSeries.getFirstPeriodFrom(fromIndex) + 1 >= minPoints) {
+                return levelSeries.level;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Gets the indices of the data points needed to graph a range of the history at a level: the first data point in
+     * the range, the last data point of every period ending within it, and the last data point in the range.
+     *
+     * @param level The level; null for every data point in the range.
+     * @param fromIndex The index of the first data point in the range.
+     * @param toIndex The index of the last data point in the range.
+     * @return The indices, in ascending order.
+     */
+    public int[] getIndices(Level level, int fromIndex, int toIndex) {
+        if (toIndex < fromIndex) {
+            return new int[0];
+        }
+
+        if (level == null) {
+            int[] indices = new int[toIndex - fromIndex + 1];
+
+            for (int i = 0; i < indices.length; i++) {
+                indices[i] = fromIndex + i;
+            }
+
+            return indices;
+        }
+
+        LevelSeries levelSeries = levels[level.ordinal()];
+        int firstPeriod = levelSeries.getFirstPeriodFrom(fromIndex);
+        int[] indices = new int[Math.max(levelSeries.getLastPeriodThrough(toIndex) - firstPeriod + 1, 0) + 2];
+        int length = 0;
+
+        indices[length++] = fromIndex;
+
+        for (int period = firstPeriod; period < levelSeries.size; period++) {
+            int lastIndex = levelSeries.lastIndices[period];
+
+            if (lastIndex >= toIndex) {
+                break;
+            } else if (lastIndex > fromIndex) {
+                indices[length++] = lastIndex;
+            }
+        }
+
+        if (toIndex > fromIndex) {
+            indices[length++] = toIndex;
+        }
+
+        return Arrays.copyOf(indices, length);
+    }
+
+    /**
+     * Gets the number of periods at a level.
+     *
+     * @param level The level.
+     * @return The number of periods.
+     */
+    public int getNumPeriods(Level level) {
+        return levels[level.ordinal()].size;
+    }
+
+    public int getFirstIndex(Level level, int period) {
+        return levels[level.ordinal()].firstIndices[period];
+    }
+
+    public int getLastIndex(Level level, int period) {
+        return levels[level.ordinal()].lastIndices[period];
+    }
+
+    public double getOpen(Level level, int period) {
+        return levels[level.ordinal()].opens[period];
+    }
+
+    public double getHigh(Level level, int period) {
+        return levels[level.ordinal()].highs[period];
+    }
+
+    public double getLow(Level level, int period) {
+        return levels[level.ordinal()].lows[period];
+    }
+
+    public double getClose(Level level, int period) {
+        return levels[level.ordinal()].closes[period];
+    }
+
+    /**
+     * The periods of a single level.
+     */
+    private static class LevelSeries {
+        private Level level;
+        private int size;
+        private int absorbed;
+        private long[] keys;
+        private int[] firstIndices;
+        private int[] lastIndices;
+        private double[] opens;
+        private double[] highs;
+        private double[] lows;
+        private double[] closes;
+
+        /**
+         * Initializes class member variables.
+         *
+         * @param level The level the periods belong to.
+         */
+        LevelSeries(Level level) {
+            this.level = level;
+            this.size = 0;
+            this.absorbed = 0;
+            this.keys = new long[INITIAL_CAPACITY];
+            this.firstIndices = new int[INITIAL_CAPACITY];
+            this.lastIndices = new int[INITIAL_CAPACITY];
+            this.opens = new double[INITIAL_CAPACITY];
+            this.highs = new double[INITIAL_CAPACITY];
+            this.lows = new double[INITIAL_CAPACITY];
+            this.closes = new double[INITIAL_CAPACITY];
+        }
+
+        /**
+         * Adds a data point to the latest period, or to a new period if it is dated after the latest one.
+         *
+         * @param dataPoint The data point.
+         * @param index The index of the data point in the history.
+         */
+        void absorb(DataPoint dataPoint, int index) {
+            long key = getKey(dataPoint.getDate());
+            double open = dataPoint.getMarketOpenValue();
+            double close = dataPoint.getMarketCloseValue();
+            double high = Math.max(open, close);
+            double low = Math.min(open, close);
+
+            if (dataPoint instanceof StockDataPoint) {
+                high = ((StockDataPoint) dataPoint).getMarketHighValue();
+                low = ((StockDataPoint) dataPoint).getMarketLowValue();
+            }
+
+            if (size > 0 && keys[size - 1] == key) {
+                int last = size - 1;
+
+                lastIndices[last] = index;
+                highs[last] = Math.max(highs[last], high);
+                lows[last] = Math.min(lows[last], low);
+                closes[last] = close;
+            } else {
+                ensureCapacity();
+
+                keys[size] = key;
+                firstIndices[size] = index;
+                lastIndices[size] = index;
+                opens[size] = open;
+                highs[size] = high;
+                lows[size] = low;
+                closes[size] = close;
+                size++;
+            }
+
+            absorbed = index + 1;
+        }
+
+        /**
+         * Drops every period containing a data point from the specified index onward.
+         *
+         * @param newSize The number of data points to keep.
+         */
+        void truncate(int newSize) {
+            while (size > 0 && lastIndices[size - 1] >= newSize) {
+                size--;
+            }
+
+            absorbed = size == 0 ? 0 : lastIndices[size - 1] + 1;
+        }
+
+        /**
+         * Finds the first period ending on or after a data point using binary search.
+         *
+         * @param index The index of the data point.
+         * @return The index of the period; the number of periods if there is none.
+         */
+        int getFirstPeriodFrom(int index) {
+            int low = 0;
+            int high = size;
+
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+
+                if (lastIndices[mid] < index) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+
+            return low;
+        }
+
+        /**
+         * Finds the last period ending on or before a data point using binary search.
+         *
+         * @param index The index of the data point.
+         * @return The index of the period; -1 if there is none.
+         */
+        int getLastPeriodThrough(int index) {
+            return getFirstPeriodFrom(index + 1) - 1;
+        }
+
+        /**
+         * Gets the key of the period a date falls in: its Monday-based week, its month, or its quarter.
+         *
+         * @param date The date.
+         * @return The key, which increases from one period to the next.
+         */
+        private long getKey(LocalDate date) {
+            switch (level) {
+                case WEEKLY:
+                    return Math.floorDiv(date.toEpochDay() + 3, 7); // the epoch fell on a Thursday
+                case MONTHLY:
+                    return date.getYear() * 12L + date.getMonthValue() - 1;
+                case QUARTERLY:
+                    return date.getYear() * 4L + (date.getMonthValue() - 1) / 3;
+                default:
+                    return 0;
+            }
+        }
+
+        /**
+         * Makes room for one more period at the end of the arrays.
+         */
+        private void ensureCapacity() {
+            if (size < keys.length) {
+                return;
+            }
+
+            int newCapacity = keys.length * 2;
+
+            keys = Arrays.copyOf(keys, newCapacity);
+            firstIndices = Arrays.copyOf(firstIndices, newCapacity);
+            lastIndices = Arrays.copyOf(lastIndices, newCapacity);
+            opens = Arrays.copyOf(opens, newCapacity);
+            highs = Arrays.copyOf(highs, newCapacity);
+            lows = Arrays.copyOf(lows, newCapacity);
+            closes = Arrays.copyOf(closes, newCapacity);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package analytics;
+
+import data.datapoints.DataPoint;
+import data.datapoints.PortfolioDataPoint;
+import data.records.RecordType;
+import data.records.StockRecord;
+import data.records.TransactionRecord;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A comparison series for the performance graph which answers "what if every transaction had gone into the benchmark
+ * instead". Every buy (or dividend reinvestment) puts the same amount of money into the benchmark at its close on the
+ * transaction date, and every sell takes the same amount of money back out, so the series shares the portfolio's
+ * cash-flow schedule and its money invested.
+ *
+ * The benchmark shares and money invested are kept as deltas in date-keyed Fenwick trees, so recording or reversing a
+ * transaction of any age takes O(log n) time. The series itself is cached as data points aligned to the portfolio's
+ * history (with a return index over them), and only the data points from the earliest date affected by a change
+ * onward are recomputed the next time the series is requested.
+ */
+public class BenchmarkSeries {
+    private StockRecord benchmarkRecord;
+    private TreeMap<LocalDate, double[]> flows; // date -> {money invested on the date, benchmark shares bought with it}
+    private DateDeltaTree shareDeltas;
+    private DateDeltaTree cashDeltas;
+    private List<DataPoint> history;
+    private ReturnIndex returnIndex;
+    private LocalDate dirtyFrom;
+
+    /**
+     * Initializes class member variables and records every transaction in the specified ledger.
+     *
+     * @param benchmarkRecord The record containing the historical data of the benchmark.
+     * @param transactionRecords A list of transaction records for all previously made transactions.
+     */
+    public BenchmarkSeries(StockRecord benchmarkRecord, List<TransactionRecord> transactionRecords) {
+        this.benchmarkRecord = benchmarkRecord;
+        this.flows = new TreeMap<>();
+        this.shareDeltas = null;
+        this.cashDeltas = null;
+        this.history = new ArrayList<>();
+        this.returnIndex = new ReturnIndex(history);
+        this.dirtyFrom = null;
+
+        for (TransactionRecord transactionRecord : transactionRecords) {
+            addTransaction(transactionRecord);
+        }
+    }
+
+    // getter methods for class member variables
+
+    public String getTicker() {
+        return benchmarkRecord.getTicker();
+    }
+
+    public StockRecord getBenchmarkRecord() {
+        return benchmarkRecord;
+    }
+
+    /**
+     * Mirrors a transaction in the benchmark. An undo transaction record (which has the opposite type of the
+     * transaction it undoes) reverses the original transaction.
+     *
+     * @param transactionRecord The transaction record to be mirrored.
+     */
+    public void addTransaction(TransactionRecord transactionRecord) {
+        double moneyAmount = transactionRecord.getType() == RecordType.DIVIDEND_RECORD ? transactionRecord.getPrice()
+                : transactionRecord.getPrice() * transactionRecord.getNumShares();
+
+        addFlow(transactionRecord.getDate(), transactionRecord.isBuy() ? moneyAmount : -moneyAmount);
+    }
+
+    /**
+     * Re-prices the money which went into the benchmark on or after the specified date. Called after data points of the
+     * benchmark's history dated on or after the specified date were added or replaced.
+     *
+     * @param from The date of the first added or replaced data point.
+     */
+    public void historyUpdated(LocalDate from) {
+        List<DataPoint> benchmarkHistory = benchmarkRecord.getHistory();
+
+        for (Map.Entry<LocalDate, double[]> entry : flows.tailMap(from, true).entrySet()) {
+            double[] flow = entry.getValue();
+            double price = getPrice(benchmarkHistory, entry.getKey());
+            double numShares = price == 0 ? 0 : flow[0] / price;
+
+            shareDeltas.add(entry.getKey(), numShares - flow[1]);
+            flow[1] = numShares;
+        }
+
+        markDirty(from);
+    }
+
+    /**
+     * Gets the benchmark's data points aligned to the portfolio's history, recomputing those affected by any change
+     * since the last call. The value of each data point is the value the benchmark holding would have had, and its
+     * money invested equals the portfolio's.
+     *
+     * @param portHistory The portfolio's history.
+     * @return A list of data points with the same dates as the portfolio's history.
+     */
+    public List<DataPoint> getHistory(List<DataPoint> portHistory) {
+        // the portfolio's history is truncated from the front when its earliest transaction is undone
+        if (!history.isEmpty() && (portHistory.isEmpty() || !history.get(0).getDate().equals(portHistory.get(0).getDate()))) {
+            history.clear();
+            returnIndex = new ReturnIndex(history);
+        }
+
+        int from = Math.min(dirtyFrom == null ? history.size() : getFirstIndexFrom(dirtyFrom), portHistory.size());
+
+        while (from > 0 && !history.get(from - 1).getDate().equals(portHistory.get(from - 1).getDate())) {
+            from--;
+        }
+
+        while (history.size() > from) {
+            history.remove(history.size() - 1);
+            returnIndex.removeLast();
+        }
+
+        List<DataPoint> benchmarkHistory = benchmarkRecord.getHistory();
+
+        for (int i = from; i < portHistory.size(); i++) {
+            LocalDate date = portHistory.get(i).getDate();
+            DataPoint benchmarkDataPoint = ValuationEngine.findDataPoint(benchmarkHistory, date);
+            double numShares = shareDeltas == null ? 0 : shareDeltas.sumThrough(date);
+            double moneyInvested = cashDeltas == null ? 0 : cashDeltas.sumThrough(date);
+            double openValue = benchmarkDataPoint == null ? 0 : benchmarkDataPoint.getMarketOpenValue() * numShares;
+            double closeValue = benchmarkDataPoint == null ? 0 : benchmarkDataPoint.getMarketCloseValue() * numShares;
+            DataPoint dataPoint = new PortfolioDataPoint(date, openValue, closeValue, moneyInvested);
+
+            history.add(dataPoint);
+            returnIndex.append(dataPoint);
+        }
+
+        dirtyFrom = null;
+
+        return history;
+    }
+
+    /**
+     * Gets the return index over the series. Only valid after a call to getHistory.
+     *
+     * @return The return index.
+     */
+    public ReturnIndex getReturnIndex() {
+        return returnIndex;
+    }
+
+    /**
+     * Records money going into (or coming out of) the benchmark on a date.
+     *
+     * @param date The date of the cash flow.
+     * @param moneyAmount The amount of money; negative if it is taken out.
+     */
+    private void addFlow(LocalDate date, double moneyAmount) {
+        double price = getPrice(benchmarkRecord.getHistory(), date);
+        double numShares = price == 0 ? 0 : moneyAmount / price;
+        double[] flow = flows.get(date);
+
+        if (shareDeltas == null) {
+            shareDeltas = new DateDeltaTree(date);
+            cashDeltas = new DateDeltaTree(date);
+        }
+
+        if (flow == null) {
+            flows.put(date, new double[] {moneyAmount, numShares});
+        } else {
+            flow[0] += moneyAmount;
+            flow[1] += numShares;
+        }
+
+        shareDeltas.add(date, numShares);
+        cashDeltas.add(date, moneyAmount);
+        markDirty(date);
+    }
+
+    /**
+     * Marks the cached data points dated on or after the specified date as needing to be recomputed.
+     *
+     * @param date The earliest affected date.
+     */
+    private void markDirty(LocalDate date) {
+        if (dirtyFrom == null || date.compareTo(dirtyFrom) < 0) {
+            dirtyFrom = date;
+        }
+    }
+
+    /**
+     * Finds the benchmark's close on the specified date, or on the last trading day before it. Transactions dated
+     * before the start of the benchmark's history use its earliest close.
+     *
+     * @param benchmarkHistory The benchmark's history.
+     * @param date The date in question.
+     * @return The close; 0 if the benchmark has no history.
+     */
+    private static double getPrice(List<DataPoint> benchmarkHistory, LocalDate date) {
+        DataPoint dataPoint = ValuationEngine.findDataPoint(benchmarkHistory, date);
+
+        if (dataPoint == null) {
+            dataPoint = benchmarkHistory.isEmpty() ? null : benchmarkHistory.get(0);
+        }
+
+        return dataPoint == null ? 0 : dataPoint.getMarketCloseValue();
+    }
+
+    /**
+     * Finds the index of the first cached data point dated on or after the specified date using binary search.
+     *
+     * @param date The date in question.
+     * @return The index of the first data point dated on or after the date; the number of data points if there is none.
+     */
+    private int getFirstIndexFrom(LocalDate date) {
+        int low = 0;
+        int high = history.size();
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+
+            if (history.get(mid).getDate().compareTo(date) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+}
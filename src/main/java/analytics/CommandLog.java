@@ -0,0 +1,133 @@
+package analytics;
+
+import data.records.DividendRecord;
+import data.records.RecordType;
+import data.records.TransactionRecord;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * A log of the commands which applied transactions to the portfolio. Each command holds its transaction along with the
+ * inverse transaction, so undoing it records the inverse transaction's deltas and redoing it records the original's
+ * again, each in O(log n) time. The record of the asset involved is kept by the portfolio even once the asset is no
+ * longer held, so the asset's data need not be fetched again. Undone commands are kept on a redo stack (allowing any
+ * number of them to be redone) until a new transaction is made.
+ */
+public class CommandLog {
+    private Map<TransactionRecord, Command> commands;
+    private Deque<Command> redoStack;
+
+    /**
+     * Initializes class member variables. The log starts out empty.
+     */
+    public CommandLog() {
+        this.commands = new IdentityHashMap<>();
+        this.redoStack = new ArrayDeque<>();
+    }
+
+    /**
+     * Gets the command which applied a transaction. Transactions made before the log was created (e.g. read from disk)
+     * get a command created for them when they are first undone.
+     *
+     * @param transactionRecord The transaction record in question.
+     * @return The command.
+     */
+    public Command getCommand(TransactionRecord transactionRecord) {
+        return commands.computeIfAbsent(transactionRecord, Command::new);
+    }
+
+    /**
+     * Records the command of a newly made transaction, which discards every command waiting to be redone.
+     *
+     * @param command The command which applied the transaction.
+     */
+    public void executed(Command command) {
+        commands.put(command.getTransactionRecord(), command);
+        redoStack.clear();
+    }
+
+    /**
+     * Records that a command was undone, making it the next one to be redone.
+     *
+     * @param command The undone command.
+     */
+    public void undone(Command command) {
+        commands.remove(command.getTransactionRecord());
+        redoStack.push(command);
+    }
+
+    /**
+     * Records that the most recently undone command was redone.
+     *
+     * @param command The redone command.
+     */
+    public void redone(Command command) {
+        if (redoStack.peek() == command) {
+            redoStack.pop();
+        }
+
+        commands.put(command.getTransactionRecord(), command);
+    }
+
+    /**
+     * Gets the next command to be redone, without removing it from the redo stack.
+     *
+     * @return The most recently undone command; null if there is none.
+     */
+    public Command peekRedo() {
+        return redoStack.peek();
+    }
+
+    /**
+     * Empties the log. Used when the histories are rebuilt from the ledger, which starts the undo history afresh.
+     */
+    public void clear() {
+        commands.clear();
+        redoStack.clear();
+    }
+
+    /**
+     * The command which applied a single transaction.
+     */
+    public static class Command {
+        private TransactionRecord transactionRecord;
+        private TransactionRecord inverseRecord;
+
+        /**
+         * Initializes class member variables and works out the inverse of the transaction.
+         *
+         * @param transactionRecord The transaction record of the transaction.
+         */
+        public Command(TransactionRecord transactionRecord) {
+            double numShares = transactionRecord.getNumShares();
+
+            this.transactionRecord = transactionRecord;
+
+            if (transactionRecord.getType() == RecordType.DIVIDEND_RECORD) {
+                this.inverseRecord = new DividendRecord(transactionRecord.getDate(), transactionRecord.getTicker(),
+                        numShares, transactionRecord.getPrice(), true);
+            } else {
+                this.inverseRecord = new TransactionRecord(transactionRecord.getDate(), transactionRecord.getTicker(),
+                        numShares, transactionRecord.getPrice(), !transactionRecord.isBuy());
+            }
+        }
+
+        // getter methods for class member variables
+
+        public TransactionRecord getTransactionRecord() {
+            return transactionRecord;
+        }
+
+        /**
+         * Gets the transaction record which reverses the transaction: the same parameters with the opposite type.
+         *
+         * @return The inverse transaction record.
+         */
+        public TransactionRecord getInverseRecord() {
+            return inverseRecord;
+        }
+    }
+}
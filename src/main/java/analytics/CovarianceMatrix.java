@@ -0,0 +1,470 @@
+package analytics;
+
+import data.datapoints.DataPoint;
+import data.records.StockRecord;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * The covariance and correlation matrix of the daily returns of a set of assets. The asset histories are aligned by
+ * date with a merge-join (an asset which did not trade on a date carries its last close forward), starting from the
+ * first date on which every asset has a price. The initial matrix is computed with a cache-blocked kernel whose tiles
+ * are processed in parallel; afterwards the running means and co-moments are updated in O(n^2) time per appended day,
+ * so the matrix never has to be recomputed from scratch when new data arrives.
+ */
+public class CovarianceMatrix {
+    private static final int BLOCK_SIZE = 64; // number of assets per side of a tile
+    private static final int CHUNK_SIZE = 128; // number of days of a tile processed at a time
+
+    private String[] tickers;
+    private int numAssets;
+    private int count;
+    private double[] means;
+    private double[] comoments;
+    private LocalDate lastDate;
+    private double[] lastCloses;
+    private double[] prevCloses;
+    private double[] lastReturns;
+
+    /**
+     * Initializes class member variables and computes the matrix over the full histories of the specified assets.
+     *
+     * @param stockDataRecords A map containing the records of the assets to be included in the matrix.
+     */
+    public CovarianceMatrix(Map<String, StockRecord> stockDataRecords) {
+        List<List<DataPoint>> histories = new ArrayList<>();
+
+        tickers = stockDataRecords.keySet().toArray(new String[0]);
+        numAssets = tickers.length;
+        means = new double[numAssets];
+        comoments = new double[numAssets * numAssets];
+        lastCloses = new double[numAssets];
+        prevCloses = new double[numAssets];
+        lastReturns = new double[numAssets];
+
+        Arrays.sort(tickers);
+
+        for (String ticker : tickers) {
+            histories.add(stockDataRecords.get(ticker).getHistory());
+        }
+
+        build(histories);
+    }
+
+    /**
+     * Brings the matrix up to date with the specified asset records by appending every day dated after the last day
+     * already included. If the last included day has since been revised (e.g. an intraday price was replaced by the
+     * close), that day is taken back out and re-appended with the revised prices first.
+     *
+     * @param stockDataRecords A map containing the records of the assets included in the matrix.
+     * @return True if the matrix was updated; false if the set of assets differs and the matrix needs to be rebuilt.
+     */
+    public boolean update(Map<String, StockRecord> stockDataRecords) {
+        if (stockDataRecords.size() != numAssets) {
+            return false;
+        }
+
+        List<List<DataPoint>> histories = new ArrayList<>();
+
+        for (String ticker : tickers) {
+            StockRecord stockRecord = stockDataRecords.get(ticker);
+
+            if (stockRecord == null) {
+                return false;
+            }
+
+            histories.add(stockRecord.getHistory());
+        }
+
+        if (lastDate == null) {
+            build(histories);
+            return true;
+        }
+
+        List<List<DataPoint>> newHistories = new ArrayList<>();
+        double[] revisedCloses = lastCloses.clone();
+        boolean isRevised = false;
+
+        for (List<DataPoint> history : histories) {
+            newHistories.add(history.subList(getFirstIndexAfter(history, lastDate), history.size()));
+        }
+
+        for (int k = 0; k < numAssets; k++) {
+            DataPoint dataPoint = ValuationEngine.findDataPoint(histories.get(k), lastDate);
+
+            if (dataPoint != null && dataPoint.getDate().equals(lastDate)
+                    && dataPoint.getMarketCloseValue() != lastCloses[k]) {
+                revisedCloses[k] = dataPoint.getMarketCloseValue();
+                isRevised = true;
+            }
+        }
+
+        if (isRevised && count > 0) {
+            removeLast();
+            append(lastDate, revisedCloses);
+        } else if (isRevised) {
+            lastCloses = revisedCloses;
+        }
+
+        DateMergeJoin mergeJoin = new DateMergeJoin(newHistories);
+        double[] closes = new double[numAssets];
+
+        for (int k = 0; k < numAssets; k++) {
+            mergeJoin.seed(k, ValuationEngine.findDataPoint(histories.get(k), lastDate));
+        }
+
+        while (mergeJoin.next()) {
+            for (int k = 0; k < numAssets; k++) {
+                closes[k] = mergeJoin.getCloseValue(k);
+            }
+
+            append(mergeJoin.getDate(), closes);
+        }
+
+        return true;
+    }
+
+    /**
+     * Adds a day of close prices to the matrix. Takes O(n^2) time.
+     *
+     * @param date The date of the close prices, dated after the last day already included.
+     * @param closes The close price of every asset on the date, in the order of getTickers().
+     */
+    public void append(LocalDate date, double[] closes) {
+        if (lastDate == null) {
+            System.arraycopy(closes, 0, lastCloses, 0, numAssets);
+            lastDate = date;
+            return;
+        }
+
+        double[] returns = new double[numAssets];
+        double[] deltas = new double[numAssets];
+
+        for (int i = 0; i < numAssets; i++) {
+            returns[i] = lastCloses[i] == 0 ? 0 : closes[i] / lastCloses[i] - 1;
+        }
+
+        count++;
+
+        for (int i = 0; i < numAssets; i++) {
+            deltas[i] = returns[i] - means[i];
+            means[i] += deltas[i] / count;
+        }
+
+        for (int i = 0; i < numAssets; i++) {
+            int row = i * numAssets;
+
+            for (int j = 0; j < numAssets; j++) {
+                comoments[row + j] += deltas[i] * (returns[j] - means[j]);
+            }
+        }
+
+        System.arraycopy(lastCloses, 0, prevCloses, 0, numAssets);
+        System.arraycopy(closes, 0, lastCloses, 0, numAssets);
+        lastReturns = returns;
+        lastDate = date;
+    }
+
+    // getter methods for class member variables
+
+    public String[] getTickers() {
+        return tickers.clone();
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public LocalDate getLastDate() {
+        return lastDate;
+    }
+
+    /**
+     * Gets the index of an asset in the matrix.
+     *
+     * @param ticker The ticker symbol of the asset.
+     * @return The index of the asset; a negative number if the asset is not included in the matrix.
+     */
+    public int indexOf(String ticker) {
+        return Arrays.binarySearch(tickers, ticker);
+    }
+
+    /**
+     * Gets the mean daily return of an asset.
+     *
+     * @param i The index of the asset.
+     * @return The mean daily return.
+     */
+    public double getMean(int i) {
+        return means[i];
+    }
+
+    /**
+     * Gets the (sample) covariance of the daily returns of two assets.
+     *
+     * @param i The index of the first asset.
+     * @param j The index of the second asset.
+     * @return The covariance; 0 if fewer than two days of returns are included.
+     */
+    public double getCovariance(int i, int j) {
+        return count < 2 ? 0 : comoments[i * numAssets + j] / (count - 1);
+    }
+
+    /**
+     * Gets the correlation of the daily returns of two assets.
+     *
+     * @param i The index of the first asset.
+     * @param j The index of the second asset.
+     * @return The correlation; 0 if either asset's returns have no variance.
+     */
+    public double getCorrelation(int i, int j) {
+        double denominator = Math.sqrt(comoments[i * numAssets + i] * comoments[j * numAssets + j]);
+
+        return denominator == 0 ? 0 : comoments[i * numAssets + j] / denominator;
+    }
+
+    /**
+     * Gets the correlation of the daily returns of an asset with those of a portfolio of the assets in the matrix.
+     *
+     * @param i The index of the asset.
+     * @param weights The weight of every asset in the portfolio, in the order of getTickers().
+     * @return The correlation; 0 if either the asset's or the portfolio's returns have no variance.
+     */
+    public double getCorrelation(int i, double[] weights) {
+        double comoment = 0;
+        double portComoment = 0;
+
+        for (int j = 0; j < numAssets; j++) {
+            int row = j * numAssets;
+
+            comoment += weights[j] * comoments[i * numAssets + j];
+
+            for (int k = 0; k < numAssets; k++) {
+                portComoment += weights[j] * weights[k] * comoments[row + k];
+            }
+        }
+
+        double denominator = Math.sqrt(comoments[i * numAssets + i] * portComoment);
+
+        return denominator == 0 ? 0 : comoment / denominator;
+    }
+
+    /**
+     * Gets the average correlation between the daily returns of every pair of different assets in a portfolio, with
+     * each pair weighted by the product of the weights of its assets.
+     *
+     * @param weights The weight of every asset in the portfolio, in the order of getTickers().
+     * @return The average correlation; 0 if the portfolio holds fewer than two assets.
+     */
+    public double getAverageCorrelation(double[] weights) {
+        double weightedSum = 0;
+        double totalWeight = 0;
+
+        for (int i = 0; i < numAssets; i++) {
+            for (int j = i + 1; j < numAssets; j++) {
+                weightedSum += weights[i] * weights[j] * getCorrelation(i, j);
+                totalWeight += weights[i] * weights[j];
+            }
+        }
+
+        return totalWeight == 0 ? 0 : weightedSum / totalWeight;
+    }
+
+    /**
+     * Copies out the full covariance matrix.
+     *
+     * @return The covariance matrix, indexed in the order of getTickers().
+     */
+    public double[][] getCovarianceMatrix() {
+        double[][] matrix = new double[numAssets][numAssets];
+
+        for (int i = 0; i < numAssets; i++) {
+            for (int j = 0; j < numAssets; j++) {
+                matrix[i][j] = getCovariance(i, j);
+            }
+        }
+
+        return matrix;
+    }
+
+    /**
+     * Copies out the full correlation matrix.
+     *
+     * @return The correlation matrix, indexed in the order of getTickers().
+     */
+    public double[][] getCorrelationMatrix() {
+        double[][] matrix = new double[numAssets][numAssets];
+
+        for (int i = 0; i < numAssets; i++) {
+            for (int j = 0; j < numAssets; j++) {
+                matrix[i][j] = getCorrelation(i, j);
+            }
+        }
+
+        return matrix;
+    }
+
+    /**
+     * Computes the matrix from scratch. The aligned returns are stored one contiguous array per asset, centered, and
+     * then multiplied together tile by tile so each tile's rows stay in cache while they are reused.
+     *
+     * @param histories The histories of the assets, in the order of the tickers.
+     */
+    private void build(List<List<DataPoint>> histories) {
+        DateMergeJoin mergeJoin = new DateMergeJoin(histories);
+        double[][] returns = new double[numAssets][256];
+        double[] closes = new double[numAssets];
+        boolean isStarted = false;
+
+        count = 0;
+        lastDate = null;
+
+        while (mergeJoin.next()) {
+            boolean hasAllValues = true;
+
+            for (int k = 0; k < numAssets; k++) {
+                closes[k] = mergeJoin.getCloseValue(k);
+                hasAllValues &= mergeJoin.hasValue(k);
+            }
+
+            if (!hasAllValues) {
+                continue;
+            } else if (isStarted) {
+                if (count == returns[0].length) {
+                    for (int k = 0; k < numAssets; k++) {
+                        returns[k] = Arrays.copyOf(returns[k], count * 2);
+                    }
+                }
+
+                for (int k = 0; k < numAssets; k++) {
+                    lastReturns[k] = lastCloses[k] == 0 ? 0 : closes[k] / lastCloses[k] - 1;
+                    returns[k][count] = lastReturns[k];
+                }
+
+                System.arraycopy(lastCloses, 0, prevCloses, 0, numAssets);
+                count++;
+            }
+
+            System.arraycopy(closes, 0, lastCloses, 0, numAssets);
+            lastDate = mergeJoin.getDate();
+            isStarted = true;
+        }
+
+        for (int k = 0; k < numAssets; k++) {
+            double sum = 0;
+
+            for (int t = 0; t < count; t++) {
+                sum += returns[k][t];
+            }
+
+            means[k] = count == 0 ? 0 : sum / count;
+
+            for (int t = 0; t < count; t++) {
+                returns[k][t] -= means[k];
+            }
+        }
+
+        int numBlocks = (numAssets + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int numDays = count;
+
+        Arrays.fill(comoments, 0);
+
+        // only the tiles on or above the diagonal are computed; each one is mirrored below the diagonal
+        IntStream.range(0, numBlocks * numBlocks).parallel()
+                .filter(tile -> tile % numBlocks >= tile / numBlocks)
+                .forEach(tile -> multiplyTile(returns, tile / numBlocks, tile % numBlocks, numDays));
+    }
+
+    /**
+     * Computes one tile of the co-moment matrix from the centered returns.
+     *
+     * @param returns The centered returns, one array per asset.
+     * @param rowBlock The block index of the tile's rows.
+     * @param colBlock The block index of the tile's columns.
+     * @param numDays The number of days of returns.
+     */
+    private void multiplyTile(double[][] returns, int rowBlock, int colBlock, int numDays) {
+        int rowStart = rowBlock * BLOCK_SIZE;
+        int rowEnd = Math.min(rowStart + BLOCK_SIZE, numAssets);
+        int colStart = colBlock * BLOCK_SIZE;
+        int colEnd = Math.min(colStart + BLOCK_SIZE, numAssets);
+
+        for (int chunkStart = 0; chunkStart < numDays; chunkStart += CHUNK_SIZE) {
+            int chunkEnd = Math.min(chunkStart + CHUNK_SIZE, numDays);
+
+            for (int i = rowStart; i < rowEnd; i++) {
+                double[] rowReturns = returns[i];
+
+                for (int j = Math.max(colStart, rowBlock == colBlock ? i : colStart); j < colEnd; j++) {
+                    double[] colReturns = returns[j];
+                    double sum = 0;
+
+                    for (int t = chunkStart; t < chunkEnd; t++) {
+                        sum += rowReturns[t] * colReturns[t];
+                    }
+
+                    comoments[i * numAssets + j] += sum;
+                }
+            }
+        }
+
+        for (int i = rowStart; i < rowEnd; i++) {
+            for (int j = Math.max(colStart, i + 1); j < colEnd; j++) {
+                comoments[j * numAssets + i] = comoments[i * numAssets + j];
+            }
+        }
+    }
+
+    /**
+     * Takes the last appended day back out of the running means and co-moments. Only one day can be taken back out.
+     */
+    private void removeLast() {
+        double[] prevMeans = new double[numAssets];
+
+        for (int i = 0; i < numAssets; i++) {
+            prevMeans[i] = count == 1 ? 0 : (count * means[i] - lastReturns[i]) / (count - 1);
+        }
+
+        for (int i = 0; i < numAssets; i++) {
+            int row = i * numAssets;
+            double delta = lastReturns[i] - prevMeans[i];
+
+            for (int j = 0; j < numAssets; j++) {
+                comoments[row + j] -= delta * (lastReturns[j] - means[j]);
+            }
+        }
+
+        count--;
+        means = prevMeans;
+        System.arraycopy(prevCloses, 0, lastCloses, 0, numAssets);
+    }
+
+    /**
+     * Gets the index of the first data point in a history dated after the specified date using binary search.
+     *
+     * @param history The history to search, sorted by date.
+     * @param date The date in question.
+     * @return The index of the first data point dated after the date; history.size() if there is none.
+     */
+    private static int getFirstIndexAfter(List<DataPoint> history, LocalDate date) {
+        int low = 0;
+        int high = history.size();
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+
+            if (history.get(mid).getDate().compareTo(date) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+}
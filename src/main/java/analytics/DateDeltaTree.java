@@ -0,0 +1,126 @@
+package analytics;
+
+import java.time.LocalDate;
+
+/**
+ * A Fenwick (binary indexed) tree of deltas keyed by calendar date. Adding a delta on any date and summing all deltas
+ * up to and including any date both take O(log n) time, where n is the number of calendar days covered by the tree.
+ * The covered range grows automatically in either direction when a delta falls outside of it.
+ */
+public class DateDeltaTree {
+    private static final int INITIAL_CAPACITY = 4096; // a little over 11 years of calendar days
+
+    private long baseDay;
+    private double[] values;
+    private double[] tree;
+
+    /**
+     * Initializes class member variables.
+     *
+     * @param baseDate The earliest date the tree initially covers.
+     */
+    public DateDeltaTree(LocalDate baseDate) {
+        this.baseDay = baseDate.toEpochDay();
+        this.values = new double[INITIAL_CAPACITY];
+        this.tree = new double[INITIAL_CAPACITY + 1];
+    }
+
+    /**
+     * Adds a delta on the specified date.
+     *
+     * @param date The date on which the delta occurs.
+     * @param delta The delta to be added.
+     */
+    public void add(LocalDate date, double delta) {
+        int index = ensureIndex(date.toEpochDay());
+
+        values[index] += delta;
+
+        for (int i = index + 1; i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    /**
+     * Sums all deltas which occurred on or before the specified date.
+     *
+     * @param date The date up to which deltas are summed.
+     * @return The sum of all deltas dated on or before the specified date.
+     */
+    public double sumThrough(LocalDate date) {
+        long offset = date.toEpochDay() - baseDay;
+
+        if (offset < 0) {
+            return 0;
+        }
+
+        double sum = 0;
+
+        for (int i = (int) Math.min(offset, values.length - 1) + 1; i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+
+        return sum;
+    }
+
+    /**
+     * Sums all deltas in the tree.
+     *
+     * @return The sum of all deltas.
+     */
+    public double sum() {
+        double sum = 0;
+
+        for (int i = values.length; i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+
+        return sum;
+    }
+
+    /**
+     * Makes sure the specified day is covered by the tree, growing the tree if necessary.
+     *
+     * @param day The epoch day which needs to be covered.
+     * @return The index of the day in the tree.
+     */
+    private int ensureIndex(long day) {
+        if (day < baseDay) {
+            long newBaseDay = day - values.length / 2;
+
+            rebuild(newBaseDay, (int) (values.length + (baseDay - newBaseDay)));
+        } else if (day - baseDay >= values.length) {
+            rebuild(baseDay, (int) Math.max(values.length * 2, day - baseDay + 1));
+        }
+
+        return (int) (day - baseDay);
+    }
+
+    /**
+     * Rebuilds the tree to cover a different range of days. Takes O(n) time.
+     *
+     * @param newBaseDay The epoch day of the first index in the rebuilt tree.
+     * @param newCapacity The number of days the rebuilt tree covers.
+     */
+    private void rebuild(long newBaseDay, int newCapacity) {
+        double[] newValues = new double[newCapacity];
+        double[] newTree = new double[newCapacity + 1];
+        int shift = (int) (baseDay - newBaseDay);
+
+        System.arraycopy(values, 0, newValues, shift, values.length);
+
+        for (int i = 1; i <= newCapacity; i++) {
+            newTree[i] += newValues[i - 1];
+
+            int parent = i + (i & -i);
+
+            if (parent <= newCapacity) {
+                newTree[parent] += newTree[i];
+            }
+        }
+
+        baseDay = newBaseDay;
+        values = newValues;
+        tree = newTree;
+    }
+}
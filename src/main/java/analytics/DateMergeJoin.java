@@ -0,0 +1,163 @@
+package analytics;
+
+import data.datapoints.DataPoint;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Performs a k-way merge-join of several histories which are each sorted by date. Every call to next() advances to the
+ * next distinct date found in any of the histories and aligns the values of all histories to that date. A history
+ * with no data point on the current date (e.g. a trading halt or a gap in the data) carries forward its last known
+ * close value, so callers never need to look anything up by date themselves. A history quoted in a foreign currency
+ * can be given its aligned exchange rates, in which case its values are converted as they are read.
+ */
+public class DateMergeJoin {
+    private List<List<DataPoint>> histories;
+    private int[] cursors;
+    private double[] openValues;
+    private double[] closeValues;
+    private boolean[] hasValue;
+    private boolean[] isFresh;
+    private FXRateIndex[] fxRates;
+    private int[] fxOffsets;
+    private LocalDate currDate;
+
+    /**
+     * Initializes class member variables.
+     *
+     * @param histories The histories to be joined. Each history must be sorted by date in ascending order.
+     */
+    public DateMergeJoin(List<List<DataPoint>> histories) {
+        int numHistories = histories.size();
+
+        this.histories = histories;
+        this.cursors = new int[numHistories];
+        this.openValues = new double[numHistories];
+        this.closeValues = new double[numHistories];
+        this.hasValue = new boolean[numHistories];
+        this.isFresh = new boolean[numHistories];
+        this.fxRates = new FXRateIndex[numHistories];
+        this.fxOffsets = new int[numHistories];
+        this.currDate = null;
+    }
+
+    /**
+     * Provides the exchange rates converting a history's values into the base currency. The joined history must be the
+     * segment of the asset's full history starting at the specified offset. Must be called before seed().
+     *
+     * @param index The index of the history.
+     * @param rates The exchange rates aligned to the asset's full history.
+     * @param offset The index in the asset's full history of the joined segment's first data point.
+     */
+    public void setFXRates(int index, FXRateIndex rates, int offset) {
+        fxRates[index] = rates;
+        fxOffsets[index] = offset;
+    }
+
+    /**
+     * Provides the last known data point of a history prior to its first joined data point. Until the history produces
+     * its own data point, its close value is carried forward from this one. If the history has exchange rates, the
+     * data point is taken to be the one just before the joined segment.
+     *
+     * @param index The index of the history being seeded.
+     * @param dataPoint The last known data point prior to the joined segment of the history (may be null).
+     */
+    public void seed(int index, DataPoint dataPoint) {
+        if (dataPoint != null) {
+            double rate = fxRates[index] == null ? 1 : fxRates[index].getRate(Math.max(fxOffsets[index] - 1, 0));
+
+            openValues[index] = dataPoint.getMarketCloseValue() * rate;
+            closeValues[index] = dataPoint.getMarketCloseValue() * rate;
+            hasValue[index] = true;
+        }
+    }
+
+    /**
+     * Advances to the next distinct date found in any of the histories.
+     *
+     * @return True if there was another date to advance to; false if all histories have been exhausted.
+     */
+    public boolean next() {
+        LocalDate minDate = null;
+
+        for (int k = 0; k < cursors.length; k++) {
+            List<DataPoint> history = histories.get(k);
+
+            if (cursors[k] < history.size()) {
+                LocalDate date = history.get(cursors[k]).getDate();
+
+                if (minDate == null || date.compareTo(minDate) < 0) {
+                    minDate = date;
+                }
+            }
+        }
+
+        if (minDate == null) {
+            return false;
+        }
+
+        for (int k = 0; k < cursors.length; k++) {
+            List<DataPoint> history = histories.get(k);
+            isFresh[k] = false;
+
+            // consumes every data point on the current date so a duplicated date cannot produce a second join row
+            while (cursors[k] < history.size() && history.get(cursors[k]).getDate().equals(minDate)) {
+                DataPoint dataPoint = history.get(cursors[k]);
+                double rate = fxRates[k] == null ? 1 : fxRates[k].getRate(fxOffsets[k] + cursors[k]);
+
+                openValues[k] = dataPoint.getMarketOpenValue() * rate;
+                closeValues[k] = dataPoint.getMarketCloseValue() * rate;
+                hasValue[k] = true;
+                isFresh[k] = true;
+                cursors[k]++;
+            }
+
+            if (!isFresh[k] && hasValue[k]) {
+                openValues[k] = closeValues[k];
+            }
+        }
+
+        currDate = minDate;
+
+        return true;
+    }
+
+    // getter methods for the values aligned to the current date
+
+    public LocalDate getDate() {
+        return currDate;
+    }
+
+    public int getNumHistories() {
+        return cursors.length;
+    }
+
+    public double getOpenValue(int index) {
+        return openValues[index];
+    }
+
+    public double getCloseValue(int index) {
+        return closeValues[index];
+    }
+
+    /**
+     * Determines if a history has a known value on the current date, either its own or one carried forward.
+     *
+     * @param index The index of the history.
+     * @return True if the history has a known value on the current date; false otherwise.
+     */
+    public boolean hasValue(int index) {
+        return hasValue[index];
+    }
+
+    /**
+     * Determines if a history has its own data point on the current date.
+     *
+     * @param index The index of the history.
+     * @return True if the history has its own data point on the current date; false if its value was carried forward.
+     */
+    public boolean isFresh(int index) {
+        return isFresh[index];
+    }
+}
@@ -0,0 +1,78 @@
+package analytics;
+
+/**
+ * Downsamples evenly spaced series (such as a history graphed one data point per trading day) for display using the
+ * Largest-Triangle-Three-Buckets algorithm. The first and last data points are always kept, and the rest are split
+ * into equally sized buckets, each of which keeps the single data point forming the largest triangle with the data
+ * point kept from the previous bucket and the average of the next bucket. Unlike keeping every n-th data point, this
+ * preserves the peaks and troughs which give the series its visual shape. Runs in O(n) time over primitive arrays.
+ */
+public class Downsampler {
+
+    /**
+     * Chooses which data points of a series to keep.
+     *
+     * @param values The values of the series, evenly spaced.
+     * @param length The number of values in the series (which may be fewer than the length of the array).
+     * @param threshold The maximum number of data points to keep, at least 3.
+     * @return The indices of the data points to keep, in ascending order; every index if the series is no longer than
+     * the threshold.
+     */
+    public static int[] largestTriangleThreeBuckets(double[] values, int length, int threshold) {
+        threshold = Math.max(threshold, 3);
+
+        if (length <= threshold) {
+            int[] indices = new int[length];
+
+            for (int i = 0; i < length; i++) {
+                indices[i] = i;
+            }
+
+            return indices;
+        }
+
+        int[] indices = new int[threshold];
+        double bucketSize = (double) (length - 2) / (threshold - 2);
+        int previous = 0;
+
+        indices[0] = 0;
+
+        for (int bucket = 0; bucket < threshold - 2; bucket++) {
+            int rangeStart = (int) (bucket * bucketSize) + 1;
+            int rangeEnd = (int) ((bucket + 1) * bucketSize) + 1;
+            int nextStart = rangeEnd;
+            int nextEnd = Math.min((int) ((bucket + 2) * bucketSize) + 1, length);
+            double averageX = 0;
+            double averageY = 0;
+
+            for (int j = nextStart; j < nextEnd; j++) {
+                averageX += j;
+                averageY += values[j];
+            }
+
+            averageX /= nextEnd - nextStart;
+            averageY /= nextEnd - nextStart;
+
+            double maxArea = -1;
+            int chosen = rangeStart;
+
+            // twice the area of the triangle formed with the previously kept data point and the next bucket's average
+            for (int j = rangeStart; j < rangeEnd; j++) {
+                double area = Math.abs((previous - averageX) * (values[j] - values[previous])
+                        - (previous - j) * (averageY - values[previous]));
+
+                if (area > maxArea) {
+                    maxArea = area;
+                    chosen = j;
+                }
+            }
+
+            indices[bucket + 1] = chosen;
+            previous = chosen;
+        }
+
+        indices[threshold - 1] = length - 1;
+
+        return indices;
+    }
+}
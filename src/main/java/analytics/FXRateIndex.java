@@ -0,0 +1,172 @@
+package analytics;
+
+import data.datapoints.DataPoint;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The exchange rates needed to convert an asset's prices into the portfolio's base currency, aligned index for index
+ * with the asset's history. The rate of each data point is the FX close on its date (or on the last FX trading day
+ * before it), so converting the asset's value on any data point is a single array read. The index is brought up to
+ * date incrementally: only data points appended to the asset's history, or dated on or after the last FX close the
+ * index was built with, are re-aligned.
+ */
+public class FXRateIndex {
+    private static final int INITIAL_CAPACITY = 256;
+
+    private int size;
+    private long[] days;
+    private double[] rates;
+    private LocalDate fxLastDate;
+    private double fxLastClose;
+
+    /**
+     * Initializes class member variables and aligns a rate to every data point in the asset's history.
+     *
+     * @param history The asset's history, sorted by date in ascending order.
+     * @param fxHistory The history of the exchange rate from the asset's currency into the base currency.
+     */
+    public FXRateIndex(List<DataPoint> history, List<DataPoint> fxHistory) {
+        int capacity = Math.max(INITIAL_CAPACITY, history.size());
+
+        this.size = 0;
+        this.days = new long[capacity];
+        this.rates = new double[capacity];
+        this.fxLastDate = null;
+        this.fxLastClose = 0;
+
+        sync(history, fxHistory);
+    }
+
+    /**
+     * Re-aligns the rates of any data points which may have changed since the last call: those appended to (or
+     * replacing the last data point of) the asset's history, and those dated on or after the previous last FX close
+     * if the FX history has since been extended or its last close revised.
+     *
+     * @param history The asset's history the index was built over.
+     * @param fxHistory The history of the exchange rate.
+     */
+    public void sync(List<DataPoint> history, List<DataPoint> fxHistory) {
+        int from = Math.max(Math.min(size, history.size()) - 1, 0);
+
+        if (fxHistory.size() > 0) {
+            DataPoint fxLastDataPoint = fxHistory.get(fxHistory.size() - 1);
+
+            if (fxLastDate == null) {
+                from = 0;
+            } else if (!fxLastDataPoint.getDate().equals(fxLastDate) || fxLastDataPoint.getMarketCloseValue() != fxLastClose) {
+                from = Math.min(from, getFirstIndexFrom(fxLastDate.toEpochDay()));
+            }
+
+            fxLastDate = fxLastDataPoint.getDate();
+            fxLastClose = fxLastDataPoint.getMarketCloseValue();
+        }
+
+        if (history.size() > days.length) {
+            days = Arrays.copyOf(days, Math.max(days.length * 2, history.size()));
+            rates = Arrays.copyOf(rates, days.length);
+        }
+
+        int j = from < history.size() ? getLastFXIndexThrough(fxHistory, history.get(from).getDate()) : 0;
+
+        for (int i = from; i < history.size(); i++) {
+            LocalDate date = history.get(i).getDate();
+
+            while (j + 1 < fxHistory.size() && fxHistory.get(j + 1).getDate().compareTo(date) <= 0) {
+                j++;
+            }
+
+            // dates before the start of the FX history use its earliest rate
+            days[i] = date.toEpochDay();
+            rates[i] = fxHistory.isEmpty() ? 1 : fxHistory.get(j).getMarketCloseValue();
+        }
+
+        size = history.size();
+    }
+
+    /**
+     * Gets the rate aligned to a data point of the asset's history.
+     *
+     * @param index The index of the data point.
+     * @return The rate converting the data point's prices into the base currency.
+     */
+    public double getRate(int index) {
+        return rates[index];
+    }
+
+    /**
+     * Gets the rate in effect on the specified date, i.e. the rate aligned to the last data point dated on or before it.
+     *
+     * @param date The date in question.
+     * @return The rate; the earliest rate if the date is before the start of the asset's history.
+     */
+    public double getRate(LocalDate date) {
+        if (size == 0) {
+            return 1;
+        }
+
+        int index = getFirstIndexFrom(date.toEpochDay() + 1) - 1;
+
+        return rates[Math.max(index, 0)];
+    }
+
+    /**
+     * Gets the number of aligned data points.
+     *
+     * @return The number of aligned data points.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Finds the index of the first aligned data point dated on or after the specified epoch day using binary search.
+     *
+     * @param day The epoch day in question.
+     * @return The index of the first data point dated on or after the day; the number of data points if there is none.
+     */
+    private int getFirstIndexFrom(long day) {
+        int low = 0;
+        int high = size;
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+
+            if (days[mid] < day) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Finds the index of the last FX data point dated on or before the specified date using binary search.
+     *
+     * @param fxHistory The history of the exchange rate.
+     * @param date The date in question.
+     * @return The index of the last FX data point dated on or before the date; 0 if there is none.
+     */
+    private static int getLastFXIndexThrough(List<DataPoint> fxHistory, LocalDate date) {
+        int low = 0;
+        int high = fxHistory.size() - 1;
+        int found = 0;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+
+            if (fxHistory.get(mid).getDate().compareTo(date) <= 0) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        return found;
+    }
+}
@@ -0,0 +1,148 @@
+package analytics;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * What the portfolio held on a given date: the number of shares, cost basis (net money invested), and market value of
+ * each open position, along with the portfolio's totals. Snapshots are produced by the valuation engine, and
+ * subtracting one snapshot from another gives the change in holdings and value between their two dates.
+ */
+public class HoldingsSnapshot {
+    private LocalDate date;
+    private Map<String, Position> positions;
+    private double moneyInvested;
+    private double marketValue;
+
+    /**
+     * Initializes class member variables.
+     *
+     * @param date The date of the snapshot.
+     * @param positions A map from each ticker to its position, sorted by ticker.
+     * @param moneyInvested The amount of money invested in the portfolio as a whole.
+     * @param marketValue The market value of the portfolio as a whole.
+     */
+    HoldingsSnapshot(LocalDate date, TreeMap<String, Position> positions, double moneyInvested, double marketValue) {
+        this.date = date;
+        this.positions = Collections.unmodifiableMap(positions);
+        this.moneyInvested = moneyInvested;
+        this.marketValue = marketValue;
+    }
+
+    /**
+     * Calculates the change from an earlier snapshot to this one. Positions held on only one of the two dates are
+     * treated as empty on the other.
+     *
+     * @param earlier The snapshot to measure the change from.
+     * @return A snapshot, dated on this snapshot's date, whose values are the differences between the two snapshots.
+     */
+    public HoldingsSnapshot minus(HoldingsSnapshot earlier) {
+        TreeMap<String, Position> changes = new TreeMap<>();
+
+        for (Position position : positions.values()) {
+            Position earlierPosition = earlier.getPosition(position.getTicker());
+
+            changes.put(position.getTicker(), earlierPosition == null ? position : position.minus(earlierPosition));
+        }
+
+        for (Position earlierPosition : earlier.getPositions().values()) {
+            String ticker = earlierPosition.getTicker();
+
+            if (!positions.containsKey(ticker)) {
+                changes.put(ticker, new Position(ticker, 0, 0, 0).minus(earlierPosition));
+            }
+        }
+
+        return new HoldingsSnapshot(date, changes, moneyInvested - earlier.getMoneyInvested(),
+                marketValue - earlier.getMarketValue());
+    }
+
+    // getter methods for class member variables
+
+    public LocalDate getDate() {
+        return date;
+    }
+
+    public Map<String, Position> getPositions() {
+        return positions;
+    }
+
+    /**
+     * Gets the position in an asset.
+     *
+     * @param ticker The ticker symbol of the asset.
+     * @return The position; null if the asset was not held.
+     */
+    public Position getPosition(String ticker) {
+        return positions.get(ticker);
+    }
+
+    public double getMoneyInvested() {
+        return moneyInvested;
+    }
+
+    public double getMarketValue() {
+        return marketValue;
+    }
+
+    /**
+     * The position in a single asset.
+     */
+    public static class Position {
+        private String ticker;
+        private double numShares;
+        private double moneyInvested;
+        private double marketValue;
+
+        /**
+         * Initializes class member variables.
+         *
+         * @param ticker The ticker symbol of the asset.
+         * @param numShares The number of shares held.
+         * @param moneyInvested The amount of money invested in the asset.
+         * @param marketValue The market value of the shares in the portfolio's base currency; NaN if unknown.
+         */
+        Position(String ticker, double numShares, double moneyInvested, double marketValue) {
+            this.ticker = ticker;
+            this.numShares = numShares;
+            this.moneyInvested = moneyInvested;
+            this.marketValue = marketValue;
+        }
+
+        /**
+         * Calculates the change from an earlier position in the same asset to this one.
+         *
+         * @param earlier The position to measure the change from.
+         * @return The position whose values are the differences between the two positions.
+         */
+        Position minus(Position earlier) {
+            return new Position(ticker, numShares - earlier.getNumShares(), moneyInvested - earlier.getMoneyInvested(),
+                    marketValue - earlier.getMarketValue());
+        }
+
+        // getter methods for class member variables
+
+        public String getTicker() {
+            return ticker;
+        }
+
+        public double getNumShares() {
+            return numShares;
+        }
+
+        public double getMoneyInvested() {
+            return moneyInvested;
+        }
+
+        /**
+         * Gets the market value of the position at market close, in the portfolio's base currency.
+         *
+         * @return The market value; NaN if the asset's record is not loaded (i.e. it is no longer held).
+         */
+        public double getMarketValue() {
+            return marketValue;
+        }
+    }
+}
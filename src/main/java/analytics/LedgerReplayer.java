@@ -0,0 +1,534 @@
+package analytics;
+
+import data.datapoints.DataPoint;
+import data.datapoints.PortfolioDataPoint;
+import data.datapoints.StockDataPoint;
+import data.records.PortfolioRecord;
+import data.records.RecordType;
+import data.records.StockRecord;
+import data.records.TransactionRecord;
+import error.PAException;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Rebuilds the portfolio's history from scratch using only the transaction ledger and the price histories stored in
+ * the stock records. The ledger is partitioned by ticker and each asset's transactions are replayed against its price
+ * history in parallel on a fork-join pool. The per-asset holdings series are then reduced (also in parallel) into the
+ * portfolio's series. Assets quoted in a foreign currency are valued in the portfolio's base currency using the
+ * histories of their exchange rates.
+ */
+public class LedgerReplayer {
+    private static final int REDUCE_THRESHOLD = 8; // number of assets summed sequentially by a single reduce task
+    private static final double TOLERANCE = 0.01;
+
+    private ForkJoinPool pool;
+
+    /**
+     * Initializes class member variables. Replays on the common fork-join pool.
+     */
+    public LedgerReplayer() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Initializes class member variables.
+     *
+     * @param pool The fork-join pool on which to replay the ledger.
+     */
+    public LedgerReplayer(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Replays the transaction ledger to rebuild the histories of the portfolio and its assets. The records themselves
+     * are not modified; see apply() for that.
+     *
+     * @param transactionRecords A list of transaction records for all previously made transactions (in any order).
+     * @param stockDataRecords A map containing the records of every asset involved in the ledger, held or not (see
+     * getMissingTickers() for the ones which still need to be fetched).
+     * @param baseCurrency The currency to value the portfolio in.
+     * @param fxRecords A map from each foreign currency in the ledger to the record of its exchange rate into the base
+     * currency.
+     * @return The rebuilt histories and allocations.
+     * @throws PAException If an asset in the ledger has no record, or its history ends before its last transaction.
+     */
+    public ReplayResult replay(List<TransactionRecord> transactionRecords, Map<String, StockRecord> stockDataRecords,
+                               String baseCurrency, Map<String, StockRecord> fxRecords) throws PAException {
+        Map<String, List<TransactionRecord>> ledgers = partitionLedger(transactionRecords);
+        List<TickerReplay> tickerReplays = new ArrayList<>();
+
+        for (String ticker : ledgers.keySet()) {
+            StockRecord stockRecord = stockDataRecords.get(ticker);
+
+            if (stockRecord == null || stockRecord.getHistory().size() == 0) {
+                throw new PAException(PAException.Type.MISSING_HISTORY, "No historical data stored for " + ticker + ".");
+            }
+
+            tickerReplays.add(new TickerReplay(ticker, stockRecord.getHistory(),
+                    getFXRates(stockRecord, baseCurrency, fxRecords), ledgers.get(ticker)));
+        }
+
+        if (tickerReplays.size() == 0) {
+            return new ReplayResult(new ArrayList<>(), new HashMap<>(), new HashMap<>(), new HashMap<>());
+        }
+
+        pool.invoke(new ReplayAction(tickerReplays, 0, tickerReplays.size()));
+
+        for (TickerReplay tickerReplay : tickerReplays) {
+            if (tickerReplay.unmatchedTransaction != null) {
+                throw new PAException(PAException.Type.MISSING_HISTORY, "Historical data for " + tickerReplay.ticker
+                        + " does not cover the transaction dated " + tickerReplay.unmatchedTransaction.getDate() + ".");
+            }
+        }
+
+        long[] axis = buildDateAxis(tickerReplays);
+        double[][] portSeries = pool.invoke(new ReduceTask(tickerReplays, axis, 0, tickerReplays.size()));
+        List<DataPoint> portHistory = new ArrayList<>(axis.length);
+        Map<String, List<DataPoint>> stockHistories = new HashMap<>();
+        Map<String, Double> moneyAmounts = new HashMap<>();
+        Map<String, Double> numShares = new HashMap<>();
+
+        for (int i = 0; i < axis.length; i++) {
+            portHistory.add(new PortfolioDataPoint(LocalDate.ofEpochDay(axis[i]), portSeries[0][i], portSeries[1][i],
+                    portSeries[2][i]));
+        }
+
+        for (TickerReplay tickerReplay : tickerReplays) {
+            stockHistories.put(tickerReplay.ticker, tickerReplay.rebuiltHistory);
+            moneyAmounts.put(tickerReplay.ticker, tickerReplay.finalMoneyInvested);
+            numShares.put(tickerReplay.ticker, tickerReplay.finalNumShares);
+        }
+
+        return new ReplayResult(portHistory, stockHistories, moneyAmounts, numShares);
+    }
+
+    /**
+     * Writes the rebuilt histories and allocations of a replay into the portfolio and stock records. The record of each
+     * asset in the ledger is then filed with the portfolio's asset records if the asset is still held, or with the
+     * records of its closed positions otherwise.
+     *
+     * @param result The result of a replay.
+     * @param portRecord The portfolio record to be rebuilt.
+     * @param stockDataRecords A map of all records of assets currently allocated in the portfolio.
+     * @param ledgerRecords A map containing the records of every asset involved in the replay.
+     */
+    public void apply(ReplayResult result, PortfolioRecord portRecord, Map<String, StockRecord> stockDataRecords,
+                      Map<String, StockRecord> ledgerRecords) {
+        Map<String, StockRecord> closedRecords = portRecord.getClosedRecords();
+
+        for (String ticker : result.getStockHistories().keySet()) {
+            ledgerRecords.get(ticker).updateHistory(result.getStockHistories().get(ticker), 0);
+        }
+
+        portRecord.rebuild(result.getPortfolioHistory(), result.getMoneyAmounts(), result.getNumShares());
+        stockDataRecords.clear();
+        closedRecords.clear();
+
+        for (String ticker : result.getStockHistories().keySet()) {
+            if (portRecord.getAllocations().containsKey(ticker)) {
+                stockDataRecords.put(ticker, ledgerRecords.get(ticker));
+            } else {
+                closedRecords.put(ticker, ledgerRecords.get(ticker));
+            }
+        }
+    }
+
+    /**
+     * Gets the records of every asset involved in the ledger which are at hand: those of the assets currently held and
+     * those of the positions which have been closed.
+     *
+     * @param portRecord The portfolio record holding the records of closed positions.
+     * @param stockDataRecords A map of all records of assets currently allocated in the portfolio.
+     * @return A map from ticker to asset record.
+     */
+    public static Map<String, StockRecord> getLedgerRecords(PortfolioRecord portRecord,
+                                                           Map<String, StockRecord> stockDataRecords) {
+        Map<String, StockRecord> ledgerRecords = new HashMap<>(portRecord.getClosedRecords());
+
+        ledgerRecords.putAll(stockDataRecords);
+
+        return ledgerRecords;
+    }
+
+    /**
+     * Finds the assets in the ledger whose data needs to be fetched before the ledger can be replayed: those without a
+     * record, and those whose history ends before their last transaction (e.g. a record kept from before it was last
+     * brought up to date).
+     *
+     * @param transactionRecords A list of transaction records for all previously made transactions.
+     * @param ledgerRecords A map containing the records at hand of the assets involved in the ledger.
+     * @return The tickers of the assets whose data needs to be fetched.
+     */
+    public static List<String> getMissingTickers(List<TransactionRecord> transactionRecords,
+                                                 Map<String, StockRecord> ledgerRecords) {
+        Map<String, LocalDate> lastDates = new HashMap<>();
+        List<String> missingTickers = new ArrayList<>();
+
+        for (TransactionRecord transactionRecord : transactionRecords) {
+            lastDates.merge(transactionRecord.getTicker(), transactionRecord.getDate(),
+                    (date, otherDate) -> date.isAfter(otherDate) ? date : otherDate);
+        }
+
+        for (String ticker : lastDates.keySet()) {
+            StockRecord stockRecord = ledgerRecords.get(ticker);
+            List<DataPoint> history = stockRecord == null ? null : stockRecord.getHistory();
+
+            if (history == null || history.size() == 0
+                    || history.get(history.size() - 1).getDate().isBefore(lastDates.get(ticker))) {
+                missingTickers.add(ticker);
+            }
+        }
+
+        return missingTickers;
+    }
+
+    /**
+     * Determines if the stored portfolio history disagrees with what the ledger and the stored asset histories imply,
+     * i.e. if it has dates out of order, or if its latest data point does not match the ledger's money invested or the
+     * current market value of the allocations.
+     *
+     * @param portRecord The portfolio record to be checked.
+     * @param stockDataRecords A map containing all records of assets currently allocated in the portfolio.
+     * @param valuationEngine The valuation engine holding the deltas of every transaction in the ledger.
+     * @return True if the portfolio history needs to be rebuilt; false otherwise.
+     */
+    public static boolean needsRepair(PortfolioRecord portRecord, Map<String, StockRecord> stockDataRecords,
+                                      ValuationEngine valuationEngine) {
+        List<DataPoint> history = portRecord.getHistory();
+
+        if (history.size() == 0) {
+            return valuationEngine.getTickers().size() > 0 && portRecord.getAllocations().size() > 0;
+        }
+
+        for (int i = 1; i < history.size(); i++) {
+            if (history.get(i).getDate().compareTo(history.get(i - 1).getDate()) <= 0) {
+                return true;
+            }
+        }
+
+        DataPoint lastDataPoint = history.get(history.size() - 1);
+        LocalDate lastDate = lastDataPoint.getDate();
+        double expectedPortValue = 0;
+
+        for (String ticker : portRecord.getAllocations().keySet()) {
+            StockRecord stockRecord = stockDataRecords.get(ticker);
+
+            if (stockRecord == null) {
+                return true;
+            }
+
+            DataPoint dataPoint = ValuationEngine.findDataPoint(stockRecord.getHistory(), lastDate);
+            FXRateIndex fxRates = portRecord.getFXRates(stockRecord);
+            double rate = fxRates == null ? 1 : fxRates.getRate(lastDate);
+
+            if (dataPoint != null) {
+                expectedPortValue += dataPoint.getMarketCloseValue() * rate * valuationEngine.getNumShares(ticker, lastDate);
+            }
+        }
+
+        return !isClose(lastDataPoint.getMoneyInvested(), valuationEngine.getMoneyInvested(lastDate))
+                || !isClose(lastDataPoint.getMarketCloseValue(), expectedPortValue);
+    }
+
+    /**
+     * Partitions the ledger by ticker, sorting each asset's transactions by date in ascending order.
+     *
+     * @param transactionRecords A list of transaction records for all previously made transactions.
+     * @return A map from ticker to the asset's transactions.
+     */
+    private Map<String, List<TransactionRecord>> partitionLedger(List<TransactionRecord> transactionRecords) {
+        Map<String, List<TransactionRecord>> ledgers = new HashMap<>();
+
+        for (TransactionRecord transactionRecord : transactionRecords) {
+            ledgers.computeIfAbsent(transactionRecord.getTicker(), ticker -> new ArrayList<>()).add(transactionRecord);
+        }
+
+        for (List<TransactionRecord> ledger : ledgers.values()) {
+            ledger.sort(Comparator.comparing(TransactionRecord::getDate));
+        }
+
+        return ledgers;
+    }
+
+    /**
+     * Aligns the exchange rates converting an asset's prices into the base currency to the asset's history. They are
+     * aligned afresh rather than taken from the rates cached on the record, since a replay runs off the UI thread and
+     * may be into a base currency the portfolio is not valued in yet.
+     *
+     * @param stockRecord The record of the asset.
+     * @param baseCurrency The currency to value the portfolio in.
+     * @param fxRecords A map from each foreign currency to the record of its exchange rate into the base currency.
+     * @return The aligned exchange rates; null if the asset's prices need no conversion.
+     */
+    private static FXRateIndex getFXRates(StockRecord stockRecord, String baseCurrency, Map<String, StockRecord> fxRecords) {
+        StockRecord fxRecord = fxRecords.get(stockRecord.getCurrency());
+
+        if (stockRecord.getCurrency().equals(baseCurrency) || fxRecord == null) {
+            return null;
+        }
+
+        return new FXRateIndex(stockRecord.getHistory(), fxRecord.getHistory());
+    }
+
+    /**
+     * Builds the portfolio's date axis: every date on which any asset traded, starting at the earliest trading date
+     * on which the portfolio held anything.
+     *
+     * @param tickerReplays The replayed assets.
+     * @return The sorted epoch days of the axis.
+     */
+    private long[] buildDateAxis(List<TickerReplay> tickerReplays) {
+        int numDays = 0;
+
+        for (TickerReplay tickerReplay : tickerReplays) {
+            numDays += tickerReplay.days.length;
+        }
+
+        long[] allDays = new long[numDays];
+        long firstDay = Long.MAX_VALUE;
+        int index = 0;
+
+        for (TickerReplay tickerReplay : tickerReplays) {
+            System.arraycopy(tickerReplay.days, 0, allDays, index, tickerReplay.days.length);
+            index += tickerReplay.days.length;
+            firstDay = Math.min(firstDay, tickerReplay.days[tickerReplay.firstHeldIndex]);
+        }
+
+        Arrays.parallelSort(allDays);
+
+        int numUnique = 0;
+
+        for (int i = 0; i < allDays.length; i++) {
+            if (allDays[i] >= firstDay && (numUnique == 0 || allDays[i] != allDays[numUnique - 1])) {
+                allDays[numUnique++] = allDays[i];
+            }
+        }
+
+        return Arrays.copyOf(allDays, numUnique);
+    }
+
+    /**
+     * Determines if two money amounts are equal to within a cent (or a tiny relative error for large amounts).
+     *
+     * @param a The first amount.
+     * @param b The second amount.
+     * @return True if the amounts are equal within the tolerance; false otherwise.
+     */
+    private static boolean isClose(double a, double b) {
+        return Math.abs(a - b) <= Math.max(TOLERANCE, Math.abs(b) * 1e-9);
+    }
+
+    /**
+     * Replays the transactions of a single asset against its price history.
+     */
+    private static class TickerReplay {
+        private String ticker;
+        private List<DataPoint> history;
+        private FXRateIndex fxRates;
+        private List<TransactionRecord> ledger;
+        private long[] days;
+        private double[] openValues;
+        private double[] closeValues;
+        private double[] moneyInvested;
+        private List<DataPoint> rebuiltHistory;
+        private int firstHeldIndex;
+        private double finalMoneyInvested;
+        private double finalNumShares;
+        private TransactionRecord unmatchedTransaction;
+
+        TickerReplay(String ticker, List<DataPoint> history, FXRateIndex fxRates, List<TransactionRecord> ledger) {
+            this.ticker = ticker;
+            this.history = history;
+            this.fxRates = fxRates;
+            this.ledger = ledger;
+        }
+
+        /**
+         * Walks the price history and the (date sorted) ledger together. A transaction dated on a day without a data
+         * point takes effect on the next trading day, so transactions dated before the history begins (i.e. more than
+         * the 10 years kept ago) are folded into the opening position on its first data point.
+         */
+        void run() {
+            int size = history.size();
+            double numShares = 0;
+            double money = 0;
+            int j = 0;
+
+            days = new long[size];
+            openValues = new double[size];
+            closeValues = new double[size];
+            moneyInvested = new double[size];
+            rebuiltHistory = new ArrayList<>(size);
+            firstHeldIndex = size - 1;
+
+            for (int i = 0; i < size; i++) {
+                StockDataPoint dataPoint = (StockDataPoint) history.get(i);
+                LocalDate date = dataPoint.getDate();
+
+                if (j == 0 && ledger.get(0).getDate().compareTo(date) <= 0) {
+                    firstHeldIndex = i;
+                }
+
+                while (j < ledger.size() && ledger.get(j).getDate().compareTo(date) <= 0) {
+                    TransactionRecord transactionRecord = ledger.get(j);
+                    double sign = transactionRecord.isBuy() ? 1 : -1;
+
+                    numShares += sign * transactionRecord.getNumShares();
+                    money += sign * (transactionRecord.getType() == RecordType.DIVIDEND_RECORD ? transactionRecord.getPrice()
+                            : transactionRecord.getPrice() * transactionRecord.getNumShares());
+                    j++;
+                }
+
+                double rate = fxRates == null ? 1 : fxRates.getRate(i);
+
+                days[i] = date.toEpochDay();
+                openValues[i] = dataPoint.getMarketOpenValue() * rate * numShares;
+                closeValues[i] = dataPoint.getMarketCloseValue() * rate * numShares;
+                moneyInvested[i] = money;
+                rebuiltHistory.add(new StockDataPoint(date, dataPoint.getMarketOpenValue(), dataPoint.getMarketCloseValue(),
+                        dataPoint.getMarketHighValue(), dataPoint.getMarketLowValue(), money, numShares));
+            }
+
+            if (j < ledger.size()) {
+                unmatchedTransaction = ledger.get(j);
+            }
+
+            finalMoneyInvested = money;
+            finalNumShares = numShares;
+        }
+    }
+
+    /**
+     * Replays a range of assets, splitting the range in half until a single asset remains.
+     */
+    private static class ReplayAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L; // never serialized, but fork-join tasks are Serializable
+
+        private List<TickerReplay> tickerReplays;
+        private int from;
+        private int to;
+
+        ReplayAction(List<TickerReplay> tickerReplays, int from, int to) {
+            this.tickerReplays = tickerReplays;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                tickerReplays.get(from).run();
+            } else {
+                int mid = (from + to) >>> 1;
+
+                invokeAll(new ReplayAction(tickerReplays, from, mid), new ReplayAction(tickerReplays, mid, to));
+            }
+        }
+    }
+
+    /**
+     * Sums the holdings series of a range of assets onto the portfolio's date axis, carrying each asset's last value
+     * forward across dates on which it did not trade. Returns the open values, close values, and money invested.
+     */
+    private static class ReduceTask extends RecursiveTask<double[][]> {
+        private static final long serialVersionUID = 1L; // never serialized, but fork-join tasks are Serializable
+
+        private List<TickerReplay> tickerReplays;
+        private long[] axis;
+        private int from;
+        private int to;
+
+        ReduceTask(List<TickerReplay> tickerReplays, long[] axis, int from, int to) {
+            this.tickerReplays = tickerReplays;
+            this.axis = axis;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected double[][] compute() {
+            if (to - from > REDUCE_THRESHOLD) {
+                int mid = (from + to) >>> 1;
+                ReduceTask left = new ReduceTask(tickerReplays, axis, from, mid);
+                ReduceTask right = new ReduceTask(tickerReplays, axis, mid, to);
+
+                right.fork();
+
+                double[][] sums = left.compute();
+                double[][] rightSums = right.join();
+
+                for (int s = 0; s < sums.length; s++) {
+                    for (int i = 0; i < axis.length; i++) {
+                        sums[s][i] += rightSums[s][i];
+                    }
+                }
+
+                return sums;
+            }
+
+            double[][] sums = new double[3][axis.length];
+
+            for (int t = from; t < to; t++) {
+                TickerReplay tickerReplay = tickerReplays.get(t);
+                int k = -1;
+
+                for (int i = 0; i < axis.length; i++) {
+                    while (k + 1 < tickerReplay.days.length && tickerReplay.days[k + 1] <= axis[i]) {
+                        k++;
+                    }
+
+                    if (k >= 0) {
+                        boolean isFresh = tickerReplay.days[k] == axis[i];
+
+                        sums[0][i] += isFresh ? tickerReplay.openValues[k] : tickerReplay.closeValues[k];
+                        sums[1][i] += tickerReplay.closeValues[k];
+                        sums[2][i] += tickerReplay.moneyInvested[k];
+                    }
+                }
+            }
+
+            return sums;
+        }
+    }
+
+    /**
+     * The histories and allocations rebuilt by a replay.
+     */
+    public static class ReplayResult {
+        private List<DataPoint> portHistory;
+        private Map<String, List<DataPoint>> stockHistories;
+        private Map<String, Double> moneyAmounts;
+        private Map<String, Double> numShares;
+
+        ReplayResult(List<DataPoint> portHistory, Map<String, List<DataPoint>> stockHistories,
+                     Map<String, Double> moneyAmounts, Map<String, Double> numShares) {
+            this.portHistory = portHistory;
+            this.stockHistories = stockHistories;
+            this.moneyAmounts = moneyAmounts;
+            this.numShares = numShares;
+        }
+
+        // getter methods for class member variables
+
+        public List<DataPoint> getPortfolioHistory() {
+            return portHistory;
+        }
+
+        public Map<String, List<DataPoint>> getStockHistories() {
+            return stockHistories;
+        }
+
+        public Map<String, Double> getMoneyAmounts() {
+            return moneyAmounts;
+        }
+
+        public Map<String, Double> getNumShares() {
+            return numShares;
+        }
+    }
+}
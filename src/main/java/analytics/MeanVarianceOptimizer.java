@@ -0,0 +1,312 @@
+package analytics;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A long-only mean-variance optimizer over the assets of a covariance matrix. Weights are constrained to be
+ * non-negative and to sum to one. For a trade-off t between 0 (maximize expected return) and 1 (minimize variance) it
+ * minimizes -(1 - t) * mu'w + t * w'Sw / 2, where mu and S are the expected returns and covariance normalized to
+ * comparable scales. The problem is solved with accelerated projected gradient descent (FISTA), projecting onto the
+ * simplex after every step, which takes O(n^2) time per iteration and no matrix factorization. A volatility target is
+ * met by bisecting on the trade-off, warm starting every solve from the previous solution.
+ */
+public class MeanVarianceOptimizer {
+    private static final int MAX_ITERATIONS = 5000;
+    private static final int MAX_BISECTIONS = 40;
+    private static final double TOLERANCE = 1e-8;
+    private static final double VARIANCE_TOLERANCE = 1e-4; // relative distance from a volatility target deemed close enough
+
+    private String[] tickers;
+    private int numAssets;
+    private double[] means;
+    private double[][] covariances;
+    private double meanScale;
+    private double covarianceScale;
+    private double maxEigenvalue;
+
+    /**
+     * Initializes class member variables from the daily return statistics of a covariance matrix.
+     *
+     * @param covarianceMatrix The covariance matrix of the assets to be optimized over.
+     */
+    public MeanVarianceOptimizer(CovarianceMatrix covarianceMatrix) {
+        tickers = covarianceMatrix.getTickers();
+        numAssets = tickers.length;
+        means = new double[numAssets];
+        covariances = covarianceMatrix.getCovarianceMatrix();
+
+        double trace = 0;
+
+        for (int i = 0; i < numAssets; i++) {
+            means[i] = covarianceMatrix.getMean(i);
+            meanScale = Math.max(meanScale, Math.abs(means[i]));
+            trace += covariances[i][i];
+        }
+
+        meanScale = meanScale == 0 ? 1 : meanScale;
+        covarianceScale = trace == 0 ? 1 : trace / numAssets;
+        maxEigenvalue = getMaxEigenvalue();
+    }
+
+    /**
+     * Finds the optimal weights for a trade-off between expected return and variance.
+     *
+     * @param tradeOff The trade-off, from 0 (maximize expected return) to 1 (minimize variance).
+     * @return A map from ticker to optimal weight.
+     */
+    public Map<String, Double> optimize(double tradeOff) {
+        return toWeights(solve(tradeOff, getEqualWeights()));
+    }
+
+    /**
+     * Finds the weights with the highest expected return whose annualized volatility does not exceed the target. If
+     * the target is below the volatility of the minimum variance portfolio, the minimum variance portfolio is returned.
+     *
+     * @param annualVolatility The target annualized volatility (e.g. 0.15 for 15%).
+     * @return A map from ticker to optimal weight.
+     */
+    public Map<String, Double> optimizeForVolatility(double annualVolatility) {
+        double targetVariance = annualVolatility * annualVolatility / RiskAnalyzer.TRADING_DAYS_PER_YEAR;
+        double[] weights = solve(0, getEqualWeights());
+
+        if (getVariance(weights) <= targetVariance) {
+            return toWeights(weights);
+        }
+
+        double low = 0;
+        double high = 1;
+        double[] feasibleWeights = solve(1, weights);
+
+        // the variance of the optimal weights falls as the trade-off moves towards minimizing variance
+        for (int i = 0; i < MAX_BISECTIONS && high - low > TOLERANCE; i++) {
+            double mid = (low + high) / 2;
+
+            weights = solve(mid, weights);
+
+            double variance = getVariance(weights);
+
+            if (variance > targetVariance) {
+                low = mid;
+            } else {
+                high = mid;
+                feasibleWeights = weights;
+
+                if (targetVariance - variance < VARIANCE_TOLERANCE * targetVariance) {
+                    break;
+                }
+            }
+        }
+
+        return toWeights(feasibleWeights);
+    }
+
+    /**
+     * Calculates the annualized volatility of a set of weights.
+     *
+     * @param weights A map from ticker to weight.
+     * @return The annualized volatility.
+     */
+    public double getAnnualVolatility(Map<String, Double> weights) {
+        double[] w = new double[numAssets];
+
+        for (int i = 0; i < numAssets; i++) {
+            w[i] = weights.getOrDefault(tickers[i], 0.0);
+        }
+
+        return Math.sqrt(getVariance(w) * RiskAnalyzer.TRADING_DAYS_PER_YEAR);
+    }
+
+    /**
+     * Solves the optimization problem for a trade-off with FISTA.
+     *
+     * @param tradeOff The trade-off, from 0 (maximize expected return) to 1 (minimize variance).
+     * @param start The weights to start from.
+     * @return The optimal weights.
+     */
+    private double[] solve(double tradeOff, double[] start) {
+        double lipschitz = tradeOff * maxEigenvalue / covarianceScale;
+        double step = 1 / Math.max(lipschitz, 1e-12);
+        double[] weights = start.clone();
+        double[] momentum = start.clone();
+        double[] gradient = new double[numAssets];
+        double[] next = new double[numAssets];
+        double t = 1;
+
+        for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+            multiply(momentum, gradient);
+
+            for (int i = 0; i < numAssets; i++) {
+                gradient[i] = tradeOff * gradient[i] / covarianceScale - (1 - tradeOff) * means[i] / meanScale;
+                next[i] = momentum[i] - step * gradient[i];
+            }
+
+            projectOntoSimplex(next);
+
+            double nextT = (1 + Math.sqrt(1 + 4 * t * t)) / 2;
+            double change = 0;
+            double restartCheck = 0;
+
+            for (int i = 0; i < numAssets; i++) {
+                change = Math.max(change, Math.abs(next[i] - weights[i]));
+                restartCheck += gradient[i] * (next[i] - weights[i]);
+            }
+
+            // restarts the momentum whenever it points uphill, which keeps ill-conditioned problems converging quickly
+            double momentumWeight = restartCheck > 0 ? 0 : (t - 1) / nextT;
+
+            for (int i = 0; i < numAssets; i++) {
+                momentum[i] = next[i] + momentumWeight * (next[i] - weights[i]);
+            }
+
+            double[] temp = weights;
+            weights = next;
+            next = temp;
+            t = restartCheck > 0 ? 1 : nextT;
+
+            if (change < TOLERANCE) {
+                break;
+            }
+        }
+
+        return weights;
+    }
+
+    /**
+     * Projects a vector onto the probability simplex (non-negative entries summing to one) in O(n log n) time.
+     *
+     * @param v The vector to be projected, overwritten with its projection.
+     */
+    private static void projectOntoSimplex(double[] v) {
+        double[] sorted = v.clone();
+        double cumulative = 0;
+        double threshold = 0;
+
+        Arrays.sort(sorted);
+
+        for (int k = 1; k <= sorted.length; k++) {
+            double value = sorted[sorted.length - k];
+
+            cumulative += value;
+
+            if (value - (cumulative - 1) / k > 0) {
+                threshold = (cumulative - 1) / k;
+            }
+        }
+
+        for (int i = 0; i < v.length; i++) {
+            v[i] = Math.max(v[i] - threshold, 0);
+        }
+    }
+
+    /**
+     * Multiplies the covariance matrix by a vector.
+     *
+     * @param v The vector.
+     * @param result The array the product is written into.
+     */
+    private void multiply(double[] v, double[] result) {
+        for (int i = 0; i < numAssets; i++) {
+            double[] row = covariances[i];
+            double sum = 0;
+
+            for (int j = 0; j < numAssets; j++) {
+                sum += row[j] * v[j];
+            }
+
+            result[i] = sum;
+        }
+    }
+
+    /**
+     * Calculates the daily variance of a set of weights.
+     *
+     * @param weights The weights, in the order of the tickers.
+     * @return The daily variance.
+     */
+    private double getVariance(double[] weights) {
+        double[] product = new double[numAssets];
+        double variance = 0;
+
+        multiply(weights, product);
+
+        for (int i = 0; i < numAssets; i++) {
+            variance += weights[i] * product[i];
+        }
+
+        return variance;
+    }
+
+    /**
+     * Estimates the largest eigenvalue of the covariance matrix with power iteration. Used to choose a step size which
+     * guarantees convergence.
+     *
+     * @return The largest eigenvalue.
+     */
+    private double getMaxEigenvalue() {
+        double[] v = getEqualWeights();
+        double[] product = new double[numAssets];
+        double eigenvalue = 0;
+
+        for (int iteration = 0; iteration < 100; iteration++) {
+            double norm = 0;
+
+            multiply(v, product);
+
+            for (double value : product) {
+                norm += value * value;
+            }
+
+            norm = Math.sqrt(norm);
+
+            if (norm == 0) {
+                return 0;
+            }
+
+            for (int i = 0; i < numAssets; i++) {
+                v[i] = product[i] / norm;
+            }
+
+            if (Math.abs(norm - eigenvalue) < 1e-12 * norm) {
+                break;
+            }
+
+            eigenvalue = norm;
+        }
+
+        // power iteration approaches the largest eigenvalue from below, so a little headroom is added
+        return eigenvalue * 1.01;
+    }
+
+    /**
+     * Creates a set of equal weights.
+     *
+     * @return An array of equal weights summing to one.
+     */
+    private double[] getEqualWeights() {
+        double[] weights = new double[numAssets];
+
+        Arrays.fill(weights, 1.0 / numAssets);
+
+        return weights;
+    }
+
+    /**
+     * Converts an array of weights to a map from ticker to weight, leaving out assets with no weight.
+     *
+     * @param weights The weights, in the order of the tickers.
+     * @return The map from ticker to weight.
+     */
+    private Map<String, Double> toWeights(double[] weights) {
+        Map<String, Double> weightMap = new HashMap<>();
+
+        for (int i = 0; i < numAssets; i++) {
+            if (weights[i] > 0) {
+                weightMap.put(tickers[i], weights[i]);
+            }
+        }
+
+        return weightMap;
+    }
+}
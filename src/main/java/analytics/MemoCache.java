@@ -0,0 +1,129 @@
+package analytics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * A bounded cache of derived results (e.g. table rows or graph series) keyed by the object they were derived from, its
+ * modification version, and any parameters of the derivation. Objects take a new version from nextVersion() every time
+ * they are modified, so a result is looked up again only while its object is unchanged, and stale results are never
+ * invalidated explicitly but simply age out. Versions are drawn from a single counter, so no two modifications of any
+ * objects share a version, and versions can therefore also be used as parameters. Once the cache is full, the least
+ * recently used result is evicted.
+ *
+ * @param <V> The type of the cached results.
+ */
+public class MemoCache<V> {
+    private static final AtomicLong VERSIONS = new AtomicLong();
+
+    private Map<Key, V> results;
+
+    /**
+     * Initializes class member variables.
+     *
+     * @param capacity The maximum number of results kept.
+     */
+    public MemoCache(int capacity) {
+        this.results = new LinkedHashMap<Key, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, V> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Gets a new modification version, later than every version handed out before it.
+     *
+     * @return The version.
+     */
+    public static long nextVersion() {
+        return VERSIONS.incrementAndGet();
+    }
+
+    /**
+     * Gets the cached result for an object's version and the specified parameters, deriving and caching it if there is
+     * none. The derivation runs outside of the cache's lock, so results can be derived in parallel.
+     *
+     * @param source The object the result is derived from (compared by identity).
+     * @param version The object's modification version.
+     * @param params The parameters of the derivation (compared by equality); null if there are none.
+     * @param derivation The function deriving the result.
+     * @return The result.
+     */
+    public V get(Object source, long version, Object params, Supplier<V> derivation) {
+        Key key = new Key(source, version, params);
+        V result;
+
+        synchronized (this) {
+            result = results.get(key);
+        }
+
+        if (result == null) {
+            result = derivation.get();
+
+            synchronized (this) {
+                results.put(key, result);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Removes every cached result.
+     */
+    public synchronized void clear() {
+        results.clear();
+    }
+
+    /**
+     * Gets the number of cached results.
+     *
+     * @return The number of cached results.
+     */
+    public synchronized int size() {
+        return results.size();
+    }
+
+    /**
+     * The key of a cached result.
+     */
+    private static class Key {
+        private Object source;
+        private long version;
+        private Object params;
+
+        /**
+         * Initializes class member variables.
+         *
+         * @param source The object the result is derived from.
+         * @param version The object's modification version.
+         * @param params The parameters of the derivation.
+         */
+        Key(Object source, long version, Object params) {
+            this.source = source;
+            this.version = version;
+            this.params = params;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            Key key = (Key) o;
+
+            return source == key.source && version == key.version && Objects.equals(params, key.params);
+        }
+
+        @Override
+        public int hashCode() {
+            return (System.identityHashCode(source) * 31 + Long.hashCode(version)) * 31 + Objects.hashCode(params);
+        }
+    }
+}
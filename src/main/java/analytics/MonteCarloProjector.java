@@ -0,0 +1,306 @@
+package analytics;
+
+import data.datapoints.DataPoint;
+import data.records.PortfolioRecord;
+import data.records.StockRecord;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Projects the future value of the portfolio's current allocations by simulating many random paths of daily returns.
+ * Daily portfolio returns are either bootstrapped (resampled whole days, so correlations between holdings are kept)
+ * from the date-aligned histories of the holdings, or drawn from a normal distribution of log returns with the same
+ * mean and variance. The portfolio is assumed to keep its current weights. Paths are simulated in chunks on all cores,
+ * each chunk with its own split of the random number generator and its own histograms of path values, which are
+ * merged at the end and read off as percentile bands. No path is ever stored, so memory use does not depend on the
+ * number of paths.
+ */
+public class MonteCarloProjector {
+    private static final int PATHS_PER_CHUNK = 8192;
+    private static final int NUM_BINS = 2048;
+    private static final double NUM_SDS = 8; // half-width of the histogram range in standard deviations
+
+    private double startValue;
+    private LocalDate startDate;
+    private double[] logReturns;
+    private double logMean;
+    private double logSD;
+
+    // the ways in which daily returns can be generated
+    public enum Method {
+        BOOTSTRAP,
+        PARAMETRIC
+    }
+
+    /**
+     * Initializes class member variables and estimates the historical daily returns of the current allocations.
+     *
+     * @param portRecord The portfolio record containing the current allocations.
+     * @param stockDataRecords A map containing the records of all assets currently allocated in the portfolio.
+     */
+    public MonteCarloProjector(PortfolioRecord portRecord, Map<String, StockRecord> stockDataRecords) {
+        for (String ticker : portRecord.getAllocations().keySet()) {
+            StockRecord stockRecord = stockDataRecords.get(ticker);
+
+            if (stockRecord != null && stockRecord.getHistory().size() > 0) {
+                List<DataPoint> history = stockRecord.getHistory();
+                DataPoint lastDataPoint = history.get(history.size() - 1);
+
+                startValue += portRecord.getAllocations().get(ticker).getNumShares() * lastDataPoint.getMarketCloseValue()
+                        * portRecord.getFXRate(stockRecord, history.size() - 1);
+                startDate = startDate == null || lastDataPoint.getDate().isAfter(startDate) ? lastDataPoint.getDate() : startDate;
+            }
+        }
+
+        estimateReturns(RiskAnalyzer.getWeightedReturns(portRecord, stockDataRecords, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Gets the number of historical days of returns the projection is estimated from.
+     *
+     * @return The number of days of returns.
+     */
+    public int getNumHistoricalReturns() {
+        return logReturns.length;
+    }
+
+    /**
+     * Simulates future paths of the portfolio value and computes percentile bands over them.
+     *
+     * @param numPaths The number of paths to simulate.
+     * @param numDays The number of trading days to project forward.
+     * @param method The way in which daily returns are generated.
+     * @param percentiles The percentiles of the bands to be computed (e.g. 5, 50, 95).
+     * @param seed The seed of the random number generator; the same seed always produces the same projection.
+     * @return The projection; null if the holdings have fewer than two days of common history.
+     */
+    public Projection project(int numPaths, int numDays, Method method, double[] percentiles, long seed) {
+        if (logReturns.length < 2 || startValue <= 0) {
+            return null;
+        }
+
+        int numChunks = (numPaths + PATHS_PER_CHUNK - 1) / PATHS_PER_CHUNK;
+        SplittableRandom random = new SplittableRandom(seed);
+        SplittableRandom[] chunkRandoms = new SplittableRandom[numChunks];
+        double[] lowerBounds = new double[numDays + 1];
+        double[] binWidths = new double[numDays + 1];
+
+        // splits are made up front, in order, so the projection does not depend on how the chunks are scheduled
+        for (int c = 0; c < numChunks; c++) {
+            chunkRandoms[c] = random.split();
+        }
+
+        for (int t = 1; t <= numDays; t++) {
+            double halfWidth = Math.max(NUM_SDS * logSD * Math.sqrt(t), 1e-9);
+
+            lowerBounds[t] = logMean * t - halfWidth;
+            binWidths[t] = 2 * halfWidth / NUM_BINS;
+        }
+
+        int[] counts = IntStream.range(0, numChunks).parallel()
+                .mapToObj(c -> simulateChunk(chunkRandoms[c], Math.min(PATHS_PER_CHUNK, numPaths - c * PATHS_PER_CHUNK),
+                        numDays, method, lowerBounds, binWidths))
+                .reduce((a, b) -> {
+                    for (int i = 0; i < a.length; i++) {
+                        a[i] += b[i];
+                    }
+
+                    return a;
+                }).orElse(new int[numDays * NUM_BINS]);
+
+        double[][] bands = new double[percentiles.length][numDays + 1];
+
+        for (int p = 0; p < percentiles.length; p++) {
+            bands[p][0] = startValue;
+
+            for (int t = 1; t <= numDays; t++) {
+                double logValue = getPercentile(counts, t, numPaths, percentiles[p], lowerBounds[t], binWidths[t]);
+                bands[p][t] = startValue * Math.exp(logValue);
+            }
+        }
+
+        return new Projection(getProjectedDates(numDays), percentiles.clone(), bands);
+    }
+
+    /**
+     * Simulates a chunk of paths and records the log growth of each path on each day in histograms.
+     *
+     * @param random The random number generator owned by the chunk.
+     * @param numPaths The number of paths in the chunk.
+     * @param numDays The number of trading days to project forward.
+     * @param method The way in which daily returns are generated.
+     * @param lowerBounds The lower bound of each day's histogram.
+     * @param binWidths The bin width of each day's histogram.
+     * @return The histogram counts, NUM_BINS per day (day 1 first).
+     */
+    private int[] simulateChunk(SplittableRandom random, int numPaths, int numDays, Method method,
+                                double[] lowerBounds, double[] binWidths) {
+        int[] counts = new int[numDays * NUM_BINS];
+        double[] inverseBinWidths = new double[numDays + 1];
+        double spareGaussian = Double.NaN;
+
+        for (int t = 1; t <= numDays; t++) {
+            inverseBinWidths[t] = 1 / binWidths[t];
+        }
+
+        for (int path = 0; path < numPaths; path++) {
+            double logGrowth = 0;
+
+            for (int t = 1; t <= numDays; t++) {
+                if (method == Method.BOOTSTRAP) {
+                    logGrowth += logReturns[random.nextInt(logReturns.length)];
+                } else {
+                    // the polar method produces two variates at a time, so every other draw uses the spare one
+                    if (Double.isNaN(spareGaussian)) {
+                        double u;
+                        double v;
+                        double q;
+
+                        do {
+                            u = 2 * random.nextDouble() - 1;
+                            v = 2 * random.nextDouble() - 1;
+                            q = u * u + v * v;
+                        } while (q >= 1 || q == 0);
+
+                        double scale = Math.sqrt(-2 * Math.log(q) / q);
+
+                        logGrowth += logMean + logSD * u * scale;
+                        spareGaussian = v * scale;
+                    } else {
+                        logGrowth += logMean + logSD * spareGaussian;
+                        spareGaussian = Double.NaN;
+                    }
+                }
+
+                int bin = (int) ((logGrowth - lowerBounds[t]) * inverseBinWidths[t]);
+                counts[(t - 1) * NUM_BINS + Math.min(Math.max(bin, 0), NUM_BINS - 1)]++;
+            }
+        }
+
+        return counts;
+    }
+
+    /**
+     * Reads a percentile off of a day's histogram, interpolating linearly within the bin it falls in.
+     *
+     * @param counts The merged histogram counts.
+     * @param day The day in question (1 for the first projected day).
+     * @param numPaths The total number of simulated paths.
+     * @param percentile The percentile in question.
+     * @param lowerBound The lower bound of the day's histogram.
+     * @param binWidth The bin width of the day's histogram.
+     * @return The log growth at the percentile.
+     */
+    private static double getPercentile(int[] counts, int day, int numPaths, double percentile, double lowerBound,
+                                        double binWidth) {
+        double target = percentile / 100 * numPaths;
+        int offset = (day - 1) * NUM_BINS;
+        long cumulative = 0;
+
+        for (int bin = 0; bin < NUM_BINS; bin++) {
+            int count = counts[offset + bin];
+
+            if (count > 0 && cumulative + count >= target) {
+                return lowerBound + binWidth * (bin + (target - cumulative) / count);
+            }
+
+            cumulative += count;
+        }
+
+        return lowerBound + binWidth * NUM_BINS;
+    }
+
+    /**
+     * Converts the historical daily returns of the current allocations to log returns and computes their mean and
+     * standard deviation.
+     *
+     * @param portReturns The historical daily returns of the current allocations.
+     */
+    private void estimateReturns(double[] portReturns) {
+        int count = portReturns.length;
+
+        // daily returns are compounded, so they are stored (and sampled) as log returns
+        logReturns = new double[count];
+
+        double logSum = 0;
+        double squaredDiffSum = 0;
+
+        for (int t = 0; t < count; t++) {
+            logReturns[t] = Math.log1p(Math.max(portReturns[t], -0.999999));
+            logSum += logReturns[t];
+        }
+
+        logMean = count == 0 ? 0 : logSum / count;
+
+        for (double logReturn : logReturns) {
+            squaredDiffSum += (logReturn - logMean) * (logReturn - logMean);
+        }
+
+        logSD = count == 0 ? 0 : Math.sqrt(squaredDiffSum / count);
+    }
+
+    /**
+     * Gets the trading days (weekdays) following the start date.
+     *
+     * @param numDays The number of trading days.
+     * @return The list of dates, starting with the start date itself.
+     */
+    private List<LocalDate> getProjectedDates(int numDays) {
+        List<LocalDate> dates = new ArrayList<>();
+        LocalDate date = startDate;
+
+        dates.add(date);
+
+        while (dates.size() <= numDays) {
+            date = date.plusDays(1);
+
+            if (date.getDayOfWeek() != DayOfWeek.SATURDAY && date.getDayOfWeek() != DayOfWeek.SUNDAY) {
+                dates.add(date);
+            }
+        }
+
+        return dates;
+    }
+
+    /**
+     * The percentile bands of a projection. Band values are portfolio values in dollars, one per projected date.
+     */
+    public static class Projection {
+        private List<LocalDate> dates;
+        private double[] percentiles;
+        private double[][] bands;
+
+        /**
+         * Initializes class member variables.
+         *
+         * @param dates The projected dates, starting with the date of the current portfolio value.
+         * @param percentiles The percentiles of the bands.
+         * @param bands The portfolio value of each band on each projected date.
+         */
+        Projection(List<LocalDate> dates, double[] percentiles, double[][] bands) {
+            this.dates = dates;
+            this.percentiles = percentiles;
+            this.bands = bands;
+        }
+
+        // getter methods for class member variables
+
+        public List<LocalDate> getDates() {
+            return dates;
+        }
+
+        public double[] getPercentiles() {
+            return percentiles;
+        }
+
+        public double[] getBand(int index) {
+            return bands[index];
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package analytics;
+
+import data.datapoints.DataPoint;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An index over a history of data points which makes period-over-period lookups O(1). For every data point it stores
+ * the index of the first trading day of its month, quarter, and year, and it keeps a calendar-day lookup table so the
+ * data point in effect on any date can be found without searching. Cumulative sums of close values are kept as well
+ * so the average close over any range of data points is also O(1). The index is maintained incrementally as data
+ * points are appended to the history.
+ */
+public class PeriodIndex {
+    private static final int INITIAL_CAPACITY = 256;
+
+    private int size;
+    private long[] days;
+    private double[] closeValues;
+    private double[] closeSums;
+    private int[] monthStarts;
+    private int[] quarterStarts;
+    private int[] yearStarts;
+    private int[] dayLookup;
+
+    // the periods over which a gain/loss can be looked up
+    public enum Period {
+        DAY,
+        WEEK,
+        MONTH,
+        QUARTER,
+        YEAR_TO_DATE,
+        ONE_YEAR,
+        FIVE_YEAR
+    }
+
+    /**
+     * Initializes class member variables and indexes every data point in the history.
+     *
+     * @param history The history to be indexed, sorted by date in ascending order.
+     */
+    public PeriodIndex(List<DataPoint> history) {
+        int capacity = Math.max(INITIAL_CAPACITY, history.size());
+
+        size = 0;
+        days = new long[capacity];
+        closeValues = new double[capacity];
+        closeSums = new double[capacity + 1];
+        monthStarts = new int[capacity];
+        quarterStarts = new int[capacity];
+        yearStarts = new int[capacity];
+        dayLookup = new int[INITIAL_CAPACITY];
+
+        for (DataPoint dataPoint : history) {
+            append(dataPoint);
+        }
+    }
+
+    /**
+     * Indexes a data point appended to the end of the history. Takes amortized O(1) time (per calendar day covered).
+     *
+     * @param dataPoint The appended data point, dated after every data point already indexed.
+     */
+    public void append(DataPoint dataPoint) {
+        LocalDate date = dataPoint.getDate();
+        long day = date.toEpochDay();
+
+        ensureCapacity(size + 1);
+
+        days[size] = day;
+        closeValues[size] = dataPoint.getMarketCloseValue();
+        closeSums[size + 1] = closeSums[size] + dataPoint.getMarketCloseValue();
+
+        if (size == 0) {
+            monthStarts[size] = 0;
+            quarterStarts[size] = 0;
+            yearStarts[size] = 0;
+        } else {
+            LocalDate prevDate = LocalDate.ofEpochDay(days[size - 1]);
+            boolean newYear = prevDate.getYear() != date.getYear();
+            boolean newQuarter = newYear || (prevDate.getMonthValue() - 1) / 3 != (date.getMonthValue() - 1) / 3;
+            boolean newMonth = newYear || prevDate.getMonthValue() != date.getMonthValue();
+
+            monthStarts[size] = newMonth ? size : monthStarts[size - 1];
+            quarterStarts[size] = newQuarter ? size : quarterStarts[size - 1];
+            yearStarts[size] = newYear ? size : yearStarts[size - 1];
+        }
+
+        int offset = (int) (day - days[0]);
+        int prevOffset = size == 0 ? -1 : (int) (days[size - 1] - days[0]);
+
+        if (offset >= dayLookup.length) {
+            dayLookup = Arrays.copyOf(dayLookup, Math.max(dayLookup.length * 2, offset + 1));
+        }
+
+        // days between the previous data point and this one resolve to the previous data point
+        for (int d = prevOffset + 1; d < offset; d++) {
+            dayLookup[d] = size - 1;
+        }
+
+        dayLookup[offset] = size;
+        size++;
+    }
+
+    /**
+     * Removes the last indexed data point. Used when the last data point of a history is replaced.
+     */
+    public void removeLast() {
+        if (size > 0) {
+            size--;
+        }
+    }
+
+    /**
+     * Re-reads the values of a segment of data points which were updated in place (dates unchanged).
+     *
+     * @param history The history the index was built over.
+     * @param from The index of the first updated data point.
+     */
+    public void refresh(List<DataPoint> history, int from) {
+        for (int i = Math.max(from, 0); i < size; i++) {
+            closeValues[i] = history.get(i).getMarketCloseValue();
+            closeSums[i + 1] = closeSums[i] + closeValues[i];
+        }
+    }
+
+    /**
+     * Gets the number of indexed data points.
+     *
+     * @return The number of indexed data points.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the index of the reference data point for a period ending at the latest data point, i.e. the first data
+     * point of the period. If the history does not reach back far enough, the first data point is returned.
+     *
+     * @param period The period in question.
+     * @return The index of the reference data point; -1 if nothing is indexed.
+     */
+    public int getReferenceIndex(Period period) {
+        return size == 0 ? -1 : getReferenceIndex(period, size - 1);
+    }
+
+    /**
+     * Gets the index of the reference data point for a period ending at the specified data point, i.e. the first data
+     * point of the period. If the history does not reach back far enough, the first data point is returned.
+     *
+     * @param period The period in question.
+     * @param index The index of the data point at which the period ends.
+     * @return The index of the reference data point.
+     */
+    public int getReferenceIndex(Period period, int index) {
+        LocalDate date = LocalDate.ofEpochDay(days[index]);
+
+        switch (period) {
+            case DAY:
+                return index;
+            case WEEK:
+                return getFirstIndexAfter(date.minusWeeks(1));
+            case MONTH:
+                return monthStarts[index];
+            case QUARTER:
+                return quarterStarts[index];
+            case YEAR_TO_DATE:
+                return yearStarts[index];
+            case ONE_YEAR:
+                return getFirstIndexAfter(date.minusYears(1));
+            case FIVE_YEAR:
+                return getFirstIndexAfter(date.minusYears(5));
+            default:
+                return index;
+        }
+    }
+
+    /**
+     * Gets the index of the last data point dated on or before the specified date in O(1) time.
+     *
+     * @param date The date in question.
+     * @return The index of the data point; -1 if every data point is dated after the date.
+     */
+    public int getIndexOnOrBefore(LocalDate date) {
+        if (size == 0) {
+            return -1;
+        }
+
+        long offset = date.toEpochDay() - days[0];
+
+        if (offset < 0) {
+            return -1;
+        } else if (offset >= days[size - 1] - days[0]) {
+            return size - 1;
+        } else {
+            return dayLookup[(int) offset];
+        }
+    }
+
+    /**
+     * Calculates the average close value of a range of data points in O(1) time.
+     *
+     * @param from The index of the first data point of the range (inclusive).
+     * @param to The index of the last data point of the range (inclusive).
+     * @return The average close value.
+     */
+    public double getAverageClose(int from, int to) {
+        return (closeSums[to + 1] - closeSums[from]) / (to - from + 1);
+    }
+
+    /**
+     * Gets the index of the first data point dated after the specified date, or the first data point if the history
+     * does not reach back to the date.
+     *
+     * @param date The date in question.
+     * @return The index of the first data point dated after the date.
+     */
+    private int getFirstIndexAfter(LocalDate date) {
+        return Math.min(getIndexOnOrBefore(date) + 1, size - 1);
+    }
+
+    /**
+     * Grows the per data point arrays if they cannot hold the specified number of data points.
+     *
+     * @param capacity The number of data points the arrays must be able to hold.
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity > days.length) {
+            int newCapacity = Math.max(days.length * 2, capacity);
+
+            days = Arrays.copyOf(days, newCapacity);
+            closeValues = Arrays.copyOf(closeValues, newCapacity);
+            closeSums = Arrays.copyOf(closeSums, newCapacity + 1);
+            monthStarts = Arrays.copyOf(monthStarts, newCapacity);
+            quarterStarts = Arrays.copyOf(quarterStarts, newCapacity);
+            yearStarts = Arrays.copyOf(yearStarts, newCapacity);
+        }
+    }
+}
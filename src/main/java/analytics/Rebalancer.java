@@ -0,0 +1,101 @@
+package analytics;
+
+import data.datapoints.DataPoint;
+import data.records.PortfolioRecord;
+import data.records.StockRecord;
+import data.records.TransactionRecord;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Computes the trades needed to move the portfolio's current allocations to a set of target weights without adding or
+ * withdrawing money. Each asset is traded at most once, and assets whose drift from the target is worth less than a
+ * minimum trade value are left alone, so the resulting set of trades is as small as the target allows. The trades are
+ * returned as transaction records priced at the latest close converted into the portfolio's base currency (which
+ * transactions are recorded in), so they can be committed like any other transaction.
+ */
+public class Rebalancer {
+
+    /**
+     * Computes the trades needed to reach the target weights. Sells are listed before buys, since the buys are funded
+     * by the proceeds of the sells.
+     *
+     * @param portRecord The portfolio record containing the current allocations.
+     * @param stockDataRecords A map containing the records of all currently allocated and targeted assets.
+     * @param targetWeights A map from ticker to target weight; the weights should sum to one.
+     * @param minTradeValue The minimum value of a trade; smaller drifts from the target are not traded.
+     * @return A list of transaction records for the trades.
+     */
+    public static List<TransactionRecord> getTrades(PortfolioRecord portRecord, Map<String, StockRecord> stockDataRecords,
+                                                    Map<String, Double> targetWeights, double minTradeValue) {
+        Map<String, PortfolioRecord.Allocation> allocations = portRecord.getAllocations();
+        Set<String> tickers = new HashSet<>(allocations.keySet());
+        List<TransactionRecord> sells = new ArrayList<>();
+        List<TransactionRecord> buys = new ArrayList<>();
+        double portValue = 0;
+
+        tickers.addAll(targetWeights.keySet());
+
+        for (String ticker : allocations.keySet()) {
+            double price = getLastPrice(portRecord, stockDataRecords.get(ticker));
+
+            if (price > 0) {
+                portValue += allocations.get(ticker).getNumShares() * price;
+            }
+        }
+
+        for (String ticker : tickers) {
+            double price = getLastPrice(portRecord, stockDataRecords.get(ticker));
+
+            if (price <= 0) {
+                continue;
+            }
+
+            double currNumShares = allocations.containsKey(ticker) ? allocations.get(ticker).getNumShares() : 0;
+            double targetValue = targetWeights.getOrDefault(ticker, 0.0) * portValue;
+            double tradeValue = targetValue - currNumShares * price;
+            LocalDate date = LocalDate.now();
+
+            if (Math.abs(tradeValue) < Math.max(minTradeValue, 0.005)) {
+                continue;
+            }
+
+            // an asset with no target weight is sold off entirely so no fractional remainder is left behind
+            double numShares = targetValue == 0 ? currNumShares : Math.abs(tradeValue) / price;
+
+            if (tradeValue < 0) {
+                sells.add(new TransactionRecord(date, ticker, numShares, price, false));
+            } else {
+                buys.add(new TransactionRecord(date, ticker, numShares, price, true));
+            }
+        }
+
+        sells.sort((o1, o2) -> o1.getTicker().compareTo(o2.getTicker()));
+        buys.sort((o1, o2) -> o1.getTicker().compareTo(o2.getTicker()));
+        sells.addAll(buys);
+
+        return sells;
+    }
+
+    /**
+     * Gets the latest close of an asset, converted into the portfolio's base currency.
+     *
+     * @param portRecord The portfolio record, whose base currency the close is converted into.
+     * @param stockRecord The record of the asset (may be null).
+     * @return The latest close in the base currency; 0 if the asset has no history.
+     */
+    private static double getLastPrice(PortfolioRecord portRecord, StockRecord stockRecord) {
+        if (stockRecord == null || stockRecord.getHistory().isEmpty()) {
+            return 0;
+        }
+
+        List<DataPoint> history = stockRecord.getHistory();
+
+        return history.get(history.size() - 1).getMarketCloseValue() * portRecord.getFXRate(stockRecord, history.size() - 1);
+    }
+}
@@ -0,0 +1,312 @@
+package analytics;
+
+import data.datapoints.DataPoint;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An index over the portfolio's history which makes time-weighted and money-weighted returns cheap to compute over any
+ * range of data points. Cash flows are the changes in money invested between consecutive data points and are treated
+ * as happening at the close.
+ *
+ * The time-weighted return (TWR) chain-links the returns of the sub-periods between cash flows. The index stores the
+ * cumulative growth factor at every data point, so the TWR over any range is O(1). The money-weighted return is the
+ * XIRR of the range's cash flows, solved with Newton's method (falling back to bisection if Newton's method fails to
+ * converge) and warm started from the previous solution, so successive solves typically take one or two iterations.
+ * Both are maintained incrementally as data points are appended to or updated in the history.
+ */
+public class ReturnIndex {
+    private static final int INITIAL_CAPACITY = 256;
+    private static final double DAYS_PER_YEAR = 365;
+    private static final double TOLERANCE = 1e-10;
+    private static final int MAX_ITERATIONS = 50;
+
+    private int size;
+    private long[] days;
+    private double[] closeValues;
+    private double[] moneyInvested;
+    private double[] growthFactors;
+    private int[] flowIndices;
+    private int numFlows;
+    private double lastRate;
+
+    /**
+     * Initializes class member variables and indexes every data point in the history.
+     *
+     * @param history The history to be indexed, sorted by date in ascending order.
+     */
+    public ReturnIndex(List<DataPoint> history) {
+        int capacity = Math.max(INITIAL_CAPACITY, history.size());
+
+        size = 0;
+        days = new long[capacity];
+        closeValues = new double[capacity];
+        moneyInvested = new double[capacity];
+        growthFactors = new double[capacity];
+        flowIndices = new int[INITIAL_CAPACITY];
+        numFlows = 0;
+        lastRate = 0.05;
+
+        for (DataPoint dataPoint : history) {
+            append(dataPoint);
+        }
+    }
+
+    /**
+     * Indexes a data point appended to the end of the history.
+     *
+     * @param dataPoint The appended data point, dated after every data point already indexed.
+     */
+    public void append(DataPoint dataPoint) {
+        if (size == days.length) {
+            int newCapacity = days.length * 2;
+
+            days = Arrays.copyOf(days, newCapacity);
+            closeValues = Arrays.copyOf(closeValues, newCapacity);
+            moneyInvested = Arrays.copyOf(moneyInvested, newCapacity);
+            growthFactors = Arrays.copyOf(growthFactors, newCapacity);
+        }
+
+        days[size] = dataPoint.getDate().toEpochDay();
+        closeValues[size] = dataPoint.getMarketCloseValue();
+        moneyInvested[size] = dataPoint.getMoneyInvested();
+        size++;
+
+        index(size - 1);
+    }
+
+    /**
+     * Removes the last indexed data point. Used when the last data point of a history is replaced.
+     */
+    public void removeLast() {
+        if (size > 0) {
+            size--;
+
+            if (numFlows > 0 && flowIndices[numFlows - 1] == size) {
+                numFlows--;
+            }
+        }
+    }
+
+    /**
+     * Re-reads the values of a segment of data points which were updated in place (dates unchanged) and re-links the
+     * returns from the first updated data point onward.
+     *
+     * @param history The history the index was built over.
+     * @param from The index of the first updated data point.
+     */
+    public void refresh(List<DataPoint> history, int from) {
+        from = Math.max(from, 0);
+
+        while (numFlows > 0 && flowIndices[numFlows - 1] >= from) {
+            numFlows--;
+        }
+
+        for (int i = from; i < size; i++) {
+            closeValues[i] = history.get(i).getMarketCloseValue();
+            moneyInvested[i] = history.get(i).getMoneyInvested();
+            index(i);
+        }
+    }
+
+    /**
+     * Gets the number of indexed data points.
+     *
+     * @return The number of indexed data points.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Calculates the time-weighted return between two data points in O(1) time.
+     *
+     * @param from The index of the data point at which the range starts.
+     * @param to The index of the data point at which the range ends.
+     * @return The time-weighted return as a fraction (e.g. 0.05 for 5%).
+     */
+    public double getTimeWeightedReturn(int from, int to) {
+        return growthFactors[from] == 0 ? 0 : growthFactors[to] / growthFactors[from] - 1;
+    }
+
+    /**
+     * Calculates the money-weighted return between two data points. The value at the start of the range is treated as
+     * the initial investment, every cash flow within the range as a further investment (or withdrawal), and the value
+     * at the end of the range as the final proceeds. Ranges of a year or longer return the annualized XIRR; shorter
+     * ranges return the XIRR de-annualized to the length of the range, since annualizing short-term returns
+     * exaggerates them.
+     *
+     * @param from The index of the data point at which the range starts.
+     * @param to The index of the data point at which the range ends.
+     * @return The money-weighted return as a fraction (e.g. 0.05 for 5%).
+     */
+    public double getMoneyWeightedReturn(int from, int to) {
+        if (to <= from) {
+            return 0;
+        }
+
+        int firstFlow = getFirstFlowAfter(from);
+        int lastFlow = getFirstFlowAfter(to);
+        double rate = solve(from, to, firstFlow, lastFlow);
+        double years = (days[to] - days[from]) / DAYS_PER_YEAR;
+
+        return years >= 1 ? rate : Math.pow(1 + rate, years) - 1;
+    }
+
+    /**
+     * Links the return of a data point to the cumulative growth factor of the previous data point and records it as a
+     * cash flow if the money invested changed.
+     *
+     * @param i The index of the data point.
+     */
+    private void index(int i) {
+        if (i == 0) {
+            growthFactors[i] = 1;
+            return;
+        }
+
+        double flow = moneyInvested[i] - moneyInvested[i - 1];
+        double prevClose = closeValues[i - 1];
+        double r = prevClose == 0 ? 0 : (closeValues[i] - flow) / prevClose - 1;
+
+        growthFactors[i] = growthFactors[i - 1] * (1 + r);
+
+        if (flow != 0) {
+            if (numFlows == flowIndices.length) {
+                flowIndices = Arrays.copyOf(flowIndices, numFlows * 2);
+            }
+
+            flowIndices[numFlows++] = i;
+        }
+    }
+
+    /**
+     * Solves for the XIRR of a range, starting from the previous solution.
+     *
+     * @param from The index of the data point at which the range starts.
+     * @param to The index of the data point at which the range ends.
+     * @param firstFlow The position in flowIndices of the first cash flow after the start of the range.
+     * @param lastFlow The position in flowIndices of the first cash flow after the end of the range.
+     * @return The annual rate.
+     */
+    private double solve(int from, int to, int firstFlow, int lastFlow) {
+        double rate = lastRate;
+
+        for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+            double[] valueAndSlope = getNetPresentValue(from, to, firstFlow, lastFlow, rate);
+            double step = valueAndSlope[1] == 0 ? Double.NaN : valueAndSlope[0] / valueAndSlope[1];
+            double nextRate = rate - step;
+
+            if (Double.isNaN(nextRate) || Double.isInfinite(nextRate) || nextRate <= -1) {
+                break;
+            } else if (Math.abs(nextRate - rate) < TOLERANCE) {
+                lastRate = nextRate;
+                return nextRate;
+            }
+
+            rate = nextRate;
+        }
+
+        lastRate = bisect(from, to, firstFlow, lastFlow);
+
+        return lastRate;
+    }
+
+    /**
+     * Solves for the XIRR of a range by bisection. Used when Newton's method fails to converge.
+     *
+     * @param from The index of the data point at which the range starts.
+     * @param to The index of the data point at which the range ends.
+     * @param firstFlow The position in flowIndices of the first cash flow after the start of the range.
+     * @param lastFlow The position in flowIndices of the first cash flow after the end of the range.
+     * @return The annual rate; 0 if no rate could be bracketed.
+     */
+    private double bisect(int from, int to, int firstFlow, int lastFlow) {
+        double low = -0.999999;
+        double high = 1;
+        double lowValue = getNetPresentValue(from, to, firstFlow, lastFlow, low)[0];
+        double highValue = getNetPresentValue(from, to, firstFlow, lastFlow, high)[0];
+
+        while (lowValue * highValue > 0 && high < 1e6) {
+            high *= 10;
+            highValue = getNetPresentValue(from, to, firstFlow, lastFlow, high)[0];
+        }
+
+        if (lowValue * highValue > 0) {
+            return 0;
+        }
+
+        for (int iteration = 0; iteration < 200 && high - low > TOLERANCE; iteration++) {
+            double mid = (low + high) / 2;
+            double midValue = getNetPresentValue(from, to, firstFlow, lastFlow, mid)[0];
+
+            if (midValue * lowValue > 0) {
+                low = mid;
+                lowValue = midValue;
+            } else {
+                high = mid;
+            }
+        }
+
+        return (low + high) / 2;
+    }
+
+    /**
+     * Calculates the net present value of a range's cash flows (from the investor's point of view) and its derivative
+     * with respect to the rate.
+     *
+     * @param from The index of the data point at which the range starts.
+     * @param to The index of the data point at which the range ends.
+     * @param firstFlow The position in flowIndices of the first cash flow after the start of the range.
+     * @param lastFlow The position in flowIndices of the first cash flow after the end of the range.
+     * @param rate The annual rate.
+     * @return An array holding the net present value and its derivative.
+     */
+    private double[] getNetPresentValue(int from, int to, int firstFlow, int lastFlow, double rate) {
+        double logBase = Math.log1p(rate);
+        double value = -closeValues[from];
+        double slope = 0;
+
+        for (int f = firstFlow; f < lastFlow; f++) {
+            int i = flowIndices[f];
+            double flow = -(moneyInvested[i] - moneyInvested[i - 1]);
+            double years = (days[i] - days[from]) / DAYS_PER_YEAR;
+            double discounted = flow * Math.exp(-years * logBase);
+
+            value += discounted;
+            slope -= years * discounted / (1 + rate);
+        }
+
+        double years = (days[to] - days[from]) / DAYS_PER_YEAR;
+        double discounted = closeValues[to] * Math.exp(-years * logBase);
+
+        value += discounted;
+        slope -= years * discounted / (1 + rate);
+
+        return new double[] {value, slope};
+    }
+
+    /**
+     * Gets the position in flowIndices of the first cash flow at a data point after the specified one.
+     *
+     * @param index The index of the data point.
+     * @return The position of the first cash flow after the data point; numFlows if there is none.
+     */
+    private int getFirstFlowAfter(int index) {
+        int low = 0;
+        int high = numFlows;
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+
+            if (flowIndices[mid] <= index) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+}
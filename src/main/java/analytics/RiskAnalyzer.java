@@ -0,0 +1,305 @@
+package analytics;
+
+import data.datapoints.DataPoint;
+import data.records.PortfolioRecord;
+import data.records.StockRecord;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes risk metrics (annualized volatility, Sharpe ratio, Sortino ratio, maximum drawdown and its duration, and
+ * Calmar ratio) from the daily returns of a portfolio or asset history. The returns are extracted into a primitive
+ * array and every metric is then accumulated in a single pass over that array. Nothing here depends on JavaFX.
+ */
+public class RiskAnalyzer {
+    public static final int TRADING_DAYS_PER_YEAR = 252;
+
+    /**
+     * Computes the risk metrics of the portfolio. Returns are measured net of deposits and withdrawals, so money moving
+     * into or out of the portfolio does not count as a gain or loss.
+     *
+     * @param portRecord The portfolio record containing the historical portfolio data.
+     * @param riskFreeRate The annual risk free rate (e.g. 0.02 for 2%).
+     * @return The risk metrics; null if the history contains fewer than two data points.
+     */
+    public static RiskMetrics analyze(PortfolioRecord portRecord, double riskFreeRate) {
+        return analyze(portRecord.getHistory(), true, riskFreeRate);
+    }
+
+    /**
+     * Computes the risk metrics of an individual asset from its price history.
+     *
+     * @param stockRecord The stock record containing the historical asset data.
+     * @param riskFreeRate The annual risk free rate (e.g. 0.02 for 2%).
+     * @return The risk metrics; null if the history contains fewer than two data points.
+     */
+    public static RiskMetrics analyze(StockRecord stockRecord, double riskFreeRate) {
+        return analyze(stockRecord.getHistory(), false, riskFreeRate);
+    }
+
+    /**
+     * Computes the risk metrics of a history.
+     *
+     * @param history The history of data points, sorted by date in ascending order.
+     * @param netOfCashFlows True if changes in money invested are to be excluded from the returns; false otherwise.
+     * @param riskFreeRate The annual risk free rate (e.g. 0.02 for 2%).
+     * @return The risk metrics; null if the history contains fewer than two data points.
+     */
+    public static RiskMetrics analyze(List<DataPoint> history, boolean netOfCashFlows, double riskFreeRate) {
+        if (history.size() < 2) {
+            return null;
+        }
+
+        double[] returns = getDailyReturns(history, netOfCashFlows);
+        double dailyRiskFreeRate = riskFreeRate / TRADING_DAYS_PER_YEAR;
+        double sum = 0;
+        double squaredSum = 0;
+        double downsideSquaredSum = 0;
+        double wealth = 1;
+        double peakWealth = 1;
+        double maxDrawdown = 0;
+        int peakIndex = 0;
+        int maxDrawdownStart = 0;
+        int maxDrawdownEnd = 0;
+        long maxDrawdownDays = 0;
+
+        for (int i = 0; i < returns.length; i++) {
+            double r = returns[i];
+            double excess = Math.min(r - dailyRiskFreeRate, 0);
+
+            sum += r;
+            squaredSum += r * r;
+            downsideSquaredSum += excess * excess;
+            wealth *= 1 + r;
+
+            // index i of the returns corresponds to index i + 1 of the history
+            if (wealth >= peakWealth) {
+                peakWealth = wealth;
+                peakIndex = i + 1;
+            } else {
+                double drawdown = 1 - wealth / peakWealth;
+
+                if (drawdown > maxDrawdown) {
+                    maxDrawdown = drawdown;
+                    maxDrawdownStart = peakIndex;
+                    maxDrawdownEnd = i + 1;
+                }
+            }
+
+            long underwaterDays = peakIndex == i + 1 ? 0 : daysBetween(history, peakIndex, i + 1);
+            maxDrawdownDays = Math.max(maxDrawdownDays, underwaterDays);
+        }
+
+        int n = returns.length;
+        double mean = sum / n;
+        double variance = Math.max(squaredSum / n - mean * mean, 0);
+        double annualVolatility = Math.sqrt(variance * TRADING_DAYS_PER_YEAR);
+        double annualDownsideDeviation = Math.sqrt(downsideSquaredSum / n * TRADING_DAYS_PER_YEAR);
+        double annualExcessReturn = mean * TRADING_DAYS_PER_YEAR - riskFreeRate;
+        double annualReturn = wealth > 0 ? Math.pow(wealth, (double) TRADING_DAYS_PER_YEAR / n) - 1 : -1;
+
+        return new RiskMetrics(annualReturn, annualVolatility,
+                annualVolatility == 0 ? 0 : annualExcessReturn / annualVolatility,
+                annualDownsideDeviation == 0 ? 0 : annualExcessReturn / annualDownsideDeviation,
+                maxDrawdown, history.get(maxDrawdownStart).getDate(), history.get(maxDrawdownEnd).getDate(),
+                maxDrawdownDays, maxDrawdown == 0 ? 0 : annualReturn / maxDrawdown);
+    }
+
+    /**
+     * Extracts the daily returns of a history into a primitive array. The return for a day is measured from the
+     * previous close; if returns are measured net of cash flows, the change in money invested over the day is treated
+     * as having happened at the close and is subtracted out. Days whose previous close is zero get a return of zero.
+     *
+     * @param history The history of data points, sorted by date in ascending order.
+     * @param netOfCashFlows True if changes in money invested are to be excluded from the returns; false otherwise.
+     * @return An array of size history.size() - 1 containing the daily returns.
+     */
+    public static double[] getDailyReturns(List<DataPoint> history, boolean netOfCashFlows) {
+        double[] returns = new double[Math.max(history.size() - 1, 0)];
+        DataPoint prevDataPoint = history.isEmpty() ? null : history.get(0);
+
+        for (int i = 1; i < history.size(); i++) {
+            DataPoint dataPoint = history.get(i);
+            double prevClose = prevDataPoint.getMarketCloseValue();
+            double cashFlow = netOfCashFlows ? dataPoint.getMoneyInvested() - prevDataPoint.getMoneyInvested() : 0;
+
+            returns[i - 1] = prevClose == 0 ? 0 : (dataPoint.getMarketCloseValue() - cashFlow) / prevClose - 1;
+            prevDataPoint = dataPoint;
+        }
+
+        return returns;
+    }
+
+    /**
+     * Computes the daily returns the portfolio's current allocations (held at their current weights) would have had on
+     * every date on which all of the holdings have a price. The weights and returns of holdings quoted in a foreign
+     * currency are taken in the base currency, so they include the moves of the exchange rate.
+     *
+     * @param portRecord The portfolio record containing the current allocations.
+     * @param stockDataRecords A map containing the records of all assets currently allocated in the portfolio.
+     * @param maxDays The maximum number of most recent data points of each holding's history to be used.
+     * @return An array containing the daily returns in date order.
+     */
+    public static double[] getWeightedReturns(PortfolioRecord portRecord, Map<String, StockRecord> stockDataRecords,
+                                              int maxDays) {
+        List<List<DataPoint>> histories = new ArrayList<>();
+        List<FXRateIndex> fxRates = new ArrayList<>();
+        List<Integer> offsets = new ArrayList<>();
+        List<Double> weights = new ArrayList<>();
+        double portValue = 0;
+
+        for (String ticker : portRecord.getAllocations().keySet()) {
+            StockRecord stockRecord = stockDataRecords.get(ticker);
+
+            if (stockRecord != null && stockRecord.getHistory().size() > 0) {
+                List<DataPoint> history = stockRecord.getHistory();
+                int offset = Math.max(history.size() - maxDays, 0);
+                double value = portRecord.getAllocations().get(ticker).getNumShares()
+                        * history.get(history.size() - 1).getMarketCloseValue()
+                        * portRecord.getFXRate(stockRecord, history.size() - 1);
+
+                histories.add(history.subList(offset, history.size()));
+                fxRates.add(portRecord.getFXRates(stockRecord));
+                offsets.add(offset);
+                weights.add(value);
+                portValue += value;
+            }
+        }
+
+        DateMergeJoin mergeJoin = new DateMergeJoin(histories);
+
+        for (int k = 0; k < histories.size(); k++) {
+            if (fxRates.get(k) != null) {
+                mergeJoin.setFXRates(k, fxRates.get(k), offsets.get(k));
+            }
+        }
+        double[] prevCloses = new double[histories.size()];
+        double[] returns = new double[256];
+        int count = 0;
+        boolean isStarted = false;
+
+        while (mergeJoin.next()) {
+            boolean hasAllValues = true;
+            double r = 0;
+
+            for (int k = 0; k < prevCloses.length; k++) {
+                double close = mergeJoin.getCloseValue(k);
+                double weight = portValue == 0 ? 0 : weights.get(k) / portValue;
+
+                hasAllValues &= mergeJoin.hasValue(k);
+                r += prevCloses[k] == 0 ? 0 : weight * (close / prevCloses[k] - 1);
+                prevCloses[k] = close;
+            }
+
+            if (hasAllValues && isStarted) {
+                if (count == returns.length) {
+                    returns = Arrays.copyOf(returns, count * 2);
+                }
+
+                returns[count++] = r;
+            }
+
+            isStarted |= hasAllValues;
+        }
+
+        return Arrays.copyOf(returns, count);
+    }
+
+    /**
+     * Calculates the number of calendar days between two data points of a history.
+     *
+     * @param history The history of data points.
+     * @param from The index of the earlier data point.
+     * @param to The index of the later data point.
+     * @return The number of calendar days between the two data points.
+     */
+    private static long daysBetween(List<DataPoint> history, int from, int to) {
+        return ChronoUnit.DAYS.between(history.get(from).getDate(), history.get(to).getDate());
+    }
+
+    /**
+     * The risk metrics computed for a history. All rates and ratios are annualized, and drawdowns are expressed as
+     * positive fractions of the preceding peak value.
+     */
+    public static class RiskMetrics {
+        private double annualReturn;
+        private double annualVolatility;
+        private double sharpeRatio;
+        private double sortinoRatio;
+        private double maxDrawdown;
+        private LocalDate maxDrawdownPeak;
+        private LocalDate maxDrawdownTrough;
+        private long maxDrawdownDuration;
+        private double calmarRatio;
+
+        /**
+         * Initializes class member variables.
+         *
+         * @param annualReturn The compound annual growth rate.
+         * @param annualVolatility The annualized standard deviation of daily returns.
+         * @param sharpeRatio The annualized excess return divided by the annualized volatility.
+         * @param sortinoRatio The annualized excess return divided by the annualized downside deviation.
+         * @param maxDrawdown The largest peak to trough decline.
+         * @param maxDrawdownPeak The date of the peak preceding the largest decline.
+         * @param maxDrawdownTrough The date of the trough of the largest decline.
+         * @param maxDrawdownDuration The longest number of calendar days spent below a previous peak.
+         * @param calmarRatio The compound annual growth rate divided by the maximum drawdown.
+         */
+        RiskMetrics(double annualReturn, double annualVolatility, double sharpeRatio, double sortinoRatio,
+                    double maxDrawdown, LocalDate maxDrawdownPeak, LocalDate maxDrawdownTrough,
+                    long maxDrawdownDuration, double calmarRatio) {
+            this.annualReturn = annualReturn;
+            this.annualVolatility = annualVolatility;
+            this.sharpeRatio = sharpeRatio;
+            this.sortinoRatio = sortinoRatio;
+            this.maxDrawdown = maxDrawdown;
+            this.maxDrawdownPeak = maxDrawdownPeak;
+            this.maxDrawdownTrough = maxDrawdownTrough;
+            this.maxDrawdownDuration = maxDrawdownDuration;
+            this.calmarRatio = calmarRatio;
+        }
+
+        // getter methods for class member variables
+
+        public double getAnnualReturn() {
+            return annualReturn;
+        }
+
+        public double getAnnualVolatility() {
+            return annualVolatility;
+        }
+
+        public double getSharpeRatio() {
+            return sharpeRatio;
+        }
+
+        public double getSortinoRatio() {
+            return sortinoRatio;
+        }
+
+        public double getMaxDrawdown() {
+            return maxDrawdown;
+        }
+
+        public LocalDate getMaxDrawdownPeak() {
+            return maxDrawdownPeak;
+        }
+
+        public LocalDate getMaxDrawdownTrough() {
+            return maxDrawdownTrough;
+        }
+
+        public long getMaxDrawdownDuration() {
+            return maxDrawdownDuration;
+        }
+
+        public double getCalmarRatio() {
+            return calmarRatio;
+        }
+    }
+}
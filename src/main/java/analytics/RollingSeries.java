@@ -0,0 +1,251 @@
+package analytics;
+
+import java.util.Arrays;
+
+/**
+ * Rolling-window series over a history of levels (an asset's close values, or the portfolio's time-weighted growth so
+ * that deposits and withdrawals do not count as gains or losses): the N-day return, the simple and exponential moving
+ * averages, and the annualized volatility and Sharpe ratio of the daily returns over the last N data points. Each
+ * appended level is processed in O(1) time. The moving average and return statistics are kept as running sums which
+ * the entering data point is added to and the leaving data point is subtracted from, and the exponential moving
+ * average follows its usual recurrence. The series can be truncated back to any length (e.g. when part of the history
+ * is rewritten), after which the running sums are rebuilt from the last window only.
+ */
+public class RollingSeries {
+    public static final int DEFAULT_WINDOW = 63; // number of trading days in 3 months
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int RECOMPUTE_INTERVAL = 4096; // appends between exact recomputations of the running sums
+
+    private int window;
+    private double alpha;
+    private int size;
+    private double[] levels;
+    private double[] dailyReturns;
+    private double[] movingAverages;
+    private double[] exponentialAverages;
+    private double[] volatilities;
+    private double[] sharpeRatios;
+    private double levelSum;
+    private double returnSum;
+    private double returnSquaredSum;
+    private int numAppends;
+
+    // the rolling-window series which can be looked up
+    public enum Metric {
+        RETURN,
+        SMA,
+        EMA,
+        VOLATILITY,
+        SHARPE
+    }
+
+    /**
+     * Initializes class member variables. The series starts out empty.
+     *
+     * @param window The length of the window in data points (trading days), at least 2.
+     */
+    public RollingSeries(int window) {
+        this.window = Math.max(window, 2);
+        this.alpha = 2.0 / (this.window + 1);
+        this.size = 0;
+        this.levels = new double[INITIAL_CAPACITY];
+        this.dailyReturns = new double[INITIAL_CAPACITY];
+        this.movingAverages = new double[INITIAL_CAPACITY];
+        this.exponentialAverages = new double[INITIAL_CAPACITY];
+        this.volatilities = new double[INITIAL_CAPACITY];
+        this.sharpeRatios = new double[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Adds the level of the next data point to the series and computes its rolling values.
+     *
+     * @param level The level of the data point, which follows every data point already in the series.
+     */
+    public void append(double level) {
+        ensureCapacity();
+
+        int i = size;
+        double previous = i > 0 ? levels[i - 1] : 0;
+        double r = previous == 0 ? 0 : level / previous - 1;
+
+        levels[i] = level;
+        dailyReturns[i] = r;
+        size++;
+
+        levelSum += level;
+
+        if (i >= window) {
+            levelSum -= levels[i - window];
+        }
+
+        // the first data point has no daily return, so the return window covers data points 1 through N
+        if (i > 0) {
+            returnSum += r;
+            returnSquaredSum += r * r;
+        }
+
+        if (i > window) {
+            double leaving = dailyReturns[i - window];
+
+            returnSum -= leaving;
+            returnSquaredSum -= leaving * leaving;
+        }
+
+        if (++numAppends % RECOMPUTE_INTERVAL == 0) {
+            recompute();
+        }
+
+        exponentialAverages[i] = i == 0 ? level : exponentialAverages[i - 1] + alpha * (level - exponentialAverages[i - 1]);
+        movingAverages[i] = levelSum / Math.min(i + 1, window);
+
+        int numReturns = Math.min(i, window);
+
+        if (numReturns == 0) {
+            volatilities[i] = 0;
+            sharpeRatios[i] = 0;
+        } else {
+            double mean = returnSum / numReturns;
+            double variance = Math.max(returnSquaredSum / numReturns - mean * mean, 0);
+            double volatility = Math.sqrt(variance * RiskAnalyzer.TRADING_DAYS_PER_YEAR);
+
+            volatilities[i] = volatility;
+            sharpeRatios[i] = volatility == 0 ? 0 : mean * RiskAnalyzer.TRADING_DAYS_PER_YEAR / volatility;
+        }
+    }
+
+    /**
+     * Removes every data point from the specified index onward and rebuilds the running sums of the window ending
+     * just before it, so appending can continue from there. Costs O(window) time.
+     *
+     * @param newSize The number of data points to keep.
+     */
+    public void truncate(int newSize) {
+        if (newSize >= size) {
+            return;
+        }
+
+        size = Math.max(newSize, 0);
+        recompute();
+    }
+
+    /**
+     * Gets the number of data points in the series.
+     *
+     * @return The number of data points.
+     */
+    public int size() {
+        return size;
+    }
+
+    // getter methods for class member variables
+
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * Checks whether a data point has a full window behind it. Rolling values of data points which do not are computed
+     * over the shorter window available to them.
+     *
+     * @param index The index of the data point.
+     * @return True if the window ending at the data point is full; false otherwise.
+     */
+    public boolean isFull(int index) {
+        return index >= window;
+    }
+
+    /**
+     * Gets a rolling value of a data point.
+     *
+     * @param metric The rolling-window series to look the value up in.
+     * @param index The index of the data point.
+     * @return The value: a fraction for returns and volatility (e.g. 0.05 for 5%), a level for moving averages.
+     */
+    public double getValue(Metric metric, int index) {
+        switch (metric) {
+            case RETURN:
+                return getReturn(index);
+            case SMA:
+                return movingAverages[index];
+            case EMA:
+                return exponentialAverages[index];
+            case VOLATILITY:
+                return volatilities[index];
+            case SHARPE:
+                return sharpeRatios[index];
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Gets the return of a data point over the window, i.e. measured from the level N data points before it (or from
+     * the first level if the window is not full).
+     *
+     * @param index The index of the data point.
+     * @return The return as a fraction (e.g. 0.05 for 5%).
+     */
+    public double getReturn(int index) {
+        double from = levels[Math.max(index - window, 0)];
+
+        return from == 0 ? 0 : levels[index] / from - 1;
+    }
+
+    /**
+     * Gets how far a data point's level is above (or below) one of its moving averages.
+     *
+     * @param metric Either SMA or EMA.
+     * @param index The index of the data point.
+     * @return The deviation as a fraction of the moving average (e.g. 0.05 for 5% above it).
+     */
+    public double getDeviation(Metric metric, int index) {
+        double average = getValue(metric, index);
+
+        return average == 0 ? 0 : levels[index] / average - 1;
+    }
+
+    public double getVolatility(int index) {
+        return volatilities[index];
+    }
+
+    public double getSharpeRatio(int index) {
+        return sharpeRatios[index];
+    }
+
+    /**
+     * Recomputes the running sums of the window ending at the last data point exactly, discarding any floating point
+     * error accumulated by the removals.
+     */
+    private void recompute() {
+        levelSum = 0;
+        returnSum = 0;
+        returnSquaredSum = 0;
+
+        for (int i = Math.max(size - window, 0); i < size; i++) {
+            levelSum += levels[i];
+        }
+
+        for (int i = Math.max(size - window, 1); i < size; i++) {
+            returnSum += dailyReturns[i];
+            returnSquaredSum += dailyReturns[i] * dailyReturns[i];
+        }
+    }
+
+    /**
+     * Makes room for one more data point at the end of the arrays.
+     */
+    private void ensureCapacity() {
+        if (size < levels.length) {
+            return;
+        }
+
+        int newCapacity = levels.length * 2;
+
+        levels = Arrays.copyOf(levels, newCapacity);
+        dailyReturns = Arrays.copyOf(dailyReturns, newCapacity);
+        movingAverages = Arrays.copyOf(movingAverages, newCapacity);
+        exponentialAverages = Arrays.copyOf(exponentialAverages, newCapacity);
+        volatilities = Arrays.copyOf(volatilities, newCapacity);
+        sharpeRatios = Arrays.copyOf(sharpeRatios, newCapacity);
+    }
+}
@@ -0,0 +1,235 @@
+package analytics;
+
+import data.datapoints.DataPoint;
+import data.datapoints.StockDataPoint;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Maintains the high, low, mean, and standard deviation of a history over a trailing window of calendar days. Each
+ * appended data point is processed in amortized O(1) time: the high and low are kept in monotonic deques, and the mean
+ * and variance are kept as Welford running sums which data points are added to and removed from as the window slides.
+ */
+public class RollingWindowStats {
+    private static final int INITIAL_CAPACITY = 512;
+    private static final int RECOMPUTE_INTERVAL = 4096; // removals between exact recomputations of the running sums
+
+    private int windowDays;
+    private long[] days;
+    private double[] closeValues;
+    private double[] highValues;
+    private double[] lowValues;
+    private int start;
+    private int end;
+    private int[] maxDeque;
+    private int maxStart;
+    private int maxEnd;
+    private int[] minDeque;
+    private int minStart;
+    private int minEnd;
+    private double mean;
+    private double m2;
+    private int numRemovals;
+
+    /**
+     * Initializes class member variables and fills the window with the tail of the history.
+     *
+     * @param windowDays The length of the window in calendar days.
+     * @param history The history whose latest data points are to fill the window, sorted by date in ascending order.
+     */
+    public RollingWindowStats(int windowDays, List<DataPoint> history) {
+        this.windowDays = windowDays;
+        this.days = new long[INITIAL_CAPACITY];
+        this.closeValues = new double[INITIAL_CAPACITY];
+        this.highValues = new double[INITIAL_CAPACITY];
+        this.lowValues = new double[INITIAL_CAPACITY];
+        this.maxDeque = new int[INITIAL_CAPACITY];
+        this.minDeque = new int[INITIAL_CAPACITY];
+
+        int first = history.size();
+
+        if (first > 0) {
+            long stopDay = history.get(history.size() - 1).getDate().toEpochDay() - windowDays;
+
+            while (first > 0 && history.get(first - 1).getDate().toEpochDay() >= stopDay) {
+                first--;
+            }
+        }
+
+        for (int i = first; i < history.size(); i++) {
+            append(history.get(i));
+        }
+    }
+
+    /**
+     * Adds a data point to the window and evicts any data points which have fallen out of it.
+     *
+     * @param dataPoint The data point to be added, dated after every data point already in the window.
+     */
+    public void append(DataPoint dataPoint) {
+        double close = dataPoint.getMarketCloseValue();
+        double high = close;
+        double low = close;
+
+        if (dataPoint instanceof StockDataPoint) {
+            high = ((StockDataPoint) dataPoint).getMarketHighValue();
+            low = ((StockDataPoint) dataPoint).getMarketLowValue();
+        }
+
+        ensureCapacity();
+
+        long day = dataPoint.getDate().toEpochDay();
+
+        days[end] = day;
+        closeValues[end] = close;
+        highValues[end] = high;
+        lowValues[end] = low;
+
+        while (maxEnd > maxStart && highValues[maxDeque[maxEnd - 1]] <= high) {
+            maxEnd--;
+        }
+
+        while (minEnd > minStart && lowValues[minDeque[minEnd - 1]] >= low) {
+            minEnd--;
+        }
+
+        maxDeque[maxEnd++] = end;
+        minDeque[minEnd++] = end;
+        end++;
+
+        double delta = close - mean;
+
+        mean += delta / (end - start);
+        m2 += delta * (close - mean);
+
+        while (days[start] < day - windowDays) {
+            evictFirst();
+        }
+    }
+
+    // getter methods for the window statistics
+
+    public int getCount() {
+        return end - start;
+    }
+
+    public double getHigh() {
+        return end == start ? 0 : highValues[maxDeque[maxStart]];
+    }
+
+    public double getLow() {
+        return end == start ? 0 : lowValues[minDeque[minStart]];
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public double getLastClose() {
+        return end == start ? 0 : closeValues[end - 1];
+    }
+
+    /**
+     * Calculates the (population) standard deviation of the close values in the window.
+     *
+     * @return The standard deviation.
+     */
+    public double getStandardDeviation() {
+        return end == start ? 0 : Math.sqrt(Math.max(m2, 0) / (end - start));
+    }
+
+    /**
+     * Removes the oldest data point from the window.
+     */
+    private void evictFirst() {
+        double close = closeValues[start];
+        int count = end - start;
+
+        if (maxDeque[maxStart] == start) {
+            maxStart++;
+        }
+
+        if (minDeque[minStart] == start) {
+            minStart++;
+        }
+
+        start++;
+
+        if (count == 1) {
+            mean = 0;
+            m2 = 0;
+        } else if (++numRemovals % RECOMPUTE_INTERVAL == 0) {
+            recompute();
+        } else {
+            double delta = close - mean;
+
+            mean -= delta / (count - 1);
+            m2 -= delta * (close - mean);
+        }
+    }
+
+    /**
+     * Recomputes the running sums exactly, discarding any floating point error accumulated by the removals.
+     */
+    private void recompute() {
+        double sum = 0;
+        double squaredDiffSum = 0;
+
+        for (int i = start; i < end; i++) {
+            sum += closeValues[i];
+        }
+
+        mean = sum / (end - start);
+
+        for (int i = start; i < end; i++) {
+            double diff = closeValues[i] - mean;
+            squaredDiffSum += diff * diff;
+        }
+
+        m2 = squaredDiffSum;
+    }
+
+    /**
+     * Makes room for one more data point at the end of the arrays, either by shifting the window back to the start of
+     * the arrays (if most of their capacity has been evicted) or by growing them.
+     */
+    private void ensureCapacity() {
+        if (end < days.length) {
+            return;
+        }
+
+        if (start > days.length / 2) {
+            int shift = start;
+
+            System.arraycopy(days, start, days, 0, end - start);
+            System.arraycopy(closeValues, start, closeValues, 0, end - start);
+            System.arraycopy(highValues, start, highValues, 0, end - start);
+            System.arraycopy(lowValues, start, lowValues, 0, end - start);
+
+            for (int i = maxStart; i < maxEnd; i++) {
+                maxDeque[i - maxStart] = maxDeque[i] - shift;
+            }
+
+            for (int i = minStart; i < minEnd; i++) {
+                minDeque[i - minStart] = minDeque[i] - shift;
+            }
+
+            maxEnd -= maxStart;
+            maxStart = 0;
+            minEnd -= minStart;
+            minStart = 0;
+            end -= shift;
+            start = 0;
+        } else {
+            int newCapacity = days.length * 2;
+
+            days = Arrays.copyOf(days, newCapacity);
+            closeValues = Arrays.copyOf(closeValues, newCapacity);
+            highValues = Arrays.copyOf(highValues, newCapacity);
+            lowValues = Arrays.copyOf(lowValues, newCapacity);
+            maxDeque = Arrays.copyOf(maxDeque, newCapacity);
+            minDeque = Arrays.copyOf(minDeque, newCapacity);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package analytics;
+
+import data.records.TransactionRecord;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A what-if scenario: a set of hypothetical trades made on top of the real portfolio. Scenarios are immutable and
+ * persistent. Adding a trade (or forking a differently named branch) creates a new scenario which points back at the
+ * one it was made from, so any number of scenarios can share a common set of trades, and evaluating a scenario only
+ * recomputes what its own trade changes (see ScenarioSandbox).
+ */
+public class Scenario {
+    private String name;
+    private Scenario parent;
+    private TransactionRecord trade;
+    private int numTrades;
+
+    /**
+     * Initializes class member variables. The scenario starts out with no hypothetical trades.
+     *
+     * @param name The name of the scenario.
+     */
+    public Scenario(String name) {
+        this(name, null, null);
+    }
+
+    /**
+     * Initializes class member variables.
+     *
+     * @param name The name of the scenario.
+     * @param parent The scenario this one was made from; null if it was made from the real portfolio.
+     * @param trade The hypothetical trade this scenario adds to its parent; null if it adds none.
+     */
+    private Scenario(String name, Scenario parent, TransactionRecord trade) {
+        this.name = name;
+        this.parent = parent;
+        this.trade = trade;
+        this.numTrades = (parent == null ? 0 : parent.numTrades) + (trade == null ? 0 : 1);
+    }
+
+    // getter methods for class member variables
+
+    public String getName() {
+        return name;
+    }
+
+    public Scenario getParent() {
+        return parent;
+    }
+
+    public TransactionRecord getTrade() {
+        return trade;
+    }
+
+    public int getNumTrades() {
+        return numTrades;
+    }
+
+    /**
+     * Creates a scenario with one more hypothetical trade. This scenario is left unchanged.
+     *
+     * @param trade The hypothetical trade, taking effect at the close on its date.
+     * @return The new scenario.
+     */
+    public Scenario withTrade(TransactionRecord trade) {
+        return new Scenario(name, this, trade);
+    }
+
+    /**
+     * Creates a differently named scenario with the same hypothetical trades as this one, so the two can go on to
+     * diverge.
+     *
+     * @param name The name of the new scenario.
+     * @return The new scenario.
+     */
+    public Scenario fork(String name) {
+        return new Scenario(name, this, null);
+    }
+
+    /**
+     * Gets every hypothetical trade of the scenario in the order they were added.
+     *
+     * @return A list of the hypothetical trades.
+     */
+    public List<TransactionRecord> getTrades() {
+        List<TransactionRecord> trades = new ArrayList<>();
+
+        for (Scenario scenario = this; scenario != null; scenario = scenario.parent) {
+            if (scenario.trade != null) {
+                trades.add(scenario.trade);
+            }
+        }
+
+        Collections.reverse(trades);
+
+        return trades;
+    }
+}
@@ -0,0 +1,65 @@
+package analytics;
+
+import data.datapoints.DataPoint;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A read-only history which shares every data point before a fork index with another history (the real portfolio's, or
+ * another scenario's) and holds its own data points only from the fork index onward. Creating one therefore costs
+ * O(changed data points) rather than a copy of the whole history. A fork at or before the fork index of the history it
+ * is made from replaces all of that history's own data points, so it shares that history's base directly, which keeps
+ * chains of forks short.
+ */
+public class ScenarioHistory extends AbstractList<DataPoint> implements RandomAccess {
+    private List<DataPoint> base;
+    private int forkIndex;
+    private DataPoint[] tail;
+
+    /**
+     * Initializes class member variables.
+     *
+     * @param parent The history the data points before the fork index are shared with.
+     * @param forkIndex The index of the first data point held by this history.
+     * @param tail The data points held by this history, i.e. those from the fork index onward.
+     */
+    public ScenarioHistory(List<DataPoint> parent, int forkIndex, DataPoint[] tail) {
+        List<DataPoint> base = parent;
+
+        while (base instanceof ScenarioHistory && forkIndex <= ((ScenarioHistory) base).forkIndex) {
+            base = ((ScenarioHistory) base).base;
+        }
+
+        this.base = base;
+        this.forkIndex = forkIndex;
+        this.tail = tail;
+    }
+
+    @Override
+    public DataPoint get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+
+        ScenarioHistory history = this;
+
+        while (index < history.forkIndex && history.base instanceof ScenarioHistory) {
+            history = (ScenarioHistory) history.base;
+        }
+
+        return index >= history.forkIndex ? history.tail[index - history.forkIndex] : history.base.get(index);
+    }
+
+    @Override
+    public int size() {
+        return forkIndex + tail.length;
+    }
+
+    // getter methods for class member variables
+
+    public int getForkIndex() {
+        return forkIndex;
+    }
+}
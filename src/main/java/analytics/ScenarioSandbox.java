@@ -0,0 +1,438 @@
+package analytics;
+
+import data.datapoints.DataPoint;
+import data.datapoints.PortfolioDataPoint;
+import data.records.PortfolioRecord;
+import data.records.RecordType;
+import data.records.StockRecord;
+import data.records.TransactionRecord;
+import error.PAException;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Evaluates what-if scenarios against the real portfolio without modifying it. A scenario's history is its parent's
+ * history with the effect of its own hypothetical trade added from the trade's date onward, held as a ScenarioHistory
+ * which shares every earlier data point with the parent. Evaluating a scenario therefore costs O(data points on or
+ * after its trade's date), and the results of parent scenarios are cached so scenarios sharing trades share the work.
+ * Several scenarios can be evaluated in parallel on a fork-join pool.
+ *
+ * Assets traded only hypothetically need their records added with addStockRecord() first, along with the record of
+ * their exchange rate into the portfolio's base currency (addFXRecord()) if the portfolio holds none. Cached results
+ * are only valid until the real portfolio's history changes, after which invalidate() must be called.
+ */
+public class ScenarioSandbox {
+    private PortfolioRecord portRecord;
+    private Map<String, StockRecord> stockDataRecords;
+    private Map<String, StockRecord> scenarioRecords;
+    private Map<String, StockRecord> fxRecords; // currency -> exchange rate into the base currency, for scenario-only assets
+    private Map<Scenario, ScenarioResult> results;
+    private ForkJoinPool pool;
+
+    /**
+     * Initializes class member variables. Evaluates scenarios on the common fork-join pool.
+     *
+     * @param portRecord The portfolio record the scenarios are made on top of.
+     * @param stockDataRecords A map containing all records of assets currently allocated in the portfolio.
+     */
+    public ScenarioSandbox(PortfolioRecord portRecord, Map<String, StockRecord> stockDataRecords) {
+        this(portRecord, stockDataRecords, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Initializes class member variables.
+     *
+     * @param portRecord The portfolio record the scenarios are made on top of.
+     * @param stockDataRecords A map containing all records of assets currently allocated in the portfolio.
+     * @param pool The fork-join pool on which to evaluate scenarios.
+     */
+    public ScenarioSandbox(PortfolioRecord portRecord, Map<String, StockRecord> stockDataRecords, ForkJoinPool pool) {
+        this.portRecord = portRecord;
+        this.stockDataRecords = stockDataRecords;
+        this.scenarioRecords = new ConcurrentHashMap<>();
+        this.fxRecords = new ConcurrentHashMap<>();
+        this.results = new ConcurrentHashMap<>();
+        this.pool = pool;
+    }
+
+    /**
+     * Adds the record of an asset which is not allocated in the portfolio, so that it can be traded hypothetically.
+     *
+     * @param stockRecord The record of the asset.
+     */
+    public void addStockRecord(StockRecord stockRecord) {
+        scenarioRecords.put(stockRecord.getTicker(), stockRecord);
+    }
+
+    /**
+     * Adds the record of the exchange rate from a currency into the portfolio's base currency, so that assets quoted in
+     * a currency the portfolio does not hold can be traded hypothetically.
+     *
+     * @param currency The currency converted from (e.g. "EUR").
+     * @param fxRecord The record holding the history of the exchange rate, whose currency is the base currency.
+     */
+    public void addFXRecord(String currency, StockRecord fxRecord) {
+        fxRecords.put(currency, fxRecord);
+    }
+
+    /**
+     * Determines if the exchange rates from a currency into the portfolio's base currency need to be added before an
+     * asset quoted in the currency can be traded hypothetically.
+     *
+     * @param currency The currency in question.
+     * @return True if neither the portfolio nor the sandbox holds the exchange rates; false otherwise.
+     */
+    public boolean needsFXRecord(String currency) {
+        return !currency.equals(portRecord.getBaseCurrency()) && !portRecord.getFXRecords().containsKey(currency)
+                && getScenarioFXRecord(currency) == null;
+    }
+
+    /**
+     * Determines if the record of an asset is available to the sandbox.
+     *
+     * @param ticker The ticker symbol of the asset.
+     * @return True if the asset can be traded hypothetically; false otherwise.
+     */
+    public boolean hasStockRecord(String ticker) {
+        return getStockRecord(ticker) != null;
+    }
+
+    /**
+     * Discards all cached results. Must be called whenever the real portfolio's history changes.
+     */
+    public void invalidate() {
+        results.clear();
+    }
+
+    /**
+     * Checks that a hypothetical trade can be evaluated, i.e. that the sandbox has the record of its asset and the
+     * exchange rates needed to value it, and that the asset traded on the trade's date.
+     *
+     * @param trade The hypothetical trade.
+     * @throws PAException If the asset has no record or exchange rates, or did not trade on the trade's date.
+     */
+    public void validateTrade(TransactionRecord trade) throws PAException {
+        StockRecord stockRecord = getStockRecord(trade.getTicker());
+
+        if (stockRecord == null) {
+            throw new PAException(PAException.Type.MISSING_HISTORY, "No historical data stored for " + trade.getTicker() + ".");
+        }
+
+        if (needsFXRecord(stockRecord.getCurrency())) {
+            throw new PAException(PAException.Type.MISSING_HISTORY, "No exchange rates stored for " + stockRecord.getCurrency() + ".");
+        }
+
+        DataPoint dataPoint = ValuationEngine.findDataPoint(stockRecord.getHistory(), trade.getDate());
+
+        if (dataPoint == null || !dataPoint.getDate().equals(trade.getDate())) {
+            throw new PAException(PAException.Type.INVALID_TRANSACTION_DATE, "Transaction date either on weekend, holiday, or in future.");
+        }
+    }
+
+    /**
+     * Evaluates a scenario, reusing the cached results of any scenarios it was made from.
+     *
+     * @param scenario The scenario to be evaluated.
+     * @return The scenario's history and the indices over it.
+     * @throws PAException If one of the scenario's trades cannot be evaluated.
+     */
+    public ScenarioResult evaluate(Scenario scenario) throws PAException {
+        for (TransactionRecord trade : scenario.getTrades()) {
+            validateTrade(trade);
+        }
+
+        return getResult(scenario);
+    }
+
+    /**
+     * Checks that every trade of several scenarios can be evaluated.
+     *
+     * @param scenarios The scenarios to be checked.
+     * @throws PAException If one of the scenarios' trades cannot be evaluated.
+     */
+    public void validateAll(List<Scenario> scenarios) throws PAException {
+        for (Scenario scenario : scenarios) {
+            for (TransactionRecord trade : scenario.getTrades()) {
+                validateTrade(trade);
+            }
+        }
+    }
+
+    /**
+     * Evaluates several scenarios in parallel. Scenarios sharing trades share the evaluation of those trades.
+     *
+     * @param scenarios The scenarios to be evaluated, whose trades have already been checked with validateAll().
+     * @return The results, in the same order as the scenarios.
+     */
+    public List<ScenarioResult> evaluateAll(List<Scenario> scenarios) {
+        ScenarioResult[] evaluated = new ScenarioResult[scenarios.size()];
+
+        if (scenarios.size() > 0) {
+            pool.invoke(new EvaluateAction(scenarios, evaluated, 0, scenarios.size()));
+        }
+
+        return new ArrayList<>(Arrays.asList(evaluated));
+    }
+
+    /**
+     * Calculates the number of shares of an asset held in a scenario at the end of the specified date. Used to size
+     * trades relative to a holding (e.g. "sell half of X").
+     *
+     * @param scenario The scenario in question.
+     * @param valuationEngine The valuation engine holding the deltas of every real transaction.
+     * @param ticker The ticker symbol of the asset.
+     * @param date The date in question.
+     * @return The number of shares held.
+     */
+    public double getNumShares(Scenario scenario, ValuationEngine valuationEngine, String ticker, LocalDate date) {
+        double numShares = valuationEngine.getNumShares(ticker, date);
+
+        for (TransactionRecord trade : scenario.getTrades()) {
+            if (trade.getTicker().equals(ticker) && trade.getDate().compareTo(date) <= 0) {
+                numShares += trade.isBuy() ? trade.getNumShares() : -trade.getNumShares();
+            }
+        }
+
+        return numShares;
+    }
+
+    /**
+     * Gets the result of a scenario, evaluating it (and any of the scenarios it was made from) if it is not cached.
+     * The scenario is locked while it is evaluated, so concurrent evaluations of scenarios sharing a parent evaluate
+     * the parent only once.
+     *
+     * @param scenario The scenario, whose trades have already been validated.
+     * @return The scenario's result.
+     */
+    private ScenarioResult getResult(Scenario scenario) {
+        ScenarioResult result = results.get(scenario);
+
+        if (result != null) {
+            return result;
+        }
+
+        synchronized (scenario) {
+            result = results.get(scenario);
+
+            if (result == null) {
+                List<DataPoint> parentHistory = scenario.getParent() == null ? portRecord.getHistory()
+                        : getResult(scenario.getParent()).getHistory();
+                List<DataPoint> history = scenario.getTrade() == null ? parentHistory
+                        : applyTrade(parentHistory, scenario.getTrade());
+
+                result = new ScenarioResult(scenario, history);
+                results.put(scenario, result);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Adds the effect of a hypothetical trade to a history. Every data point dated on or after the trade's date is
+     * replaced; the rest are shared with the history. On dates the asset did not trade, its last close is carried
+     * forward.
+     *
+     * @param parentHistory The history the trade is made on top of.
+     * @param trade The hypothetical trade.
+     * @return The history with the trade applied.
+     */
+    private List<DataPoint> applyTrade(List<DataPoint> parentHistory, TransactionRecord trade) {
+        StockRecord stockRecord = getStockRecord(trade.getTicker());
+        List<DataPoint> stockHistory = stockRecord.getHistory();
+        FXRateIndex fxRates = getFXRates(stockRecord);
+        double sign = trade.isBuy() ? 1 : -1;
+        double numShares = sign * trade.getNumShares();
+        double moneyAmount = sign * (trade.getType() == RecordType.DIVIDEND_RECORD ? trade.getPrice()
+                : trade.getPrice() * trade.getNumShares());
+        int from = getFirstIndexFrom(parentHistory, trade.getDate());
+        DataPoint[] tail = new DataPoint[parentHistory.size() - from];
+        int j = from < parentHistory.size() ? getLastIndexThrough(stockHistory, parentHistory.get(from).getDate()) : -1;
+
+        for (int i = from; i < parentHistory.size(); i++) {
+            DataPoint dataPoint = parentHistory.get(i);
+            LocalDate date = dataPoint.getDate();
+            double openValue = 0;
+            double closeValue = 0;
+
+            while (j + 1 < stockHistory.size() && stockHistory.get(j + 1).getDate().compareTo(date) <= 0) {
+                j++;
+            }
+
+            if (j >= 0) {
+                DataPoint stockDataPoint = stockHistory.get(j);
+                double rate = fxRates == null ? 1 : fxRates.getRate(j);
+
+                closeValue = stockDataPoint.getMarketCloseValue() * rate;
+                openValue = stockDataPoint.getDate().equals(date) ? stockDataPoint.getMarketOpenValue() * rate : closeValue;
+            }
+
+            tail[i - from] = new PortfolioDataPoint(date, dataPoint.getMarketOpenValue() + numShares * openValue,
+                    dataPoint.getMarketCloseValue() + numShares * closeValue, dataPoint.getMoneyInvested() + moneyAmount);
+        }
+
+        return new ScenarioHistory(parentHistory, from, tail);
+    }
+
+    /**
+     * Gets the record of an asset, whether it is allocated in the portfolio, was held in it before, or is only traded
+     * hypothetically.
+     *
+     * @param ticker The ticker symbol of the asset.
+     * @return The record of the asset; null if the sandbox has none.
+     */
+    private StockRecord getStockRecord(String ticker) {
+        StockRecord stockRecord = stockDataRecords.get(ticker);
+
+        if (stockRecord == null) {
+            stockRecord = portRecord.getClosedRecords().get(ticker);
+        }
+
+        return stockRecord != null ? stockRecord : scenarioRecords.get(ticker);
+    }
+
+    /**
+     * Gets the exchange rates converting an asset's prices into the portfolio's base currency, from the portfolio's FX
+     * records or, for a currency the portfolio does not hold, from the sandbox's.
+     *
+     * @param stockRecord The record of the asset.
+     * @return The aligned exchange rates; null if the asset is quoted in the base currency.
+     */
+    private FXRateIndex getFXRates(StockRecord stockRecord) {
+        FXRateIndex fxRates = portRecord.getFXRates(stockRecord);
+        StockRecord fxRecord = getScenarioFXRecord(stockRecord.getCurrency());
+
+        return fxRates == null && fxRecord != null ? stockRecord.getFXRates(fxRecord) : fxRates;
+    }
+
+    /**
+     * Gets the sandbox's record of the exchange rate from a currency into the portfolio's base currency. Records
+     * converting into a former base currency are ignored.
+     *
+     * @param currency The currency converted from.
+     * @return The record of the exchange rate; null if the sandbox has none into the current base currency.
+     */
+    private StockRecord getScenarioFXRecord(String currency) {
+        StockRecord fxRecord = fxRecords.get(currency);
+
+        return fxRecord != null && fxRecord.getCurrency().equals(portRecord.getBaseCurrency()) ? fxRecord : null;
+    }
+
+    /**
+     * Finds the index of the first data point in a history dated on or after the specified date using binary search.
+     *
+     * @param history The history to search, sorted by date.
+     * @param date The date in question.
+     * @return The index of the first data point dated on or after the date; the size of the history if there is none.
+     */
+    private static int getFirstIndexFrom(List<DataPoint> history, LocalDate date) {
+        int low = 0;
+        int high = history.size();
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+
+            if (history.get(mid).getDate().compareTo(date) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Finds the index of the last data point in a history dated on or before the specified date using binary search.
+     *
+     * @param history The history to search, sorted by date.
+     * @param date The date in question.
+     * @return The index of the last data point dated on or before the date; -1 if there is none.
+     */
+    private static int getLastIndexThrough(List<DataPoint> history, LocalDate date) {
+        return getFirstIndexFrom(history, date.plusDays(1)) - 1;
+    }
+
+    /**
+     * Evaluates a range of scenarios, splitting the range in half until a single scenario remains.
+     */
+    private class EvaluateAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L; // never serialized, but fork-join tasks are Serializable
+
+        private List<Scenario> scenarios;
+        private ScenarioResult[] evaluated;
+        private int from;
+        private int to;
+
+        EvaluateAction(List<Scenario> scenarios, ScenarioResult[] evaluated, int from, int to) {
+            this.scenarios = scenarios;
+            this.evaluated = evaluated;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                evaluated[from] = getResult(scenarios.get(from));
+            } else {
+                int mid = (from + to) >>> 1;
+
+                invokeAll(new EvaluateAction(scenarios, evaluated, from, mid), new EvaluateAction(scenarios, evaluated, mid, to));
+            }
+        }
+    }
+
+    /**
+     * The history of an evaluated scenario, along with the indices used to graph it and calculate its statistics. The
+     * indices are built lazily, since not every use of a scenario needs them.
+     */
+    public static class ScenarioResult {
+        private Scenario scenario;
+        private List<DataPoint> history;
+        private ReturnIndex returnIndex;
+        private PeriodIndex periodIndex;
+
+        ScenarioResult(Scenario scenario, List<DataPoint> history) {
+            this.scenario = scenario;
+            this.history = history;
+        }
+
+        // getter methods for class member variables
+
+        public Scenario getScenario() {
+            return scenario;
+        }
+
+        public String getName() {
+            return scenario.getName();
+        }
+
+        public List<DataPoint> getHistory() {
+            return history;
+        }
+
+        public synchronized ReturnIndex getReturnIndex() {
+            if (returnIndex == null) {
+                returnIndex = new ReturnIndex(history);
+            }
+
+            return returnIndex;
+        }
+
+        public synchronized PeriodIndex getPeriodIndex() {
+            if (periodIndex == null) {
+                periodIndex = new PeriodIndex(history);
+            }
+
+            return periodIndex;
+        }
+    }
+}
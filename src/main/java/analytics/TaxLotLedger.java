@@ -0,0 +1,603 @@
+package analytics;
+
+import data.records.RecordType;
+import data.records.TransactionRecord;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+
+/**
+ * Tracks the tax lots of every asset and the realized gains of every sale. Each buy (or dividend reinvestment) opens a
+ * lot, and each sell closes shares out of the open lots according to the cost basis method: first in first out, last
+ * in first out, highest cost first out, or specific lots chosen by their purchase dates.
+ *
+ * The lots of an asset are kept in date order in an array-backed deque, so FIFO and LIFO sales take O(1) time per lot
+ * closed, HIFO sales take O(log n) time per lot closed using a heap over lot costs, and specific lots are found by
+ * binary search. Lots emptied in the middle of the deque are skipped lazily once they reach either end. Realized gains
+ * and cost basis are kept as running sums, so every query takes O(1) time. Transactions dated after all others of the
+ * same asset are applied incrementally; backdated transactions and undos replay the ledger of that asset alone.
+ */
+public class TaxLotLedger {
+    private static final long LONG_TERM_DAYS = 365; // lots held longer than a year produce long-term gains
+
+    private Method method;
+    private Map<String, List<TransactionRecord>> transactions;
+    private Map<String, LotQueue> lotQueues;
+    private long version; // modification version, which results derived from the ledger are cached under
+
+    // the cost basis method used to choose which lots a sale closes
+    public enum Method {
+        FIFO,
+        LIFO,
+        HIFO,
+        SPECIFIC
+    }
+
+    /**
+     * Initializes class member variables.
+     *
+     * @param method The cost basis method.
+     */
+    public TaxLotLedger(Method method) {
+        this.method = method;
+        this.transactions = new HashMap<>();
+        this.lotQueues = new HashMap<>();
+        this.version = MemoCache.nextVersion();
+    }
+
+    /**
+     * Rebuilds the lots of every asset from a ledger of transactions.
+     *
+     * @param transactionRecords A list of transaction records for all previously made transactions.
+     */
+    public void setTransactions(List<TransactionRecord> transactionRecords) {
+        List<TransactionRecord> sortedRecords = new ArrayList<>(transactionRecords);
+
+        // a stable sort keeps transactions made on the same date in the order they were recorded
+        sortedRecords.sort(Comparator.comparing(TransactionRecord::getDate));
+        transactions.clear();
+        lotQueues.clear();
+
+        for (TransactionRecord transactionRecord : sortedRecords) {
+            transactions.computeIfAbsent(transactionRecord.getTicker(), ticker -> new ArrayList<>()).add(transactionRecord);
+        }
+
+        for (String ticker : transactions.keySet()) {
+            replay(ticker);
+        }
+
+        version = MemoCache.nextVersion();
+    }
+
+    /**
+     * Changes the cost basis method and rebuilds the lots of every asset.
+     *
+     * @param method The new cost basis method.
+     */
+    public void setMethod(Method method) {
+        if (method != this.method) {
+            this.method = method;
+
+            for (String ticker : transactions.keySet()) {
+                replay(ticker);
+            }
+
+            version = MemoCache.nextVersion();
+        }
+    }
+
+    /**
+     * Records a transaction. A transaction dated on or after every other transaction of the same asset is applied
+     * directly to the asset's lots; otherwise the asset's ledger is replayed.
+     *
+     * @param transactionRecord The transaction record to be recorded.
+     */
+    public void addTransaction(TransactionRecord transactionRecord) {
+        String ticker = transactionRecord.getTicker();
+        List<TransactionRecord> tickerTransactions = transactions.computeIfAbsent(ticker, key -> new ArrayList<>());
+        int index = getInsertionIndex(tickerTransactions, transactionRecord.getDate());
+
+        tickerTransactions.add(index, transactionRecord);
+
+        if (index == tickerTransactions.size() - 1) {
+            apply(lotQueues.computeIfAbsent(ticker, key -> new LotQueue(method)), transactionRecord);
+        } else {
+            replay(ticker);
+        }
+
+        version = MemoCache.nextVersion();
+    }
+
+    /**
+     * Undoes a previously recorded transaction. The undo transaction record has the same parameters as the original
+     * but the opposite type (buy or sell); the most recently recorded matching original is removed and the asset's
+     * ledger is replayed without it.
+     *
+     * @param undoTransactionRecord The transaction record which undoes the original transaction.
+     */
+    public void undoTransaction(TransactionRecord undoTransactionRecord) {
+        List<TransactionRecord> tickerTransactions = transactions.get(undoTransactionRecord.getTicker());
+
+        if (tickerTransactions == null) {
+            return;
+        }
+
+        for (int i = tickerTransactions.size() - 1; i >= 0; i--) {
+            TransactionRecord transactionRecord = tickerTransactions.get(i);
+
+            if (transactionRecord.getDate().equals(undoTransactionRecord.getDate())
+                    && transactionRecord.getType() == undoTransactionRecord.getType()
+                    && transactionRecord.isBuy() != undoTransactionRecord.isBuy()
+                    && transactionRecord.getNumShares() == undoTransactionRecord.getNumShares()
+                    && transactionRecord.getPrice() == undoTransactionRecord.getPrice()) {
+                tickerTransactions.remove(i);
+                replay(undoTransactionRecord.getTicker());
+                version = MemoCache.nextVersion();
+
+                return;
+            }
+        }
+    }
+
+    // query methods, each taking O(1) time
+
+    public Method getMethod() {
+        return method;
+    }
+
+    /**
+     * Gets the ledger's modification version, which changes every time a transaction is recorded or undone or the
+     * lots are rebuilt.
+     *
+     * @return The modification version.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public double getNumShares(String ticker) {
+        LotQueue lotQueue = lotQueues.get(ticker);
+
+        return lotQueue == null ? 0 : lotQueue.numShares;
+    }
+
+    public double getCostBasis(String ticker) {
+        LotQueue lotQueue = lotQueues.get(ticker);
+
+        return lotQueue == null ? 0 : lotQueue.costBasis;
+    }
+
+    public double getRealizedGain(String ticker) {
+        return getShortTermRealizedGain(ticker) + getLongTermRealizedGain(ticker);
+    }
+
+    public double getShortTermRealizedGain(String ticker) {
+        LotQueue lotQueue = lotQueues.get(ticker);
+
+        return lotQueue == null ? 0 : lotQueue.shortTermGain;
+    }
+
+    public double getLongTermRealizedGain(String ticker) {
+        LotQueue lotQueue = lotQueues.get(ticker);
+
+        return lotQueue == null ? 0 : lotQueue.longTermGain;
+    }
+
+    /**
+     * Calculates the unrealized gain of an asset's open lots.
+     *
+     * @param ticker The ticker symbol of the asset.
+     * @param price The current price of the asset.
+     * @return The unrealized gain.
+     */
+    public double getUnrealizedGain(String ticker, double price) {
+        LotQueue lotQueue = lotQueues.get(ticker);
+
+        return lotQueue == null ? 0 : lotQueue.numShares * price - lotQueue.costBasis;
+    }
+
+    /**
+     * Calculates the realized gain of every sale of every asset.
+     *
+     * @return The total realized gain.
+     */
+    public double getRealizedGain() {
+        double realizedGain = 0;
+
+        for (LotQueue lotQueue : lotQueues.values()) {
+            realizedGain += lotQueue.shortTermGain + lotQueue.longTermGain;
+        }
+
+        return realizedGain;
+    }
+
+    /**
+     * Gets the open lots of an asset, oldest first.
+     *
+     * @param ticker The ticker symbol of the asset.
+     * @return A list of the open lots.
+     */
+    public List<Lot> getLots(String ticker) {
+        LotQueue lotQueue = lotQueues.get(ticker);
+        List<Lot> lots = new ArrayList<>();
+
+        if (lotQueue != null) {
+            for (long seq = lotQueue.firstSeq; seq < lotQueue.endSeq; seq++) {
+                int slot = lotQueue.slot(seq);
+
+                if (lotQueue.shares[slot] > 0) {
+                    lots.add(new Lot(LocalDate.ofEpochDay(lotQueue.days[slot]), lotQueue.shares[slot],
+                            lotQueue.costs[slot]));
+                }
+            }
+        }
+
+        return lots;
+    }
+
+    /**
+     * Rebuilds the lots of an asset by replaying its ledger.
+     *
+     * @param ticker The ticker symbol of the asset.
+     */
+    private void replay(String ticker) {
+        LotQueue lotQueue = new LotQueue(method);
+
+        for (TransactionRecord transactionRecord : transactions.get(ticker)) {
+            apply(lotQueue, transactionRecord);
+        }
+
+        lotQueues.put(ticker, lotQueue);
+    }
+
+    /**
+     * Applies a transaction to the lots of its asset.
+     *
+     * @param lotQueue The lots of the asset.
+     * @param transactionRecord The transaction record to be applied.
+     */
+    private void apply(LotQueue lotQueue, TransactionRecord transactionRecord) {
+        long day = transactionRecord.getDate().toEpochDay();
+        double numShares = transactionRecord.getNumShares();
+
+        if (numShares <= 0) {
+            return;
+        }
+
+        if (transactionRecord.isBuy()) {
+            // the price of a dividend reinvestment record is the dividend amount rather than the price per share
+            double costPerShare = transactionRecord.getType() == RecordType.DIVIDEND_RECORD
+                    ? transactionRecord.getPrice() / numShares : transactionRecord.getPrice();
+
+            lotQueue.open(day, numShares, costPerShare);
+        } else {
+            lotQueue.close(day, numShares, transactionRecord.getPrice(), transactionRecord.getLotDates());
+        }
+    }
+
+    /**
+     * Finds the index at which a transaction dated on the specified date is inserted into an asset's ledger, after
+     * every transaction dated on or before it.
+     *
+     * @param tickerTransactions The asset's ledger, sorted by date.
+     * @param date The date of the transaction.
+     * @return The insertion index.
+     */
+    private static int getInsertionIndex(List<TransactionRecord> tickerTransactions, LocalDate date) {
+        int low = 0;
+        int high = tickerTransactions.size();
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+
+            if (tickerTransactions.get(mid).getDate().compareTo(date) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * The open lots of a single asset in a ring buffer ordered by purchase date. Lots are addressed by sequence numbers
+     * which increase as lots are opened; the lots between firstSeq and endSeq are in the buffer.
+     */
+    private static class LotQueue {
+        private static final int INITIAL_CAPACITY = 16;
+
+        private Method method;
+        private long[] days;
+        private double[] shares;
+        private double[] costs;
+        private long firstSeq;
+        private long endSeq;
+        private long[] heap; // sequence numbers ordered by cost per share, only maintained for HIFO
+        private int heapSize;
+        private double numShares;
+        private double costBasis;
+        private double shortTermGain;
+        private double longTermGain;
+
+        /**
+         * Initializes class member variables.
+         *
+         * @param method The cost basis method.
+         */
+        LotQueue(Method method) {
+            this.method = method;
+            this.days = new long[INITIAL_CAPACITY];
+            this.shares = new double[INITIAL_CAPACITY];
+            this.costs = new double[INITIAL_CAPACITY];
+            this.heap = method == Method.HIFO ? new long[INITIAL_CAPACITY] : null;
+        }
+
+        /**
+         * Opens a lot, dated on or after every lot already open.
+         *
+         * @param day The epoch day of the purchase.
+         * @param numShares The number of shares purchased.
+         * @param costPerShare The cost per share.
+         */
+        void open(long day, double numShares, double costPerShare) {
+            if (endSeq - firstSeq == days.length) {
+                grow();
+            }
+
+            int slot = slot(endSeq);
+
+            days[slot] = day;
+            shares[slot] = numShares;
+            costs[slot] = costPerShare;
+
+            if (heap != null) {
+                push(endSeq);
+            }
+
+            endSeq++;
+            this.numShares += numShares;
+            costBasis += numShares * costPerShare;
+        }
+
+        /**
+         * Closes shares out of the open lots according to the cost basis method.
+         *
+         * @param day The epoch day of the sale.
+         * @param numShares The number of shares sold.
+         * @param price The sale price per share.
+         * @param lotDates The purchase dates of the lots to close first for specific lot sales; may be null.
+         */
+        void close(long day, double numShares, double price, LocalDate[] lotDates) {
+            double remaining = numShares;
+
+            if (method == Method.SPECIFIC && lotDates != null) {
+                for (LocalDate lotDate : lotDates) {
+                    long lotDay = lotDate.toEpochDay();
+
+                    for (long seq = getFirstSeqFrom(lotDay); seq < endSeq && remaining > 0; seq++) {
+                        if (days[slot(seq)] != lotDay) {
+                            break;
+                        }
+
+                        remaining = take(seq, remaining, day, price);
+                    }
+                }
+            }
+
+            // whatever is not covered by specific lots falls back to the default order of the method
+            while (remaining > 0 && trim()) {
+                long seq;
+
+                if (method == Method.LIFO) {
+                    seq = endSeq - 1;
+                } else if (method == Method.HIFO) {
+                    seq = heap[0];
+                } else {
+                    seq = firstSeq;
+                }
+
+                remaining = take(seq, remaining, day, price);
+            }
+
+            trim();
+        }
+
+        /**
+         * Closes as many shares as needed (and available) out of a single lot and realizes their gain.
+         *
+         * @param seq The sequence number of the lot.
+         * @param remaining The number of shares still to be closed.
+         * @param day The epoch day of the sale.
+         * @param price The sale price per share.
+         * @return The number of shares still to be closed afterwards.
+         */
+        private double take(long seq, double remaining, long day, double price) {
+            int slot = slot(seq);
+            double taken = Math.min(shares[slot], remaining);
+            double gain = taken * (price - costs[slot]);
+
+            if (day - days[slot] > LONG_TERM_DAYS) {
+                longTermGain += gain;
+            } else {
+                shortTermGain += gain;
+            }
+
+            shares[slot] -= taken;
+            numShares -= taken;
+            costBasis -= taken * costs[slot];
+
+            // fractional share arithmetic can leave a negligible remainder which would otherwise never be closed
+            if (shares[slot] < 1e-9) {
+                shares[slot] = 0;
+            }
+
+            return remaining - taken < 1e-9 ? 0 : remaining - taken;
+        }
+
+        /**
+         * Drops emptied lots from both ends of the deque (and the top of the heap).
+         *
+         * @return True if any shares remain open; false otherwise.
+         */
+        private boolean trim() {
+            while (firstSeq < endSeq && shares[slot(firstSeq)] == 0) {
+                firstSeq++;
+            }
+
+            while (endSeq > firstSeq && shares[slot(endSeq - 1)] == 0) {
+                endSeq--;
+            }
+
+            while (heap != null && heapSize > 0
+                    && (heap[0] < firstSeq || heap[0] >= endSeq || shares[slot(heap[0])] == 0)) {
+                pop();
+            }
+
+            if (firstSeq == endSeq) {
+                numShares = 0;
+                costBasis = 0;
+            }
+
+            return firstSeq < endSeq;
+        }
+
+        /**
+         * Finds the sequence number of the first open lot purchased on or after the specified day using binary search.
+         *
+         * @param day The epoch day in question.
+         * @return The sequence number; endSeq if there is none.
+         */
+        private long getFirstSeqFrom(long day) {
+            long low = firstSeq;
+            long high = endSeq;
+
+            while (low < high) {
+                long mid = (low + high) >>> 1;
+
+                if (days[slot(mid)] < day) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+
+            return low;
+        }
+
+        /**
+         * Maps a sequence number to its slot in the ring buffer.
+         *
+         * @param seq The sequence number.
+         * @return The slot.
+         */
+        int slot(long seq) {
+            return (int) (seq & (days.length - 1));
+        }
+
+        /**
+         * Doubles the capacity of the ring buffer, keeping every lot at the slot of its sequence number.
+         */
+        private void grow() {
+            int capacity = days.length * 2;
+            long[] newDays = new long[capacity];
+            double[] newShares = new double[capacity];
+            double[] newCosts = new double[capacity];
+
+            for (long seq = firstSeq; seq < endSeq; seq++) {
+                int oldSlot = slot(seq);
+                int newSlot = (int) (seq & (capacity - 1));
+
+                newDays[newSlot] = days[oldSlot];
+                newShares[newSlot] = shares[oldSlot];
+                newCosts[newSlot] = costs[oldSlot];
+            }
+
+            days = newDays;
+            shares = newShares;
+            costs = newCosts;
+        }
+
+        /**
+         * Pushes a lot onto the heap of lots ordered by cost per share (highest first).
+         *
+         * @param seq The sequence number of the lot, which must already be in the ring buffer.
+         */
+        private void push(long seq) {
+            if (heapSize == heap.length) {
+                heap = Arrays.copyOf(heap, heapSize * 2);
+            }
+
+            int i = heapSize++;
+
+            while (i > 0 && costs[slot(heap[(i - 1) / 2])] < costs[slot(seq)]) {
+                heap[i] = heap[(i - 1) / 2];
+                i = (i - 1) / 2;
+            }
+
+            heap[i] = seq;
+        }
+
+        /**
+         * Removes the top of the heap.
+         */
+        private void pop() {
+            long last = heap[--heapSize];
+            int i = 0;
+
+            while (2 * i + 1 < heapSize) {
+                int child = 2 * i + 1;
+
+                if (child + 1 < heapSize && costs[slot(heap[child + 1])] > costs[slot(heap[child])]) {
+                    child++;
+                }
+
+                if (costs[slot(heap[child])] <= costs[slot(last)]) {
+                    break;
+                }
+
+                heap[i] = heap[child];
+                i = child;
+            }
+
+            heap[i] = last;
+        }
+    }
+
+    /**
+     * An open tax lot.
+     */
+    public static class Lot {
+        private LocalDate date;
+        private double numShares;
+        private double costPerShare;
+
+        /**
+         * Initializes class member variables.
+         *
+         * @param date The purchase date of the lot.
+         * @param numShares The number of shares still open in the lot.
+         * @param costPerShare The cost per share of the lot.
+         */
+        Lot(LocalDate date, double numShares, double costPerShare) {
+            this.date = date;
+            this.numShares = numShares;
+            this.costPerShare = costPerShare;
+        }
+
+        // getter methods for class member variables
+
+        public LocalDate getDate() {
+            return date;
+        }
+
+        public double getNumShares() {
+            return numShares;
+        }
+
+        public double getCostPerShare() {
+            return costPerShare;
+        }
+    }
+}
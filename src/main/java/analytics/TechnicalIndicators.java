@@ -0,0 +1,282 @@
+package analytics;
+
+import data.datapoints.DataPoint;
+import data.datapoints.StockDataPoint;
+
+import java.util.Arrays;
+
+/**
+ * Streaming technical indicators over an asset's bars: the 14 day RSI, the 12/26/9 day MACD, the 20 day Bollinger
+ * bands (two standard deviations wide), and the 14 day ATR. Each appended bar is processed in O(1) time. RSI and ATR
+ * use Wilder's smoothing (seeded with the simple average of their first 14 values) and MACD uses exponential moving
+ * averages, all of which only depend on their value at the previous bar. The Bollinger bands are kept as running sums
+ * which the entering close is added to and the leaving close is subtracted from. The indicators can be truncated back
+ * to any number of bars (e.g. when the last bar of a history is replaced), after which appending continues from the
+ * values stored at the last kept bar.
+ */
+public class TechnicalIndicators {
+    public static final int RSI_PERIOD = 14;
+    public static final int MACD_FAST_PERIOD = 12;
+    public static final int MACD_SLOW_PERIOD = 26;
+    public static final int MACD_SIGNAL_PERIOD = 9;
+    public static final int BOLLINGER_PERIOD = 20;
+    public static final double BOLLINGER_WIDTH = 2;
+    public static final int ATR_PERIOD = 14;
+    public static final int MIN_BARS = MACD_SLOW_PERIOD + MACD_SIGNAL_PERIOD; // bars before every indicator has settled
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int RECOMPUTE_INTERVAL = 4096; // appends between exact recomputations of the running sums
+
+    private int size;
+    private double[] closeValues;
+    private double[] averageGains;
+    private double[] averageLosses;
+    private double[] fastAverages;
+    private double[] slowAverages;
+    private double[] signalAverages;
+    private double[] bollingerMiddles;
+    private double[] bollingerDeviations;
+    private double[] averageTrueRanges;
+    private double closeSum;
+    private double closeSquaredSum;
+    private int numAppends;
+
+    /**
+     * Initializes class member variables. The indicators start out with no bars.
+     */
+    public TechnicalIndicators() {
+        this.size = 0;
+        this.closeValues = new double[INITIAL_CAPACITY];
+        this.averageGains = new double[INITIAL_CAPACITY];
+        this.averageLosses = new double[INITIAL_CAPACITY];
+        this.fastAverages = new double[INITIAL_CAPACITY];
+        this.slowAverages = new double[INITIAL_CAPACITY];
+        this.signalAverages = new double[INITIAL_CAPACITY];
+        this.bollingerMiddles = new double[INITIAL_CAPACITY];
+        this.bollingerDeviations = new double[INITIAL_CAPACITY];
+        this.averageTrueRanges = new double[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Adds the next bar and computes its indicators. Data points without a high and low (i.e. which are not stock data
+     * points) are treated as bars whose high and low equal their close.
+     *
+     * @param dataPoint The bar, dated after every bar already added.
+     */
+    public void append(DataPoint dataPoint) {
+        ensureCapacity();
+
+        int i = size;
+        double close = dataPoint.getMarketCloseValue();
+        double high = close;
+        double low = close;
+
+        if (dataPoint instanceof StockDataPoint) {
+            high = ((StockDataPoint) dataPoint).getMarketHighValue();
+            low = ((StockDataPoint) dataPoint).getMarketLowValue();
+        }
+
+        closeValues[i] = close;
+        size++;
+
+        if (i == 0) {
+            averageGains[i] = 0;
+            averageLosses[i] = 0;
+            fastAverages[i] = close;
+            slowAverages[i] = close;
+            signalAverages[i] = 0;
+            averageTrueRanges[i] = high - low;
+        } else {
+            double previousClose = closeValues[i - 1];
+            double change = close - previousClose;
+            double trueRange = Math.max(high - low, Math.max(Math.abs(high - previousClose), Math.abs(low - previousClose)));
+
+            // bar i has the i-th price change, but the (i + 1)-th true range (the first bar's is its high minus low)
+            averageGains[i] = smooth(averageGains[i - 1], Math.max(change, 0), i, RSI_PERIOD);
+            averageLosses[i] = smooth(averageLosses[i - 1], Math.max(-change, 0), i, RSI_PERIOD);
+            averageTrueRanges[i] = smooth(averageTrueRanges[i - 1], trueRange, i + 1, ATR_PERIOD);
+            fastAverages[i] = exponentialAverage(fastAverages[i - 1], close, MACD_FAST_PERIOD);
+            slowAverages[i] = exponentialAverage(slowAverages[i - 1], close, MACD_SLOW_PERIOD);
+            signalAverages[i] = exponentialAverage(signalAverages[i - 1], getMACD(i), MACD_SIGNAL_PERIOD);
+        }
+
+        closeSum += close;
+        closeSquaredSum += close * close;
+
+        if (i >= BOLLINGER_PERIOD) {
+            double leaving = closeValues[i - BOLLINGER_PERIOD];
+
+            closeSum -= leaving;
+            closeSquaredSum -= leaving * leaving;
+        }
+
+        if (++numAppends % RECOMPUTE_INTERVAL == 0) {
+            recompute();
+        }
+
+        int count = Math.min(i + 1, BOLLINGER_PERIOD);
+        double mean = closeSum / count;
+
+        bollingerMiddles[i] = mean;
+        bollingerDeviations[i] = Math.sqrt(Math.max(closeSquaredSum / count - mean * mean, 0));
+    }
+
+    /**
+     * Removes every bar from the specified index onward and rebuilds the running sums of the Bollinger window ending
+     * just before it, so appending can continue from there. Costs O(Bollinger period) time.
+     *
+     * @param newSize The number of bars to keep.
+     */
+    public void truncate(int newSize) {
+        if (newSize >= size) {
+            return;
+        }
+
+        size = Math.max(newSize, 0);
+        recompute();
+    }
+
+    /**
+     * Gets the number of bars.
+     *
+     * @return The number of bars.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Checks whether every indicator of a bar has enough bars behind it to have settled.
+     *
+     * @param index The index of the bar.
+     * @return True if the indicators of the bar have settled; false otherwise.
+     */
+    public boolean isReady(int index) {
+        return index >= MIN_BARS - 1;
+    }
+
+    /**
+     * Gets the relative strength index of a bar.
+     *
+     * @param index The index of the bar.
+     * @return The RSI, between 0 and 100; 50 if there has been no price change.
+     */
+    public double getRSI(int index) {
+        double averageGain = averageGains[index];
+        double averageLoss = averageLosses[index];
+
+        if (averageLoss == 0) {
+            return averageGain == 0 ? 50 : 100;
+        }
+
+        return 100 - 100 / (1 + averageGain / averageLoss);
+    }
+
+    /**
+     * Gets the MACD line of a bar, i.e. the fast exponential moving average of the close minus the slow one.
+     *
+     * @param index The index of the bar.
+     * @return The MACD line.
+     */
+    public double getMACD(int index) {
+        return fastAverages[index] - slowAverages[index];
+    }
+
+    public double getMACDSignal(int index) {
+        return signalAverages[index];
+    }
+
+    public double getMACDHistogram(int index) {
+        return getMACD(index) - signalAverages[index];
+    }
+
+    public double getBollingerMiddle(int index) {
+        return bollingerMiddles[index];
+    }
+
+    public double getBollingerUpper(int index) {
+        return bollingerMiddles[index] + BOLLINGER_WIDTH * bollingerDeviations[index];
+    }
+
+    public double getBollingerLower(int index) {
+        return bollingerMiddles[index] - BOLLINGER_WIDTH * bollingerDeviations[index];
+    }
+
+    /**
+     * Gets where the close of a bar lies within its Bollinger bands (%B).
+     *
+     * @param index The index of the bar.
+     * @return 0 at the lower band, 1 at the upper band (and beyond them outside the bands); 0.5 if the bands are closed.
+     */
+    public double getBollingerPosition(int index) {
+        double width = getBollingerUpper(index) - getBollingerLower(index);
+
+        return width == 0 ? 0.5 : (closeValues[index] - getBollingerLower(index)) / width;
+    }
+
+    public double getATR(int index) {
+        return averageTrueRanges[index];
+    }
+
+    /**
+     * Applies Wilder's smoothing, using the simple average of the values instead while there are no more of them than
+     * the period.
+     *
+     * @param previous The smoothed value at the previous bar.
+     * @param value The new value.
+     * @param count The number of values including the new one.
+     * @param period The smoothing period.
+     * @return The new smoothed value.
+     */
+    private static double smooth(double previous, double value, int count, int period) {
+        int divisor = Math.min(count, period);
+
+        return previous + (value - previous) / divisor;
+    }
+
+    /**
+     * Applies an exponential moving average's recurrence.
+     *
+     * @param previous The average at the previous bar.
+     * @param value The new value.
+     * @param period The period of the average.
+     * @return The new average.
+     */
+    private static double exponentialAverage(double previous, double value, int period) {
+        return previous + 2.0 / (period + 1) * (value - previous);
+    }
+
+    /**
+     * Recomputes the running sums of the Bollinger window ending at the last bar exactly, discarding any floating
+     * point error accumulated by the removals.
+     */
+    private void recompute() {
+        closeSum = 0;
+        closeSquaredSum = 0;
+
+        for (int i = Math.max(size - BOLLINGER_PERIOD, 0); i < size; i++) {
+            closeSum += closeValues[i];
+            closeSquaredSum += closeValues[i] * closeValues[i];
+        }
+    }
+
+    /**
+     * Makes room for one more bar at the end of the arrays.
+     */
+    private void ensureCapacity() {
+        if (size < closeValues.length) {
+            return;
+        }
+
+        int newCapacity = closeValues.length * 2;
+
+        closeValues = Arrays.copyOf(closeValues, newCapacity);
+        averageGains = Arrays.copyOf(averageGains, newCapacity);
+        averageLosses = Arrays.copyOf(averageLosses, newCapacity);
+        fastAverages = Arrays.copyOf(fastAverages, newCapacity);
+        slowAverages = Arrays.copyOf(slowAverages, newCapacity);
+        signalAverages = Arrays.copyOf(signalAverages, newCapacity);
+        bollingerMiddles = Arrays.copyOf(bollingerMiddles, newCapacity);
+        bollingerDeviations = Arrays.copyOf(bollingerDeviations, newCapacity);
+        averageTrueRanges = Arrays.copyOf(averageTrueRanges, newCapacity);
+    }
+}
@@ -0,0 +1,273 @@
+package analytics;
+
+import data.datapoints.DataPoint;
+import data.records.PortfolioRecord;
+import data.records.RecordType;
+import data.records.StockRecord;
+import data.records.TransactionRecord;
+
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Keeps track of the portfolio's holdings as share and cash deltas stored in date-keyed Fenwick trees. Recording or
+ * reversing a transaction of any age takes O(log n) time, and the number of shares held, the money invested, and the
+ * market value of any asset (or the portfolio as a whole) on any date are computed lazily when queried. The prefix
+ * sums of the trees act as a holdings checkpoint on every date, so a snapshot of the whole portfolio on any date takes
+ * O(log n) time per asset ever held. The portfolio record keeps an engine of its own for the transactions it has not
+ * yet valued into its history, and values them through its trees when the history is next read.
+ */
+public class ValuationEngine {
+    private static final double SHARE_TOLERANCE = 1e-9; // shares below which a position counts as closed
+
+    private Map<String, DateDeltaTree> shareDeltas;
+    private Map<String, DateDeltaTree> cashDeltas;
+    private DateDeltaTree portCashDeltas;
+
+    /**
+     * Initializes class member variables.
+     */
+    public ValuationEngine() {
+        shareDeltas = new HashMap<>();
+        cashDeltas = new HashMap<>();
+        portCashDeltas = null;
+    }
+
+    /**
+     * Initializes class member variables and records every transaction in the specified ledger.
+     *
+     * @param transactionRecords A list of transaction records for all previously made transactions.
+     */
+    public ValuationEngine(List<TransactionRecord> transactionRecords) {
+        this();
+
+        for (TransactionRecord transactionRecord : transactionRecords) {
+            addTransaction(transactionRecord);
+        }
+    }
+
+    /**
+     * Records the share and cash deltas of a transaction. An undo transaction record (which has the opposite type of
+     * the transaction it undoes) reverses the deltas of the original transaction.
+     *
+     * @param transactionRecord The transaction record whose deltas are to be recorded.
+     */
+    public void addTransaction(TransactionRecord transactionRecord) {
+        applyTransaction(transactionRecord, transactionRecord.isBuy() ? 1 : -1);
+    }
+
+    /**
+     * Reverses the share and cash deltas previously recorded for a transaction.
+     *
+     * @param transactionRecord The transaction record whose deltas are to be reversed.
+     */
+    public void removeTransaction(TransactionRecord transactionRecord) {
+        applyTransaction(transactionRecord, transactionRecord.isBuy() ? -1 : 1);
+    }
+
+    /**
+     * Gets the tickers of all assets which have ever been involved in a recorded transaction.
+     *
+     * @return The set of tickers.
+     */
+    public Set<String> getTickers() {
+        return shareDeltas.keySet();
+    }
+
+    /**
+     * Calculates the number of shares of an asset held at the end of the specified date.
+     *
+     * @param ticker The ticker symbol of the asset.
+     * @param date The date in question.
+     * @return The number of shares held.
+     */
+    public double getNumShares(String ticker, LocalDate date) {
+        DateDeltaTree tree = shareDeltas.get(ticker);
+
+        return tree == null ? 0 : tree.sumThrough(date);
+    }
+
+    /**
+     * Calculates the amount of money invested in an asset at the end of the specified date.
+     *
+     * @param ticker The ticker symbol of the asset.
+     * @param date The date in question.
+     * @return The amount of money invested in the asset.
+     */
+    public double getMoneyInvested(String ticker, LocalDate date) {
+        DateDeltaTree tree = cashDeltas.get(ticker);
+
+        return tree == null ? 0 : tree.sumThrough(date);
+    }
+
+    /**
+     * Calculates the amount of money invested in the portfolio as a whole at the end of the specified date.
+     *
+     * @param date The date in question.
+     * @return The amount of money invested in the portfolio.
+     */
+    public double getMoneyInvested(LocalDate date) {
+        return portCashDeltas == null ? 0 : portCashDeltas.sumThrough(date);
+    }
+
+    /**
+     * Calculates the market value of an asset's holding at market close on the specified date.
+     *
+     * @param ticker The ticker symbol of the asset.
+     * @param date The date in question.
+     * @param history The history of the asset, used to look up its close price.
+     * @return The market value of the holding; 0 if no price is known on or before the date.
+     */
+    public double getMarketValue(String ticker, LocalDate date, List<DataPoint> history) {
+        DataPoint dataPoint = findDataPoint(history, date);
+
+        return dataPoint == null ? 0 : dataPoint.getMarketCloseValue() * getNumShares(ticker, date);
+    }
+
+    /**
+     * Calculates the market value of the portfolio as a whole at market close on the specified date, in its base
+     * currency. Read from the portfolio's history, so it includes assets which are no longer held.
+     *
+     * @param date The date in question.
+     * @param portRecord The portfolio record.
+     * @return The market value of the portfolio; 0 if the date is before the portfolio's history.
+     */
+    public double getPortfolioValue(LocalDate date, PortfolioRecord portRecord) {
+        DataPoint dataPoint = findDataPoint(portRecord.getHistory(), date);
+
+        return dataPoint == null ? 0 : dataPoint.getMarketCloseValue();
+    }
+
+    /**
+     * Takes a snapshot of the portfolio's holdings at market close on the specified date. Positions are valued in the
+     * portfolio's base currency using the close price and exchange rate in effect on the date, read from the asset's
+     * record or, for a position which has since been closed, from the record kept for it. A single position with no
+     * record at all (e.g. one closed before closed positions kept their records) is valued as what remains of the
+     * portfolio's value on the date once every other position is accounted for.
+     *
+     * @param date The date in question.
+     * @param portRecord The portfolio record, which also holds the records of closed positions.
+     * @param stockDataRecords A map of all records of assets currently allocated in the portfolio.
+     * @return The snapshot of the portfolio's holdings.
+     */
+    public HoldingsSnapshot getSnapshot(LocalDate date, PortfolioRecord portRecord, Map<String, StockRecord> stockDataRecords) {
+        TreeMap<String, HoldingsSnapshot.Position> positions = new TreeMap<>();
+        double portValue = getPortfolioValue(date, portRecord);
+        double pricedValue = 0;
+        String unpricedTicker = null;
+        int numUnpriced = 0;
+
+        for (String ticker : shareDeltas.keySet()) {
+            double numShares = getNumShares(ticker, date);
+
+            if (Math.abs(numShares) < SHARE_TOLERANCE) {
+                continue;
+            }
+
+            StockRecord stockRecord = stockDataRecords.containsKey(ticker) ? stockDataRecords.get(ticker)
+                    : portRecord.getClosedRecords().get(ticker);
+            double marketValue = Double.NaN;
+
+            if (stockRecord != null) {
+                FXRateIndex fxRates = portRecord.getFXRates(stockRecord);
+                double rate = fxRates == null ? 1 : fxRates.getRate(date);
+
+                marketValue = getMarketValue(ticker, date, stockRecord.getHistory()) * rate;
+                pricedValue += marketValue;
+            } else {
+                unpricedTicker = ticker;
+                numUnpriced++;
+            }
+
+            positions.put(ticker, new HoldingsSnapshot.Position(ticker, numShares, getMoneyInvested(ticker, date), marketValue));
+        }
+
+        if (numUnpriced == 1) {
+            HoldingsSnapshot.Position position = positions.get(unpricedTicker);
+
+            positions.put(unpricedTicker, new HoldingsSnapshot.Position(unpricedTicker, position.getNumShares(),
+                    position.getMoneyInvested(), portValue - pricedValue));
+        }
+
+        return new HoldingsSnapshot(date, positions, getMoneyInvested(date), portValue);
+    }
+
+    /**
+     * Calculates the change in the portfolio's holdings and value between two dates.
+     *
+     * @param fromDate The date to measure the change from.
+     * @param toDate The date to measure the change to.
+     * @param portRecord The portfolio record, which also holds the records of closed positions.
+     * @param stockDataRecords A map of all records of assets currently allocated in the portfolio.
+     * @return A snapshot, dated on the later date, whose values are the changes between the two dates.
+     */
+    public HoldingsSnapshot getChange(LocalDate fromDate, LocalDate toDate, PortfolioRecord portRecord,
+                                      Map<String, StockRecord> stockDataRecords) {
+        return getSnapshot(toDate, portRecord, stockDataRecords).minus(getSnapshot(fromDate, portRecord, stockDataRecords));
+    }
+
+    /**
+     * Finds the last data point in a history dated on or before the specified date using binary search.
+     *
+     * @param history The history to search, sorted by date.
+     * @param date The date in question.
+     * @return The last data point dated on or before the date; null if there is no such data point.
+     */
+    public static DataPoint findDataPoint(List<DataPoint> history, LocalDate date) {
+        int index = findIndex(history, date);
+
+        return index < 0 ? null : history.get(index);
+    }
+
+    /**
+     * Finds the index of the last data point in a history dated on or before the specified date using binary search.
+     *
+     * @param history The history to search, sorted by date.
+     * @param date The date in question.
+     * @return The index of the last data point dated on or before the date; -1 if there is no such data point.
+     */
+    public static int findIndex(List<DataPoint> history, LocalDate date) {
+        int low = 0;
+        int high = history.size() - 1;
+        int found = -1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+
+            if (history.get(mid).getDate().compareTo(date) <= 0) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        return found;
+    }
+
+    /**
+     * The function which actually records the deltas of a transaction.
+     *
+     * @param transactionRecord The transaction record whose deltas are to be recorded.
+     * @param sign 1 if the deltas are added to the holdings; -1 if they are subtracted.
+     */
+    private void applyTransaction(TransactionRecord transactionRecord, int sign) {
+        String ticker = transactionRecord.getTicker();
+        LocalDate date = transactionRecord.getDate();
+        double moneyAmount = transactionRecord.getType() == RecordType.DIVIDEND_RECORD ? transactionRecord.getPrice()
+                : transactionRecord.getPrice() * transactionRecord.getNumShares();
+
+        if (!shareDeltas.containsKey(ticker)) {
+            shareDeltas.put(ticker, new DateDeltaTree(date));
+            cashDeltas.put(ticker, new DateDeltaTree(date));
+        }
+
+        if (portCashDeltas == null) {
+            portCashDeltas = new DateDeltaTree(date);
+        }
+
+        shareDeltas.get(ticker).add(date, sign * transactionRecord.getNumShares());
+        cashDeltas.get(ticker).add(date, sign * moneyAmount);
+        portCashDeltas.add(date, sign * moneyAmount);
+    }
+}
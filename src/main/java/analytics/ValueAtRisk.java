@@ -0,0 +1,290 @@
+package analytics;
+
+import data.datapoints.DataPoint;
+import data.records.PortfolioRecord;
+import data.records.StockRecord;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Estimates the one day Value-at-Risk (VaR) and Expected Shortfall (CVaR) of the portfolio and of individual holdings
+ * at the 95% and 99% confidence levels. Historical estimates read the loss quantiles off of the most recent year of
+ * daily returns using quickselect (expected O(n) time, no full sort). Parametric estimates assume normally distributed
+ * returns and take their moments from a cached covariance matrix. All estimates are expressed as positive fractions of
+ * the current value (e.g. 0.02 for a 2% loss).
+ */
+public class ValueAtRisk {
+    public static final int LOOKBACK_DAYS = 252;
+
+    private static final double Z_95 = 1.6448536269514722; // standard normal quantile at 95%
+    private static final double Z_99 = 2.3263478740408408; // standard normal quantile at 99%
+
+    /**
+     * Estimates the historical VaR and CVaR of the portfolio's current allocations (held at their current weights)
+     * from the aligned returns of the holdings.
+     *
+     * @param portRecord The portfolio record containing the current allocations.
+     * @param stockDataRecords A map containing the records of all assets currently allocated in the portfolio.
+     * @return The estimate; null if there is not enough common history.
+     */
+    public static Estimate historical(PortfolioRecord portRecord, Map<String, StockRecord> stockDataRecords) {
+        return historical(RiskAnalyzer.getWeightedReturns(portRecord, stockDataRecords, LOOKBACK_DAYS + 1));
+    }
+
+    /**
+     * Estimates the historical VaR and CVaR of an individual asset from its price history.
+     *
+     * @param stockRecord The stock record containing the historical asset data.
+     * @return The estimate; null if there is not enough history.
+     */
+    public static Estimate historical(StockRecord stockRecord) {
+        List<DataPoint> history = stockRecord.getHistory();
+
+        return historical(RiskAnalyzer.getDailyReturns(
+                history.subList(Math.max(history.size() - LOOKBACK_DAYS - 1, 0), history.size()), false));
+    }
+
+    /**
+     * Estimates the historical VaR and CVaR from a series of daily returns. The series is copied into an array of
+     * losses and partitioned with quickselect at the 95% quantile; the 99% quantile is then selected from the tail
+     * partition only.
+     *
+     * @param returns The daily returns.
+     * @return The estimate; null if there are fewer than two returns.
+     */
+    public static Estimate historical(double[] returns) {
+        int n = returns.length;
+
+        if (n < 2) {
+            return null;
+        }
+
+        double[] losses = new double[n];
+
+        for (int i = 0; i < n; i++) {
+            losses[i] = -returns[i];
+        }
+
+        int index95 = n - (int) Math.ceil(0.05 * n);
+        int index99 = n - (int) Math.ceil(0.01 * n);
+
+        select(losses, 0, n - 1, index95);
+        select(losses, index95, n - 1, index99);
+
+        return new Estimate(losses[index95], getTailMean(losses, index95), losses[index99], getTailMean(losses, index99));
+    }
+
+    /**
+     * Estimates the parametric VaR and CVaR of the portfolio's current allocations (held at their current weights)
+     * using the means and covariances of a cached covariance matrix.
+     *
+     * @param portRecord The portfolio record containing the current allocations.
+     * @param stockDataRecords A map containing the records of all assets currently allocated in the portfolio.
+     * @param covarianceMatrix A covariance matrix which includes every holding.
+     * @return The estimate; null if a holding is missing from the covariance matrix or the portfolio has no value.
+     */
+    public static Estimate parametric(PortfolioRecord portRecord, Map<String, StockRecord> stockDataRecords,
+                                      CovarianceMatrix covarianceMatrix) {
+        Map<String, PortfolioRecord.Allocation> allocations = portRecord.getAllocations();
+        int[] indices = new int[allocations.size()];
+        double[] weights = new double[allocations.size()];
+        double portValue = 0;
+        int k = 0;
+
+        for (String ticker : allocations.keySet()) {
+            StockRecord stockRecord = stockDataRecords.get(ticker);
+            int index = covarianceMatrix.indexOf(ticker);
+
+            if (stockRecord == null || stockRecord.getHistory().isEmpty() || index < 0) {
+                return null;
+            }
+
+            List<DataPoint> history = stockRecord.getHistory();
+
+            indices[k] = index;
+            weights[k] = allocations.get(ticker).getNumShares() * history.get(history.size() - 1).getMarketCloseValue()
+                    * portRecord.getFXRate(stockRecord, history.size() - 1);
+            portValue += weights[k];
+            k++;
+        }
+
+        if (portValue <= 0) {
+            return null;
+        }
+
+        double mean = 0;
+        double variance = 0;
+
+        for (int i = 0; i < k; i++) {
+            weights[i] /= portValue;
+            mean += weights[i] * covarianceMatrix.getMean(indices[i]);
+        }
+
+        for (int i = 0; i < k; i++) {
+            for (int j = 0; j < k; j++) {
+                variance += weights[i] * weights[j] * covarianceMatrix.getCovariance(indices[i], indices[j]);
+            }
+        }
+
+        return parametric(mean, Math.sqrt(Math.max(variance, 0)));
+    }
+
+    /**
+     * Estimates the parametric VaR and CVaR of an individual asset using a cached covariance matrix.
+     *
+     * @param ticker The ticker symbol of the asset.
+     * @param covarianceMatrix A covariance matrix which includes the asset.
+     * @return The estimate; null if the asset is missing from the covariance matrix.
+     */
+    public static Estimate parametric(String ticker, CovarianceMatrix covarianceMatrix) {
+        int index = covarianceMatrix.indexOf(ticker);
+
+        return index < 0 ? null : parametric(covarianceMatrix.getMean(index),
+                Math.sqrt(covarianceMatrix.getCovariance(index, index)));
+    }
+
+    /**
+     * Estimates the VaR and CVaR of normally distributed daily returns.
+     *
+     * @param mean The mean daily return.
+     * @param sd The standard deviation of daily returns.
+     * @return The estimate.
+     */
+    private static Estimate parametric(double mean, double sd) {
+        double tailDensity95 = Math.exp(-Z_95 * Z_95 / 2) / Math.sqrt(2 * Math.PI) / 0.05;
+        double tailDensity99 = Math.exp(-Z_99 * Z_99 / 2) / Math.sqrt(2 * Math.PI) / 0.01;
+
+        return new Estimate(Z_95 * sd - mean, tailDensity95 * sd - mean, Z_99 * sd - mean, tailDensity99 * sd - mean);
+    }
+
+    /**
+     * Calculates the mean of the values from the specified index to the end of an array.
+     *
+     * @param values The array of values.
+     * @param from The index of the first value in the tail.
+     * @return The mean of the tail.
+     */
+    private static double getTailMean(double[] values, int from) {
+        double sum = 0;
+
+        for (int i = from; i < values.length; i++) {
+            sum += values[i];
+        }
+
+        return sum / (values.length - from);
+    }
+
+    /**
+     * Partially sorts a range of an array with quickselect so that the value at the specified index is the one which
+     * would be there if the range were sorted, every value before it is no greater, and every value after it is no
+     * smaller.
+     *
+     * @param values The array of values.
+     * @param low The index of the first value in the range.
+     * @param high The index of the last value in the range.
+     * @param index The index to be selected.
+     */
+    private static void select(double[] values, int low, int high, int index) {
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+
+            // median of three pivot so already ordered ranges do not degrade to quadratic time
+            if (values[mid] < values[low]) {
+                swap(values, mid, low);
+            }
+
+            if (values[high] < values[low]) {
+                swap(values, high, low);
+            }
+
+            if (values[high] < values[mid]) {
+                swap(values, high, mid);
+            }
+
+            double pivot = values[mid];
+            int i = low;
+            int j = high;
+
+            while (i <= j) {
+                while (values[i] < pivot) {
+                    i++;
+                }
+
+                while (values[j] > pivot) {
+                    j--;
+                }
+
+                if (i <= j) {
+                    swap(values, i, j);
+                    i++;
+                    j--;
+                }
+            }
+
+            if (index <= j) {
+                high = j;
+            } else if (index >= i) {
+                low = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Swaps two values of an array.
+     *
+     * @param values The array of values.
+     * @param i The index of the first value.
+     * @param j The index of the second value.
+     */
+    private static void swap(double[] values, int i, int j) {
+        double temp = values[i];
+        values[i] = values[j];
+        values[j] = temp;
+    }
+
+    /**
+     * The VaR and CVaR at the 95% and 99% confidence levels, as positive fractions of the current value.
+     */
+    public static class Estimate {
+        private double valueAtRisk95;
+        private double expectedShortfall95;
+        private double valueAtRisk99;
+        private double expectedShortfall99;
+
+        /**
+         * Initializes class member variables.
+         *
+         * @param valueAtRisk95 The VaR at the 95% confidence level.
+         * @param expectedShortfall95 The CVaR at the 95% confidence level.
+         * @param valueAtRisk99 The VaR at the 99% confidence level.
+         * @param expectedShortfall99 The CVaR at the 99% confidence level.
+         */
+        Estimate(double valueAtRisk95, double expectedShortfall95, double valueAtRisk99, double expectedShortfall99) {
+            this.valueAtRisk95 = valueAtRisk95;
+            this.expectedShortfall95 = expectedShortfall95;
+            this.valueAtRisk99 = valueAtRisk99;
+            this.expectedShortfall99 = expectedShortfall99;
+        }
+
+        // getter methods for class member variables
+
+        public double getValueAtRisk95() {
+            return valueAtRisk95;
+        }
+
+        public double getExpectedShortfall95() {
+            return expectedShortfall95;
+        }
+
+        public double getValueAtRisk99() {
+            return valueAtRisk99;
+        }
+
+        public double getExpectedShortfall99() {
+            return expectedShortfall99;
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package controllers;
 
+import analytics.LedgerReplayer;
+import analytics.MonteCarloProjector;
+import analytics.RollingSeries;
 import data.*;
 import data.datapoints.DataPoint;
 import data.records.*;
@@ -9,13 +12,13 @@ import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
-import javafx.scene.chart.LineChart;
 import javafx.scene.chart.PieChart;
 import javafx.scene.control.*;
 import utils.Utils;
 import viewmanagers.AllocationsManager;
 import viewmanagers.PerformanceManager;
 import viewmanagers.StatsManager;
+import viewmanagers.TimeSeriesChart;
 import viewmanagers.TransactionsManager;
 
 import java.text.SimpleDateFormat;
@@ -30,12 +33,14 @@ import java.util.concurrent.Semaphore;
  * (yet to be implemented) will be launched from this controller.
  */
 public class PortfolioOverviewController implements Controller {
+    private static final int MAX_PROJECTION_DAYS = 1260; // 5 years of trading days
+
     @FXML
     private ProgressIndicator leftProgressIndicator;
     @FXML
     private ProgressIndicator rightProgressIndicator;
     @FXML
-    private LineChart<String, Double> performanceGraph;
+    private TimeSeriesChart performanceGraph;
     @FXML
     private PieChart allocationsChart;
     @FXML
@@ -43,6 +48,10 @@ public class PortfolioOverviewController implements Controller {
     @FXML
     private TableView<AllocationsManager.LowerTableRow> lowerAllocationsTable;
     @FXML
+    private TableView<AllocationsManager.TradeTableRow> tradesTable;
+    @FXML
+    private TableView<AllocationsManager.HoldingsTableRow> holdingsTable;
+    @FXML
     private TableView<TransactionsManager.TableRow> transactionsTable;
     @FXML
     private TableView<StatsManager.UpperTableRow> upperStatsTable;
@@ -55,16 +64,36 @@ public class PortfolioOverviewController implements Controller {
     @FXML
     private TextField numSharesInput;
     @FXML
+    private TextField benchmarkInput;
+    @FXML
+    private TextField baseCurrencyInput;
+    @FXML
+    private TextField rollingInput;
+    @FXML
+    private TextField projectionInput;
+    @FXML
+    private TextField rebalanceInput;
+    @FXML
+    private TextField scenarioInput;
+    @FXML
     private DatePicker transactionDatePicker;
     @FXML
     private DatePicker fromDatePicker;
     @FXML
     private DatePicker toDatePicker;
     @FXML
+    private DatePicker holdingsDatePicker;
+    @FXML
     private CheckBox grossProfitsCheckBox;
     @FXML
     private CheckBox percentReturnCheckBox;
     @FXML
+    private CheckBox timeWeightedReturnCheckBox;
+    @FXML
+    private CheckBox moneyWeightedReturnCheckBox;
+    @FXML
+    private CheckBox whatIfCheckBox;
+    @FXML
     private Label portfolioValue;
     @FXML
     private Label amountInvested;
@@ -81,11 +110,14 @@ public class PortfolioOverviewController implements Controller {
     @FXML
     private Button dividendButton;
     @FXML
+    private Button redoButton;
+    @FXML
     private Button refreshButton;
 
     private DiskDataManager diskDataManager;
     private PortfolioRecord portRecord;
     private Map<String, StockRecord> stockRecords;
+    private Map<String, StockRecord> benchmarkRecords;
     private List<TransactionRecord> transactionRecords;
 
     private AllocationsManager allocationsManager;
@@ -97,6 +129,7 @@ public class PortfolioOverviewController implements Controller {
     private Semaphore semaphore;
 
     private boolean transactionsMade;
+    private boolean benchmarksChanged;
     private boolean performanceManagerInitialized;
     private boolean allocationsManagerInitialized;
     private boolean transactionsManagerInitialized;
@@ -104,6 +137,7 @@ public class PortfolioOverviewController implements Controller {
     private boolean invalidTickerInput;
     private boolean invalidAmountInput;
     private boolean invalidNumSharesInput;
+    private boolean settingDatePickers;
 
     /**
      * Initializes class member variables and kicks off threads to read the portfolio record and transaction records.
@@ -115,17 +149,20 @@ public class PortfolioOverviewController implements Controller {
 
         diskDataManager = new DiskDataManager();
         stockRecords = new HashMap<>();
+        benchmarkRecords = new LinkedHashMap<>();
         transactionRecords = new ArrayList<>();
 
-        allocationsManager = new AllocationsManager(this, allocationsChart, upperAllocationsTable, lowerAllocationsTable);
-        performanceManager = new PerformanceManager(this, performanceGraph);
         transactionsManager = new TransactionsManager(this, transactionsTable);
+        allocationsManager = new AllocationsManager(this, allocationsChart, upperAllocationsTable, lowerAllocationsTable,
+                tradesTable, holdingsTable, transactionsManager.getTaxLotLedger());
+        performanceManager = new PerformanceManager(this, performanceGraph, benchmarkRecords);
         statsManager = new StatsManager(this, upperStatsTable, lowerStatsTable);
 
         waitingTransaction = null;
         semaphore = null;
 
         transactionsMade = false;
+        benchmarksChanged = false;
         performanceManagerInitialized = false;
         allocationsManagerInitialized = false;
         transactionsManagerInitialized = false;
@@ -133,12 +170,14 @@ public class PortfolioOverviewController implements Controller {
         invalidTickerInput = false;
         invalidAmountInput = false;
         invalidNumSharesInput = false;
+        settingDatePickers = false;
 
         grossProfitsCheckBox.setSelected(true);
         tickerInput.focusedProperty().addListener(new TickerInputChangeListener());
         amountInput.focusedProperty().addListener(new AmountInputChangeListener());
         numSharesInput.focusedProperty().addListener(new NumSharesChangeListener());
         transactionDatePicker.setOnAction((ActionEvent event) -> {showTransactionDatePickerNormal(); performanceGraph.requestFocus();});
+        performanceGraph.setOnViewChanged(this::onGraphViewChanged);
 
         disableButtons();
         readPortfolioDataRecord();
@@ -152,12 +191,13 @@ public class PortfolioOverviewController implements Controller {
         System.out.println("Shutting down...");
 
         if (transactionsMade) {
-            semaphore = new Semaphore(-2, true);
+            semaphore = new Semaphore(-3, true);
 
             portRecord.setCurrent();
             diskDataManager.writePortfolioDataRecord(portRecord, new PortfolioDataRecordWriteCallback());
             diskDataManager.writeStockDataRecords(new ArrayList<>(stockRecords.values()), new StockDataRecordWriteCallback());
             diskDataManager.writeTransactionRecords(transactionRecords, new TransactionRecordWriteCallback());
+            diskDataManager.writeBenchmarkDataRecords(new ArrayList<>(benchmarkRecords.values()), new BenchmarkDataRecordWriteCallback());
 
             try {
                 semaphore.acquire();
@@ -165,12 +205,13 @@ public class PortfolioOverviewController implements Controller {
                 ex.printStackTrace();
                 System.exit(-1);
             }
-        } else if (portRecord.isUpdated()) {
-            semaphore = new Semaphore(-1, true);
+        } else if (portRecord.isUpdated() || benchmarksChanged) {
+            semaphore = new Semaphore(-2, true);
 
             portRecord.setCurrent();
             diskDataManager.writePortfolioDataRecord(portRecord, new PortfolioDataRecordWriteCallback());
             diskDataManager.writeStockDataRecords(new ArrayList<>(stockRecords.values()), new StockDataRecordWriteCallback());
+            diskDataManager.writeBenchmarkDataRecords(new ArrayList<>(benchmarkRecords.values()), new BenchmarkDataRecordWriteCallback());
 
             try {
                 semaphore.acquire();
@@ -212,6 +253,7 @@ public class PortfolioOverviewController implements Controller {
             transactionsMade = true;
 
             allocationsManager.update(portRecord);
+            performanceManager.addTransaction(transactionRecord);
             performanceManager.update(portRecord);
             transactionsManager.update(transactionRecords);
             statsManager.update(portRecord, stockRecords.get(transactionRecord.getTicker()));
@@ -231,32 +273,21 @@ public class PortfolioOverviewController implements Controller {
     }
 
     /**
-     * Undoes a transaction. Whichever transaction is desired to be reversed, a transaction with the same parameters but
-     * opposite type (buy or sell) is created and executed.
+     * Undoes a transaction by reversing the changes it made to the portfolio. Buys (and dividend reinvestments) can
+     * only be undone if at least as many shares of the asset as they bought are still held.
      *
      * @param transactionRecord The transaction record representing the transaction to be undone.
      */
     public void undoTransaction(TransactionRecord transactionRecord) {
-        System.out.println("Undoing transaction...");
-
-        boolean isBuy = transactionRecord.isBuy();
-        TransactionRecord undoTransactionRecord;
-
-        if (!isBuy) {
-            showProgressIndicators();
-            disableButtons();
+        if (!transactionsManager.canUndo(portRecord, transactionRecord)) {
+            return;
         }
 
-        if (transactionRecord.getType() == RecordType.DIVIDEND_RECORD) {
-            undoTransactionRecord = new DividendRecord(transactionRecord.getDate(), transactionRecord.getTicker(),
-                    transactionRecord.getNumShares(), transactionRecord.getPrice(), true);
-        } else {
-            undoTransactionRecord = new TransactionRecord(transactionRecord.getDate(),
-                    transactionRecord.getTicker(), transactionRecord.getNumShares(), transactionRecord.getPrice(), !isBuy);
-        }
+        System.out.println("Undoing transaction...");
 
-        transactionRecords.remove(transactionRecord);
-        transactionsManager.initiateTransaction(portRecord, stockRecords, transactionRecords, undoTransactionRecord, true);
+        showProgressIndicators();
+        disableButtons();
+        transactionsManager.undoTransaction(portRecord, stockRecords, transactionRecords, transactionRecord);
     }
 
     /**
@@ -270,8 +301,11 @@ public class PortfolioOverviewController implements Controller {
      * @param toDate The date ending at which data wants to be seen on the performance graph.
      */
     public void performanceManagerFinished(boolean isUpdate, LocalDate fromDate, LocalDate toDate) {
+        // the pickers fire their actions as they are set, which must not apply the half-updated range to the graph
+        settingDatePickers = true;
         fromDatePicker.setValue(fromDate);
         toDatePicker.setValue(toDate);
+        settingDatePickers = false;
 
         if (isUpdate) {
             System.out.println("Performance manager updated.");
@@ -305,9 +339,7 @@ public class PortfolioOverviewController implements Controller {
             allocationsManagerInitialized = true;
 
             if (allInitialized()) {
-                hideProgressIndicators();
-                setOverviewValues();
-                enableButtons();
+                finishInitialization();
             }
 
             // hacky fix to weird UI bug where table header row shifted slightly when scrolling through table
@@ -332,10 +364,13 @@ public class PortfolioOverviewController implements Controller {
 
             transactionsManagerInitialized = true;
 
+            // the tax lots are only known once the ledger has been read, so allocations shown before then are refreshed
+            if (allocationsManagerInitialized) {
+                allocationsManager.update(portRecord);
+            }
+
             if (allInitialized()) {
-                hideProgressIndicators();
-                setOverviewValues();
-                enableButtons();
+                finishInitialization();
             }
 
             // hacky fix to weird UI bug where table header row shifted slightly when scrolling through table
@@ -360,12 +395,10 @@ public class PortfolioOverviewController implements Controller {
             statsManagerInitialized = true;
 
             if (waitingTransaction != null) {
-                transactionsManager.initiateTransaction(portRecord, stockRecords, transactionRecords, waitingTransaction, false);
+                transactionsManager.initiateTransaction(portRecord, stockRecords, transactionRecords, waitingTransaction);
                 waitingTransaction = null;
             } else if (allInitialized()) {
-                hideProgressIndicators();
-                setOverviewValues();
-                enableButtons();
+                finishInitialization();
             }
 
             // hacky fix to weird UI bug where table header row shifted slightly when scrolling through table
@@ -374,6 +407,98 @@ public class PortfolioOverviewController implements Controller {
         }
     }
 
+    /**
+     * Called by the transactions manager when it is finished rebuilding the portfolio's histories from the transaction
+     * ledger. Updates each component of the UI to reflect the rebuilt histories.
+     *
+     * NOTE: Must be on UI thread to call this function.
+     *
+     * @param ex An exception which may have occurred while rebuilding the histories.
+     */
+    public void historiesRebuilt(PAException ex) {
+        baseCurrencyInput.setText(portRecord.getBaseCurrency());
+        transactionsManager.setBaseCurrency(portRecord.getBaseCurrency());
+
+        if (ex != null) {
+            System.out.println("Failed to rebuild portfolio history: " + ex);
+        } else {
+            System.out.println("Portfolio history rebuilt from transaction ledger.");
+
+            showBaseCurrencyInputNormal();
+
+            allocationsManager.update(portRecord);
+            performanceManager.update(portRecord);
+            statsManager.update(portRecord, null);
+        }
+
+        hideProgressIndicators();
+        setOverviewValues();
+        enableButtons();
+    }
+
+    /**
+     * Called by the performance manager when it is finished fetching the historical data of new benchmarks and adding
+     * their comparison series to the performance graph.
+     *
+     * NOTE: Must be on UI thread to call this function.
+     *
+     * @param ex An exception which may have occurred while fetching the benchmark data.
+     */
+    public void benchmarksAdded(PAException ex) {
+        if (ex != null) {
+            if (ex.getType() == PAException.Type.MISC) {
+                ex.getMiscException().printStackTrace();
+            } else {
+                System.out.println("Failed to add benchmarks: " + ex);
+            }
+
+            showBenchmarkInputError();
+        } else {
+            System.out.println("Benchmarks added.");
+
+            benchmarksChanged = true;
+            benchmarkInput.setText(String.join(", ", benchmarkRecords.keySet()));
+            showBenchmarkInputNormal();
+        }
+
+        hideProgressIndicators();
+        enableButtons();
+    }
+
+    /**
+     * Called by the performance manager when it is finished adding a hypothetical trade to the what-if scenario.
+     *
+     * NOTE: Must be on UI thread to call this function.
+     *
+     * @param ex An exception which may have occurred while adding the trade.
+     */
+    public void scenarioUpdated(PAException ex) {
+        if (ex != null) {
+            switch(ex.getType()) {
+                case NOT_FOUND:
+                    System.out.println("Ticker symbol not found.");
+                    showTickerInputError();
+                    break;
+                case INVALID_TRANSACTION_DATE:
+                    System.out.println("Invalid transaction date.");
+                    showTransactionDatePickerError();
+                    break;
+                case MISC:
+                    ex.getMiscException().printStackTrace();
+                    break;
+                default:
+                    System.out.println("Failed to add hypothetical trade: " + ex);
+            }
+        } else {
+            System.out.println("What-if scenario updated.");
+
+            clearInputs();
+        }
+
+        hideProgressIndicators();
+        enableButtons();
+    }
+
     /**
      * Called when the user clicks the "Refresh" button. Fetches updated data and refreshes UI.
      */
@@ -431,6 +556,20 @@ public class PortfolioOverviewController implements Controller {
         }
     }
 
+    /**
+     * Called when the user clicks the "Redo" button. Redoes the most recently undone transaction.
+     */
+    @FXML
+    private void onRedoButtonClicked() {
+        if (transactionsManager.canRedo()) {
+            System.out.println("Redoing transaction...");
+
+            showProgressIndicators();
+            disableButtons();
+            transactionsManager.redoTransaction(portRecord, stockRecords, transactionRecords);
+        }
+    }
+
     /**
      * Called when the user clicks the "Gross Profits" check box for the performance graph. Shows a time series of
      * gross profits on the performance graph.
@@ -439,6 +578,10 @@ public class PortfolioOverviewController implements Controller {
     private void onGrossProfitsChecked() {
         grossProfitsCheckBox.setSelected(true);
         percentReturnCheckBox.setSelected(false);
+        timeWeightedReturnCheckBox.setSelected(false);
+        moneyWeightedReturnCheckBox.setSelected(false);
+        rollingInput.setText("");
+        showRollingInputNormal();
         performanceManager.setMode(portRecord, PerformanceManager.Mode.GROSS_PROFITS);
     }
 
@@ -450,9 +593,344 @@ public class PortfolioOverviewController implements Controller {
     private void onPercentReturnChecked() {
         percentReturnCheckBox.setSelected(true);
         grossProfitsCheckBox.setSelected(false);
+        timeWeightedReturnCheckBox.setSelected(false);
+        moneyWeightedReturnCheckBox.setSelected(false);
+        rollingInput.setText("");
+        showRollingInputNormal();
         performanceManager.setMode(portRecord, PerformanceManager.Mode.PERCENT_RETURN);
     }
 
+    /**
+     * Called when the user clicks the "TWR" check box for the performance graph. Shows a time series of time-weighted
+     * return (which is not affected by the timing of deposits) on the performance graph.
+     */
+    @FXML
+    private void onTimeWeightedReturnChecked() {
+        timeWeightedReturnCheckBox.setSelected(true);
+        grossProfitsCheckBox.setSelected(false);
+        percentReturnCheckBox.setSelected(false);
+        moneyWeightedReturnCheckBox.setSelected(false);
+        rollingInput.setText("");
+        showRollingInputNormal();
+        performanceManager.setMode(portRecord, PerformanceManager.Mode.TIME_WEIGHTED_RETURN);
+    }
+
+    /**
+     * Called when the user clicks the "IRR" check box for the performance graph. Shows a time series of money-weighted
+     * return (XIRR) on the performance graph.
+     */
+    @FXML
+    private void onMoneyWeightedReturnChecked() {
+        moneyWeightedReturnCheckBox.setSelected(true);
+        grossProfitsCheckBox.setSelected(false);
+        percentReturnCheckBox.setSelected(false);
+        timeWeightedReturnCheckBox.setSelected(false);
+        rollingInput.setText("");
+        showRollingInputNormal();
+        performanceManager.setMode(portRecord, PerformanceManager.Mode.MONEY_WEIGHTED_RETURN);
+    }
+
+    /**
+     * Called when the user clicks the "What-if" check box. While it is checked, trades entered in the transaction
+     * component are made in a what-if scenario shown on the performance graph instead of in the real portfolio.
+     * Unchecking it discards every scenario.
+     */
+    @FXML
+    private void onWhatIfChecked() {
+        if (!whatIfCheckBox.isSelected()) {
+            scenarioInput.setText("");
+            performanceManager.clearScenario(portRecord);
+        }
+    }
+
+    /**
+     * Called when the user enters the name of the what-if scenario to make hypothetical trades in. A new name forks
+     * the current scenario, so several variations of it can be compared side by side on the performance graph.
+     * Clearing the input goes back to the default scenario.
+     */
+    @FXML
+    private void onScenarioEntered() {
+        String input = scenarioInput.getText() == null ? "" : scenarioInput.getText().trim();
+
+        scenarioInput.setText(input);
+        performanceManager.setScenarioName(portRecord, input);
+        performanceGraph.requestFocus();
+    }
+
+    /**
+     * Called when the user enters the ticker symbols of the benchmarks to compare the portfolio against. Benchmarks
+     * no longer listed are removed from the performance graph and new ones are fetched and added to it.
+     */
+    @FXML
+    private void onBenchmarksEntered() {
+        String input = benchmarkInput.getText() == null ? "" : benchmarkInput.getText().trim().toUpperCase();
+        Set<String> tickers = new LinkedHashSet<>();
+        List<String> newTickers = new ArrayList<>();
+
+        for (String ticker : input.split("[,\\s]+")) {
+            if (ticker.length() > 4) {
+                showBenchmarkInputError();
+                return;
+            } else if (ticker.length() > 0) {
+                tickers.add(ticker);
+            }
+        }
+
+        for (String ticker : new ArrayList<>(benchmarkRecords.keySet())) {
+            if (!tickers.contains(ticker)) {
+                performanceManager.removeBenchmark(portRecord, ticker);
+                benchmarksChanged = true;
+            }
+        }
+
+        for (String ticker : tickers) {
+            if (!benchmarkRecords.containsKey(ticker)) {
+                newTickers.add(ticker);
+            }
+        }
+
+        showBenchmarkInputNormal();
+
+        if (newTickers.size() > 0) {
+            disableButtons();
+            showProgressIndicators();
+            performanceManager.addBenchmarks(portRecord, newTickers, transactionRecords);
+        } else {
+            benchmarkInput.setText(String.join(", ", benchmarkRecords.keySet()));
+        }
+
+        performanceGraph.requestFocus();
+    }
+
+    /**
+     * Called when the user enters the currency to value the portfolio in. The portfolio's history is rebuilt from the
+     * transaction ledger, valued in the new currency.
+     */
+    @FXML
+    private void onBaseCurrencyEntered() {
+        String input = baseCurrencyInput.getText() == null ? "" : baseCurrencyInput.getText().trim().toUpperCase();
+
+        if (!input.matches("[A-Z]{3}")) {
+            showBaseCurrencyInputError();
+            return;
+        }
+
+        showBaseCurrencyInputNormal();
+        baseCurrencyInput.setText(input);
+
+        if (!input.equals(portRecord.getBaseCurrency())) {
+            System.out.println("Changing base currency to " + input + "...");
+
+            disableButtons();
+            showProgressIndicators();
+            transactionsManager.changeBaseCurrency(portRecord, stockRecords, transactionRecords, input);
+        }
+
+        performanceGraph.requestFocus();
+    }
+
+    /**
+     * Called when the user enters a rolling-window series to show on the performance graph, as a series name followed
+     * by a window length in trading days (e.g. "VOL 63"): RET for the N-day return, SMA or EMA for the deviation from
+     * the moving average, VOL for the annualized volatility, or SHARPE for the Sharpe ratio. The window length defaults
+     * to 3 months. Clearing the input goes back to showing the checked mode.
+     */
+    @FXML
+    private void onRollingEntered() {
+        String input = rollingInput.getText() == null ? "" : rollingInput.getText().trim().toUpperCase();
+        RollingSeries.Metric metric = null;
+        int window = RollingSeries.DEFAULT_WINDOW;
+
+        if (input.length() > 0) {
+            String[] parts = input.split("\\s+");
+
+            if (parts.length > 2 || (parts.length == 2 && !parts[1].matches("\\d{1,4}"))) {
+                showRollingInputError();
+                return;
+            }
+
+            switch (parts[0]) {
+                case "RET":
+                    metric = RollingSeries.Metric.RETURN;
+                    break;
+                case "SMA":
+                    metric = RollingSeries.Metric.SMA;
+                    break;
+                case "EMA":
+                    metric = RollingSeries.Metric.EMA;
+                    break;
+                case "VOL":
+                    metric = RollingSeries.Metric.VOLATILITY;
+                    break;
+                case "SHARPE":
+                    metric = RollingSeries.Metric.SHARPE;
+                    break;
+                default:
+                    showRollingInputError();
+                    return;
+            }
+
+            if (parts.length == 2) {
+                window = Integer.parseInt(parts[1]);
+            }
+
+            if (window < 2) {
+                showRollingInputError();
+                return;
+            }
+
+            rollingInput.setText(parts[0] + " " + window);
+        }
+
+        showRollingInputNormal();
+        performanceManager.setRolling(portRecord, stockRecords, metric, window);
+        performanceGraph.requestFocus();
+    }
+
+    /**
+     * Called when the user enters a Monte Carlo projection to show on the performance graph, as a number of trading
+     * days to project forward, optionally followed by how daily returns are generated (e.g. "252 NORM"): BOOT to
+     * resample historical days (the default), or NORM to draw them from a normal distribution. Clearing the input
+     * removes the projection.
+     */
+    @FXML
+    private void onProjectionEntered() {
+        String input = projectionInput.getText() == null ? "" : projectionInput.getText().trim().toUpperCase();
+        MonteCarloProjector.Method method = MonteCarloProjector.Method.BOOTSTRAP;
+        int numDays = 0;
+
+        if (input.length() > 0) {
+            String[] parts = input.split("\\s+");
+
+            if (parts.length > 2 || !parts[0].matches("\\d{1,4}")) {
+                showProjectionInputError();
+                return;
+            }
+
+            numDays = Integer.parseInt(parts[0]);
+
+            if (numDays < 1 || numDays > MAX_PROJECTION_DAYS) {
+                showProjectionInputError();
+                return;
+            }
+
+            if (parts.length == 2) {
+                switch (parts[1]) {
+                    case "BOOT":
+                        break;
+                    case "NORM":
+                        method = MonteCarloProjector.Method.PARAMETRIC;
+                        break;
+                    default:
+                        showProjectionInputError();
+                        return;
+                }
+            }
+
+            projectionInput.setText(numDays + " " + (method == MonteCarloProjector.Method.PARAMETRIC ? "NORM" : "BOOT"));
+        }
+
+        showProjectionInputNormal();
+        performanceManager.setProjection(portRecord, stockRecords, numDays, method);
+        performanceGraph.requestFocus();
+    }
+
+    /**
+     * Called when the user enters a rebalancing target in the allocations component, and shows the trades needed to
+     * reach it. The target is either a volatility target (e.g. "VOL 12" for the weights with the highest expected
+     * return whose annualized volatility is at most 12%), a mean-variance trade-off between 0 (maximize expected
+     * return) and 1 (minimize variance) (e.g. "MV 0.5"), or target weights for the assets currently held (e.g.
+     * "AAPL 60, MSFT 40", which are scaled to sum to 100%). Clearing the input removes the proposed trades.
+     */
+    @FXML
+    private void onRebalanceEntered() {
+        String input = rebalanceInput.getText() == null ? "" : rebalanceInput.getText().trim().toUpperCase();
+        String[] parts = input.split("\\s+");
+
+        if (input.length() == 0) {
+            showRebalanceInputNormal();
+            allocationsManager.clearTrades();
+        } else if (portRecord == null || portRecord.getAllocations().size() == 0) {
+            showRebalanceInputError();
+        } else if (parts.length == 2 && parts[0].equals("VOL") && parts[1].matches("\\d{1,3}(\\.\\d+)?")
+                && Double.parseDouble(parts[1]) > 0) {
+            showRebalanceInputNormal();
+            allocationsManager.proposeTradesForVolatility(portRecord, stockRecords, Double.parseDouble(parts[1]) / 100);
+        } else if (parts.length == 2 && parts[0].equals("MV") && parts[1].matches("[01]?(\\.\\d+)?")
+                && Double.parseDouble(parts[1]) <= 1) {
+            showRebalanceInputNormal();
+            allocationsManager.proposeOptimalTrades(portRecord, stockRecords, Double.parseDouble(parts[1]));
+        } else {
+            Map<String, Double> targetWeights = getTargetWeights(input);
+
+            if (targetWeights == null) {
+                showRebalanceInputError();
+            } else {
+                showRebalanceInputNormal();
+                allocationsManager.proposeTrades(portRecord, stockRecords, targetWeights);
+            }
+        }
+
+        performanceGraph.requestFocus();
+    }
+
+    /**
+     * Called when the user selects a date in the allocations component, and shows what the portfolio held at market
+     * close on that date along with how each position has changed since. Clearing the date removes the holdings.
+     */
+    @FXML
+    private void onHoldingsDateSelected() {
+        LocalDate date = holdingsDatePicker.getValue();
+        List<DataPoint> history = portRecord == null ? null : portRecord.getHistory();
+
+        if (date == null) {
+            showHoldingsDateNormal();
+            allocationsManager.clearHoldings();
+        } else if (history == null || history.size() == 0 || date.isBefore(history.get(0).getDate())
+                || date.isAfter(history.get(history.size() - 1).getDate())) {
+            showHoldingsDateError();
+        } else {
+            showHoldingsDateNormal();
+            allocationsManager.showHoldings(portRecord, stockRecords, transactionsManager.getValuationEngine(), date);
+        }
+
+        performanceGraph.requestFocus();
+    }
+
+    /**
+     * Parses target weights entered as comma separated pairs of a ticker and a weight (e.g. "AAPL 60, MSFT 40"). The
+     * weights are scaled to sum to one.
+     *
+     * @param input The target weights entered by the user.
+     * @return A map from ticker to target weight; null if the input is malformed, names an asset not currently held,
+     * or has no positive weight.
+     */
+    private Map<String, Double> getTargetWeights(String input) {
+        Map<String, Double> targetWeights = new HashMap<>();
+        double totalWeight = 0;
+
+        for (String pair : input.split(",")) {
+            String[] parts = pair.trim().split("\\s+");
+
+            if (parts.length != 2 || !stockRecords.containsKey(parts[0]) || !parts[1].matches("\\d+(\\.\\d+)?")) {
+                return null;
+            }
+
+            targetWeights.merge(parts[0], Double.parseDouble(parts[1]), Double::sum);
+            totalWeight += Double.parseDouble(parts[1]);
+        }
+
+        if (totalWeight <= 0) {
+            return null;
+        }
+
+        for (String ticker : targetWeights.keySet()) {
+            targetWeights.put(ticker, targetWeights.get(ticker) / totalWeight);
+        }
+
+        return targetWeights;
+    }
+
     /**
      * Called when the user selects a date starting at which to show data on the performance graph. Adjusts the
      * performance graph to reflect this choice.
@@ -462,6 +940,10 @@ public class PortfolioOverviewController implements Controller {
         LocalDate fromDate = fromDatePicker.getValue();
         LocalDate toDate = toDatePicker.getValue();
 
+        if (settingDatePickers) {
+            return;
+        }
+
         if (portRecord.getHistory().size() > 0) {
             if (toDate == null || validDateRange(fromDate, toDate)) {
                 showFromDateNormal();
@@ -486,6 +968,10 @@ public class PortfolioOverviewController implements Controller {
         LocalDate fromDate = fromDatePicker.getValue();
         LocalDate toDate = toDatePicker.getValue();
 
+        if (settingDatePickers) {
+            return;
+        }
+
         if (portRecord.getHistory().size() > 0) {
             if (fromDate == null || validDateRange(fromDate, toDate)) {
                 showFromDateNormal();
@@ -501,6 +987,21 @@ public class PortfolioOverviewController implements Controller {
         performanceGraph.requestFocus();
     }
 
+    /**
+     * Called when the user has panned or zoomed the performance graph. Shows the newly visible date range on the
+     * performance graph at a resolution suited to it, which also updates the date pickers.
+     *
+     * @param fromDate The first date visible on the performance graph.
+     * @param toDate The last date visible on the performance graph.
+     */
+    private void onGraphViewChanged(LocalDate fromDate, LocalDate toDate) {
+        if (portRecord != null && portRecord.getHistory().size() > 0) {
+            showFromDateNormal();
+            showToDateNormal();
+            performanceManager.setDateBounds(portRecord, fromDate, toDate);
+        }
+    }
+
     /**
      * Determines if the date range selected by the user for the performance graph is valid.
      *
@@ -539,11 +1040,7 @@ public class PortfolioOverviewController implements Controller {
         }
 
         try {
-            if (amount.charAt(0) == '$') {
-                amount = amount.substring(1);
-            }
-
-            double amountVal = Double.parseDouble(amount);
+            double amountVal = Utils.parseMoney(amount, portRecord.getBaseCurrency());
 
             if (amountVal <= 0) {
                 showAmountInputError();
@@ -617,24 +1114,48 @@ public class PortfolioOverviewController implements Controller {
     }
 
     /**
-     * Initiates the transaction procedure.
+     * Called once all managers have been initialized. If the stored portfolio history no longer agrees with the
+     * transaction ledger, it is rebuilt from the ledger before the UI becomes usable.
+     */
+    private void finishInitialization() {
+        performanceManager.initializeBenchmarks(portRecord, transactionRecords);
+
+        if (LedgerReplayer.needsRepair(portRecord, stockRecords, transactionsManager.getValuationEngine())) {
+            System.out.println("Portfolio history does not match transaction ledger. Rebuilding...");
+            transactionsManager.rebuildHistories(portRecord, stockRecords, transactionRecords);
+        } else {
+            hideProgressIndicators();
+            setOverviewValues();
+            enableButtons();
+        }
+    }
+
+    /**
+     * Initiates the transaction procedure, or adds the transaction to the what-if scenario if "What-if" is checked.
      *
      * @param transactionRecord The transaction record which contains all relevant information for this transaction.
      */
     private void commitTransaction(TransactionRecord transactionRecord) {
-        System.out.println("Initiating transaction...");
-
         showProgressIndicators();
 
+        // hypothetical trades never touch the real portfolio
+        if (whatIfCheckBox.isSelected()) {
+            System.out.println("Adding hypothetical trade...");
+            performanceManager.addScenarioTrade(portRecord, stockRecords, transactionRecord);
+            return;
+        }
+
+        System.out.println("Initiating transaction...");
+
         if (!stockRecords.containsKey(transactionRecord.getTicker())) {
             if (portRecord.getHistory().size() > 0 && stockRecords.size() > 0) {
                 waitingTransaction = transactionRecord;
                 performanceManager.initialize(portRecord, stockRecords, true, false);
             } else {
-                transactionsManager.initiateTransaction(portRecord, stockRecords, transactionRecords, transactionRecord, false);
+                transactionsManager.initiateTransaction(portRecord, stockRecords, transactionRecords, transactionRecord);
             }
         } else {
-            transactionsManager.initiateTransaction(portRecord, stockRecords, transactionRecords, transactionRecord, false);
+            transactionsManager.initiateTransaction(portRecord, stockRecords, transactionRecords, transactionRecord);
         }
     }
 
@@ -647,14 +1168,8 @@ public class PortfolioOverviewController implements Controller {
      */
     private TransactionRecord createTransactionRecord(boolean isBuy) {
         String ticker = tickerInput.getText().toUpperCase();
-        String amountStr = amountInput.getText();
         double numShares = Double.parseDouble(numSharesInput.getText());
-
-        if (amountStr.charAt(0) == '$') {
-            amountStr = amountStr.substring(1);
-        }
-
-        double price = Double.parseDouble(amountStr);
+        double price = Utils.parseMoney(amountInput.getText(), portRecord.getBaseCurrency());
 
         return new TransactionRecord(transactionDatePicker.getValue(), ticker, numShares, price, isBuy);
     }
@@ -666,14 +1181,8 @@ public class PortfolioOverviewController implements Controller {
      */
     private DividendRecord createDividendRecord() {
         String ticker = tickerInput.getText().toUpperCase();
-        String priceStr = amountInput.getText();
         double numShares = Double.parseDouble(numSharesInput.getText());
-        
-        if (priceStr.charAt(0) == '$') {
-            priceStr = priceStr.substring(1);
-        }
-
-        double price = Double.parseDouble(priceStr);
+        double price = Utils.parseMoney(amountInput.getText(), portRecord.getBaseCurrency());
 
         return new DividendRecord(transactionDatePicker.getValue(), ticker, numShares, price);
     }
@@ -690,9 +1199,10 @@ public class PortfolioOverviewController implements Controller {
                     + Math.abs(portRecord.getCurrMoneyInvested()) : currPortfolioValue - currAmountInvested;
             double totReturn = portRecord.getCurrMoneyInvested() < 0
                     ? Double.MAX_VALUE : (currPortfolioValue - currAmountInvested) / currAmountInvested * 100;
-            String currPortfolioValueStr = Utils.formatDollars(currPortfolioValue);
-            String currAmountInvestedStr = Utils.formatDollars(currAmountInvested);
-            String totProfitsStr = Utils.formatDollars(totProfits);
+            String currPortfolioValueStr = Utils.formatMoney(currPortfolioValue, portRecord.getBaseCurrency());
+            String currAmountInvestedStr = Utils.formatMoney(currAmountInvested, portRecord.getBaseCurrency());
+            String totProfitsStr = Utils.formatMoney(totProfits, portRecord.getBaseCurrency());
+            String zeroStr = Utils.formatMoney(0, portRecord.getBaseCurrency());
             String totReturnStr = totReturn == Double.MAX_VALUE ? "-" : Utils.formatPercentage(totReturn);
             SimpleDateFormat dateFormat = new SimpleDateFormat("M/d/yyyy h:mm a");
 
@@ -702,7 +1212,7 @@ public class PortfolioOverviewController implements Controller {
             totalReturn.setText(totReturnStr);
 
             if (currPortfolioValue >= 0) {
-                if (currPortfolioValueStr.equals("$0.00")) {
+                if (currPortfolioValueStr.equals(zeroStr)) {
                     portfolioValue.setStyle("-fx-text-fill: white;");
                 } else {
                     portfolioValue.setStyle("-fx-text-fill: #00e600;");
@@ -712,7 +1222,7 @@ public class PortfolioOverviewController implements Controller {
             }
 
             if (currAmountInvested >= 0) {
-                if (currAmountInvestedStr.equals("$0.00")) {
+                if (currAmountInvestedStr.equals(zeroStr)) {
                     amountInvested.setStyle("-fx-text-fill: white;");
                 } else {
                     amountInvested.setStyle("-fx-text-fill: #00e600;");
@@ -722,7 +1232,7 @@ public class PortfolioOverviewController implements Controller {
             }
 
             if (totProfits >= 0) {
-                if (totProfitsStr.equals("$0.00")) {
+                if (totProfitsStr.equals(zeroStr)) {
                     totalProfits.setStyle("-fx-text-fill: white;");
                 } else {
                     totalProfits.setStyle("-fx-text-fill: #00e600;");
@@ -784,7 +1294,9 @@ public class PortfolioOverviewController implements Controller {
         buyButton.setDisable(true);
         sellButton.setDisable(true);
         dividendButton.setDisable(true);
+        redoButton.setDisable(true);
         refreshButton.setDisable(true);
+        baseCurrencyInput.setDisable(true);
         transactionsManager.disableUndoButtons();
     }
 
@@ -795,7 +1307,9 @@ public class PortfolioOverviewController implements Controller {
         buyButton.setDisable(false);
         sellButton.setDisable(false);
         dividendButton.setDisable(false);
+        redoButton.setDisable(!transactionsManager.canRedo());
         refreshButton.setDisable(false);
+        baseCurrencyInput.setDisable(false);
         transactionsManager.enableUndoButtons();
     }
 
@@ -815,6 +1329,14 @@ public class PortfolioOverviewController implements Controller {
         diskDataManager.readStockDataRecords(new StockDataRecordReadCallback());
     }
 
+    /**
+     * Kicks off a thread to read all benchmark records from disk into memory.
+     */
+    private void readBenchmarkDataRecords() {
+        System.out.println("Reading benchmark records from disk...");
+        diskDataManager.readBenchmarkDataRecords(new BenchmarkDataRecordReadCallback());
+    }
+
     /**
      * Kicks off a thread to read all transaction records from disk into memory.
      */
@@ -873,6 +1395,54 @@ public class PortfolioOverviewController implements Controller {
         transactionDatePicker.getEditor().setStyle("-fx-border-color: #4d4d4d;");
     }
 
+    private void showBenchmarkInputError() {
+        benchmarkInput.setStyle("-fx-border-color: #ff4c00;");
+    }
+
+    private void showBenchmarkInputNormal() {
+        benchmarkInput.setStyle("-fx-border-color: #4d4d4d;");
+    }
+
+    private void showRollingInputError() {
+        rollingInput.setStyle("-fx-border-color: #ff4c00;");
+    }
+
+    private void showRollingInputNormal() {
+        rollingInput.setStyle("-fx-border-color: #4d4d4d;");
+    }
+
+    private void showProjectionInputError() {
+        projectionInput.setStyle("-fx-border-color: #ff4c00;");
+    }
+
+    private void showProjectionInputNormal() {
+        projectionInput.setStyle("-fx-border-color: #4d4d4d;");
+    }
+
+    private void showRebalanceInputError() {
+        rebalanceInput.setStyle("-fx-border-color: #ff4c00;");
+    }
+
+    private void showRebalanceInputNormal() {
+        rebalanceInput.setStyle("-fx-border-color: #4d4d4d;");
+    }
+
+    private void showHoldingsDateError() {
+        holdingsDatePicker.getEditor().setStyle("-fx-border-color: #ff4c00;");
+    }
+
+    private void showHoldingsDateNormal() {
+        holdingsDatePicker.getEditor().setStyle("-fx-border-color: #4d4d4d;");
+    }
+
+    private void showBaseCurrencyInputError() {
+        baseCurrencyInput.setStyle("-fx-border-color: #ff4c00;");
+    }
+
+    private void showBaseCurrencyInputNormal() {
+        baseCurrencyInput.setStyle("-fx-border-color: #4d4d4d;");
+    }
+
     /**
      * Does error-checking and input formatting for ticker input in transaction component of UI.
      */
@@ -910,16 +1480,14 @@ public class PortfolioOverviewController implements Controller {
         @Override
         public void changed(ObservableValue<? extends Boolean> observable, Boolean oldValue, Boolean newValue) {
             String input = amountInput.getText();
+            String currency = portRecord.getBaseCurrency();
+            String prefix = Utils.getMoneyPrefix(currency);
 
-            if (input.length() > 0 && !input.equals("$")) {
-                if (input.charAt(0) == '$') {
-                    input = input.substring(1);
-                }
-
+            if (input.trim().length() > 0 && !input.trim().equals(prefix.trim())) {
                 try {
-                    double amount = Double.parseDouble(input);
+                    double amount = Utils.parseMoney(input, currency);
 
-                    amountInput.setText(Utils.formatDollars(amount));
+                    amountInput.setText(Utils.formatMoney(amount, currency));
 
                     if (amount <= 0) {
                         showAmountInputError();
@@ -932,7 +1500,7 @@ public class PortfolioOverviewController implements Controller {
                 }
             } else {
                 if (newValue) {
-                    amountInput.setText("$");
+                    amountInput.setText(prefix);
                 } else {
                     amountInput.clear();
                     amountInput.setPromptText("Amount");
@@ -1002,7 +1570,11 @@ public class PortfolioOverviewController implements Controller {
             portRecord = (PortfolioRecord) records.get(0);
 
             readStockDataRecords();
-            Platform.runLater(() -> allocationsManager.initialize(portRecord));
+            Platform.runLater(() -> {
+                baseCurrencyInput.setText(portRecord.getBaseCurrency());
+                transactionsManager.setBaseCurrency(portRecord.getBaseCurrency());
+                allocationsManager.initialize(portRecord);
+            });
         }
     }
 
@@ -1025,8 +1597,8 @@ public class PortfolioOverviewController implements Controller {
     }
 
     /**
-     * Callback class invoked when all stock records are finished being read from disk. Starts the initialization procedure
-     * for the performance manager if the read is successful.
+     * Callback class invoked when all stock records are finished being read from disk. Kicks off another thread to read
+     * the benchmark records from disk if the read is successful.
      */
     private class StockDataRecordReadCallback implements RecordCallback {
 
@@ -1046,7 +1618,54 @@ public class PortfolioOverviewController implements Controller {
                 stockRecords.put(stockRecord.getTicker(), stockRecord);
             }
 
-            Platform.runLater(() -> performanceManager.initialize(portRecord, stockRecords, false, true));
+            readBenchmarkDataRecords();
+        }
+    }
+
+    /**
+     * Callback class invoked when all benchmark records are finished being read from disk. Starts the initialization
+     * procedure for the performance manager if the read is successful.
+     */
+    private class BenchmarkDataRecordReadCallback implements RecordCallback {
+
+        @Override
+        public void failed(Exception ex) {
+            ex.printStackTrace();
+            System.exit(-1);
+        }
+
+        @Override
+        public void completed(List<Record> records) {
+            System.out.println("Successfully read benchmark records from disk.");
+
+            Platform.runLater(() -> {
+                for (Record record : records) {
+                    StockRecord benchmarkRecord = (StockRecord) record;
+
+                    benchmarkRecords.put(benchmarkRecord.getTicker(), benchmarkRecord);
+                }
+
+                benchmarkInput.setText(String.join(", ", benchmarkRecords.keySet()));
+                performanceManager.initialize(portRecord, stockRecords, false, true);
+            });
+        }
+    }
+
+    /**
+     * Callback class invoked when all benchmark records are finished being written to disk.
+     */
+    private class BenchmarkDataRecordWriteCallback implements RecordCallback {
+
+        @Override
+        public void failed(Exception ex) {
+            ex.printStackTrace();
+            System.exit(-1);
+        }
+
+        @Override
+        public void completed(List<Record> records) {
+            System.out.println("Benchmark records successfully written to disk.");
+            semaphore.release();
         }
     }
 
@@ -16,17 +16,25 @@ public class DiskDataManager {
     private final String PORTFOLIO_DATA_FILE_PATH = "records/portfolio_data.txt";
     private final String STOCK_DATA_FILE_PATH = "records/stock_data.txt";
     private final String TRANSACTION_DATA_FILE_PATH = "records/transaction_data.txt";
+    private final String BENCHMARK_DATA_FILE_PATH = "records/benchmark_data.txt";
 
     /**
      * Initializes the file system if this is the first time the user has run the application.
      */
     public DiskDataManager() {
         File portfolioDataFile = new File(PORTFOLIO_DATA_FILE_PATH);
+        File benchmarkDataFile = new File(BENCHMARK_DATA_FILE_PATH);
 
         if (!portfolioDataFile.exists() && !initializeFileSystem()) {
             System.out.println("Failed to initialize file system");
             System.exit(-1);
         }
+
+        // the benchmark file was added after the others, so it may be missing from an existing file system
+        if (!benchmarkDataFile.exists() && !initializeRecordFile(BENCHMARK_DATA_FILE_PATH)) {
+            System.out.println("Failed to initialize file system");
+            System.exit(-1);
+        }
     }
 
     /**
@@ -93,6 +101,28 @@ public class DiskDataManager {
         writeRecords(recordsToWrite, TRANSACTION_DATA_FILE_PATH, callback);
     }
 
+    /**
+     * Reads all benchmark records from disk. Benchmark records are stock records of assets which are only compared
+     * against, so they are kept apart from the records of assets allocated in the portfolio.
+     *
+     * @param callback The callback used to hand back the benchmark records once they are all read from disk.
+     */
+    public void readBenchmarkDataRecords(RecordCallback callback) {
+        readRecords(BENCHMARK_DATA_FILE_PATH, callback);
+    }
+
+    /**
+     * Writes benchmark records to disk.
+     *
+     * @param benchmarkRecords A list of benchmark records to be written to disk.
+     * @param callback The callback used to signify when all benchmark records have been written to disk.
+     */
+    public void writeBenchmarkDataRecords(List<StockRecord> benchmarkRecords, RecordCallback callback) {
+        List<Record> recordsToWrite = new ArrayList<>(benchmarkRecords);
+
+        writeRecords(recordsToWrite, BENCHMARK_DATA_FILE_PATH, callback);
+    }
+
     /**
      * The function which does the actual reading of records from disk.
      *
@@ -213,4 +243,23 @@ public class DiskDataManager {
 
         return true;
     }
+
+    /**
+     * Initializes an empty record file.
+     *
+     * @param filepath The filepath of the record file to be initialized.
+     * @return True if the initialization is successful; false otherwise.
+     */
+    private boolean initializeRecordFile(String filepath) {
+        try {
+            ObjectOutputStream outputStream = new ObjectOutputStream(new FileOutputStream(filepath));
+
+            outputStream.writeObject(new EOFRecord());
+            outputStream.close();
+        } catch (IOException ex) {
+            return false;
+        }
+
+        return true;
+    }
 }
@@ -1,7 +1,18 @@
 package data.records;
 
+import analytics.AggregationPyramid;
+import analytics.CovarianceMatrix;
+import analytics.FXRateIndex;
+import analytics.MemoCache;
+import analytics.PeriodIndex;
+import analytics.ReturnIndex;
+import analytics.RollingSeries;
+import analytics.ValuationEngine;
 import data.datapoints.DataPoint;
+import data.datapoints.PortfolioDataPoint;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.math.RoundingMode;
 import java.text.DecimalFormat;
@@ -14,12 +25,28 @@ import java.util.*;
  * A record type which stores all relevant data corresponding to the portfolio as a whole.
  */
 public class PortfolioRecord implements Record {
+    // pinned to the value computed for the original class so that records already written to disk remain readable
+    private static final long serialVersionUID = -7979533343354095380L;
+    private static final int MAX_ROLLING_SERIES = 4; // number of rolling windows kept per record
+
     private Map<String, Allocation> allocations;
     private List<DataPoint> history;
     private Date lastUpdate;
     private double currPortValue;
     private double currMoneyInvested;
     private boolean isUpdated;
+    private String baseCurrency; // null for records written before currencies were tracked, which are all in USD
+    private Map<String, StockRecord> fxRecords; // currency -> history of its exchange rate into the base currency
+    private Map<String, StockRecord> closedRecords; // ticker -> record of an asset traded in the ledger but no longer held
+    private transient PeriodIndex periodIndex; // derived from the history, so rebuilt lazily instead of written to disk
+    private transient ReturnIndex returnIndex; // likewise derived from the history
+    private transient Map<Integer, RollingSeries> rollingSeries; // likewise derived from the history, keyed by window
+    private transient AggregationPyramid pyramid; // likewise derived from the history
+    private transient CovarianceMatrix covarianceMatrix; // derived from the histories of the assets
+    private transient ValuationEngine pendingTransactions; // deltas of the transactions not yet valued into the history
+    private transient Map<String, StockRecord> pendingRecords; // ticker -> record of an asset with pending transactions
+    private transient Map<String, LocalDate> pendingDates; // ticker -> date of the asset's earliest pending transaction
+    private transient long version; // modification version, which results derived from the record are cached under
 
     /**
      * Initializes class member variables.
@@ -31,6 +58,9 @@ public class PortfolioRecord implements Record {
         currPortValue = 0;
         currMoneyInvested = 0;
         isUpdated = false;
+        baseCurrency = StockRecord.DEFAULT_CURRENCY;
+        fxRecords = new HashMap<>();
+        closedRecords = new HashMap<>();
     }
 
     // getter methods for class member variables
@@ -45,18 +75,128 @@ public class PortfolioRecord implements Record {
     }
 
     public List<DataPoint> getHistory() {
+        valuePendingTransactions();
+
         return history;
     }
 
+    /**
+     * Gets the period index over the portfolio's history, building it if it does not exist yet (e.g. after the record
+     * is read from disk).
+     *
+     * @return The period index.
+     */
+    public synchronized PeriodIndex getPeriodIndex() {
+        valuePendingTransactions();
+
+        if (periodIndex == null) {
+            periodIndex = new PeriodIndex(history);
+        }
+
+        return periodIndex;
+    }
+
+    /**
+     * Gets the return index over the portfolio's history, building it if it does not exist yet (e.g. after the record
+     * is read from disk).
+     *
+     * @return The return index.
+     */
+    public synchronized ReturnIndex getReturnIndex() {
+        valuePendingTransactions();
+
+        if (returnIndex == null) {
+            returnIndex = new ReturnIndex(history);
+        }
+
+        return returnIndex;
+    }
+
+    /**
+     * Gets the rolling-window series of the portfolio's time-weighted growth, building them if they do not exist yet.
+     * Only the most recently used windows are kept.
+     *
+     * @param window The length of the window in data points (trading days).
+     * @return The rolling-window series.
+     */
+    public synchronized RollingSeries getRollingSeries(int window) {
+        valuePendingTransactions();
+
+        if (rollingSeries == null) {
+            rollingSeries = new LinkedHashMap<Integer, RollingSeries>(8, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, RollingSeries> eldest) {
+                    return size() > MAX_ROLLING_SERIES;
+                }
+            };
+        }
+
+        RollingSeries series = rollingSeries.get(window);
+
+        if (series == null) {
+            ReturnIndex returnIndex = getReturnIndex();
+
+            series = new RollingSeries(window);
+
+            for (int i = 0; i < returnIndex.size(); i++) {
+                series.append(1 + returnIndex.getTimeWeightedReturn(0, i));
+            }
+
+            rollingSeries.put(window, series);
+        }
+
+        return series;
+    }
+
+    /**
+     * Gets the weekly, monthly, and quarterly aggregates of the portfolio's history, building them if they do not exist
+     * yet. They are kept up to date as the history changes.
+     *
+     * @return The aggregation pyramid.
+     */
+    public synchronized AggregationPyramid getPyramid() {
+        valuePendingTransactions();
+
+        if (pyramid == null) {
+            pyramid = new AggregationPyramid();
+
+            for (DataPoint dataPoint : history) {
+                pyramid.append(dataPoint);
+            }
+        }
+
+        return pyramid;
+    }
+
+    /**
+     * Gets the covariance matrix of the daily returns of the specified assets, building it if it does not exist yet or
+     * the set of assets has changed. Otherwise only the days added to the asset histories since the last call are
+     * appended to it.
+     *
+     * @param stockDataRecords A map containing the records of all assets currently allocated in the portfolio.
+     * @return The covariance matrix.
+     */
+    public synchronized CovarianceMatrix getCovarianceMatrix(Map<String, StockRecord> stockDataRecords) {
+        if (covarianceMatrix == null || !covarianceMatrix.update(stockDataRecords)) {
+            covarianceMatrix = new CovarianceMatrix(stockDataRecords);
+        }
+
+        return covarianceMatrix;
+    }
+
     public Date getLastUpdate() {
         return lastUpdate;
     }
 
     public double getCurrPortValue() {
+        valuePendingTransactions();
+
         return currPortValue;
     }
 
     public double getCurrMoneyInvested() {
+        valuePendingTransactions();
+
         return currMoneyInvested;
     }
 
@@ -64,6 +204,130 @@ public class PortfolioRecord implements Record {
         return isUpdated;
     }
 
+    public String getBaseCurrency() {
+        return baseCurrency == null ? StockRecord.DEFAULT_CURRENCY : baseCurrency;
+    }
+
+    /**
+     * Gets the records holding the history of the exchange rate from each foreign currency held in the portfolio into
+     * the base currency, keyed by currency.
+     *
+     * @return A map from currency to FX record.
+     */
+    public synchronized Map<String, StockRecord> getFXRecords() {
+        if (fxRecords == null) {
+            fxRecords = new HashMap<>();
+        }
+
+        return fxRecords;
+    }
+
+    /**
+     * Gets the records of the assets which were traded in the transaction ledger but are no longer held, keyed by
+     * ticker. They are kept (and written to disk with the portfolio) so the ledger can always be replayed, and so
+     * positions which were closed can still be valued on the dates they were held.
+     *
+     * @return A map from ticker to the record of an asset no longer held.
+     */
+    public synchronized Map<String, StockRecord> getClosedRecords() {
+        if (closedRecords == null) {
+            closedRecords = new HashMap<>();
+        }
+
+        return closedRecords;
+    }
+
+    /**
+     * Gets the record's modification version, which changes every time its allocations, history, or base currency
+     * change. A record read from disk takes a new version the first time it is asked for one.
+     *
+     * @return The modification version.
+     */
+    public synchronized long getVersion() {
+        if (version == 0) {
+            version = MemoCache.nextVersion();
+        }
+
+        return version;
+    }
+
+    /**
+     * Changes the currency the portfolio is valued in, along with the FX records converting into it. The portfolio's
+     * history must be rebuilt afterwards to be valued in the new currency.
+     *
+     * @param baseCurrency The new base currency (e.g. "EUR").
+     * @param fxRecords A map from each foreign currency held in the portfolio to its FX record.
+     */
+    public synchronized void setBaseCurrency(String baseCurrency, Map<String, StockRecord> fxRecords) {
+        // pending transactions are valued at the exchange rates in effect when they were recorded
+        valuePendingTransactions();
+
+        this.baseCurrency = baseCurrency;
+        this.fxRecords = fxRecords;
+        this.isUpdated = true;
+        touch();
+    }
+
+    /**
+     * Gets the exchange rates converting an asset's prices into the base currency, aligned to the asset's history.
+     *
+     * @param stockRecord The record of the asset.
+     * @return The aligned exchange rates; null if the asset is quoted in the base currency (or no FX record is held for
+     * its currency), in which case its prices need no conversion.
+     */
+    public FXRateIndex getFXRates(StockRecord stockRecord) {
+        StockRecord fxRecord = getFXRecords().get(stockRecord.getCurrency());
+
+        if (stockRecord.getCurrency().equals(getBaseCurrency()) || fxRecord == null) {
+            return null;
+        }
+
+        return stockRecord.getFXRates(fxRecord);
+    }
+
+    /**
+     * Gets the exchange rate converting an asset's prices on a data point of its history into the base currency.
+     *
+     * @param stockRecord The record of the asset.
+     * @param index The index of the data point in the asset's history.
+     * @return The exchange rate; 1 if the asset's prices need no conversion.
+     */
+    public double getFXRate(StockRecord stockRecord, int index) {
+        FXRateIndex fxRates = getFXRates(stockRecord);
+
+        return fxRates == null ? 1 : fxRates.getRate(index);
+    }
+
+    /**
+     * Records a transaction against the portfolio's history without revaluing the history yet. The transaction's share
+     * and cash deltas are added to date-keyed Fenwick trees in O(log n) time, whatever its date. The data points from
+     * its date onward are only revalued the next time the history (or anything derived from it) is read, together with
+     * every other transaction recorded since, in a single pass from the earliest of their dates.
+     *
+     * @param transactionRecord The transaction record; an undo transaction record reverses the transaction it undoes.
+     * @param stockRecord The record of the asset involved, which has a data point on the transaction's date.
+     */
+    public synchronized void addTransaction(TransactionRecord transactionRecord, StockRecord stockRecord) {
+        String ticker = transactionRecord.getTicker();
+        LocalDate pendingDate = pendingDates == null ? null : pendingDates.get(ticker);
+
+        if (pendingTransactions == null) {
+            pendingTransactions = new ValuationEngine();
+            pendingRecords = new HashMap<>();
+            pendingDates = new HashMap<>();
+        }
+
+        pendingTransactions.addTransaction(transactionRecord);
+        pendingRecords.put(ticker, stockRecord);
+
+        if (pendingDate == null || transactionRecord.getDate().isBefore(pendingDate)) {
+            pendingDates.put(ticker, transactionRecord.getDate());
+        }
+
+        isUpdated = true;
+        touch();
+    }
+
     /**
      * Adds a new or adjusts an already existing allocation of the portfolio. Occurs when purchasing an asset.
      *
@@ -98,6 +362,7 @@ public class PortfolioRecord implements Record {
         }
 
         isUpdated = true;
+        touch();
     }
 
     /**
@@ -136,6 +401,7 @@ public class PortfolioRecord implements Record {
         }
 
         isUpdated = true;
+        touch();
     }
 
     /**
@@ -143,19 +409,48 @@ public class PortfolioRecord implements Record {
      *
      * @param newHistory The segment of historical data points to be added.
      */
-    public void addHistory(List<DataPoint> newHistory) {
+    public synchronized void addHistory(List<DataPoint> newHistory) {
+        // the new data points are valued from the current allocations, so they already include pending transactions
+        valuePendingTransactions();
+
         if (history.size() > 1) {
             DataPoint lastDataPoint = history.get(history.size() - 1);
             DataPoint firstDataPoint = newHistory.get(0);
 
             if (lastDataPoint.getDate().equals(firstDataPoint.getDate())) {
                 history.remove(history.size() - 1);
+
+                if (periodIndex != null) {
+                    periodIndex.removeLast();
+                }
+
+                if (returnIndex != null) {
+                    returnIndex.removeLast();
+                }
             }
         }
 
+        int startIndex = history.size();
+
         history.addAll(newHistory);
+
+        if (periodIndex != null) {
+            for (DataPoint dataPoint : newHistory) {
+                periodIndex.append(dataPoint);
+            }
+        }
+
+        if (returnIndex != null) {
+            for (DataPoint dataPoint : newHistory) {
+                returnIndex.append(dataPoint);
+            }
+        }
+
+        syncDerivedSeries(startIndex);
+
         lastUpdate = new Date();
         isUpdated = true;
+        touch();
         updatePortfolioValueAndMoneyInvested();
     }
 
@@ -165,28 +460,103 @@ public class PortfolioRecord implements Record {
      * @param updatedHistory The segment of data points which holds the new updated data.
      * @param index The starting index of the segment in the existing list of historical data points that needs to be updated.
      */
-    public void updateHistory(List<DataPoint> updatedHistory, int index) {
+    public synchronized void updateHistory(List<DataPoint> updatedHistory, int index) {
+        valuePendingTransactions();
+        replaceHistory(updatedHistory, index);
+
+        isUpdated = true;
+        touch();
+    }
+
+    /**
+     * Replaces the whole historical portfolio data, or a segment of it, bringing the indices and series derived from it
+     * up to date.
+     *
+     * @param updatedHistory The new historical data points, or the segment of data points which holds the new data.
+     * @param index The starting index of the segment in the existing list of historical data points; -1 to replace the
+     * whole list.
+     */
+    private synchronized void replaceHistory(List<DataPoint> updatedHistory, int index) {
         if (index < 0) {
             history = updatedHistory;
+            periodIndex = null;
+            returnIndex = null;
+            rollingSeries = null;
+            pyramid = null;
         } else {
+            int startIndex = index;
+
             for (DataPoint dataPoint : updatedHistory) {
                 history.set(index, dataPoint);
                 index++;
             }
+
+            if (periodIndex != null) {
+                periodIndex.refresh(history, startIndex);
+            }
+
+            if (returnIndex != null) {
+                returnIndex.refresh(history, startIndex);
+            }
+
+            syncDerivedSeries(startIndex);
+        }
+
+        updatePortfolioValueAndMoneyInvested();
+    }
+
+    /**
+     * Replaces the historical portfolio data and allocations with ones rebuilt from the transaction ledger.
+     *
+     * @param rebuiltHistory The rebuilt list of historical data points.
+     * @param moneyAmounts A map from ticker to the amount of money currently invested in the asset.
+     * @param numShares A map from ticker to the number of shares currently owned of the asset.
+     */
+    public synchronized void rebuild(List<DataPoint> rebuiltHistory, Map<String, Double> moneyAmounts,
+                                     Map<String, Double> numShares) {
+        DecimalFormat df = new DecimalFormat("#.####");
+
+        // the rebuilt history already reflects every transaction in the ledger
+        clearPendingTransactions();
+
+        df.setRoundingMode(RoundingMode.FLOOR);
+        allocations = new HashMap<>();
+
+        for (String ticker : numShares.keySet()) {
+            String roundedNumShares = df.format(numShares.get(ticker));
+
+            if (!roundedNumShares.equals("0") && !roundedNumShares.equals("-0")) {
+                allocations.put(ticker, new Allocation(moneyAmounts.get(ticker), numShares.get(ticker)));
+            }
         }
 
+        history = rebuiltHistory;
+        periodIndex = null;
+        returnIndex = null;
+        rollingSeries = null;
+        pyramid = null;
         isUpdated = true;
-        updatePortfolioValueAndMoneyInvested();
+        touch();
+
+        if (history.size() > 0) {
+            updatePortfolioValueAndMoneyInvested();
+        } else {
+            currPortValue = 0;
+            currMoneyInvested = 0;
+        }
     }
 
     /**
      * Removes all data points from historical portfolio data with dates prior to the specified lower bound date.
      *
-     * @param lowerBound The date prior to which all data points will be removed.
+     * @param lowerBound The date prior to which all data points will be removed; null to empty the portfolio entirely
+     * (i.e. once the ledger is empty), including its allocations and the records of closed positions.
      */
-    public void truncateHistory(LocalDate lowerBound) {
+    public synchronized void truncateHistory(LocalDate lowerBound) {
         if (lowerBound == null) {
+            clearPendingTransactions();
             allocations = new HashMap<>();
+            closedRecords = new HashMap<>();
             history = new ArrayList<>();
             lastUpdate = new Date();
             currPortValue = 0;
@@ -194,6 +564,8 @@ public class PortfolioRecord implements Record {
         } else {
             ArrayList<DataPoint> truncatedHistory = new ArrayList<>();
 
+            valuePendingTransactions();
+
             for (DataPoint dataPoint : history) {
                 if (dataPoint.getDate().compareTo(lowerBound) >= 0) {
                     truncatedHistory.add(dataPoint);
@@ -203,7 +575,12 @@ public class PortfolioRecord implements Record {
             history = truncatedHistory;
         }
 
+        periodIndex = null;
+        returnIndex = null;
+        rollingSeries = null;
+        pyramid = null;
         isUpdated = true;
+        touch();
     }
 
     /**
@@ -236,6 +613,143 @@ public class PortfolioRecord implements Record {
     public void setUpdated() {
         lastUpdate = new Date();
         isUpdated = true;
+        touch();
+    }
+
+    /**
+     * Gives the record a new modification version, so results derived from its previous state are no longer used.
+     */
+    private synchronized void touch() {
+        version = MemoCache.nextVersion();
+    }
+
+    /**
+     * Revalues the history with the transactions recorded since it was last valued. Each data point from the earliest
+     * pending transaction's date onward takes its previous values plus, for every asset with pending transactions, the
+     * asset's price (converted into the base currency) times the shares the pending transactions added through the
+     * data point's date, read from the Fenwick trees. The portfolio's data points are matched to the assets' by date,
+     * so a date the portfolio has but an asset does not (e.g. an exchange holiday) carries the asset's last close
+     * forward, and a date only an asset has (e.g. before the portfolio's history begins) gets a data point of its own.
+     * The version is left as it is, since the record already took a new one when the transactions were recorded.
+     */
+    private synchronized void valuePendingTransactions() {
+        if (pendingTransactions == null) {
+            return;
+        }
+
+        ValuationEngine pending = pendingTransactions;
+        List<String> tickers = new ArrayList<>(pendingRecords.keySet());
+        int numTickers = tickers.size();
+        List<List<DataPoint>> stockHistories = new ArrayList<>();
+        FXRateIndex[] fxRates = new FXRateIndex[numTickers];
+        int[] stockIndices = new int[numTickers];
+        double[] openValueDeltas = new double[numTickers];
+        double[] closeValueDeltas = new double[numTickers];
+        LocalDate fromDate = Collections.min(pendingDates.values());
+
+        for (int k = 0; k < numTickers; k++) {
+            StockRecord stockRecord = pendingRecords.get(tickers.get(k));
+            List<DataPoint> stockHistory = stockRecord.getHistory();
+
+            stockHistories.add(stockHistory);
+            fxRates[k] = getFXRates(stockRecord);
+            stockIndices[k] = ValuationEngine.findIndex(stockHistory, pendingDates.get(tickers.get(k)).minusDays(1)) + 1;
+        }
+
+        clearPendingTransactions();
+
+        int portHistoryIndex = ValuationEngine.findIndex(history, fromDate.minusDays(1)) + 1;
+        DataPoint prevPortDataPoint = portHistoryIndex > 0 ? history.get(portHistoryIndex - 1) : null;
+        List<DataPoint> updatedHistory = new ArrayList<>();
+        int i = portHistoryIndex;
+
+        while (true) {
+            LocalDate portDate = i < history.size() ? history.get(i).getDate() : null;
+            LocalDate date = portDate;
+
+            for (int k = 0; k < numTickers; k++) {
+                if (stockIndices[k] < stockHistories.get(k).size()) {
+                    LocalDate stockDate = stockHistories.get(k).get(stockIndices[k]).getDate();
+
+                    date = date == null || stockDate.isBefore(date) ? stockDate : date;
+                }
+            }
+
+            if (date == null) {
+                break;
+            }
+
+            double openValueDelta = 0;
+            double closeValueDelta = 0;
+            double moneyInvestedDelta = pending.getMoneyInvested(date);
+
+            for (int k = 0; k < numTickers; k++) {
+                List<DataPoint> stockHistory = stockHistories.get(k);
+
+                if (stockIndices[k] < stockHistory.size() && stockHistory.get(stockIndices[k]).getDate().equals(date)) {
+                    DataPoint stockDataPoint = stockHistory.get(stockIndices[k]);
+                    double rate = fxRates[k] == null ? 1 : fxRates[k].getRate(stockIndices[k]);
+                    double numShares = pending.getNumShares(tickers.get(k), date);
+
+                    openValueDeltas[k] = stockDataPoint.getMarketOpenValue() * rate * numShares;
+                    closeValueDeltas[k] = stockDataPoint.getMarketCloseValue() * rate * numShares;
+                    stockIndices[k]++;
+                } else {
+                    // the asset has no data point on this date, so its last close is carried forward
+                    openValueDeltas[k] = closeValueDeltas[k];
+                }
+
+                openValueDelta += openValueDeltas[k];
+                closeValueDelta += closeValueDeltas[k];
+            }
+
+            if (date.equals(portDate)) {
+                DataPoint currPortDataPoint = history.get(i++);
+
+                updatedHistory.add(new PortfolioDataPoint(date, currPortDataPoint.getMarketOpenValue() + openValueDelta,
+                        currPortDataPoint.getMarketCloseValue() + closeValueDelta,
+                        currPortDataPoint.getMoneyInvested() + moneyInvestedDelta));
+                prevPortDataPoint = currPortDataPoint;
+            } else if (prevPortDataPoint != null) {
+                // a date the portfolio has no data point on carries the rest of the portfolio at its previous close
+                updatedHistory.add(new PortfolioDataPoint(date, prevPortDataPoint.getMarketCloseValue() + openValueDelta,
+                        prevPortDataPoint.getMarketCloseValue() + closeValueDelta,
+                        prevPortDataPoint.getMoneyInvested() + moneyInvestedDelta));
+            } else {
+                updatedHistory.add(new PortfolioDataPoint(date, openValueDelta, closeValueDelta, moneyInvestedDelta));
+            }
+        }
+
+        // data points can only be replaced in place if the segment still lines up with the portfolio's history
+        if (updatedHistory.size() == history.size() - portHistoryIndex) {
+            replaceHistory(updatedHistory, portHistoryIndex);
+        } else {
+            List<DataPoint> newHistory = new ArrayList<>(history.subList(0, portHistoryIndex));
+
+            newHistory.addAll(updatedHistory);
+            replaceHistory(newHistory, -1);
+        }
+    }
+
+    /**
+     * Discards the transactions recorded since the history was last valued.
+     */
+    private synchronized void clearPendingTransactions() {
+        pendingTransactions = null;
+        pendingRecords = null;
+        pendingDates = null;
+    }
+
+    /**
+     * Values the history with any pending transactions before the record is written to disk, since they are not
+     * written with it.
+     *
+     * @param outputStream The stream the record is written to.
+     * @throws IOException If the record cannot be written.
+     */
+    private void writeObject(ObjectOutputStream outputStream) throws IOException {
+        valuePendingTransactions();
+        outputStream.defaultWriteObject();
     }
 
     /**
@@ -249,6 +763,35 @@ public class PortfolioRecord implements Record {
         currMoneyInvested = dataPoint.getMoneyInvested();
     }
 
+    /**
+     * Brings the cached rolling-window series and aggregation pyramid up to date with the history from a data point
+     * onward, i.e. after the data points from that index onward were added or updated. The growth levels are read from
+     * the return index, which has already been brought up to date.
+     *
+     * @param from The index of the first added or updated data point.
+     */
+    private synchronized void syncDerivedSeries(int from) {
+        if (rollingSeries != null) {
+            ReturnIndex returnIndex = getReturnIndex();
+
+            for (RollingSeries series : rollingSeries.values()) {
+                series.truncate(from);
+
+                for (int i = series.size(); i < returnIndex.size(); i++) {
+                    series.append(1 + returnIndex.getTimeWeightedReturn(0, i));
+                }
+            }
+        }
+
+        if (pyramid != null) {
+            pyramid.truncate(from);
+
+            for (int i = pyramid.size(); i < history.size(); i++) {
+                pyramid.append(history.get(i));
+            }
+        }
+    }
+
     /**
      * Represents an allocation of the portfolio for a specific asset.
      */
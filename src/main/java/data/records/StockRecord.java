@@ -1,9 +1,18 @@
 package data.records;
 
+import analytics.AggregationPyramid;
+import analytics.FXRateIndex;
+import analytics.MemoCache;
+import analytics.PeriodIndex;
+import analytics.RollingSeries;
+import analytics.RollingWindowStats;
+import analytics.TechnicalIndicators;
 import data.datapoints.DataPoint;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Created by scottreese on 6/10/19.
@@ -11,10 +20,25 @@ import java.util.List;
  * A record type which stores all relevant data corresponding to a particular asset.
  */
 public class StockRecord implements Record {
+    // pinned to the value computed for the original class so that records already written to disk remain readable
+    private static final long serialVersionUID = 2068783355817849435L;
     private static int NUM_ENTRIES = 2520; // number of trading days in 10 years
+    private static final int TRIM_SLACK = 63; // number of trading days (a quarter) kept beyond 10 years before trimming
+    private static final int WINDOW_DAYS = 364; // number of calendar days in 52 weeks
+    private static final int MAX_ROLLING_SERIES = 4; // number of rolling windows kept per record
+    public static final String DEFAULT_CURRENCY = "USD";
 
     private String ticker;
+    private String currency; // null for records written before currencies were tracked, which are all in USD
     private List<DataPoint> history;
+    private transient PeriodIndex periodIndex; // derived from the history, so rebuilt lazily instead of written to disk
+    private transient RollingWindowStats windowStats; // likewise derived from the history
+    private transient FXRateIndex fxRates; // likewise derived from the history (and the FX history it is aligned to)
+    private transient String fxTicker;
+    private transient Map<Integer, RollingSeries> rollingSeries; // likewise derived from the history, keyed by window
+    private transient AggregationPyramid pyramid; // likewise derived from the history
+    private transient TechnicalIndicators indicators; // likewise derived from the history
+    private transient long version; // modification version, which results derived from the record are cached under
 
     /**
      * Initializes class member variables.
@@ -22,7 +46,18 @@ public class StockRecord implements Record {
      * @param ticker The ticker symbol of the asset associated with this record.
      */
     public StockRecord(String ticker) {
+        this(ticker, DEFAULT_CURRENCY);
+    }
+
+    /**
+     * Initializes class member variables.
+     *
+     * @param ticker The ticker symbol of the asset associated with this record.
+     * @param currency The currency the asset is quoted in (e.g. "EUR").
+     */
+    public StockRecord(String ticker, String currency) {
         this.ticker = ticker;
+        this.currency = currency;
         this.history = new ArrayList<>();
     }
 
@@ -37,10 +72,142 @@ public class StockRecord implements Record {
         return ticker;
     }
 
+    public String getCurrency() {
+        return currency == null ? DEFAULT_CURRENCY : currency;
+    }
+
     public List<DataPoint> getHistory() {
         return history;
     }
 
+    /**
+     * Gets the period index over the asset's history, building it if it does not exist yet (e.g. after the record is
+     * read from disk).
+     *
+     * @return The period index.
+     */
+    public synchronized PeriodIndex getPeriodIndex() {
+        if (periodIndex == null) {
+            periodIndex = new PeriodIndex(history);
+        }
+
+        return periodIndex;
+    }
+
+    /**
+     * Gets the 52 week window statistics of the asset's history, building them from the last 52 weeks of the history
+     * if they do not exist yet.
+     *
+     * @return The 52 week window statistics.
+     */
+    public synchronized RollingWindowStats getWindowStats() {
+        if (windowStats == null) {
+            windowStats = new RollingWindowStats(WINDOW_DAYS, history);
+        }
+
+        return windowStats;
+    }
+
+    /**
+     * Gets the rolling-window series of the asset's close values, building them if they do not exist yet. Only the
+     * most recently used windows are kept.
+     *
+     * @param window The length of the window in data points (trading days).
+     * @return The rolling-window series.
+     */
+    public synchronized RollingSeries getRollingSeries(int window) {
+        if (rollingSeries == null) {
+            rollingSeries = new LinkedHashMap<Integer, RollingSeries>(8, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, RollingSeries> eldest) {
+                    return size() > MAX_ROLLING_SERIES;
+                }
+            };
+        }
+
+        RollingSeries series = rollingSeries.get(window);
+
+        if (series == null) {
+            series = new RollingSeries(window);
+
+            for (DataPoint dataPoint : history) {
+                series.append(dataPoint.getMarketCloseValue());
+            }
+
+            rollingSeries.put(window, series);
+        }
+
+        return series;
+    }
+
+    /**
+     * Gets the technical indicators of the asset's bars, building them if they do not exist yet. They are kept up to
+     * date as bars are added to the history.
+     *
+     * @return The technical indicators.
+     */
+    public synchronized TechnicalIndicators getIndicators() {
+        if (indicators == null) {
+            indicators = new TechnicalIndicators();
+
+            for (DataPoint dataPoint : history) {
+                indicators.append(dataPoint);
+            }
+        }
+
+        return indicators;
+    }
+
+    /**
+     * Gets the weekly, monthly, and quarterly aggregates of the asset's history, building them if they do not exist
+     * yet. They are kept up to date as the history changes.
+     *
+     * @return The aggregation pyramid.
+     */
+    public synchronized AggregationPyramid getPyramid() {
+        if (pyramid == null) {
+            pyramid = new AggregationPyramid();
+
+            for (DataPoint dataPoint : history) {
+                pyramid.append(dataPoint);
+            }
+        }
+
+        return pyramid;
+    }
+
+    /**
+     * Gets the exchange rates converting the asset's prices into another currency, aligned to the asset's history. The
+     * rates are cached and only re-aligned where the asset's history or the FX history has changed since the last call.
+     *
+     * @param fxRecord The record holding the history of the exchange rate from the asset's currency into the other.
+     * @return The aligned exchange rates.
+     */
+    public synchronized FXRateIndex getFXRates(StockRecord fxRecord) {
+        if (fxRates == null || !fxRecord.getTicker().equals(fxTicker)) {
+            fxRates = new FXRateIndex(history, fxRecord.getHistory());
+            fxTicker = fxRecord.getTicker();
+        } else {
+            fxRates.sync(history, fxRecord.getHistory());
+        }
+
+        return fxRates;
+    }
+
+    /**
+     * Gets the record's modification version, which changes every time its history is added to or updated. A record
+     * read from disk takes a new version the first time it is asked for one.
+     *
+     * @return The modification version.
+     */
+    public synchronized long getVersion() {
+        if (version == 0) {
+            version = MemoCache.nextVersion();
+        }
+
+        return version;
+    }
+
     /**
      * Adds a new segment of historical data points to the existing history for the asset.
      *
@@ -53,11 +220,35 @@ public class StockRecord implements Record {
 
             if (lastDataPoint.getDate().equals(firstDataPoint.getDate())) {
                 history.remove(lastDataPoint);
+
+                if (periodIndex != null) {
+                    periodIndex.removeLast();
+                }
+
+                // a data point cannot be taken back out of the window, so the statistics are rebuilt from the window
+                windowStats = null;
             }
         }
 
+        int startIndex = history.size();
+
         history.addAll(newHistory);
+
+        if (periodIndex != null) {
+            for (DataPoint dataPoint : newHistory) {
+                periodIndex.append(dataPoint);
+            }
+        }
+
+        if (windowStats != null) {
+            for (DataPoint dataPoint : newHistory) {
+                windowStats.append(dataPoint);
+            }
+        }
+
+        syncDerivedSeries(startIndex);
         resizeHistory();
+        touch();
     }
 
     /**
@@ -67,18 +258,71 @@ public class StockRecord implements Record {
      * @param index The starting index of the segment in the existing list of historical data points that needs to be updated.
      */
     public void updateHistory(List<DataPoint> updatedHistory, int index) {
+        int startIndex = index;
+
         for (DataPoint dataPoint : updatedHistory) {
             history.set(index, dataPoint);
             index++;
         }
+
+        if (periodIndex != null) {
+            periodIndex.refresh(history, startIndex);
+        }
+
+        windowStats = null;
+        syncDerivedSeries(startIndex);
+        touch();
+    }
+
+    /**
+     * Gives the record a new modification version, so results derived from its previous state are no longer used.
+     */
+    private synchronized void touch() {
+        version = MemoCache.nextVersion();
+    }
+
+    /**
+     * Brings the cached rolling-window series, technical indicators, and aggregation pyramid up to date with the
+     * history from a data point onward, i.e. after the data points from that index onward were added or updated.
+     *
+     * @param from The index of the first added or updated data point.
+     */
+    private synchronized void syncDerivedSeries(int from) {
+        if (rollingSeries != null) {
+            for (RollingSeries series : rollingSeries.values()) {
+                series.truncate(from);
+
+                for (int i = series.size(); i < history.size(); i++) {
+                    series.append(history.get(i).getMarketCloseValue());
+                }
+            }
+        }
+
+        if (indicators != null) {
+            indicators.truncate(from);
+
+            for (int i = indicators.size(); i < history.size(); i++) {
+                indicators.append(history.get(i));
+            }
+        }
+
+        if (pyramid != null) {
+            pyramid.truncate(from);
+
+            for (int i = pyramid.size(); i < history.size(); i++) {
+                pyramid.append(history.get(i));
+            }
+        }
     }
 
     /**
-     * Resizes the list of historical data points to contain at most 10 years worth of data. Any data points dated
-     * prior to 10 years from the current date are removed from the list.
+     * Resizes the list of historical data points to contain 10 years worth of data once it holds more than a quarter
+     * beyond that. Any data points dated prior to 10 years from the current date are then removed from the list.
+     * Trimming invalidates the indices derived from the history, so it is done a quarter at a time rather than every
+     * time a day is added.
      */
     private void resizeHistory() {
-        if (history.size() > NUM_ENTRIES) {
+        if (history.size() > NUM_ENTRIES + TRIM_SLACK) {
             List<DataPoint> resizedHistory = new ArrayList<>();
 
             for (int i = history.size() - NUM_ENTRIES; i < history.size(); i++) {
@@ -86,6 +330,11 @@ public class StockRecord implements Record {
             }
 
             history = resizedHistory;
+            periodIndex = null;
+            fxRates = null;
+            rollingSeries = null;
+            indicators = null;
+            pyramid = null;
         }
     }
 }
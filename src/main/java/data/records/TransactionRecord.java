@@ -8,11 +8,15 @@ import java.time.LocalDate;
  * A record type which stores all relevant data corresponding to a particular transaction.
  */
 public class TransactionRecord implements Record {
+    // pinned to the value computed for the original class so that records already written to disk remain readable
+    private static final long serialVersionUID = 1586671013919081992L;
+
     private LocalDate date;
     private String ticker;
     private double numShares;
     private double price;
     private boolean isBuy;
+    private LocalDate[] lotDates; // purchase dates of the specific lots a sale closes; null for records written before lots
 
     /**
      * Initializes class member variables.
@@ -29,6 +33,7 @@ public class TransactionRecord implements Record {
         this.numShares = numShares;
         this.price = price;
         this.isBuy = isBuy;
+        this.lotDates = null;
     }
 
     // getter methods for class member variables
@@ -57,4 +62,18 @@ public class TransactionRecord implements Record {
     public boolean isBuy() {
         return isBuy;
     }
+
+    public LocalDate[] getLotDates() {
+        return lotDates;
+    }
+
+    /**
+     * Sets the purchase dates of the specific tax lots this sale closes, in the order they are to be closed. Only used
+     * when the specific lot cost basis method is selected.
+     *
+     * @param lotDates The purchase dates of the lots.
+     */
+    public void setLotDates(LocalDate[] lotDates) {
+        this.lotDates = lotDates;
+    }
 }
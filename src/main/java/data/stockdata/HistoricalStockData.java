@@ -4,6 +4,7 @@ import com.mashape.unirest.http.HttpResponse;
 import com.mashape.unirest.http.JsonNode;
 import data.datapoints.DataPoint;
 import data.datapoints.StockDataPoint;
+import data.records.StockRecord;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
@@ -21,6 +22,7 @@ import java.util.List;
  */
 public class HistoricalStockData implements StockData {
     private String ticker;
+    private String currency;
     private List<DataPoint> history;
 
     /**
@@ -57,7 +59,10 @@ public class HistoricalStockData implements StockData {
                 .getJSONArray("low");
         JSONArray timestamps = result.getJSONArray("timestamp");
 
-        ticker = result.getJSONObject("meta").getString("symbol");
+        JSONObject meta = result.getJSONObject("meta");
+
+        ticker = meta.getString("symbol");
+        currency = meta.has("currency") && !meta.isNull("currency") ? meta.getString("currency") : StockRecord.DEFAULT_CURRENCY;
 
         for (int i = 0; i < timestamps.length(); i++) {
             LocalDate date = Instant.ofEpochMilli(timestamps.getLong(i) * 1000).atZone(ZoneId.systemDefault()).toLocalDate();
@@ -78,6 +83,10 @@ public class HistoricalStockData implements StockData {
         return ticker;
     }
 
+    public String getCurrency() {
+        return currency;
+    }
+
     public List<DataPoint> getHistory() {
         return history;
     }
@@ -27,6 +27,7 @@ public class StockDataFetcher {
     private static final String LANGUAGE = "en";
     private static final String DIV_EVENT = "div";
     private static final String INTERVAL = "1d";
+    private static final String FX_SUFFIX = "=X";
 
     // private enum used internally to specify the type of data requested (more types to be added in the future)
     private enum StockDataType {
@@ -61,6 +62,39 @@ public class StockDataFetcher {
         }
     }
 
+    /**
+     * Makes request to online database API for the historical exchange rates from several currencies into a base
+     * currency. Exchange rates are fetched through the same path as asset data, so each one is handed back as
+     * historical data whose ticker is the FX ticker (see getFXTicker()) and whose prices are the rates.
+     *
+     * @param currencies A list of the currencies whose exchange rates are requested.
+     * @param baseCurrency The currency the rates convert into.
+     * @param from The starting date for the requested historical data.
+     * @param to The end date for the requested historical data.
+     * @param callback The callback to be used once the data is received or if an error occurs.
+     */
+    public void fetchHistoricalFXData(List<String> currencies, String baseCurrency, Date from, Date to, StockDataCallback callback) {
+        List<String> fxTickers = new ArrayList<>();
+
+        for (String currency : currencies) {
+            fxTickers.add(getFXTicker(currency, baseCurrency));
+        }
+
+        fetchHistoricalStockData(fxTickers, from, to, callback);
+    }
+
+    /**
+     * Gets the ticker under which the online database API lists the exchange rate from one currency into another,
+     * i.e. the price of one unit of the first currency in units of the second.
+     *
+     * @param currency The currency converted from.
+     * @param baseCurrency The currency converted into.
+     * @return The FX ticker (e.g. "EURUSD=X").
+     */
+    public static String getFXTicker(String currency, String baseCurrency) {
+        return currency + baseCurrency + FX_SUFFIX;
+    }
+
     /**
      * The callback class used internally in this class for the purpose of synchronizing multiple threads. Each of
      * these threads would be responsible for making a separate call to the API for data associated with a particular
@@ -17,6 +17,7 @@ public class PAException extends Exception {
         WEEKEND_NO_DATA,
         INVALID_TRANSACTION_DATE,
         REQUEST_CANCELLED,
+        MISSING_HISTORY,
         MISC
     }
 
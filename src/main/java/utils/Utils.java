@@ -3,9 +3,10 @@ package utils;
 /**
  * Created by scottreese on 10/26/19.
  *
- * Class containing useful formatting functions for dollars, percentages, and decimals.
+ * Class containing useful formatting functions for money, percentages, and decimals.
  */
 public class Utils {
+    private static final String USD = "USD";
 
     /**
      * Rounds a decimal to a specified number of digits.
@@ -64,6 +65,47 @@ public class Utils {
         return isNegative ? "-$" + formattedDollars : "$" + formattedDollars;
     }
 
+    /**
+     * Formats a decimal representing an amount of money in a currency like formatDollars() does, prefixed by the
+     * currency's code instead of a dollar sign unless the currency is the US dollar (e.g. "EUR 1,234.56").
+     *
+     * @param amount The amount of money to be formatted.
+     * @param currency The currency the amount is in (e.g. "EUR").
+     * @return The formatted amount of money.
+     */
+    public static String formatMoney(double amount, String currency) {
+        return formatDollars(amount).replace("$", getMoneyPrefix(currency));
+    }
+
+    /**
+     * Parses an amount of money which may have been formatted by formatMoney() (or typed with the currency's prefix).
+     *
+     * @param input The text to be parsed.
+     * @param currency The currency the amount is in.
+     * @return The amount of money.
+     * @throws NumberFormatException If the text is not an amount of money.
+     */
+    public static double parseMoney(String input, String currency) {
+        String amount = input.trim();
+        String prefix = getMoneyPrefix(currency).trim();
+
+        if (amount.startsWith(prefix)) {
+            amount = amount.substring(prefix.length());
+        }
+
+        return Double.parseDouble(amount.replace(",", "").trim());
+    }
+
+    /**
+     * Gets the prefix amounts of money in a currency are formatted with.
+     *
+     * @param currency The currency (e.g. "EUR").
+     * @return A dollar sign for US dollars; the currency's code followed by a space otherwise.
+     */
+    public static String getMoneyPrefix(String currency) {
+        return currency == null || currency.equals(USD) ? "$" : currency + " ";
+    }
+
     /**
      * Formats a decimal as a percentage, rounded to two decimal places.
      *
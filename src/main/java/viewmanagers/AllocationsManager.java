@@ -1,17 +1,29 @@
 package viewmanagers;
 
+import analytics.CovarianceMatrix;
+import analytics.HoldingsSnapshot;
+import analytics.MeanVarianceOptimizer;
+import analytics.MemoCache;
+import analytics.Rebalancer;
+import analytics.TaxLotLedger;
+import analytics.ValuationEngine;
 import controllers.PortfolioOverviewController;
 import data.records.PortfolioRecord;
+import data.records.StockRecord;
+import data.records.TransactionRecord;
 import javafx.collections.FXCollections;
-import javafx.collections.ObservableList;
 import javafx.scene.chart.PieChart;
 import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableView;
 import javafx.scene.control.cell.PropertyValueFactory;
 import utils.Utils;
 
+import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeSet;
 
 /**
  * Created by scottreese on 6/16/19.
@@ -19,10 +31,21 @@ import java.util.Map;
  * The manager responsible for controlling and updating the pie chart chart and table component of the main screen.
  */
 public class AllocationsManager {
+    private static final int MAX_CACHED_ROWS = 8; // number of allocation states whose rows are kept
+    private static final double MIN_TRADE_VALUE = 10; // in the base currency; smaller drifts from the target are not traded
+
     private PortfolioOverviewController overviewController;
     private PieChart allocationChart;
     private TableView<UpperTableRow> upperAllocationsTable;
     private TableView<LowerTableRow> lowerAllocationsTable;
+    private TableView<TradeTableRow> tradesTable;
+    private TableView<HoldingsTableRow> holdingsTable;
+    private TaxLotLedger taxLotLedger;
+    private MemoCache<AllocationRows> rowCache;
+    private LocalDate holdingsDate; // null if no holdings are shown
+    private Map<String, StockRecord> stockDataRecords;
+    private ValuationEngine valuationEngine;
+    private String baseCurrency; // the currency the amounts of money in the tables are shown in
 
     /**
      * Initializes class member variables.
@@ -31,16 +54,31 @@ public class AllocationsManager {
      * @param allocationChart The pie chart used to show visually how the portfolio is allocated.
      * @param upperAllocationsTable The table which displays the dollar amount invested in each asset of the portfolio.
      * @param lowerAllocationsTable The table which displays the number of shares owned and percentage allocated of each asset.
+     * @param tradesTable The table which displays the trades proposed to rebalance the portfolio.
+     * @param holdingsTable The table which displays the holdings on a past date and their change since.
+     * @param taxLotLedger The tax lot ledger holding the cost basis and realized gains of each asset.
      */
     public AllocationsManager(PortfolioOverviewController overviewController, PieChart allocationChart,
-                              TableView<UpperTableRow> upperAllocationsTable, TableView<LowerTableRow> lowerAllocationsTable) {
+                              TableView<UpperTableRow> upperAllocationsTable, TableView<LowerTableRow> lowerAllocationsTable,
+                              TableView<TradeTableRow> tradesTable, TableView<HoldingsTableRow> holdingsTable,
+                              TaxLotLedger taxLotLedger) {
         this.overviewController = overviewController;
         this.allocationChart = allocationChart;
         this.upperAllocationsTable = upperAllocationsTable;
         this.lowerAllocationsTable = lowerAllocationsTable;
+        this.tradesTable = tradesTable;
+        this.holdingsTable = holdingsTable;
+        this.taxLotLedger = taxLotLedger;
+        this.rowCache = new MemoCache<>(MAX_CACHED_ROWS);
+        this.holdingsDate = null;
+        this.stockDataRecords = null;
+        this.valuationEngine = null;
+        this.baseCurrency = StockRecord.DEFAULT_CURRENCY;
 
         initUpperTable();
         initLowerTable();
+        initTradesTable();
+        initHoldingsTable();
     }
 
     /**
@@ -53,18 +91,152 @@ public class AllocationsManager {
     }
 
     /**
-     * Updates the pie chart and tables when any of the portfolio allocations are altered.
+     * Updates the pie chart and tables when any of the portfolio allocations are altered. Any proposed trades are
+     * removed, since they were computed from the old allocations, and any holdings shown are recalculated.
      *
      * @param portRecord The portfolio record containing the updated allocation data.
      */
     public void update(PortfolioRecord portRecord) {
         allocationChart.getData().clear();
+        clearTrades();
+
+        if (holdingsDate != null) {
+            showHoldings(portRecord, stockDataRecords, valuationEngine, holdingsDate);
+        }
 
         updateAllocationChartAndTable(true, portRecord);
     }
 
     /**
-     * Initializes the table which displays the dollar amount invested in each asset of the portfolio.
+     * Shows the trades needed to move the portfolio's current allocations to a set of target weights.
+     *
+     * @param portRecord The portfolio record containing the current allocations.
+     * @param stockDataRecords A map containing the records of all assets currently allocated in the portfolio.
+     * @param targetWeights A map from ticker to target weight; the weights should sum to one.
+     */
+    public void proposeTrades(PortfolioRecord portRecord, Map<String, StockRecord> stockDataRecords,
+                              Map<String, Double> targetWeights) {
+        List<TradeTableRow> tradeTableRows = new ArrayList<>();
+
+        baseCurrency = portRecord.getBaseCurrency();
+
+        for (TransactionRecord trade : Rebalancer.getTrades(portRecord, stockDataRecords, targetWeights, MIN_TRADE_VALUE)) {
+            tradeTableRows.add(new TradeTableRow(trade));
+        }
+
+        tradesTable.setItems(FXCollections.observableArrayList(tradeTableRows));
+    }
+
+    /**
+     * Shows the trades needed to move the portfolio's current allocations to the long-only mean-variance optimal
+     * weights of its assets for a trade-off between expected return and variance.
+     *
+     * @param portRecord The portfolio record containing the current allocations.
+     * @param stockDataRecords A map containing the records of all assets currently allocated in the portfolio.
+     * @param tradeOff The trade-off, from 0 (maximize expected return) to 1 (minimize variance).
+     */
+    public void proposeOptimalTrades(PortfolioRecord portRecord, Map<String, StockRecord> stockDataRecords,
+                                     double tradeOff) {
+        MeanVarianceOptimizer optimizer = getOptimizer(portRecord, stockDataRecords);
+
+        if (optimizer == null) {
+            clearTrades();
+        } else {
+            proposeTrades(portRecord, stockDataRecords, optimizer.optimize(tradeOff));
+        }
+    }
+
+    /**
+     * Shows the trades needed to move the portfolio's current allocations to the long-only weights of its assets with
+     * the highest expected return whose annualized volatility does not exceed a target.
+     *
+     * @param portRecord The portfolio record containing the current allocations.
+     * @param stockDataRecords A map containing the records of all assets currently allocated in the portfolio.
+     * @param annualVolatility The target annualized volatility (e.g. 0.15 for 15%).
+     */
+    public void proposeTradesForVolatility(PortfolioRecord portRecord, Map<String, StockRecord> stockDataRecords,
+                                           double annualVolatility) {
+        MeanVarianceOptimizer optimizer = getOptimizer(portRecord, stockDataRecords);
+
+        if (optimizer == null) {
+            clearTrades();
+        } else {
+            proposeTrades(portRecord, stockDataRecords, optimizer.optimizeForVolatility(annualVolatility));
+        }
+    }
+
+    /**
+     * Removes every proposed trade.
+     */
+    public void clearTrades() {
+        tradesTable.getItems().clear();
+    }
+
+    /**
+     * Shows what the portfolio held at market close on a past date, along with the change in each position and in the
+     * portfolio as a whole from then to the last date of its history. The first row holds the portfolio's totals.
+     *
+     * @param portRecord The portfolio record.
+     * @param stockDataRecords A map containing the records of all assets currently allocated in the portfolio.
+     * @param valuationEngine The valuation engine holding the deltas of every real transaction.
+     * @param date The date in question.
+     */
+    public void showHoldings(PortfolioRecord portRecord, Map<String, StockRecord> stockDataRecords,
+                             ValuationEngine valuationEngine, LocalDate date) {
+        List<HoldingsTableRow> holdingsTableRows = new ArrayList<>();
+
+        this.holdingsDate = date;
+        this.stockDataRecords = stockDataRecords;
+        this.valuationEngine = valuationEngine;
+        this.baseCurrency = portRecord.getBaseCurrency();
+
+        if (portRecord.getHistory().size() > 0) {
+            LocalDate lastDate = portRecord.getHistory().get(portRecord.getHistory().size() - 1).getDate();
+            HoldingsSnapshot snapshot = valuationEngine.getSnapshot(date, portRecord, stockDataRecords);
+            HoldingsSnapshot change = valuationEngine.getChange(date, lastDate, portRecord, stockDataRecords);
+
+            // the change also lists positions opened after the date, so it covers every ticker in the snapshot
+            holdingsTableRows.add(new HoldingsTableRow("Total", Double.NaN, snapshot.getMarketValue(), Double.NaN,
+                    change.getMarketValue()));
+
+            for (String ticker : new TreeSet<>(change.getPositions().keySet())) {
+                HoldingsSnapshot.Position position = snapshot.getPosition(ticker);
+                HoldingsSnapshot.Position positionChange = change.getPosition(ticker);
+
+                holdingsTableRows.add(new HoldingsTableRow(ticker, position == null ? 0 : position.getNumShares(),
+                        position == null ? 0 : position.getMarketValue(), positionChange.getNumShares(),
+                        positionChange.getMarketValue()));
+            }
+        }
+
+        holdingsTable.setItems(FXCollections.observableArrayList(holdingsTableRows));
+    }
+
+    /**
+     * Removes the holdings shown for a past date.
+     */
+    public void clearHoldings() {
+        holdingsDate = null;
+        holdingsTable.getItems().clear();
+    }
+
+    /**
+     * Gets a mean-variance optimizer over the assets currently allocated in the portfolio, using the covariance matrix
+     * kept by the portfolio record.
+     *
+     * @param portRecord The portfolio record.
+     * @param stockDataRecords A map containing the records of all assets currently allocated in the portfolio.
+     * @return The optimizer; null if the assets have fewer than two days of common history.
+     */
+    private MeanVarianceOptimizer getOptimizer(PortfolioRecord portRecord, Map<String, StockRecord> stockDataRecords) {
+        CovarianceMatrix covarianceMatrix = portRecord.getCovarianceMatrix(stockDataRecords);
+
+        return covarianceMatrix.getCount() < 2 ? null : new MeanVarianceOptimizer(covarianceMatrix);
+    }
+
+    /**
+     * Initializes the table which displays the dollar amount invested, cost basis, and realized gains of each asset of
+     * the portfolio.
      */
     private void initUpperTable() {
         upperAllocationsTable.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY);
@@ -74,12 +246,22 @@ public class AllocationsManager {
         ticker.setSortable(false);
         ticker.impl_setReorderable(false);
 
-        TableColumn<UpperTableRow, String> amountInvested = new TableColumn<>("$ Invested");
+        TableColumn<UpperTableRow, String> amountInvested = new TableColumn<>("Invested");
         amountInvested.setCellValueFactory(new PropertyValueFactory<>("amountInvested"));
         amountInvested.setSortable(false);
         amountInvested.impl_setReorderable(false);
 
-        upperAllocationsTable.getColumns().setAll(ticker, amountInvested);
+        TableColumn<UpperTableRow, String> costBasis = new TableColumn<>("Cost Basis");
+        costBasis.setCellValueFactory(new PropertyValueFactory<>("costBasis"));
+        costBasis.setSortable(false);
+        costBasis.impl_setReorderable(false);
+
+        TableColumn<UpperTableRow, String> realizedGain = new TableColumn<>("Realized");
+        realizedGain.setCellValueFactory(new PropertyValueFactory<>("realizedGain"));
+        realizedGain.setSortable(false);
+        realizedGain.impl_setReorderable(false);
+
+        upperAllocationsTable.getColumns().setAll(ticker, amountInvested, costBasis, realizedGain);
     }
 
     /**
@@ -106,55 +288,162 @@ public class AllocationsManager {
         lowerAllocationsTable.getColumns().setAll(ticker, numShares, percentage);
     }
 
+    /**
+     * Initializes the table which displays the trades proposed to rebalance the portfolio.
+     */
+    private void initTradesTable() {
+        tradesTable.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY);
+
+        TableColumn<TradeTableRow, String> action = new TableColumn<>("Trade");
+        action.setCellValueFactory(new PropertyValueFactory<>("action"));
+        action.setSortable(false);
+        action.impl_setReorderable(false);
+
+        TableColumn<TradeTableRow, String> ticker = new TableColumn<>("Ticker");
+        ticker.setCellValueFactory(new PropertyValueFactory<>("ticker"));
+        ticker.setSortable(false);
+        ticker.impl_setReorderable(false);
+
+        TableColumn<TradeTableRow, String> numShares = new TableColumn<>("Shares");
+        numShares.setCellValueFactory(new PropertyValueFactory<>("numShares"));
+        numShares.setSortable(false);
+        numShares.impl_setReorderable(false);
+
+        TableColumn<TradeTableRow, String> value = new TableColumn<>("Value");
+        value.setCellValueFactory(new PropertyValueFactory<>("value"));
+        value.setSortable(false);
+        value.impl_setReorderable(false);
+
+        tradesTable.getColumns().setAll(action, ticker, numShares, value);
+    }
+
+    /**
+     * Initializes the table which displays the holdings on a past date and their change since.
+     */
+    private void initHoldingsTable() {
+        holdingsTable.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY);
+
+        TableColumn<HoldingsTableRow, String> ticker = new TableColumn<>("Ticker");
+        ticker.setCellValueFactory(new PropertyValueFactory<>("ticker"));
+        ticker.setSortable(false);
+        ticker.impl_setReorderable(false);
+
+        TableColumn<HoldingsTableRow, String> numShares = new TableColumn<>("Shares");
+        numShares.setCellValueFactory(new PropertyValueFactory<>("numShares"));
+        numShares.setSortable(false);
+        numShares.impl_setReorderable(false);
+
+        TableColumn<HoldingsTableRow, String> marketValue = new TableColumn<>("Value");
+        marketValue.setCellValueFactory(new PropertyValueFactory<>("marketValue"));
+        marketValue.setSortable(false);
+        marketValue.impl_setReorderable(false);
+
+        TableColumn<HoldingsTableRow, String> sharesChange = new TableColumn<>("Chg Shares");
+        sharesChange.setCellValueFactory(new PropertyValueFactory<>("sharesChange"));
+        sharesChange.setSortable(false);
+        sharesChange.impl_setReorderable(false);
+
+        TableColumn<HoldingsTableRow, String> valueChange = new TableColumn<>("Chg Value");
+        valueChange.setCellValueFactory(new PropertyValueFactory<>("valueChange"));
+        valueChange.setSortable(false);
+        valueChange.impl_setReorderable(false);
+
+        holdingsTable.getColumns().setAll(ticker, numShares, marketValue, sharesChange, valueChange);
+    }
+
     /**
      * The helper function which does the actual updating of the pie chart and tables. Signifies to the main screen
-     * controller when finished.
+     * controller when finished. The rows are only recalculated if the portfolio's allocations or the tax lots have
+     * changed since they were last shown.
      *
      * @param isUpdate True if this allocation chart manager is completing an update; false if it is initializing.
      * @param portRecord A map containing the actual allocations of the portfolio.
      */
     private void updateAllocationChartAndTable(boolean isUpdate, PortfolioRecord portRecord) {
+        baseCurrency = portRecord.getBaseCurrency();
+
+        AllocationRows rows = rowCache.get(portRecord, portRecord.getVersion(), taxLotLedger.getVersion(),
+                () -> calculateRows(portRecord));
+
+        for (UpperTableRow upperTableRow : rows.slices) {
+            allocationChart.getData().add(new PieChart.Data(upperTableRow.getTicker(), upperTableRow.getAmountInvestedDouble()));
+        }
+
+        upperAllocationsTable.setItems(FXCollections.observableArrayList(rows.upperTableRows));
+        lowerAllocationsTable.setItems(FXCollections.observableArrayList(rows.lowerTableRows));
+        overviewController.allocationsManagerFinished(isUpdate);
+    }
+
+    /**
+     * Calculates the table rows of every asset currently allocated in the portfolio.
+     *
+     * @param portRecord The portfolio record containing the allocations.
+     * @return The table rows.
+     */
+    private AllocationRows calculateRows(PortfolioRecord portRecord) {
         Map<String, PortfolioRecord.Allocation> allocations = portRecord.getAllocations();
-        ObservableList<UpperTableRow> upperTableRows = FXCollections.observableArrayList();
-        ObservableList<LowerTableRow> lowerTableRows = FXCollections.observableArrayList();
+        AllocationRows rows = new AllocationRows();
 
         for (String ticker : allocations.keySet()) {
             PortfolioRecord.Allocation allocation = allocations.get(ticker);
 
             if (allocation.getNumShares() > 0) {
-                PieChart.Data slice = new PieChart.Data(ticker, allocation.getMoneyAmount());
                 double percentage = allocation.getMoneyAmount() / portRecord.getCurrMoneyInvested() * 100;
 
-                allocationChart.getData().add(slice);
-                upperTableRows.add(new UpperTableRow(ticker, allocation.getMoneyAmount()));
-                lowerTableRows.add(new LowerTableRow(ticker, allocation.getNumShares(), percentage));
+                rows.slices.add(new UpperTableRow(ticker, allocation.getMoneyAmount(), taxLotLedger.getCostBasis(ticker),
+                        taxLotLedger.getRealizedGain(ticker)));
+                rows.lowerTableRows.add(new LowerTableRow(ticker, allocation.getNumShares(), percentage));
             }
         }
 
-        upperTableRows.sort(new UpperTableRowComparator());
-        lowerTableRows.sort(new LowerTableRowComparator());
+        rows.upperTableRows.addAll(rows.slices);
+        rows.upperTableRows.sort(new UpperTableRowComparator());
+        rows.lowerTableRows.sort(new LowerTableRowComparator());
 
-        upperAllocationsTable.setItems(upperTableRows);
-        lowerAllocationsTable.setItems(lowerTableRows);
-        overviewController.allocationsManagerFinished(isUpdate);
+        return rows;
     }
 
     /**
-     * Represents a row in the table which displays the dollar amount invested in each asset of the portfolio.
+     * The calculated table rows of one state of the portfolio's allocations.
+     */
+    private class AllocationRows {
+        private List<UpperTableRow> slices; // in allocation order, which the pie chart keeps
+        private List<UpperTableRow> upperTableRows;
+        private List<LowerTableRow> lowerTableRows;
+
+        /**
+         * Initializes class member variables.
+         */
+        AllocationRows() {
+            this.slices = new ArrayList<>();
+            this.upperTableRows = new ArrayList<>();
+            this.lowerTableRows = new ArrayList<>();
+        }
+    }
+
+    /**
+     * Represents a row in the table which displays the dollar amount invested, cost basis, and realized gains of each
+     * asset of the portfolio.
      */
     public class UpperTableRow {
         private String ticker;
         private double amountInvested;
+        private double costBasis;
+        private double realizedGain;
 
         /**
          * Initializes class member variables.
          *
          * @param ticker The ticker symbol of the asset associated with this row.
          * @param amountInvested The current dollar amount of money invested in the asset.
+         * @param costBasis The cost basis of the asset's open tax lots.
+         * @param realizedGain The gain realized by all sales of the asset.
          */
-        UpperTableRow(String ticker, double amountInvested) {
+        UpperTableRow(String ticker, double amountInvested, double costBasis, double realizedGain) {
             this.ticker = ticker;
             this.amountInvested = amountInvested;
+            this.costBasis = costBasis;
+            this.realizedGain = realizedGain;
         }
 
         // getter methods for class member variables
@@ -164,7 +453,15 @@ public class AllocationsManager {
         }
 
         public String getAmountInvested() {
-            return Utils.formatDollars(amountInvested);
+            return Utils.formatMoney(amountInvested, baseCurrency);
+        }
+
+        public String getCostBasis() {
+            return Utils.formatMoney(costBasis, baseCurrency);
+        }
+
+        public String getRealizedGain() {
+            return Utils.formatMoney(realizedGain, baseCurrency);
         }
 
         double getAmountInvestedDouble() {
@@ -212,6 +509,108 @@ public class AllocationsManager {
         }
     }
 
+    /**
+     * Represents a row in the table which displays the trades proposed to rebalance the portfolio.
+     */
+    public class TradeTableRow {
+        private String action;
+        private String ticker;
+        private double numShares;
+        private double value;
+
+        /**
+         * Initializes class member variables.
+         *
+         * @param trade The transaction record of the proposed trade.
+         */
+        TradeTableRow(TransactionRecord trade) {
+            this.action = trade.isBuy() ? "Buy" : "Sell";
+            this.ticker = trade.getTicker();
+            this.numShares = trade.getNumShares();
+            this.value = trade.getNumShares() * trade.getPrice();
+        }
+
+        // getter methods for class member variables
+
+        public String getAction() {
+            return action;
+        }
+
+        public String getTicker() {
+            return ticker;
+        }
+
+        public String getNumShares() {
+            return Utils.roundDecimal(numShares, 4);
+        }
+
+        public String getValue() {
+            return Utils.formatMoney(value, baseCurrency);
+        }
+    }
+
+    /**
+     * Represents a row in the table which displays the holdings on a past date and their change since.
+     */
+    public class HoldingsTableRow {
+        private String ticker;
+        private double numShares;
+        private double marketValue;
+        private double sharesChange;
+        private double valueChange;
+
+        /**
+         * Initializes class member variables.
+         *
+         * @param ticker The ticker symbol of the asset associated with this row.
+         * @param numShares The number of shares held on the date; NaN for the portfolio's totals.
+         * @param marketValue The market value held on the date; NaN if unknown.
+         * @param sharesChange The change in the number of shares held since the date; NaN for the portfolio's totals.
+         * @param valueChange The change in market value since the date; NaN if unknown.
+         */
+        HoldingsTableRow(String ticker, double numShares, double marketValue, double sharesChange, double valueChange) {
+            this.ticker = ticker;
+            this.numShares = numShares;
+            this.marketValue = marketValue;
+            this.sharesChange = sharesChange;
+            this.valueChange = valueChange;
+        }
+
+        // getter methods for class member variables with some conditional statements for formatting purposes
+
+        public String getTicker() {
+            return ticker;
+        }
+
+        public String getNumShares() {
+            return Double.isNaN(numShares) ? "-" : Utils.roundDecimal(numShares, 4);
+        }
+
+        public String getMarketValue() {
+            return Double.isNaN(marketValue) ? "N/A" : Utils.formatMoney(marketValue, baseCurrency);
+        }
+
+        public String getSharesChange() {
+            if (Double.isNaN(sharesChange)) {
+                return "-";
+            } else if (sharesChange < 0) {
+                return Utils.roundDecimal(sharesChange, 4);
+            } else {
+                return "+" + Utils.roundDecimal(sharesChange, 4);
+            }
+        }
+
+        public String getValueChange() {
+            if (Double.isNaN(valueChange)) {
+                return "N/A";
+            } else if (valueChange < 0) {
+                return Utils.formatMoney(valueChange, baseCurrency);
+            } else {
+                return "+" + Utils.formatMoney(valueChange, baseCurrency);
+            }
+        }
+    }
+
     /**
      * Sorts rows for the table which displays the dollar amount invested in each asset of the portfolio. Rows are
      * sorted based on dollar amount invested, from greatest to smallest.
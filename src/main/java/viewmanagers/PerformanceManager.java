@@ -1,24 +1,33 @@
 package viewmanagers;
 
+import analytics.AggregationPyramid;
+import analytics.BenchmarkSeries;
+import analytics.DateMergeJoin;
+import analytics.Downsampler;
+import analytics.FXRateIndex;
+import analytics.MemoCache;
+import analytics.MonteCarloProjector;
+import analytics.ReturnIndex;
+import analytics.RollingSeries;
+import analytics.Scenario;
+import analytics.ScenarioSandbox;
+import analytics.ValuationEngine;
 import controllers.PortfolioOverviewController;
 import data.datapoints.DataPoint;
 import data.datapoints.PortfolioDataPoint;
 import data.records.PortfolioRecord;
 import data.records.StockRecord;
+import data.records.TransactionRecord;
 import data.stockdata.HistoricalStockData;
 import data.stockdata.StockData;
 import data.stockdata.StockDataCallback;
 import data.stockdata.StockDataFetcher;
 import error.PAException;
 import javafx.application.Platform;
-import javafx.scene.chart.Axis;
-import javafx.scene.chart.LineChart;
-import javafx.scene.chart.ValueAxis;
-import javafx.scene.chart.XYChart;
 import javafx.util.StringConverter;
+import utils.Utils;
 
 import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
 import java.util.*;
 
 /**
@@ -27,43 +36,75 @@ import java.util.*;
  * The manager responsible for controlling and updating the performance graph component of the main screen.
  */
 public class PerformanceManager {
-    private static final int MAX_DATA_POINTS = 51;
+    private static final int DEFAULT_DATA_POINTS = 51; // number of data points graphed before the graph is laid out
+    private static final int MIN_DATA_POINTS = 3;
+    private static final double DEFAULT_POINT_SPACING = 1; // pixels between graphed data points
+    private static final int MAX_CACHED_GRAPHS = 16; // number of graphed states kept (modes, ranges, rolling windows...)
+    private static final int NUM_PROJECTION_PATHS = 10000;
+    private static final double[] PROJECTION_PERCENTILES = {5, 50, 95};
+    private static final long PROJECTION_SEED = 42; // fixed so that the bands do not jump around between updates
+    private static final String DEFAULT_SCENARIO_NAME = "What-if";
 
     private PortfolioOverviewController overviewController;
-    private LineChart<String, Double> performanceGraph;
+    private TimeSeriesChart performanceGraph;
+    private Map<String, StockRecord> benchmarkRecords;
+    private Map<String, BenchmarkSeries> benchmarkSeries;
+    private ScenarioSandbox scenarioSandbox;
+    private Map<String, Scenario> scenarios;
+    private String scenarioName;
+    private Map<String, StockRecord> stockDataRecords;
+    private RollingSeries.Metric rollingMetric;
+    private int rollingWindow;
+    private int projectionDays;
+    private MonteCarloProjector.Method projectionMethod;
+    private MonteCarloProjector.Projection projection;
+    private long projectionVersion;
     private Mode currMode;
+    private String baseCurrency; // the currency the gross profits on the Y-axis are in
     private LocalDate fromDateBound;
     private LocalDate toDateBound;
     private boolean userSetDates;
+    private MemoCache<GraphData> graphCache;
+    private double pointSpacing;
 
     // represents the "mode" the overview graph is currently set in
     public enum Mode {
         GROSS_PROFITS,
-        PERCENT_RETURN
+        PERCENT_RETURN,
+        TIME_WEIGHTED_RETURN,
+        MONEY_WEIGHTED_RETURN
     }
 
     /**
-     * Initializes class member variables and does some visual formatting for the graph.
+     * Initializes class member variables and formats the graph's Y-axis.
      *
      * @param overviewController The controller of the main screen.
      * @param performanceGraph The performance graph used to display time series of profits and returns of the portfolio.
+     * @param benchmarkRecords A map containing the records of all benchmarks the portfolio is compared against.
      */
-    public PerformanceManager(PortfolioOverviewController overviewController, LineChart<String, Double> performanceGraph) {
+    public PerformanceManager(PortfolioOverviewController overviewController, TimeSeriesChart performanceGraph,
+                              Map<String, StockRecord> benchmarkRecords) {
         this.overviewController = overviewController;
         this.performanceGraph = performanceGraph;
+        this.benchmarkRecords = benchmarkRecords;
+        this.benchmarkSeries = new LinkedHashMap<>();
+        this.scenarioSandbox = null;
+        this.scenarios = new LinkedHashMap<>();
+        this.scenarioName = DEFAULT_SCENARIO_NAME;
+        this.stockDataRecords = new HashMap<>();
+        this.rollingMetric = null;
+        this.rollingWindow = RollingSeries.DEFAULT_WINDOW;
+        this.projectionDays = 0;
+        this.projectionMethod = MonteCarloProjector.Method.BOOTSTRAP;
+        this.projection = null;
+        this.projectionVersion = 0;
         this.currMode = Mode.GROSS_PROFITS;
+        this.baseCurrency = StockRecord.DEFAULT_CURRENCY;
         this.fromDateBound = null;
         this.toDateBound = null;
         this.userSetDates = false;
-
-        Axis<String> xAxis = performanceGraph.getXAxis();
-        Axis<Double> yAxis = performanceGraph.getYAxis();
-
-        xAxis.setAnimated(false);
-        xAxis.setTickLabelGap(5);
-
-        yAxis.setAnimated(false);
-        yAxis.setTickLabelGap(5);
+        this.graphCache = new MemoCache<>(MAX_CACHED_GRAPHS);
+        this.pointSpacing = DEFAULT_POINT_SPACING;
 
         formatYAxis();
     }
@@ -98,19 +139,179 @@ public class PerformanceManager {
      * @param portRecord The portfolio record containing the updated historical data.
      */
     public void update(PortfolioRecord portRecord) {
+        invalidateScenario();
         checkDateBounds(portRecord);
         updatePerformanceGraph(true, portRecord);
     }
 
     /**
-     * Changes the current mode of the overview graph, either to display gross profits or percent return.
+     * Builds the comparison series of any benchmarks which do not have one yet and updates the performance graph to
+     * show them. Series which already exist are kept, since they are kept up to date as transactions are made.
+     *
+     * @param portRecord The portfolio record containing historical portfolio data.
+     * @param transactionRecords A list of transaction records for all previously made transactions.
+     */
+    public void initializeBenchmarks(PortfolioRecord portRecord, List<TransactionRecord> transactionRecords) {
+        boolean seriesAdded = false;
+
+        for (StockRecord benchmarkRecord : benchmarkRecords.values()) {
+            if (!benchmarkSeries.containsKey(benchmarkRecord.getTicker())) {
+                benchmarkSeries.put(benchmarkRecord.getTicker(), new BenchmarkSeries(benchmarkRecord, transactionRecords));
+                seriesAdded = true;
+            }
+        }
+
+        if (seriesAdded && portRecord.getHistory().size() > 0) {
+            checkDateBounds(portRecord);
+            updatePerformanceGraph(true, portRecord);
+        }
+    }
+
+    /**
+     * Fetches the historical data of new benchmarks and adds their comparison series to the performance graph.
+     *
+     * @param portRecord The portfolio record containing historical portfolio data.
+     * @param tickers The ticker symbols of the new benchmarks.
+     * @param transactionRecords A list of transaction records for all previously made transactions.
+     */
+    public void addBenchmarks(PortfolioRecord portRecord, List<String> tickers, List<TransactionRecord> transactionRecords) {
+        StockDataFetcher stockDataFetcher = new StockDataFetcher();
+        BenchmarkDataCallback callback = new BenchmarkDataCallback(portRecord, transactionRecords);
+
+        stockDataFetcher.fetchHistoricalStockData(tickers, new Date(0), new Date(), callback);
+    }
+
+    /**
+     * Removes a benchmark and its comparison series from the performance graph.
+     *
+     * @param portRecord The portfolio record containing historical portfolio data.
+     * @param ticker The ticker symbol of the benchmark.
+     */
+    public void removeBenchmark(PortfolioRecord portRecord, String ticker) {
+        benchmarkRecords.remove(ticker);
+
+        if (benchmarkSeries.remove(ticker) != null && portRecord.getHistory().size() > 0) {
+            updatePerformanceGraph(true, portRecord);
+        }
+    }
+
+    /**
+     * Mirrors a committed transaction in the comparison series of every benchmark. Must be called before the
+     * performance graph is updated to reflect the transaction.
+     *
+     * @param transactionRecord The transaction record representing the transaction just committed.
+     */
+    public void addTransaction(TransactionRecord transactionRecord) {
+        for (BenchmarkSeries series : benchmarkSeries.values()) {
+            series.addTransaction(transactionRecord);
+        }
+    }
+
+    /**
+     * Adds a hypothetical trade to the active what-if scenario shown on the performance graph, fetching the historical
+     * data of the asset first if it is neither allocated in the portfolio nor already traded in a scenario. The real
+     * portfolio is left untouched.
+     *
+     * @param portRecord The portfolio record containing historical portfolio data.
+     * @param stockDataRecords A map containing all records of assets currently allocated in the portfolio.
+     * @param transactionRecord The hypothetical trade.
+     */
+    public void addScenarioTrade(PortfolioRecord portRecord, Map<String, StockRecord> stockDataRecords,
+                                 TransactionRecord transactionRecord) {
+        if (scenarioSandbox == null) {
+            scenarioSandbox = new ScenarioSandbox(portRecord, stockDataRecords);
+        }
+
+        if (scenarioSandbox.hasStockRecord(transactionRecord.getTicker())) {
+            applyScenarioTrade(portRecord, transactionRecord);
+        } else {
+            StockDataFetcher stockDataFetcher = new StockDataFetcher();
+            List<String> ticker = new ArrayList<>();
+
+            ticker.add(transactionRecord.getTicker());
+            stockDataFetcher.fetchHistoricalStockData(ticker, new Date(0), new Date(),
+                    new ScenarioDataCallback(portRecord, transactionRecord));
+        }
+    }
+
+    /**
+     * Switches the what-if scenario hypothetical trades are added to. A scenario which does not exist yet is forked
+     * from the active scenario, so it starts out with the same trades and can then diverge from it; every scenario is
+     * graphed side by side.
+     *
+     * @param portRecord The portfolio record containing historical portfolio data.
+     * @param name The name of the scenario; null or empty for the default scenario.
+     */
+    public void setScenarioName(PortfolioRecord portRecord, String name) {
+        String newScenarioName = name == null || name.isEmpty() ? DEFAULT_SCENARIO_NAME : name;
+        Scenario activeScenario = scenarios.get(scenarioName);
+
+        if (!scenarios.containsKey(newScenarioName) && activeScenario != null) {
+            scenarios.put(newScenarioName, activeScenario.fork(newScenarioName));
+
+            if (portRecord.getHistory().size() > 0) {
+                updatePerformanceGraph(true, portRecord);
+            }
+        }
+
+        scenarioName = newScenarioName;
+    }
+
+    /**
+     * Discards every what-if scenario and removes them from the performance graph. Trades are added to the default
+     * scenario afterwards.
+     *
+     * @param portRecord The portfolio record containing historical portfolio data.
+     */
+    public void clearScenario(PortfolioRecord portRecord) {
+        scenarioName = DEFAULT_SCENARIO_NAME;
+
+        if (!scenarios.isEmpty()) {
+            scenarios.clear();
+
+            if (portRecord.getHistory().size() > 0) {
+                updatePerformanceGraph(true, portRecord);
+            }
+        }
+    }
+
+    /**
+     * Changes the current mode of the overview graph, either to display gross profits, percent return, time-weighted
+     * return, or money-weighted return. Any rolling-window series shown in place of the mode is removed.
      *
      * @param portRecord The portfolio record containing historical portfolio data.
      * @param mode The mode to set the performance graph in.
      */
     public void setMode(PortfolioRecord portRecord, Mode mode) {
-        if (mode != currMode) {
+        if (mode != currMode || rollingMetric != null) {
             currMode = mode;
+            rollingMetric = null;
+
+            if (portRecord.getHistory().size() > 0) {
+                updatePerformanceGraph(true, portRecord);
+            } else {
+                formatYAxis();
+            }
+        }
+    }
+
+    /**
+     * Shows a rolling-window series on the performance graph in place of the current mode: the N-day return, the
+     * deviation from the simple or exponential moving average, or the annualized volatility or Sharpe ratio over the
+     * last N trading days, for the portfolio, each asset allocated in it, and each benchmark.
+     *
+     * @param portRecord The portfolio record containing historical portfolio data.
+     * @param stockDataRecords A map containing all records of assets currently allocated in the portfolio.
+     * @param metric The rolling-window series to show; null to go back to showing the current mode.
+     * @param window The length of the window in trading days.
+     */
+    public void setRolling(PortfolioRecord portRecord, Map<String, StockRecord> stockDataRecords,
+                           RollingSeries.Metric metric, int window) {
+        this.stockDataRecords = stockDataRecords;
+
+        if (metric != rollingMetric || (metric != null && window != rollingWindow)) {
+            rollingMetric = metric;
+            rollingWindow = window;
 
             if (portRecord.getHistory().size() > 0) {
                 updatePerformanceGraph(true, portRecord);
@@ -120,6 +321,32 @@ public class PerformanceManager {
         }
     }
 
+    /**
+     * Shows a Monte Carlo projection of the current allocations after the last date of the portfolio's history, as the
+     * 5th, 50th, and 95th percentile bands of the projected value. The bands are drawn in the gross profit, percent
+     * return, and time-weighted return modes, and are projected again whenever the portfolio changes.
+     *
+     * @param portRecord The portfolio record containing historical portfolio data.
+     * @param stockDataRecords A map containing all records of assets currently allocated in the portfolio.
+     * @param numDays The number of trading days to project forward; 0 to remove the projection.
+     * @param method The way in which daily returns are generated.
+     */
+    public void setProjection(PortfolioRecord portRecord, Map<String, StockRecord> stockDataRecords, int numDays,
+                              MonteCarloProjector.Method method) {
+        this.stockDataRecords = stockDataRecords;
+
+        if (numDays != projectionDays || method != projectionMethod) {
+            projectionDays = numDays;
+            projectionMethod = method;
+            projection = null;
+            projectionVersion = 0;
+
+            if (portRecord.getHistory().size() > 0) {
+                updatePerformanceGraph(true, portRecord);
+            }
+        }
+    }
+
     /**
      * Sets the date range between which to show data on the overview graph.
      *
@@ -135,8 +362,11 @@ public class PerformanceManager {
         if (fromDate != null && toDate != null && !(fromDate.equals(fromDateBound) && toDate.equals(toDateBound))) {
             userSetDates = true;
 
+            // the graph can be panned past the last data point when a projection is shown
             if (fromDate.compareTo(minDate) < 0) {
                 fromDateBound = minDate;
+            } else if (fromDate.compareTo(maxDate) > 0) {
+                fromDateBound = maxDate;
             } else {
                 fromDateBound = fromDate;
             }
@@ -151,6 +381,16 @@ public class PerformanceManager {
         }
     }
 
+    /**
+     * Sets how many pixels apart data points are graphed, which (along with the graph's width) decides how many data
+     * points each series is downsampled to. Takes effect the next time the graph is updated.
+     *
+     * @param pointSpacing The number of pixels between graphed data points.
+     */
+    public void setPointSpacing(double pointSpacing) {
+        this.pointSpacing = Math.max(pointSpacing, 1);
+    }
+
     /**
      * Initializes the date bounds for the performance graph or sets them to appropriate values depending on the
      * portfolio state.
@@ -182,6 +422,60 @@ public class PerformanceManager {
         }
     }
 
+    /**
+     * Adds a hypothetical trade to the active what-if scenario and updates the performance graph to show it.
+     *
+     * @param portRecord The portfolio record containing historical portfolio data.
+     * @param transactionRecord The hypothetical trade, whose asset's record is available to the sandbox.
+     */
+    private void applyScenarioTrade(PortfolioRecord portRecord, TransactionRecord transactionRecord) {
+        try {
+            scenarioSandbox.validateTrade(transactionRecord);
+        } catch (PAException ex) {
+            overviewController.scenarioUpdated(ex);
+            return;
+        }
+
+        Scenario activeScenario = scenarios.get(scenarioName);
+
+        scenarios.put(scenarioName, (activeScenario == null ? new Scenario(scenarioName) : activeScenario)
+                .withTrade(transactionRecord));
+
+        if (portRecord.getHistory().size() > 0) {
+            updatePerformanceGraph(true, portRecord);
+        }
+
+        overviewController.scenarioUpdated(null);
+    }
+
+    /**
+     * Checks that every trade of the what-if scenarios can still be evaluated before they are graphed. A change of the
+     * portfolio's base currency can leave a scenario without the exchange rates of an asset it trades, which ends the
+     * scenarios.
+     */
+    private void validateScenarios() {
+        if (scenarios.isEmpty()) {
+            return;
+        }
+
+        try {
+            scenarioSandbox.validateAll(new ArrayList<>(scenarios.values()));
+        } catch (PAException ex) {
+            scenarios.clear();
+            scenarioName = DEFAULT_SCENARIO_NAME;
+            overviewController.scenarioUpdated(ex);
+        }
+    }
+
+    /**
+     * Discards the cached evaluations of the what-if scenarios. Called whenever the real portfolio's history changes.
+     */
+    private void invalidateScenario() {
+        if (scenarioSandbox != null) {
+            scenarioSandbox.invalidate();
+        }
+    }
+
     /**
      * Fetches the appropriate amount of historical data for each asset in the portfolio to update the portfolio's
      * historical data.
@@ -194,156 +488,595 @@ public class PerformanceManager {
         Date currDate = new Date();
         StockDataFetcher stockDataFetcher = new StockDataFetcher();
         HistoricalStockDataCallback callback = new HistoricalStockDataCallback(portRecord, stockDataRecords, updateUI);
-        List<String> tickers = new ArrayList<>(stockDataRecords.keySet());
+        Set<String> tickers = new LinkedHashSet<>(stockDataRecords.keySet());
+
+        // benchmarks, exchange rates, and the records of closed positions are brought up to date along with the
+        // portfolio's assets
+        tickers.addAll(benchmarkRecords.keySet());
+        tickers.addAll(portRecord.getClosedRecords().keySet());
+
+        for (StockRecord fxRecord : portRecord.getFXRecords().values()) {
+            tickers.add(fxRecord.getTicker());
+        }
+
+        stockDataFetcher.fetchHistoricalStockData(new ArrayList<>(tickers), lastUpdate, currDate, callback);
+    }
+
+    /**
+     * Adds updated historical data to the records of any benchmarks it belongs to and re-prices their comparison series
+     * from the first updated date onward. Data points the benchmark's history already covers are skipped, except for a
+     * replacement of its last data point.
+     *
+     * @param stockDataUpdates A list containing the updated historical data of each asset and benchmark.
+     */
+    private void updateBenchmarkHistories(List<StockData> stockDataUpdates) {
+        for (StockData stockData : stockDataUpdates) {
+            StockRecord benchmarkRecord = benchmarkRecords.get(stockData.getTicker());
+
+            if (benchmarkRecord == null) {
+                continue;
+            }
+
+            List<DataPoint> newHistory = new ArrayList<>(((HistoricalStockData) stockData).getHistory());
+            List<DataPoint> history = benchmarkRecord.getHistory();
+
+            if (history.size() > 0) {
+                LocalDate lastDate = history.get(history.size() - 1).getDate();
+
+                newHistory.removeIf(dataPoint -> dataPoint.getDate().compareTo(lastDate) < 0);
+            }
+
+            if (newHistory.size() > 0) {
+                benchmarkRecord.addHistory(newHistory);
 
-        stockDataFetcher.fetchHistoricalStockData(tickers, lastUpdate, currDate, callback);
+                BenchmarkSeries series = benchmarkSeries.get(stockData.getTicker());
+
+                if (series != null) {
+                    series.historyUpdated(newHistory.get(0).getDate());
+                }
+            }
+        }
     }
 
     /**
-     * Updates the portfolio's historical data from the updated historical data of each of its assets.
+     * Adds updated historical data to the records of any exchange rates or closed positions it belongs to. Data points
+     * the record's history already covers are skipped, except for a replacement of its last data point.
+     *
+     * @param portRecord The portfolio record holding the FX records and the records of closed positions.
+     * @param stockDataUpdates A list containing the updated historical data of each asset, benchmark, and exchange rate.
+     */
+    private void updateKeptHistories(PortfolioRecord portRecord, List<StockData> stockDataUpdates) {
+        Map<String, StockRecord> keptRecords = new HashMap<>(portRecord.getClosedRecords());
+
+        for (StockRecord fxRecord : portRecord.getFXRecords().values()) {
+            keptRecords.put(fxRecord.getTicker(), fxRecord);
+        }
+
+        for (StockData stockData : stockDataUpdates) {
+            StockRecord keptRecord = keptRecords.get(stockData.getTicker());
+
+            if (keptRecord == null) {
+                continue;
+            }
+
+            List<DataPoint> newHistory = new ArrayList<>(((HistoricalStockData) stockData).getHistory());
+            List<DataPoint> history = keptRecord.getHistory();
+
+            if (history.size() > 0) {
+                LocalDate lastDate = history.get(history.size() - 1).getDate();
+
+                newHistory.removeIf(dataPoint -> dataPoint.getDate().compareTo(lastDate) < 0);
+            }
+
+            if (newHistory.size() > 0) {
+                keptRecord.addHistory(newHistory);
+            }
+        }
+    }
+
+    /**
+     * Updates the portfolio's historical data from the updated historical data of each of its assets. The asset
+     * histories are merge-joined by date, so an asset missing a data point on a given date (e.g. due to a trading halt)
+     * is valued at its last known close rather than being misaligned with the other assets. Assets quoted in a foreign
+     * currency are converted into the base currency by the exchange rates cached alongside their records.
      *
      * @param portRecord The portfolio record whose historical data needs to be updated.
-     * @param stockDataUpdates A map containing all records of assets in the portfolio whose historical data has been updated.
+     * @param stockDataRecords A map containing all records of assets in the portfolio (already holding the updated data).
+     * @param stockDataUpdates A list containing the updated historical data of each asset in the portfolio.
      */
-    private void updatePortfolioHistory(PortfolioRecord portRecord, List<StockData> stockDataUpdates) {
+    private void updatePortfolioHistory(PortfolioRecord portRecord, Map<String, StockRecord> stockDataRecords,
+                                        List<StockData> stockDataUpdates) {
         List<DataPoint> newHistory = new ArrayList<>();
+        List<List<DataPoint>> stockHistories = new ArrayList<>();
         Map<String, PortfolioRecord.Allocation> portAllocations = portRecord.getAllocations();
-        int numDataPoints = ((HistoricalStockData) stockDataUpdates.get(0)).getHistory().size();
+        double[] numShares = new double[stockDataUpdates.size()];
         double currMoneyInvested = portRecord.getCurrMoneyInvested();
 
-        for (int i = 0; i < numDataPoints; i++) {
-            LocalDate date = null;
+        for (StockData stockData : stockDataUpdates) {
+            stockHistories.add(((HistoricalStockData) stockData).getHistory());
+        }
+
+        DateMergeJoin mergeJoin = new DateMergeJoin(stockHistories);
+
+        // resolves per-asset lookups once up front so the join below only touches primitive arrays
+        for (int k = 0; k < stockDataUpdates.size(); k++) {
+            String ticker = stockDataUpdates.get(k).getTicker();
+            PortfolioRecord.Allocation allocation = portAllocations.get(ticker);
+            StockRecord stockRecord = stockDataRecords.get(ticker);
+            List<DataPoint> stockHistory = stockHistories.get(k);
+
+            numShares[k] = allocation == null ? 0 : allocation.getNumShares();
+
+            if (stockRecord != null && stockHistory.size() > 0) {
+                FXRateIndex fxRates = portRecord.getFXRates(stockRecord);
+
+                // the update is the tail of the asset's history, since the record already holds it
+                if (fxRates != null) {
+                    mergeJoin.setFXRates(k, fxRates, stockRecord.getHistory().size() - stockHistory.size());
+                }
+
+                mergeJoin.seed(k, getPriorDataPoint(stockRecord.getHistory(), stockHistory.get(0).getDate()));
+            }
+        }
+
+        while (mergeJoin.next()) {
             double openPortValue = 0;
             double closePortValue = 0;
 
-            for (StockData stockData : stockDataUpdates) {
-                HistoricalStockData historicalStockData = (HistoricalStockData) stockData;
-                String ticker = historicalStockData.getTicker();
-                DataPoint dataPoint = historicalStockData.getHistory().get(i);
-                date = dataPoint.getDate();
-
-                openPortValue += dataPoint.getMarketOpenValue() * portAllocations.get(ticker).getNumShares();
-                closePortValue += dataPoint.getMarketCloseValue() * portAllocations.get(ticker).getNumShares();
+            for (int k = 0; k < numShares.length; k++) {
+                openPortValue += mergeJoin.getOpenValue(k) * numShares[k];
+                closePortValue += mergeJoin.getCloseValue(k) * numShares[k];
             }
 
-            newHistory.add(new PortfolioDataPoint(date, openPortValue, closePortValue, currMoneyInvested));
+            newHistory.add(new PortfolioDataPoint(mergeJoin.getDate(), openPortValue, closePortValue, currMoneyInvested));
+        }
+
+        if (newHistory.size() > 0) {
+            portRecord.addHistory(newHistory);
+        } else {
+            portRecord.setUpdated();
+        }
+    }
+
+    /**
+     * Finds the last data point in an asset's history dated prior to the specified date. Used to carry forward the
+     * asset's value until its updated history produces a data point of its own.
+     *
+     * @param history The asset's history.
+     * @param date The date prior to which the data point must be dated.
+     * @return The last data point dated prior to the specified date; null if there is no such data point.
+     */
+    private DataPoint getPriorDataPoint(List<DataPoint> history, LocalDate date) {
+        for (int i = history.size() - 1; i >= 0; i--) {
+            DataPoint dataPoint = history.get(i);
+
+            if (dataPoint.getDate().compareTo(date) < 0) {
+                return dataPoint;
+            }
         }
 
-        portRecord.addHistory(newHistory);
+        return null;
     }
 
     /**
-     * Updates the performance graph to reflect the updated historical portfolio data.
+     * Updates the performance graph to reflect the updated historical portfolio data. The graphed series are only
+     * recalculated if the portfolio, the graph's settings, or any of the records graphed alongside the portfolio have
+     * changed since they were last graphed with the same settings.
      *
      * @param isUpdate True if this overview graph manager is completing an update, false if it is initializing.
      * @param portRecord The portfolio record which contains the updated historical data.
      */
     private void updatePerformanceGraph(boolean isUpdate, PortfolioRecord portRecord) {
-        XYChart.Series<String, Double> series = new XYChart.Series<>();
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("M/d/yy");
         List<DataPoint> history = portRecord.getHistory();
-        boolean lowerBoundFound = false;
+        int maxDataPoints = getMaxDataPoints();
+
+        updateProjection(portRecord);
+        validateScenarios();
 
-        for (int i = 0; i < history.size(); i++) {
+        GraphData graphData = graphCache.get(portRecord, portRecord.getVersion(), getGraphParams(maxDataPoints),
+                () -> calculateGraphData(portRecord, maxDataPoints));
+
+        fromDateBound = graphData.fromDateBound;
+        toDateBound = graphData.toDateBound;
+        baseCurrency = portRecord.getBaseCurrency();
+
+        formatYAxis();
+
+        // the chart only reads the cached series, so they are handed to it as they are
+        if (history.size() > 0) {
+            LocalDate maxDate = history.get(history.size() - 1).getDate();
+
+            // a view reaching the last data point is extended through the projection
+            if (graphData.projectionEndDate != null) {
+                performanceGraph.setDomain(history.get(0).getDate(), graphData.projectionEndDate);
+                performanceGraph.setData(graphData.series, fromDateBound,
+                        toDateBound.equals(maxDate) ? graphData.projectionEndDate : toDateBound);
+            } else {
+                performanceGraph.setDomain(history.get(0).getDate(), maxDate);
+                performanceGraph.setData(graphData.series, fromDateBound, toDateBound);
+            }
+        } else {
+            performanceGraph.clear();
+        }
+
+        performanceGraph.setLegendVisible(graphData.series.size() > 1);
+        overviewController.performanceManagerFinished(isUpdate, fromDateBound, toDateBound);
+    }
+
+    /**
+     * Projects the current allocations forward again if a projection is to be shown and the portfolio has changed
+     * since it was last projected.
+     *
+     * @param portRecord The portfolio record containing the current allocations.
+     */
+    private void updateProjection(PortfolioRecord portRecord) {
+        if (projectionDays == 0 || portRecord.getAllocations().size() == 0) {
+            projection = null;
+        } else if (projection == null || projectionVersion != portRecord.getVersion()) {
+            MonteCarloProjector projector = new MonteCarloProjector(portRecord, stockDataRecords);
+
+            projection = projector.project(NUM_PROJECTION_PATHS, projectionDays, projectionMethod,
+                    PROJECTION_PERCENTILES, PROJECTION_SEED);
+            projectionVersion = portRecord.getVersion();
+        }
+    }
+
+    /**
+     * Gets the settings and states, other than the portfolio's, which the graphed series depend on. Versions are never
+     * shared between records, so they identify the state of each benchmark and asset on their own.
+     *
+     * @param maxDataPoints The maximum number of data points graphed per series.
+     * @return The parameters the graphed series are cached under.
+     */
+    private List<Object> getGraphParams(int maxDataPoints) {
+        List<Long> versions = new ArrayList<>();
+
+        for (StockRecord benchmarkRecord : benchmarkRecords.values()) {
+            versions.add(benchmarkRecord.getVersion());
+        }
+
+        if (rollingMetric != null && stockDataRecords != null) {
+            for (StockRecord stockRecord : stockDataRecords.values()) {
+                versions.add(stockRecord.getVersion());
+            }
+        }
+
+        versions.sort(null);
+
+        return Arrays.asList(currMode, rollingMetric, rollingWindow, fromDateBound, toDateBound,
+                new ArrayList<>(scenarios.values()), projection,
+                new ArrayList<>(benchmarkSeries.values()), versions, maxDataPoints);
+    }
+
+    /**
+     * Gets the number of data points the performance graph can show at its current width, i.e. one every few pixels
+     * (as set by the point spacing).
+     *
+     * @return The maximum number of data points graphed per series; a default number if the graph has not been laid
+     * out yet.
+     */
+    private int getMaxDataPoints() {
+        double width = performanceGraph.getWidth();
+
+        return width > 0 ? Math.max((int) (width / pointSpacing), MIN_DATA_POINTS) : DEFAULT_DATA_POINTS;
+    }
+
+    /**
+     * Calculates the series to be graphed: the portfolio's, followed by those of the benchmarks (or of the assets and
+     * benchmarks in rolling mode), the what-if scenarios, and the bands of the projection. Narrows the date bounds to the data actually graphed. The
+     * bounds are found by binary search, and only the closes of the coarsest aggregation level (weekly, monthly, or
+     * quarterly) which still fills the graph are visited, so a zoom level spanning years touches a few hundred data
+     * points rather than every trading day; in rolling mode, the assets' data points on those dates are found through
+     * the assets' own aggregation pyramids. The values are calculated into arrays and downsampled with
+     * Largest-Triangle-Three-Buckets over the portfolio's values, so only the data points kept (which the comparison
+     * series share) are handed to the chart.
+     *
+     * @param portRecord The portfolio record which contains the historical data.
+     * @param maxDataPoints The maximum number of data points graphed per series.
+     * @return The series to be graphed, along with the date bounds they cover.
+     */
+    private GraphData calculateGraphData(PortfolioRecord portRecord, int maxDataPoints) {
+        List<DataPoint> history = portRecord.getHistory();
+        ReturnIndex returnIndex = portRecord.getReturnIndex();
+        List<String> comparisonNames = new ArrayList<>();
+        List<List<DataPoint>> comparisonHistories = new ArrayList<>();
+        List<ReturnIndex> comparisonReturnIndices = new ArrayList<>();
+        List<RollingSeries> comparisonRollingSeries = new ArrayList<>();
+        List<StockRecord> comparisonRecords = new ArrayList<>();
+        RollingSeries rollingSeries = rollingMetric == null ? null : portRecord.getRollingSeries(rollingWindow);
+
+        if (rollingSeries != null) {
+            // asset histories are not aligned with the portfolio's, so they are aligned by date once the graphed dates are known
+            for (StockRecord stockRecord : getRollingRecords(portRecord)) {
+                comparisonNames.add(stockRecord.getTicker());
+                comparisonRecords.add(stockRecord);
+                comparisonRollingSeries.add(stockRecord.getRollingSeries(rollingWindow));
+            }
+        } else {
+            // the comparison series only recompute the data points affected by changes since they were last graphed
+            for (BenchmarkSeries benchmark : benchmarkSeries.values()) {
+                comparisonNames.add(benchmark.getTicker());
+                comparisonHistories.add(benchmark.getHistory(history));
+                comparisonReturnIndices.add(benchmark.getReturnIndex());
+            }
+        }
+
+        if (!scenarios.isEmpty() && rollingSeries == null) {
+            // scenarios forked from one another share the evaluation of their common trades
+            for (ScenarioSandbox.ScenarioResult result : scenarioSandbox.evaluateAll(new ArrayList<>(scenarios.values()))) {
+                comparisonNames.add(result.getName());
+                comparisonHistories.add(result.getHistory());
+                comparisonReturnIndices.add(result.getReturnIndex());
+            }
+        }
+
+        int fromIndex = 0;
+        int toIndex = -1;
+
+        // the first data point on or after the lower bound, and the last data point on or before the upper bound
+        if (history.size() > 0) {
+            fromIndex = ValuationEngine.findIndex(history, fromDateBound.minusDays(1)) + 1;
+            toIndex = ValuationEngine.findIndex(history, toDateBound);
+        }
+
+        if (fromIndex <= toIndex) {
+            fromDateBound = history.get(fromIndex).getDate();
+            toDateBound = history.get(toIndex).getDate();
+        }
+
+        // returns which depend on the range are measured from the first data point shown on the graph
+        int startIndex = fromIndex;
+        AggregationPyramid pyramid = portRecord.getPyramid();
+        AggregationPyramid.Level level = pyramid.chooseLevel(fromIndex, toIndex, maxDataPoints);
+        int[] historyIndices = pyramid.getIndices(level, fromIndex, toIndex);
+        int length = historyIndices.length;
+        int numComparisons = comparisonNames.size();
+        double[] values = new double[length];
+        double[][] comparisonValues = new double[numComparisons][length];
+        int[][] comparisonIndices = new int[comparisonRecords.size()][];
+
+        for (int k = 0; k < comparisonRecords.size(); k++) {
+            comparisonIndices[k] = getAlignedIndices(comparisonRecords.get(k), level, history, historyIndices);
+        }
+
+        for (int n = 0; n < length; n++) {
+            int i = historyIndices[n];
             DataPoint dataPoint = history.get(i);
-            LocalDate date = dataPoint.getDate();
-            double moneyMade = dataPoint.getMarketCloseValue() - dataPoint.getMoneyInvested();
-            double percentReturn = (dataPoint.getMarketCloseValue() - dataPoint.getMoneyInvested()) / dataPoint.getMoneyInvested() * 100;
 
-            if (date.compareTo(toDateBound) > 0) {
-                toDateBound = history.get(i - 1).getDate();
+            if (rollingSeries != null) {
+                values[n] = getRollingGraphValue(rollingSeries, i);
 
-                break;
-            } else if (date.equals(toDateBound)) {
-                series.getData().add(new XYChart.Data<>(date.format(formatter), currMode == Mode.GROSS_PROFITS ? moneyMade : percentReturn));
+                for (int k = 0; k < numComparisons; k++) {
+                    int index = comparisonIndices[k][n];
 
-                break;
-            } else if (date.compareTo(fromDateBound) > 0 && !lowerBoundFound) {
-                series.getData().add(new XYChart.Data<>(date.format(formatter), currMode == Mode.GROSS_PROFITS ? moneyMade : percentReturn));
-                lowerBoundFound = true;
-                fromDateBound = date;
+                    // an asset is graphed from its first data point on or before the date onward (NaN until then)
+                    comparisonValues[k][n] = index >= 0 ? getRollingGraphValue(comparisonRollingSeries.get(k), index)
+                            : Double.NaN;
+                }
+            } else {
+                values[n] = getGraphValue(dataPoint, returnIndex, startIndex, i);
+
+                for (int k = 0; k < numComparisons; k++) {
+                    DataPoint comparisonDataPoint = comparisonHistories.get(k).get(i);
 
-            } else if (date.equals(fromDateBound)) {
-                series.getData().add(new XYChart.Data<>(date.format(formatter), currMode == Mode.GROSS_PROFITS ? moneyMade : percentReturn));
-                lowerBoundFound = true;
-            } else if (date.compareTo(fromDateBound) > 0 && date.compareTo(toDateBound) < 0) {
-                series.getData().add(new XYChart.Data<>(date.format(formatter), currMode == Mode.GROSS_PROFITS ? moneyMade : percentReturn));
+                    comparisonValues[k][n] = getGraphValue(comparisonDataPoint, comparisonReturnIndices.get(k), startIndex, i);
+                }
             }
         }
 
-        if (series.getData().size() > MAX_DATA_POINTS) {
-            series = resizeDataSeries(series);
+        GraphData graphData = new GraphData(fromDateBound, toDateBound);
+        int[] kept = Downsampler.largestTriangleThreeBuckets(values, length, maxDataPoints);
+        double[] epochDays = new double[kept.length];
+        double[] keptValues = new double[kept.length];
+
+        for (int j = 0; j < kept.length; j++) {
+            epochDays[j] = history.get(historyIndices[kept[j]]).getDate().toEpochDay();
+            keptValues[j] = values[kept[j]];
         }
 
-        formatYAxis();
+        graphData.series.add(new TimeSeriesChart.Series("Portfolio", epochDays, keptValues));
 
-        performanceGraph.getData().clear();
-        performanceGraph.getData().add(series);
-        overviewController.performanceManagerFinished(isUpdate, fromDateBound, toDateBound);
+        // the comparison series share the portfolio's dates, keeping NaN where an asset has no value yet
+        for (int k = 0; k < numComparisons; k++) {
+            double[] keptComparisonValues = new double[kept.length];
+
+            for (int j = 0; j < kept.length; j++) {
+                keptComparisonValues[j] = comparisonValues[k][kept[j]];
+            }
+
+            graphData.series.add(new TimeSeriesChart.Series(comparisonNames.get(k), epochDays, keptComparisonValues));
+        }
+
+        if (projection != null && rollingSeries == null && currMode != Mode.MONEY_WEIGHTED_RETURN && history.size() > 0) {
+            addProjectionSeries(graphData, history, returnIndex, startIndex);
+        }
+
+        return graphData;
+    }
+
+    /**
+     * Finds the index of an asset's data point graphed alongside each of the portfolio's, i.e. the asset's last data
+     * point on or before each graphed date. The asset's history is walked once, skipping a whole period of its own
+     * aggregation pyramid (at the level the portfolio is graphed at) at a time, so only the data points of the period
+     * containing each graphed date are stepped through one by one.
+     *
+     * @param stockRecord The record of the asset.
+     * @param level The level the portfolio is graphed at; null if every data point is graphed.
+     * @param history The portfolio's history.
+     * @param historyIndices The indices of the portfolio's graphed data points, in ascending order.
+     * @return The index of the asset's data point for each graphed data point; -1 where the asset has none yet.
+     */
+    private static int[] getAlignedIndices(StockRecord stockRecord, AggregationPyramid.Level level, List<DataPoint> history,
+                                           int[] historyIndices) {
+        List<DataPoint> stockHistory = stockRecord.getHistory();
+        AggregationPyramid stockPyramid = stockRecord.getPyramid();
+        int numPeriods = level == null ? 0 : stockPyramid.getNumPeriods(level);
+        int[] indices = new int[historyIndices.length];
+        int period = 0;
+        int index = -1;
+
+        for (int n = 0; n < historyIndices.length; n++) {
+            LocalDate date = history.get(historyIndices[n]).getDate();
+
+            while (period < numPeriods && stockHistory.get(stockPyramid.getLastIndex(level, period)).getDate().compareTo(date) <= 0) {
+                index = Math.max(index, stockPyramid.getLastIndex(level, period));
+                period++;
+            }
+
+            while (index + 1 < stockHistory.size() && stockHistory.get(index + 1).getDate().compareTo(date) <= 0) {
+                index++;
+            }
+
+            indices[n] = index;
+        }
+
+        return indices;
     }
 
     /**
-     * Resizes (shortens) the data series displayed in the overview graph to have a maximum length (currently set to 51).
+     * Adds a series for each band of the projection, starting from the portfolio's last data point. Each band's
+     * growth over the current value is applied to the last data point's value, with the money invested held constant,
+     * and converted to the current mode.
      *
-     * @param series The data series to be resized.
-     * @return The resized data series.
+     * @param graphData The graph data the series are added to.
+     * @param history The portfolio's history.
+     * @param returnIndex The return index over the portfolio's history.
+     * @param startIndex The index of the first data point shown on the graph.
      */
-    private XYChart.Series<String, Double> resizeDataSeries(XYChart.Series<String, Double> series) {
-        int adjustedNumPoints = MAX_DATA_POINTS - 2;
-        int adjustedLength = series.getData().size() - 2;
-        double divisor = adjustedLength - adjustedNumPoints + 1;
-        double removeEvery = adjustedLength / divisor;
-        double indexSum = removeEvery;
-        int[] skippedIndices = new int[adjustedLength - adjustedNumPoints];
-        int skippedIndex = (int) Math.ceil(indexSum);
-        int i = 0;
+    private void addProjectionSeries(GraphData graphData, List<DataPoint> history, ReturnIndex returnIndex,
+                                     int startIndex) {
+        int lastIndex = history.size() - 1;
+        DataPoint lastDataPoint = history.get(lastIndex);
+        List<LocalDate> dates = projection.getDates();
+        double[] epochDays = new double[dates.size()];
+        double lastValue = lastDataPoint.getMarketCloseValue();
+        double moneyInvested = lastDataPoint.getMoneyInvested();
+        double timeWeightedReturn = returnIndex.getTimeWeightedReturn(Math.min(startIndex, lastIndex), lastIndex);
+
+        for (int t = 0; t < dates.size(); t++) {
+            epochDays[t] = dates.get(t).toEpochDay();
+        }
+
+        for (int p = 0; p < projection.getPercentiles().length; p++) {
+            double[] band = projection.getBand(p);
+            double[] values = new double[band.length];
+
+            for (int t = 0; t < band.length; t++) {
+                double growth = band[t] / band[0];
+
+                switch (currMode) {
+                    case GROSS_PROFITS:
+                        values[t] = lastValue * growth - moneyInvested;
+                        break;
+                    case PERCENT_RETURN:
+                        values[t] = (lastValue * growth - moneyInvested) / moneyInvested * 100;
+                        break;
+                    default:
+                        values[t] = ((1 + timeWeightedReturn) * growth - 1) * 100;
+                        break;
+                }
+            }
+
+            graphData.series.add(new TimeSeriesChart.Series("P" + (int) projection.getPercentiles()[p], epochDays,
+                    values));
+        }
 
-        XYChart.Series<String, Double> resizedSeries = new XYChart.Series<>();
-        XYChart.Data<String, Double> first = series.getData().get(0);
-        XYChart.Data<String, Double> last = series.getData().get(series.getData().size() - 1);
+        graphData.projectionEndDate = dates.get(dates.size() - 1);
+    }
 
-        series.getData().remove(0);
-        series.getData().remove(series.getData().size() - 1);
-        resizedSeries.getData().add(first);
+    /**
+     * Calculates the value to be graphed for a data point according to the current mode.
+     *
+     * @param dataPoint The data point in question.
+     * @param returnIndex The return index over the portfolio's history.
+     * @param startIndex The index of the first data point shown on the graph.
+     * @param index The index of the data point in question.
+     * @return The value to be graphed.
+     */
+    private double getGraphValue(DataPoint dataPoint, ReturnIndex returnIndex, int startIndex, int index) {
+        switch (currMode) {
+            case GROSS_PROFITS:
+                return dataPoint.getMarketCloseValue() - dataPoint.getMoneyInvested();
+            case PERCENT_RETURN:
+                return (dataPoint.getMarketCloseValue() - dataPoint.getMoneyInvested()) / dataPoint.getMoneyInvested() * 100;
+            case TIME_WEIGHTED_RETURN:
+                return returnIndex.getTimeWeightedReturn(startIndex, index) * 100;
+            case MONEY_WEIGHTED_RETURN:
+                return returnIndex.getMoneyWeightedReturn(startIndex, index) * 100;
+            default:
+                return 0;
+        }
+    }
 
-        while (skippedIndex < adjustedLength) {
-            skippedIndices[i] = skippedIndex;
-            indexSum += removeEvery;
-            skippedIndex = (int) Math.ceil(indexSum);
-            i += 1;
+    /**
+     * Calculates the value to be graphed for a data point according to the current rolling-window series.
+     *
+     * @param rollingSeries The rolling-window series over the history the data point belongs to.
+     * @param index The index of the data point in question.
+     * @return The value to be graphed.
+     */
+    private double getRollingGraphValue(RollingSeries rollingSeries, int index) {
+        switch (rollingMetric) {
+            case RETURN:
+                return rollingSeries.getReturn(index) * 100;
+            case SMA:
+            case EMA:
+                return rollingSeries.getDeviation(rollingMetric, index) * 100;
+            case VOLATILITY:
+                return rollingSeries.getVolatility(index) * 100;
+            case SHARPE:
+                return rollingSeries.getSharpeRatio(index);
+            default:
+                return 0;
         }
+    }
 
-        i = 0;
-        skippedIndex = skippedIndices[i];
+    /**
+     * Gets the records of the assets whose rolling-window series are graphed alongside the portfolio's: every asset
+     * currently allocated in the portfolio (sorted by ticker), followed by every benchmark.
+     *
+     * @param portRecord The portfolio record containing the portfolio's allocations.
+     * @return The records to be graphed.
+     */
+    private List<StockRecord> getRollingRecords(PortfolioRecord portRecord) {
+        List<StockRecord> stockRecords = new ArrayList<>();
+        Set<String> tickers = new TreeSet<>(portRecord.getAllocations().keySet());
 
-        for (int j = 0; j < series.getData().size(); j++) {
-            if (j != skippedIndex) {
-                resizedSeries.getData().add(series.getData().get(j));
-            } else if (i < skippedIndices.length - 1) {
-                i += 1;
-                skippedIndex = skippedIndices[i];
+        for (String ticker : tickers) {
+            if (stockDataRecords.containsKey(ticker)) {
+                stockRecords.add(stockDataRecords.get(ticker));
             }
         }
 
-        resizedSeries.getData().add(last);
+        for (StockRecord benchmarkRecord : benchmarkRecords.values()) {
+            if (!tickers.contains(benchmarkRecord.getTicker())) {
+                stockRecords.add(benchmarkRecord);
+            }
+        }
 
-        return resizedSeries;
+        return stockRecords;
     }
 
     /**
-     * Formats the Y-axis of the performance graph to reflect the current mode, either gross profits or percent return.
+     * Formats the Y-axis of the performance graph to reflect the current mode, either gross profits or one of the
+     * percentage returns.
      */
     private void formatYAxis() {
-        ((ValueAxis<Double>) performanceGraph.getYAxis()).setTickLabelFormatter(new StringConverter<Double>() {
+        performanceGraph.setYTickLabelFormatter(new StringConverter<Double>() {
             @Override
             public String toString(Double object) {
-                if (currMode == Mode.GROSS_PROFITS) {
+                if (rollingMetric == RollingSeries.Metric.SHARPE) {
+                    return String.valueOf(object);
+                } else if (rollingMetric != null) {
+                    return object + "%";
+                } else if (currMode == Mode.GROSS_PROFITS) {
                     if (object < 0) {
-                        return "-$" + Math.abs(object);
+                        return "-" + Utils.getMoneyPrefix(baseCurrency) + Math.abs(object);
                     } else {
-                        return "$" + object;
+                        return Utils.getMoneyPrefix(baseCurrency) + object;
                     }
-                } else if (currMode == Mode.PERCENT_RETURN) {
+                } else if (currMode == Mode.PERCENT_RETURN || currMode == Mode.TIME_WEIGHTED_RETURN
+                        || currMode == Mode.MONEY_WEIGHTED_RETURN) {
                     return object + "%";
                 } else {
                     return "err";
@@ -357,6 +1090,29 @@ public class PerformanceManager {
         });
     }
 
+    /**
+     * The series calculated for one state of the performance graph, along with the date bounds they cover.
+     */
+    private class GraphData {
+        private List<TimeSeriesChart.Series> series;
+        private LocalDate fromDateBound;
+        private LocalDate toDateBound;
+        private LocalDate projectionEndDate; // null if no projection is graphed
+
+        /**
+         * Initializes class member variables.
+         *
+         * @param fromDateBound The date of the first data point graphed.
+         * @param toDateBound The date of the last data point graphed.
+         */
+        GraphData(LocalDate fromDateBound, LocalDate toDateBound) {
+            this.series = new ArrayList<>();
+            this.fromDateBound = fromDateBound;
+            this.toDateBound = toDateBound;
+            this.projectionEndDate = null;
+        }
+    }
+
     /**
      * The callback used to receive historical asset data updates when the historical portfolio data needs to be updated.
      */
@@ -401,21 +1157,163 @@ public class PerformanceManager {
 
         @Override
         public void completed(List<StockData> data) {
+            List<StockData> stockDataUpdates = new ArrayList<>();
+
             for (StockData stockData : data) {
                 String ticker = stockData.getTicker();
                 HistoricalStockData historicalStockData = (HistoricalStockData) stockData;
 
-                stockDataRecords.get(ticker).addHistory(historicalStockData.getHistory());
+                // data fetched only for a benchmark is kept out of the portfolio's history
+                if (stockDataRecords.containsKey(ticker)) {
+                    stockDataRecords.get(ticker).addHistory(historicalStockData.getHistory());
+                    stockDataUpdates.add(stockData);
+                }
             }
 
-            updatePortfolioHistory(portRecord, data);
+            updateKeptHistories(portRecord, data);
+            updatePortfolioHistory(portRecord, stockDataRecords, stockDataUpdates);
+            invalidateScenario();
             checkDateBounds(portRecord);
 
             if (updateUI) {
-                Platform.runLater(() -> updatePerformanceGraph(false, portRecord));
+                Platform.runLater(() -> {
+                    updateBenchmarkHistories(data);
+                    updatePerformanceGraph(false, portRecord);
+                });
             } else {
-                Platform.runLater(() -> overviewController.performanceManagerFinished(false, fromDateBound, toDateBound));
+                Platform.runLater(() -> {
+                    updateBenchmarkHistories(data);
+                    overviewController.performanceManagerFinished(false, fromDateBound, toDateBound);
+                });
             }
         }
     }
+
+    /**
+     * The callback used to receive the historical data of new benchmarks.
+     */
+    private class BenchmarkDataCallback implements StockDataCallback {
+        private PortfolioRecord portRecord;
+        private List<TransactionRecord> transactionRecords;
+
+        /**
+         * Initializes class member variables.
+         *
+         * @param portRecord The portfolio record containing historical portfolio data.
+         * @param transactionRecords A list of transaction records for all previously made transactions.
+         */
+        BenchmarkDataCallback(PortfolioRecord portRecord, List<TransactionRecord> transactionRecords) {
+            this.portRecord = portRecord;
+            this.transactionRecords = transactionRecords;
+        }
+
+        @Override
+        public void failed(PAException ex) {
+            Platform.runLater(() -> overviewController.benchmarksAdded(ex));
+        }
+
+        @Override
+        public void completed(List<StockData> data) {
+            Platform.runLater(() -> {
+                for (StockData stockData : data) {
+                    StockRecord benchmarkRecord = new StockRecord(stockData.getTicker());
+
+                    benchmarkRecord.addHistory(((HistoricalStockData) stockData).getHistory());
+                    benchmarkRecords.put(benchmarkRecord.getTicker(), benchmarkRecord);
+                }
+
+                initializeBenchmarks(portRecord, transactionRecords);
+                overviewController.benchmarksAdded(null);
+            });
+        }
+    }
+
+    /**
+     * The callback used to receive the historical data of an asset traded only in the what-if scenario. An asset quoted
+     * in a currency the portfolio does not hold needs its exchange rates before the trade can be valued.
+     */
+    private class ScenarioDataCallback implements StockDataCallback {
+        private PortfolioRecord portRecord;
+        private TransactionRecord transactionRecord;
+
+        /**
+         * Initializes class member variables.
+         *
+         * @param portRecord The portfolio record containing historical portfolio data.
+         * @param transactionRecord The hypothetical trade of the asset.
+         */
+        ScenarioDataCallback(PortfolioRecord portRecord, TransactionRecord transactionRecord) {
+            this.portRecord = portRecord;
+            this.transactionRecord = transactionRecord;
+        }
+
+        @Override
+        public void failed(PAException ex) {
+            Platform.runLater(() -> overviewController.scenarioUpdated(ex));
+        }
+
+        @Override
+        public void completed(List<StockData> data) {
+            HistoricalStockData historicalStockData = (HistoricalStockData) data.get(0);
+            StockRecord stockRecord = new StockRecord(historicalStockData.getTicker(), historicalStockData.getCurrency());
+
+            stockRecord.addHistory(historicalStockData.getHistory());
+
+            Platform.runLater(() -> {
+                if (scenarioSandbox.needsFXRecord(stockRecord.getCurrency())) {
+                    StockDataFetcher stockDataFetcher = new StockDataFetcher();
+                    List<String> currencies = new ArrayList<>();
+
+                    currencies.add(stockRecord.getCurrency());
+                    stockDataFetcher.fetchHistoricalFXData(currencies, portRecord.getBaseCurrency(), new Date(0), new Date(),
+                            new ScenarioFXDataCallback(portRecord, stockRecord, transactionRecord));
+                } else {
+                    scenarioSandbox.addStockRecord(stockRecord);
+                    applyScenarioTrade(portRecord, transactionRecord);
+                }
+            });
+        }
+    }
+
+    /**
+     * The callback used to receive the historical exchange rates of the currency of an asset traded only in the what-if
+     * scenario.
+     */
+    private class ScenarioFXDataCallback implements StockDataCallback {
+        private PortfolioRecord portRecord;
+        private StockRecord stockRecord;
+        private TransactionRecord transactionRecord;
+
+        /**
+         * Initializes class member variables.
+         *
+         * @param portRecord The portfolio record containing historical portfolio data.
+         * @param stockRecord The newly created record of the asset.
+         * @param transactionRecord The hypothetical trade of the asset.
+         */
+        ScenarioFXDataCallback(PortfolioRecord portRecord, StockRecord stockRecord, TransactionRecord transactionRecord) {
+            this.portRecord = portRecord;
+            this.stockRecord = stockRecord;
+            this.transactionRecord = transactionRecord;
+        }
+
+        @Override
+        public void failed(PAException ex) {
+            Platform.runLater(() -> overviewController.scenarioUpdated(ex));
+        }
+
+        @Override
+        public void completed(List<StockData> data) {
+            HistoricalStockData historicalFXData = (HistoricalStockData) data.get(0);
+            StockRecord fxRecord = new StockRecord(historicalFXData.getTicker(), portRecord.getBaseCurrency());
+
+            fxRecord.addHistory(historicalFXData.getHistory());
+
+            Platform.runLater(() -> {
+                scenarioSandbox.addFXRecord(stockRecord.getCurrency(), fxRecord);
+                scenarioSandbox.addStockRecord(stockRecord);
+                applyScenarioTrade(portRecord, transactionRecord);
+            });
+        }
+    }
 }
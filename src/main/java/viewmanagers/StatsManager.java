@@ -1,8 +1,15 @@
 package viewmanagers;
 
+import analytics.CovarianceMatrix;
+import analytics.MemoCache;
+import analytics.PeriodIndex;
+import analytics.RiskAnalyzer;
+import analytics.RollingSeries;
+import analytics.RollingWindowStats;
+import analytics.TechnicalIndicators;
+import analytics.ValueAtRisk;
 import controllers.PortfolioOverviewController;
 import data.datapoints.DataPoint;
-import data.datapoints.StockDataPoint;
 import data.records.PortfolioRecord;
 import data.records.StockRecord;
 import javafx.application.Platform;
@@ -15,11 +22,13 @@ import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.util.Callback;
 import utils.Utils;
 
-import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.IntStream;
 
 /**
  * Created by scottreese on 7/4/19.
@@ -27,18 +36,26 @@ import java.util.Map;
  * The manager responsible for controlling and updating the portfolio statistics component of the main screen.
  */
 public class StatsManager {
+    private static final int MAX_CACHED_ROWS = 64; // number of rows kept for record states not currently shown
+    private static final int MAX_CACHED_MATRICES = 1; // the portfolio's covariance matrix is refreshed in place
+    private static final double RISK_FREE_RATE = 0; // the same as the 3M Sharpe ratio's, which measures returns against zero
+
     private PortfolioOverviewController overviewController;
     private TableView<UpperTableRow> upperStatsTable;
     private TableView<LowerTableRow> lowerStatsTable;
     private ObservableList<UpperTableRow> waitingUpperTableRows;
     private ObservableList<LowerTableRow> waitingLowerTableRows;
+    private Map<String, StockRecord> stockDataRecords;
+    private MemoCache<UpperTableRow> upperRowCache;
+    private MemoCache<LowerTableRow> lowerRowCache;
+    private MemoCache<CovarianceMatrix> covarianceCache;
 
     /**
      * Initializes class member variables and does some visual formatting for the table.
      *
      * @param overviewController The controller of the main screen.
      * @param upperStatsTable The table used to display percentage gains and/or losses for the portfolio.
-     * @param lowerStatsTable The table used to display 52 week statistics.
+     * @param lowerStatsTable The table used to display 52 week statistics and technical indicators.
      */
     public StatsManager(PortfolioOverviewController overviewController, TableView<UpperTableRow> upperStatsTable,
                         TableView<LowerTableRow> lowerStatsTable) {
@@ -47,6 +64,10 @@ public class StatsManager {
         this.lowerStatsTable = lowerStatsTable;
         this.waitingUpperTableRows = null;
         this.waitingLowerTableRows = null;
+        this.stockDataRecords = new HashMap<>();
+        this.upperRowCache = new MemoCache<>(MAX_CACHED_ROWS);
+        this.lowerRowCache = new MemoCache<>(MAX_CACHED_ROWS);
+        this.covarianceCache = new MemoCache<>(MAX_CACHED_MATRICES);
 
         initUpperTable();
         initLowerTable();
@@ -60,21 +81,34 @@ public class StatsManager {
      * @param updateUI True if the caller wants the stats tables to be updated visually after initialization; false otherwise.
      */
     public void initialize(PortfolioRecord portRecord, Map<String, StockRecord> stockDataRecords, boolean updateUI) {
+        this.stockDataRecords = stockDataRecords;
+
         if (portRecord.getHistory().size() == 0 || stockDataRecords.size() == 0) {
             overviewController.statsManagerFinished(false);
             return;
         }
 
         Thread thread = new Thread(() -> {
+            CovarianceMatrix covarianceMatrix = getCovarianceMatrix(portRecord);
+            double[] weights = getWeights(portRecord, covarianceMatrix);
+            List<StockRecord> stockRecords = new ArrayList<>(stockDataRecords.values());
+            UpperTableRow[] stockUpperTableRows = new UpperTableRow[stockRecords.size()];
+            LowerTableRow[] stockLowerTableRows = new LowerTableRow[stockRecords.size()];
             List<UpperTableRow> upperTableRows = new ArrayList<>();
-            List<LowerTableRow> lowerTableRows = new ArrayList<>();
 
-            upperTableRows.add(new UpperTableRow(portRecord));
+            stockRecords.sort(Comparator.comparing(StockRecord::getTicker));
 
-            for (String ticker : stockDataRecords.keySet()) {
-                upperTableRows.add(new UpperTableRow(stockDataRecords.get(ticker)));
-                lowerTableRows.add(new LowerTableRow(stockDataRecords.get(ticker)));
-            }
+            // the rows of each asset are independent of one another, so they are calculated in parallel and written
+            // into their (already sorted) slots
+            IntStream.range(0, stockRecords.size()).parallel().forEach(i -> {
+                stockUpperTableRows[i] = getUpperTableRow(stockRecords.get(i), portRecord, covarianceMatrix, weights);
+                stockLowerTableRows[i] = getLowerTableRow(stockRecords.get(i));
+            });
+
+            upperTableRows.add(getUpperTableRow(portRecord, stockDataRecords, covarianceMatrix, weights));
+            upperTableRows.addAll(Arrays.asList(stockUpperTableRows));
+
+            List<LowerTableRow> lowerTableRows = Arrays.asList(stockLowerTableRows);
 
             if (updateUI) {
                 Platform.runLater(() -> updateStatsTables(false, upperTableRows, lowerTableRows));
@@ -89,7 +123,8 @@ public class StatsManager {
     }
 
     /**
-     * Updates the statistics tables to reflect any updates to the historical portfolio data.
+     * Updates the statistics tables to reflect any updates to the historical portfolio data. The upper table rows of
+     * the assets are refreshed as well, since their correlations with the portfolio depend on its allocations.
      *
      * @param portRecord The portfolio record containing the updated historical data.
      * @param stockRecord The stock record responsible for the change in the portfolio data.
@@ -109,25 +144,30 @@ public class StatsManager {
             return;
         }
 
-        updatedUpperTableRows.add(new UpperTableRow(portRecord));
+        CovarianceMatrix covarianceMatrix = getCovarianceMatrix(portRecord);
+        double[] weights = getWeights(portRecord, covarianceMatrix);
+
+        updatedUpperTableRows.add(getUpperTableRow(portRecord, stockDataRecords, covarianceMatrix, weights));
 
         for (int i = 1; i < currUpperTableRows.size(); i++) {
             UpperTableRow upperTableRow = currUpperTableRows.get(i);
             LowerTableRow lowerTableRow = currLowerTableRows.get(i - 1);
+            StockRecord currStockRecord = stockDataRecords.get(upperTableRow.getTicker());
 
             if (stockRecord != null && upperTableRow.getTicker().equals(stockRecord.getTicker())) {
                 newAsset = false;
-                updatedUpperTableRows.add(upperTableRow);
-                updatedLowerTableRows.add(lowerTableRow);
-            } else if (portRecord.getAllocations().containsKey(upperTableRow.getTicker())) {
-                updatedUpperTableRows.add(upperTableRow);
-                updatedLowerTableRows.add(lowerTableRow);
+            } else if (!portRecord.getAllocations().containsKey(upperTableRow.getTicker())) {
+                continue;
             }
+
+            updatedUpperTableRows.add(currStockRecord == null ? upperTableRow :
+                    getUpperTableRow(currStockRecord, portRecord, covarianceMatrix, weights));
+            updatedLowerTableRows.add(lowerTableRow);
         }
 
         if (newAsset) {
-            updatedUpperTableRows.add(new UpperTableRow(stockRecord));
-            updatedLowerTableRows.add(new LowerTableRow(stockRecord));
+            updatedUpperTableRows.add(getUpperTableRow(stockRecord, portRecord, covarianceMatrix, weights));
+            updatedLowerTableRows.add(getLowerTableRow(stockRecord));
         }
 
         updateStatsTables(true, updatedUpperTableRows, updatedLowerTableRows);
@@ -141,6 +181,113 @@ public class StatsManager {
         }
     }
 
+    /**
+     * Gets the upper table row of the portfolio as a whole, only calculating it if the portfolio or the history of any
+     * of its assets has changed since it was last calculated.
+     *
+     * @param portRecord The portfolio record.
+     * @param stockDataRecords A map containing the records of all assets currently allocated in the portfolio.
+     * @param covarianceMatrix The covariance matrix of the assets currently allocated in the portfolio.
+     * @param weights The weight of every asset in the covariance matrix, as returned by getWeights().
+     * @return The table row.
+     */
+    private UpperTableRow getUpperTableRow(PortfolioRecord portRecord, Map<String, StockRecord> stockDataRecords,
+                                           CovarianceMatrix covarianceMatrix, double[] weights) {
+        return upperRowCache.get(portRecord, portRecord.getVersion(), getStockVersions(),
+                () -> new UpperTableRow(portRecord, stockDataRecords, covarianceMatrix, weights));
+    }
+
+    /**
+     * Gets the upper table row of an asset, only calculating it if the asset's history or the portfolio has changed
+     * since it was last calculated.
+     *
+     * @param stockRecord The stock record of the asset.
+     * @param portRecord The portfolio record.
+     * @param covarianceMatrix The covariance matrix of the assets currently allocated in the portfolio.
+     * @param weights The weight of every asset in the covariance matrix, as returned by getWeights().
+     * @return The table row.
+     */
+    private UpperTableRow getUpperTableRow(StockRecord stockRecord, PortfolioRecord portRecord,
+                                           CovarianceMatrix covarianceMatrix, double[] weights) {
+        return upperRowCache.get(stockRecord, stockRecord.getVersion(), portRecord.getVersion(),
+                () -> new UpperTableRow(stockRecord, portRecord, covarianceMatrix, weights));
+    }
+
+    /**
+     * Gets the lower table row of an asset, only calculating it if the asset's history has changed since it was last
+     * calculated.
+     *
+     * @param stockRecord The stock record of the asset.
+     * @return The table row.
+     */
+    private LowerTableRow getLowerTableRow(StockRecord stockRecord) {
+        return lowerRowCache.get(stockRecord, stockRecord.getVersion(), null, () -> new LowerTableRow(stockRecord));
+    }
+
+    /**
+     * Gets the covariance matrix of the assets currently allocated in the portfolio. The portfolio keeps a single
+     * matrix, which is only brought up to date (appending the days added since it was last updated) if the portfolio
+     * or the history of any of its assets has changed since it was last asked for.
+     *
+     * @param portRecord The portfolio record.
+     * @return The covariance matrix.
+     */
+    private CovarianceMatrix getCovarianceMatrix(PortfolioRecord portRecord) {
+        return covarianceCache.get(portRecord, portRecord.getVersion(), getStockVersions(),
+                () -> portRecord.getCovarianceMatrix(stockDataRecords));
+    }
+
+    /**
+     * Gets the versions of the records of all assets currently allocated in the portfolio. Versions are never shared
+     * between records, so they identify the state of every asset on their own.
+     *
+     * @return The sorted versions.
+     */
+    private List<Long> getStockVersions() {
+        List<Long> stockVersions = new ArrayList<>();
+
+        for (StockRecord stockRecord : stockDataRecords.values()) {
+            stockVersions.add(stockRecord.getVersion());
+        }
+
+        stockVersions.sort(null);
+
+        return stockVersions;
+    }
+
+    /**
+     * Calculates the weight of every asset in a covariance matrix within the portfolio, from the number of shares held
+     * and the latest close converted into the base currency.
+     *
+     * @param portRecord The portfolio record containing the current allocations.
+     * @param covarianceMatrix The covariance matrix of the assets currently allocated in the portfolio.
+     * @return The weights, in the order of the covariance matrix's tickers; all zero if the portfolio has no value.
+     */
+    private double[] getWeights(PortfolioRecord portRecord, CovarianceMatrix covarianceMatrix) {
+        String[] tickers = covarianceMatrix.getTickers();
+        double[] weights = new double[tickers.length];
+        double portValue = 0;
+
+        for (int i = 0; i < tickers.length; i++) {
+            PortfolioRecord.Allocation allocation = portRecord.getAllocations().get(tickers[i]);
+            StockRecord stockRecord = stockDataRecords.get(tickers[i]);
+
+            if (allocation != null && stockRecord != null && stockRecord.getHistory().size() > 0) {
+                List<DataPoint> history = stockRecord.getHistory();
+
+                weights[i] = allocation.getNumShares() * history.get(history.size() - 1).getMarketCloseValue()
+                        * portRecord.getFXRate(stockRecord, history.size() - 1);
+                portValue += weights[i];
+            }
+        }
+
+        for (int i = 0; i < tickers.length && portValue > 0; i++) {
+            weights[i] /= portValue;
+        }
+
+        return weights;
+    }
+
     /**
      * The helper function which actually updates the statistics table.
      *
@@ -193,7 +340,68 @@ public class StatsManager {
         yearGL.setSortable(false);
         yearGL.impl_setReorderable(false);
 
-        upperStatsTable.getColumns().setAll(ticker, value, dayGL, monthGL, yearGL);
+        // each risk column shows the 95% estimate followed by the 99% estimate
+        TableColumn<UpperTableRow, String> valueAtRisk = new TableColumn<>("VaR 95/99");
+        valueAtRisk.setCellValueFactory(new PropertyValueFactory<>("valueAtRisk"));
+        valueAtRisk.setSortable(false);
+        valueAtRisk.impl_setReorderable(false);
+
+        TableColumn<UpperTableRow, String> expectedShortfall = new TableColumn<>("CVaR 95/99");
+        expectedShortfall.setCellValueFactory(new PropertyValueFactory<>("expectedShortfall"));
+        expectedShortfall.setSortable(false);
+        expectedShortfall.impl_setReorderable(false);
+
+        TableColumn<UpperTableRow, String> parametricValueAtRisk = new TableColumn<>("P-VaR 95/99");
+        parametricValueAtRisk.setCellValueFactory(new PropertyValueFactory<>("parametricValueAtRisk"));
+        parametricValueAtRisk.setSortable(false);
+        parametricValueAtRisk.impl_setReorderable(false);
+
+        TableColumn<UpperTableRow, String> parametricExpectedShortfall = new TableColumn<>("P-CVaR 95/99");
+        parametricExpectedShortfall.setCellValueFactory(new PropertyValueFactory<>("parametricExpectedShortfall"));
+        parametricExpectedShortfall.setSortable(false);
+        parametricExpectedShortfall.impl_setReorderable(false);
+
+        // the average pairwise correlation of the holdings in the portfolio row, and each asset's correlation with the
+        // portfolio in the asset rows
+        TableColumn<UpperTableRow, String> correlation = new TableColumn<>("Corr");
+        correlation.setCellValueFactory(new PropertyValueFactory<>("correlation"));
+        correlation.setSortable(false);
+        correlation.impl_setReorderable(false);
+
+        TableColumn<UpperTableRow, String> volatility = new TableColumn<>("3M Vol");
+        volatility.setCellValueFactory(new PropertyValueFactory<>("volatility"));
+        volatility.setSortable(false);
+        volatility.impl_setReorderable(false);
+
+        TableColumn<UpperTableRow, String> sharpeRatio = new TableColumn<>("3M Sharpe");
+        sharpeRatio.setCellValueFactory(new PropertyValueFactory<>("sharpeRatio"));
+        sharpeRatio.setSortable(false);
+        sharpeRatio.impl_setReorderable(false);
+
+        // the remaining columns are measured over the whole history
+        TableColumn<UpperTableRow, String> sortinoRatio = new TableColumn<>("Sortino");
+        sortinoRatio.setCellValueFactory(new PropertyValueFactory<>("sortinoRatio"));
+        sortinoRatio.setSortable(false);
+        sortinoRatio.impl_setReorderable(false);
+
+        TableColumn<UpperTableRow, String> maxDrawdown = new TableColumn<>("Max DD");
+        maxDrawdown.setCellValueFactory(new PropertyValueFactory<>("maxDrawdown"));
+        maxDrawdown.setSortable(false);
+        maxDrawdown.impl_setReorderable(false);
+
+        TableColumn<UpperTableRow, String> maxDrawdownDuration = new TableColumn<>("DD Days");
+        maxDrawdownDuration.setCellValueFactory(new PropertyValueFactory<>("maxDrawdownDuration"));
+        maxDrawdownDuration.setSortable(false);
+        maxDrawdownDuration.impl_setReorderable(false);
+
+        TableColumn<UpperTableRow, String> calmarRatio = new TableColumn<>("Calmar");
+        calmarRatio.setCellValueFactory(new PropertyValueFactory<>("calmarRatio"));
+        calmarRatio.setSortable(false);
+        calmarRatio.impl_setReorderable(false);
+
+        upperStatsTable.getColumns().setAll(ticker, value, dayGL, monthGL, yearGL, valueAtRisk, expectedShortfall,
+                parametricValueAtRisk, parametricExpectedShortfall, correlation, volatility, sharpeRatio, sortinoRatio,
+                maxDrawdown, maxDrawdownDuration, calmarRatio);
     }
 
     /**
@@ -227,7 +435,27 @@ public class StatsManager {
         currSD.setSortable(false);
         currSD.impl_setReorderable(false);
 
-        lowerStatsTable.getColumns().setAll(ticker, high, low, average, currSD);
+        TableColumn<LowerTableRow, String> rsi = new TableColumn<>("RSI");
+        rsi.setCellValueFactory(new PropertyValueFactory<>("rsi"));
+        rsi.setSortable(false);
+        rsi.impl_setReorderable(false);
+
+        TableColumn<LowerTableRow, String> macdHistogram = new TableColumn<>("MACD Hist");
+        macdHistogram.setCellValueFactory(new PropertyValueFactory<>("macdHistogram"));
+        macdHistogram.setSortable(false);
+        macdHistogram.impl_setReorderable(false);
+
+        TableColumn<LowerTableRow, String> bollingerPosition = new TableColumn<>("Bollinger %B");
+        bollingerPosition.setCellValueFactory(new PropertyValueFactory<>("bollingerPosition"));
+        bollingerPosition.setSortable(false);
+        bollingerPosition.impl_setReorderable(false);
+
+        TableColumn<LowerTableRow, String> atr = new TableColumn<>("ATR");
+        atr.setCellValueFactory(new PropertyValueFactory<>("atr"));
+        atr.setSortable(false);
+        atr.impl_setReorderable(false);
+
+        lowerStatsTable.getColumns().setAll(ticker, high, low, average, currSD, rsi, macdHistogram, bollingerPosition, atr);
     }
 
     /**
@@ -235,10 +463,17 @@ public class StatsManager {
      */
     public class UpperTableRow {
         private String ticker;
+        private String currency; // the portfolio's base currency, which the value is in
         private double value;
         private double dayGL;
         private double monthGL;
         private double yearGL;
+        private ValueAtRisk.Estimate riskEstimate; // null if there was not enough history to estimate it
+        private ValueAtRisk.Estimate parametricRiskEstimate; // likewise
+        private double correlation;
+        private double volatility;
+        private double sharpeRatio;
+        private RiskAnalyzer.RiskMetrics riskMetrics; // null if there was not enough history to compute them
         private boolean isPortRow;
 
         /**
@@ -246,13 +481,25 @@ public class StatsManager {
          * for the portfolio as a whole.
          *
          * @param portRecord The portfolio record that contains the relevant historical data needed for the calculations.
+         * @param stockDataRecords A map containing the records of all assets currently allocated in the portfolio.
+         * @param covarianceMatrix The covariance matrix of the assets currently allocated in the portfolio.
+         * @param weights The weight of every asset in the covariance matrix.
          */
-        UpperTableRow(PortfolioRecord portRecord) {
+        UpperTableRow(PortfolioRecord portRecord, Map<String, StockRecord> stockDataRecords,
+                      CovarianceMatrix covarianceMatrix, double[] weights) {
             ticker = "My Portfolio";
+            currency = portRecord.getBaseCurrency();
             value = portRecord.getCurrPortValue();
             isPortRow = true;
 
-            calculateStats(portRecord.getHistory());
+            calculateStats(portRecord.getHistory(), portRecord.getPeriodIndex());
+            riskEstimate = ValueAtRisk.historical(portRecord, stockDataRecords);
+            parametricRiskEstimate = covarianceMatrix.getCount() < 2 ? null :
+                    ValueAtRisk.parametric(portRecord, stockDataRecords, covarianceMatrix);
+            correlation = covarianceMatrix.getCount() < 2 ? Double.MAX_VALUE :
+                    covarianceMatrix.getAverageCorrelation(weights);
+            setRollingStats(portRecord.getRollingSeries(RollingSeries.DEFAULT_WINDOW));
+            riskMetrics = RiskAnalyzer.analyze(portRecord, RISK_FREE_RATE);
         }
 
         /**
@@ -260,15 +507,29 @@ public class StatsManager {
          * for an individual asset currently allocated in the portfolio.
          *
          * @param stockRecord The stock record that contains the relevant historical data needed for the calculations.
+         * @param portRecord The portfolio record, whose base currency the asset's latest close is valued in.
+         * @param covarianceMatrix The covariance matrix of the assets currently allocated in the portfolio.
+         * @param weights The weight of every asset in the covariance matrix.
          */
-        UpperTableRow(StockRecord stockRecord) {
+        UpperTableRow(StockRecord stockRecord, PortfolioRecord portRecord, CovarianceMatrix covarianceMatrix,
+                      double[] weights) {
+            int index = covarianceMatrix.indexOf(stockRecord.getTicker());
             int historySize = stockRecord.getHistory().size();
 
             ticker = stockRecord.getTicker();
-            value = stockRecord.getHistory().get(historySize - 1).getMarketCloseValue();
+            currency = portRecord.getBaseCurrency();
+            value = stockRecord.getHistory().get(historySize - 1).getMarketCloseValue()
+                    * portRecord.getFXRate(stockRecord, historySize - 1);
             isPortRow = false;
 
-            calculateStats(stockRecord.getHistory());
+            calculateStats(stockRecord.getHistory(), stockRecord.getPeriodIndex());
+            riskEstimate = ValueAtRisk.historical(stockRecord);
+            parametricRiskEstimate = covarianceMatrix.getCount() < 2 ? null :
+                    ValueAtRisk.parametric(stockRecord.getTicker(), covarianceMatrix);
+            correlation = index < 0 || covarianceMatrix.getCount() < 2 ? Double.MAX_VALUE :
+                    covarianceMatrix.getCorrelation(index, weights);
+            setRollingStats(stockRecord.getRollingSeries(RollingSeries.DEFAULT_WINDOW));
+            riskMetrics = RiskAnalyzer.analyze(stockRecord, RISK_FREE_RATE);
         }
 
         // getter methods for class member variables with some conditional statements for formatting purposes
@@ -281,7 +542,7 @@ public class StatsManager {
             if (value == Double.MAX_VALUE) {
                 return "N/A";
             } else {
-                return Utils.formatDollars(value);
+                return Utils.formatMoney(value, currency);
             }
         }
 
@@ -315,12 +576,96 @@ public class StatsManager {
             }
         }
 
+        public String getValueAtRisk() {
+            return riskEstimate == null ? "N/A" : formatRisk(riskEstimate.getValueAtRisk95(),
+                    riskEstimate.getValueAtRisk99());
+        }
+
+        public String getExpectedShortfall() {
+            return riskEstimate == null ? "N/A" : formatRisk(riskEstimate.getExpectedShortfall95(),
+                    riskEstimate.getExpectedShortfall99());
+        }
+
+        public String getParametricValueAtRisk() {
+            return parametricRiskEstimate == null ? "N/A" : formatRisk(parametricRiskEstimate.getValueAtRisk95(),
+                    parametricRiskEstimate.getValueAtRisk99());
+        }
+
+        public String getParametricExpectedShortfall() {
+            return parametricRiskEstimate == null ? "N/A" : formatRisk(parametricRiskEstimate.getExpectedShortfall95(),
+                    parametricRiskEstimate.getExpectedShortfall99());
+        }
+
+        public String getCorrelation() {
+            return correlation == Double.MAX_VALUE ? "N/A" : Utils.roundDecimal(correlation, 2);
+        }
+
+        public String getVolatility() {
+            return volatility == Double.MAX_VALUE ? "N/A" : Utils.formatPercentage(volatility);
+        }
+
+        public String getSharpeRatio() {
+            return sharpeRatio == Double.MAX_VALUE ? "N/A" : Utils.roundDecimal(sharpeRatio, 2);
+        }
+
+        public String getSortinoRatio() {
+            return riskMetrics == null ? "N/A" : Utils.roundDecimal(riskMetrics.getSortinoRatio(), 2);
+        }
+
+        public String getMaxDrawdown() {
+            if (riskMetrics == null) {
+                return "N/A";
+            } else {
+                // shown as a loss, without a negative sign when there was none
+                return Utils.formatPercentage(riskMetrics.getMaxDrawdown() == 0 ? 0 : -riskMetrics.getMaxDrawdown() * 100);
+            }
+        }
+
+        public String getMaxDrawdownDuration() {
+            return riskMetrics == null ? "N/A" : String.valueOf(riskMetrics.getMaxDrawdownDuration());
+        }
+
+        public String getCalmarRatio() {
+            return riskMetrics == null ? "N/A" : Utils.roundDecimal(riskMetrics.getCalmarRatio(), 2);
+        }
+
+        /**
+         * Formats a pair of one day risk estimates as percentages of the row's value.
+         *
+         * @param estimate95 The estimate at the 95% confidence level, as a fraction of the value.
+         * @param estimate99 The estimate at the 99% confidence level, as a fraction of the value.
+         * @return The formatted estimates.
+         */
+        private String formatRisk(double estimate95, double estimate99) {
+            return Utils.formatPercentage(estimate95 * 100) + " / " + Utils.formatPercentage(estimate99 * 100);
+        }
+
+        /**
+         * Stores the annualized volatility (as a percentage) and Sharpe ratio of the last 3 months for the table row,
+         * read from the latest data point of the rolling-window series.
+         *
+         * @param rollingSeries The rolling-window series of the row's history.
+         */
+        private void setRollingStats(RollingSeries rollingSeries) {
+            int last = rollingSeries.size() - 1;
+
+            if (last < 0 || !rollingSeries.isFull(last)) {
+                volatility = Double.MAX_VALUE;
+                sharpeRatio = Double.MAX_VALUE;
+            } else {
+                volatility = rollingSeries.getVolatility(last) * 100;
+                sharpeRatio = rollingSeries.getSharpeRatio(last);
+            }
+        }
+
         /**
-         * The function which does the actual calculations to output the statistics for the table row.
+         * The function which does the actual calculations to output the statistics for the table row. The reference
+         * data point of each period is looked up in the history's period index, so no scanning is needed.
          *
          * @param history The historical data used to calculate the statistics.
+         * @param periodIndex The period index over the historical data.
          */
-        private void calculateStats(List<DataPoint> history) {
+        private void calculateStats(List<DataPoint> history, PeriodIndex periodIndex) {
             if (history.size() == 0) {
                 value = Double.MAX_VALUE;
                 dayGL = Double.MAX_VALUE;
@@ -330,39 +675,24 @@ public class StatsManager {
                 return;
             }
 
-            DataPoint todayDataPoint = history.get(history.size() - 1);
-            DataPoint currDataPoint = todayDataPoint;
-            LocalDate todayDate = todayDataPoint.getDate();
-            boolean calculatedMonthGL = false;
-            boolean calculatedYearGL = false;
-
-            dayGL = isPortRow ? getPortDataValue(todayDataPoint, currDataPoint) : getStockDataValue(todayDataPoint, currDataPoint);
-
-            for (int i = history.size() - 2; i >= 0; i--) {
-                currDataPoint = history.get(i);
-
-                LocalDate currDate = currDataPoint.getDate();
-                DataPoint refDataPoint = history.get(i + 1);
-
-                if (!calculatedMonthGL && currDate.getMonthValue() != todayDate.getMonthValue()) {
-                    monthGL = isPortRow ? getPortDataValue(todayDataPoint, refDataPoint) : getStockDataValue(todayDataPoint, refDataPoint);
-                    calculatedMonthGL = true;
-                } else if (currDate.getYear() != todayDate.getYear()) {
-                    yearGL = isPortRow ? getPortDataValue(todayDataPoint, refDataPoint) : getStockDataValue(todayDataPoint, refDataPoint);
-                    calculatedYearGL = true;
-
-                    break;
-                }
-            }
+            dayGL = calculateGL(history, periodIndex, PeriodIndex.Period.DAY);
+            monthGL = calculateGL(history, periodIndex, PeriodIndex.Period.MONTH);
+            yearGL = calculateGL(history, periodIndex, PeriodIndex.Period.YEAR_TO_DATE);
+        }
 
-            if (!calculatedMonthGL) {
-                monthGL = isPortRow ? getPortDataValue(todayDataPoint, currDataPoint) : getStockDataValue(todayDataPoint, currDataPoint);
-                yearGL = monthGL;
-            }
+        /**
+         * Calculates the percentage gain/loss over a period ending at the latest data point.
+         *
+         * @param history The historical data used to calculate the gain/loss.
+         * @param periodIndex The period index over the historical data.
+         * @param period The period over which to calculate the gain/loss.
+         * @return The percentage gain/loss over the period.
+         */
+        private double calculateGL(List<DataPoint> history, PeriodIndex periodIndex, PeriodIndex.Period period) {
+            DataPoint todayDataPoint = history.get(history.size() - 1);
+            DataPoint refDataPoint = history.get(periodIndex.getReferenceIndex(period));
 
-            if (!calculatedYearGL) {
-                yearGL = isPortRow ? getPortDataValue(todayDataPoint, currDataPoint) : getStockDataValue(todayDataPoint, currDataPoint);
-            }
+            return isPortRow ? getPortDataValue(todayDataPoint, refDataPoint) : getStockDataValue(todayDataPoint, refDataPoint);
         }
 
         /**
@@ -398,10 +728,16 @@ public class StatsManager {
      */
     public class LowerTableRow {
         private String ticker;
+        private String currency; // the currency the asset is quoted in, which its prices are shown in
         private double high;
         private double low;
         private double average;
         private double currSD;
+        private double rsi;
+        private double macdHistogram;
+        private double bollingerPosition;
+        private double atr;
+        private boolean indicatorsReady;
 
         /**
          * Initializes class member variables and calculates the statistics for the row.
@@ -410,8 +746,10 @@ public class StatsManager {
          */
         LowerTableRow(StockRecord stockRecord) {
             this.ticker = stockRecord.getTicker();
+            this.currency = stockRecord.getCurrency();
 
-            calculateStats(stockRecord.getHistory());
+            calculateStats(stockRecord);
+            calculateIndicators(stockRecord);
         }
 
         // getter methods for class member variables
@@ -421,80 +759,72 @@ public class StatsManager {
         }
 
         public String getHigh() {
-            return high == 0 ? "-" : Utils.formatDollars(high);
+            return high == 0 ? "-" : Utils.formatMoney(high, currency);
         }
 
         public String getLow() {
-            return low == 0 ? "-" : Utils.formatDollars(low);
+            return low == 0 ? "-" : Utils.formatMoney(low, currency);
         }
 
         public String getAverage() {
-            return average == 0 ? "-" : Utils.formatDollars(average);
+            return average == 0 ? "-" : Utils.formatMoney(average, currency);
         }
 
         public String getCurrSD() {
             return currSD == 0 ? "-" : Utils.roundDecimal(currSD, 2);
         }
 
+        public String getRsi() {
+            return indicatorsReady ? Utils.roundDecimal(rsi, 1) : "-";
+        }
+
+        public String getMacdHistogram() {
+            return indicatorsReady ? Utils.roundDecimal(macdHistogram, 2) : "-";
+        }
+
+        public String getBollingerPosition() {
+            return indicatorsReady ? Utils.formatPercentage(bollingerPosition * 100) : "-";
+        }
+
+        public String getAtr() {
+            return indicatorsReady ? Utils.formatMoney(atr, currency) : "-";
+        }
+
         /**
          * Calculates the 52 weeks statistics for this row.
          *
-         * @param history The stock history used to calculate these statistics.
+         * @param stockRecord The stock record whose 52 week window statistics are used.
          */
-        private void calculateStats(List<DataPoint> history) {
-            if (history.size() > 260) {
-                LocalDate stopDate = history.get(history.size() - 1).getDate().minusWeeks(52);
-                double currHigh = Double.MIN_VALUE;
-                double currLow = Double.MAX_VALUE;
-                double sum = 0;
-                int count = 0;
-
-                for (int i = history.size() - 1; i >= 0; i--) {
-                    StockDataPoint dataPoint = (StockDataPoint) history.get(i);
-
-                    if (dataPoint.getDate().compareTo(stopDate) < 0) {
-                        break;
-                    } else {
-                        currHigh = Math.max(currHigh, dataPoint.getMarketHighValue());
-                        currLow = Math.min(currLow, dataPoint.getMarketLowValue());
-                        sum += dataPoint.getMarketCloseValue();
-                        count += 1;
-                    }
-                }
-
-                high = currHigh;
-                low = currLow;
-                average = sum / count;
-                currSD = calculateCurrSD(average, history);
+        private void calculateStats(StockRecord stockRecord) {
+            if (stockRecord.getHistory().size() > 260) {
+                RollingWindowStats windowStats = stockRecord.getWindowStats();
+                double sd = windowStats.getStandardDeviation();
+
+                high = windowStats.getHigh();
+                low = windowStats.getLow();
+                average = windowStats.getMean();
+                currSD = sd == 0 ? 0 : (windowStats.getLastClose() - average) / sd;
             }
         }
 
         /**
-         * Calculates the standard deviation away from the 52 week average for the current price of the asset
-         * associated with this row.
+         * Reads the technical indicators of the latest bar for this row. The indicators are cached in the stock record
+         * and kept up to date as new bars arrive, so only bars added since the last read are processed.
          *
-         * @param average The 52 week average price.
-         * @param history The history of the asset.
-         * @return The current standard deviation.
+         * @param stockRecord The stock record whose technical indicators are used.
          */
-        private double calculateCurrSD(double average, List<DataPoint> history) {
-            DataPoint currDataPoint = history.get(history.size() - 1);
-            LocalDate stopDate = history.get(history.size() - 1).getDate().minusWeeks(52);
-            double meanDiffSum = 0;
-            int count = 0;
+        private void calculateIndicators(StockRecord stockRecord) {
+            TechnicalIndicators indicators = stockRecord.getIndicators();
+            int last = indicators.size() - 1;
 
-            for (int i = history.size() - 1; i >= 0; i--) {
-                DataPoint dataPoint = history.get(i);
+            indicatorsReady = last >= 0 && indicators.isReady(last);
 
-                if (dataPoint.getDate().compareTo(stopDate) < 0) {
-                    break;
-                } else {
-                    meanDiffSum += Math.pow(dataPoint.getMarketCloseValue() - average, 2);
-                    count += 1;
-                }
+            if (indicatorsReady) {
+                rsi = indicators.getRSI(last);
+                macdHistogram = indicators.getMACDHistogram(last);
+                bollingerPosition = indicators.getBollingerPosition(last);
+                atr = indicators.getATR(last);
             }
-
-            return (currDataPoint.getMarketCloseValue() - average) / Math.sqrt(meanDiffSum / count);
         }
     }
 
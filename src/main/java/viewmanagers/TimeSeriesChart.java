@@ -0,0 +1,887 @@
+package viewmanagers;
+
+import javafx.animation.AnimationTimer;
+import javafx.animation.PauseTransition;
+import javafx.geometry.Insets;
+import javafx.geometry.VPos;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.input.MouseButton;
+import javafx.scene.layout.Region;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import javafx.scene.text.Text;
+import javafx.scene.text.TextAlignment;
+import javafx.util.Duration;
+import javafx.util.StringConverter;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * A time-series chart drawn directly onto a canvas, used in place of a LineChart so that graphing a series creates no
+ * scene graph nodes or date strings per data point. Dates are plotted on a numeric axis (days since the epoch), and
+ * each series is drawn as a single path in which the data points falling within the same pixel column are reduced to
+ * their low, high, and last values, so thousands of data points take no longer to draw than the chart is wide.
+ * Dragging pans the chart and scrolling zooms it around the cursor, both at frame rate over the data already graphed;
+ * once the view settles, the view change listener is told the newly visible date range. Hovering shows a crosshair
+ * snapped to the nearest data point (found by binary search) along with the value of every series on its date. Redraws
+ * are coalesced into at most one per frame.
+ */
+public class TimeSeriesChart extends Region {
+    private static final Color[] SERIES_COLORS = {Color.web("#33d6ff"), Color.web("#ff9933"), Color.web("#cc66ff"),
+            Color.web("#ffe066"), Color.web("#66ff99"), Color.web("#ff6680"), Color.web("#b3b3b3")};
+    private static final Color AXIS_COLOR = Color.WHITE;
+    private static final Color GRID_COLOR = Color.web("#4d4d4d");
+    private static final Color CROSSHAIR_COLOR = Color.web("#999999");
+    private static final Color TOOLTIP_COLOR = Color.web("#1a1a1a", 0.85);
+    private static final Font LABEL_FONT = Font.font("Heiti TC Light", 12);
+    private static final DateTimeFormatter CROSSHAIR_FORMATTER = DateTimeFormatter.ofPattern("MMM d, yyyy");
+    private static final double PREF_WIDTH = 500;
+    private static final double PREF_HEIGHT = 400;
+    private static final double TICK_LENGTH = 5;
+    private static final double TICK_LABEL_GAP = 5;
+    private static final double LINE_HEIGHT = 16;
+    private static final double MIN_X_TICK_SPACING = 90; // pixels between date labels
+    private static final int NUM_Y_TICKS = 6;
+    private static final double ZOOM_BASE = 1.1; // zoom factor per scroll notch
+    private static final double SCROLL_NOTCH = 40; // pixels scrolled per notch
+    private static final double MIN_VISIBLE_DAYS = 7;
+    private static final Duration VIEW_CHANGE_DELAY = Duration.millis(300); // idle time after which a zoom has settled
+
+    // the units the date axis is labeled in, from finest to coarsest
+    private static final TickUnit[] TICK_UNITS = {
+            new TickUnit(ChronoUnit.DAYS, 1, "M/d/yy"),
+            new TickUnit(ChronoUnit.DAYS, 2, "M/d/yy"),
+            new TickUnit(ChronoUnit.WEEKS, 1, "M/d/yy"),
+            new TickUnit(ChronoUnit.WEEKS, 2, "M/d/yy"),
+            new TickUnit(ChronoUnit.MONTHS, 1, "MMM yy"),
+            new TickUnit(ChronoUnit.MONTHS, 2, "MMM yy"),
+            new TickUnit(ChronoUnit.MONTHS, 3, "MMM yy"),
+            new TickUnit(ChronoUnit.MONTHS, 6, "MMM yy"),
+            new TickUnit(ChronoUnit.YEARS, 1, "yyyy"),
+            new TickUnit(ChronoUnit.YEARS, 2, "yyyy"),
+            new TickUnit(ChronoUnit.YEARS, 5, "yyyy"),
+            new TickUnit(ChronoUnit.YEARS, 10, "yyyy")
+    };
+
+    private Canvas canvas;
+    private Text textMeasurer;
+    private AnimationTimer renderTimer;
+    private PauseTransition viewChangeDelay;
+    private List<Series> series;
+    private StringConverter<Double> yTickLabelFormatter;
+    private BiConsumer<LocalDate, LocalDate> onViewChanged;
+    private boolean legendVisible;
+    private boolean renderPending;
+    private double minDay;
+    private double maxDay;
+    private double viewFrom;
+    private double viewTo;
+    private double minValue;
+    private double maxValue;
+    private double yTickUnit;
+    private double plotLeft;
+    private double plotRight;
+    private double plotTop;
+    private double plotBottom;
+    private double crosshairX;
+    private double dragX;
+    private boolean dragged;
+
+    /**
+     * Initializes class member variables and registers the mouse handlers used to pan, zoom, and move the crosshair.
+     * The chart starts out with no series.
+     */
+    public TimeSeriesChart() {
+        this.canvas = new Canvas();
+        this.textMeasurer = new Text();
+        this.series = new ArrayList<>();
+        this.yTickLabelFormatter = null;
+        this.onViewChanged = null;
+        this.legendVisible = false;
+        this.renderPending = false;
+        this.minDay = Double.POSITIVE_INFINITY; // the domain is widened to the first view if none is set before it
+        this.maxDay = Double.NEGATIVE_INFINITY;
+        this.viewFrom = 0;
+        this.viewTo = 0;
+        this.crosshairX = Double.NaN;
+        this.dragged = false;
+
+        this.renderTimer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                renderPending = false;
+                stop();
+                render();
+            }
+        };
+
+        this.viewChangeDelay = new PauseTransition(VIEW_CHANGE_DELAY);
+        this.viewChangeDelay.setOnFinished(event -> fireViewChanged());
+
+        textMeasurer.setFont(LABEL_FONT);
+        getChildren().add(canvas);
+
+        setOnMousePressed(event -> {
+            dragX = event.getX();
+            dragged = false;
+        });
+
+        setOnMouseDragged(event -> {
+            if (event.isPrimaryButtonDown()) {
+                pan(event.getX() - dragX);
+                dragX = event.getX();
+                dragged = true;
+                crosshairX = event.getX();
+            }
+        });
+
+        setOnMouseReleased(event -> {
+            if (dragged) {
+                dragged = false;
+                fireViewChanged();
+            }
+        });
+
+        setOnMouseClicked(event -> {
+            if (event.getButton() == MouseButton.PRIMARY && event.getClickCount() == 2 && !series.isEmpty()) {
+                setView(minDay, maxDay);
+                fireViewChanged();
+            }
+        });
+
+        setOnMouseMoved(event -> {
+            crosshairX = event.getX();
+            requestRender();
+        });
+
+        setOnMouseExited(event -> {
+            crosshairX = Double.NaN;
+            requestRender();
+        });
+
+        setOnScroll(event -> {
+            zoom(event.getX(), Math.pow(ZOOM_BASE, -event.getDeltaY() / SCROLL_NOTCH));
+            viewChangeDelay.playFromStart();
+            event.consume();
+        });
+    }
+
+    /**
+     * Replaces the graphed series and shows them between the specified dates.
+     *
+     * @param series The series to be graphed. The first series is the one the crosshair snaps to.
+     * @param fromDate The first date to be shown.
+     * @param toDate The last date to be shown.
+     */
+    public void setData(List<Series> series, LocalDate fromDate, LocalDate toDate) {
+        this.series = series;
+
+        setView(fromDate.toEpochDay(), toDate.toEpochDay());
+    }
+
+    /**
+     * Sets the range of dates which can be panned and zoomed to, i.e. the dates of the first and last data points
+     * which could be graphed.
+     *
+     * @param minDate The earliest date which can be shown.
+     * @param maxDate The latest date which can be shown.
+     */
+    public void setDomain(LocalDate minDate, LocalDate maxDate) {
+        minDay = minDate.toEpochDay();
+        maxDay = maxDate.toEpochDay();
+
+        requestRender();
+    }
+
+    /**
+     * Removes every graphed series.
+     */
+    public void clear() {
+        series = new ArrayList<>();
+
+        requestRender();
+    }
+
+    // setter methods for class member variables
+
+    public void setYTickLabelFormatter(StringConverter<Double> yTickLabelFormatter) {
+        this.yTickLabelFormatter = yTickLabelFormatter;
+
+        requestRender();
+    }
+
+    public void setLegendVisible(boolean legendVisible) {
+        this.legendVisible = legendVisible;
+
+        requestRender();
+    }
+
+    /**
+     * Sets the listener told the visible date range once a pan or zoom has settled.
+     *
+     * @param onViewChanged The listener, which receives the first and last dates shown.
+     */
+    public void setOnViewChanged(BiConsumer<LocalDate, LocalDate> onViewChanged) {
+        this.onViewChanged = onViewChanged;
+    }
+
+    @Override
+    protected void layoutChildren() {
+        canvas.setWidth(getWidth());
+        canvas.setHeight(getHeight());
+
+        requestRender();
+    }
+
+    @Override
+    protected double computePrefWidth(double height) {
+        return PREF_WIDTH;
+    }
+
+    @Override
+    protected double computePrefHeight(double width) {
+        return PREF_HEIGHT;
+    }
+
+    /**
+     * Schedules the chart to be redrawn on the next frame. Any further requests before then are absorbed by it.
+     */
+    private void requestRender() {
+        if (!renderPending) {
+            renderPending = true;
+            renderTimer.start();
+        }
+    }
+
+    /**
+     * Shows the chart between the specified days, widened to at least a day and extending the domain if needed.
+     *
+     * @param fromDay The first day to be shown.
+     * @param toDay The last day to be shown.
+     */
+    private void setView(double fromDay, double toDay) {
+        if (toDay - fromDay < 1) {
+            fromDay -= 0.5;
+            toDay += 0.5;
+        }
+
+        viewFrom = fromDay;
+        viewTo = toDay;
+        minDay = Math.min(minDay, fromDay);
+        maxDay = Math.max(maxDay, toDay);
+
+        requestRender();
+    }
+
+    /**
+     * Moves the view by a number of pixels, without moving past either end of the domain.
+     *
+     * @param dx The number of pixels the chart was dragged by (positive to the right, i.e. towards earlier dates).
+     */
+    private void pan(double dx) {
+        if (series.isEmpty()) {
+            return;
+        }
+
+        double days = -dx * getDaysPerPixel();
+
+        days = Math.max(days, minDay - viewFrom);
+        days = Math.min(days, maxDay - viewTo);
+
+        viewFrom += days;
+        viewTo += days;
+
+        requestRender();
+    }
+
+    /**
+     * Zooms the view around a point, keeping the date under it in place.
+     *
+     * @param x The horizontal position of the point.
+     * @param factor The factor the number of days shown is multiplied by (less than 1 to zoom in).
+     */
+    private void zoom(double x, double factor) {
+        if (series.isEmpty()) {
+            return;
+        }
+
+        double domainWidth = maxDay - minDay;
+        double width = viewTo - viewFrom;
+        double newWidth = Math.max(Math.min(width * factor, domainWidth), Math.min(MIN_VISIBLE_DAYS, domainWidth));
+        double anchor = Math.max(Math.min(toDay(x), viewTo), viewFrom);
+        double newFrom = anchor - (anchor - viewFrom) * newWidth / width;
+
+        newFrom = Math.max(Math.min(newFrom, maxDay - newWidth), minDay);
+
+        viewFrom = newFrom;
+        viewTo = newFrom + newWidth;
+
+        requestRender();
+    }
+
+    /**
+     * Tells the view change listener the range of whole dates currently shown.
+     */
+    private void fireViewChanged() {
+        if (series.isEmpty()) {
+            return;
+        }
+
+        LocalDate fromDate = LocalDate.ofEpochDay((long) Math.ceil(viewFrom));
+        LocalDate toDate = LocalDate.ofEpochDay((long) Math.floor(viewTo));
+
+        if (onViewChanged != null && fromDate.compareTo(toDate) <= 0) {
+            onViewChanged.accept(fromDate, toDate);
+        }
+    }
+
+    /**
+     * Redraws the whole chart: the grid and axes, every series, the legend, and the crosshair.
+     */
+    private void render() {
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+        Insets insets = getInsets();
+        double width = getWidth();
+        double height = getHeight();
+
+        gc.clearRect(0, 0, width, height);
+
+        if (series.isEmpty() || viewTo <= viewFrom) {
+            return;
+        }
+
+        updateValueRange();
+
+        // the Y-axis is labeled first, since the width of its labels decides where the plot starts
+        int decimals = Math.max(-(int) Math.floor(Math.log10(yTickUnit) + 1e-9), 0) + 1;
+        List<Double> yTicks = new ArrayList<>();
+        List<String> yLabels = new ArrayList<>();
+        double labelWidth = 0;
+
+        for (double tick = minValue; tick <= maxValue + yTickUnit / 2; tick += yTickUnit) {
+            double value = BigDecimal.valueOf(tick).setScale(decimals, RoundingMode.HALF_UP).doubleValue();
+            String label = formatValue(value);
+
+            yTicks.add(value);
+            yLabels.add(label);
+            labelWidth = Math.max(labelWidth, measure(label));
+        }
+
+        plotLeft = insets.getLeft() + labelWidth + TICK_LABEL_GAP + TICK_LENGTH;
+        plotRight = width - insets.getRight();
+        plotTop = insets.getTop();
+        plotBottom = height - insets.getBottom() - TICK_LENGTH - TICK_LABEL_GAP - LINE_HEIGHT;
+
+        if (plotRight <= plotLeft || plotBottom <= plotTop) {
+            return;
+        }
+
+        gc.setFont(LABEL_FONT);
+        gc.setLineDashes(null);
+
+        renderYAxis(gc, yTicks, yLabels);
+        renderXAxis(gc);
+
+        gc.save();
+        gc.beginPath();
+        gc.rect(plotLeft, plotTop, plotRight - plotLeft, plotBottom - plotTop);
+        gc.clip();
+        gc.setLineWidth(2);
+
+        for (int k = 0; k < series.size(); k++) {
+            gc.setStroke(getColor(k));
+            renderSeries(gc, series.get(k));
+        }
+
+        gc.restore();
+
+        if (legendVisible) {
+            renderLegend(gc);
+        }
+
+        if (!Double.isNaN(crosshairX) && crosshairX >= plotLeft && crosshairX <= plotRight) {
+            renderCrosshair(gc);
+        }
+    }
+
+    /**
+     * Finds the lowest and highest values shown in the current view, rounded out to whole Y-axis tick units, along with
+     * the tick unit itself. Zero is always kept in range.
+     */
+    private void updateValueRange() {
+        double low = 0;
+        double high = 0;
+
+        for (Series s : series) {
+            int last = s.floorIndex(viewTo);
+
+            for (int i = s.ceilingIndex(viewFrom); i <= last; i++) {
+                double value = s.getValue(i);
+
+                if (!Double.isNaN(value)) {
+                    low = Math.min(low, value);
+                    high = Math.max(high, value);
+                }
+            }
+        }
+
+        if (high - low <= 0) {
+            high = low + 1;
+        }
+
+        yTickUnit = getYTickUnit(high - low);
+        minValue = Math.floor(low / yTickUnit) * yTickUnit;
+        maxValue = Math.ceil(high / yTickUnit) * yTickUnit;
+    }
+
+    /**
+     * Calculates the spacing of the Y-axis ticks: a round number (1, 2, 2.5, or 5 times a power of 10) giving about
+     * the desired number of ticks over a value range.
+     *
+     * @param range The difference between the highest and lowest values shown.
+     * @return The spacing between Y-axis ticks.
+     */
+    private double getYTickUnit(double range) {
+        double rawUnit = range / (NUM_Y_TICKS - 1);
+        double magnitude = Math.pow(10, Math.floor(Math.log10(rawUnit)));
+        double fraction = rawUnit / magnitude;
+
+        if (fraction <= 1) {
+            return magnitude;
+        } else if (fraction <= 2) {
+            return 2 * magnitude;
+        } else if (fraction <= 2.5) {
+            return 2.5 * magnitude;
+        } else if (fraction <= 5) {
+            return 5 * magnitude;
+        } else {
+            return 10 * magnitude;
+        }
+    }
+
+    /**
+     * Draws the horizontal grid lines, the zero line, and the Y-axis with its tick labels.
+     *
+     * @param gc The graphics context of the canvas.
+     * @param yTicks The values of the Y-axis ticks.
+     * @param yLabels The labels of the Y-axis ticks.
+     */
+    private void renderYAxis(GraphicsContext gc, List<Double> yTicks, List<String> yLabels) {
+        gc.setTextAlign(TextAlignment.RIGHT);
+        gc.setTextBaseline(VPos.CENTER);
+
+        for (int i = 0; i < yTicks.size(); i++) {
+            double y = Math.round(toY(yTicks.get(i))) + 0.5;
+
+            gc.setStroke(GRID_COLOR);
+            gc.setLineWidth(yTicks.get(i) == 0 ? 2 : 1);
+            gc.strokeLine(plotLeft, y, plotRight, y);
+
+            gc.setStroke(AXIS_COLOR);
+            gc.setLineWidth(1);
+            gc.strokeLine(plotLeft - TICK_LENGTH, y, plotLeft, y);
+
+            gc.setFill(AXIS_COLOR);
+            gc.fillText(yLabels.get(i), plotLeft - TICK_LENGTH - TICK_LABEL_GAP, y);
+        }
+
+        gc.setLineWidth(2);
+        gc.strokeLine(plotLeft, plotTop, plotLeft, plotBottom);
+    }
+
+    /**
+     * Draws the X-axis with its date labels, in the finest unit whose labels are spaced far enough apart. Ticks fall
+     * on the first day of each week, month, or year.
+     *
+     * @param gc The graphics context of the canvas.
+     */
+    private void renderXAxis(GraphicsContext gc) {
+        double minDays = MIN_X_TICK_SPACING * getDaysPerPixel();
+        TickUnit tickUnit = TICK_UNITS[TICK_UNITS.length - 1];
+
+        for (TickUnit unit : TICK_UNITS) {
+            if (unit.getDays() >= minDays) {
+                tickUnit = unit;
+
+                break;
+            }
+        }
+
+        gc.setStroke(AXIS_COLOR);
+        gc.setFill(AXIS_COLOR);
+        gc.setLineWidth(2);
+        gc.strokeLine(plotLeft, plotBottom, plotRight, plotBottom);
+        gc.setLineWidth(1);
+        gc.setTextAlign(TextAlignment.CENTER);
+        gc.setTextBaseline(VPos.TOP);
+
+        for (LocalDate tick = tickUnit.getFirstTick(LocalDate.ofEpochDay((long) Math.ceil(viewFrom)));
+             tick.toEpochDay() <= viewTo; tick = tick.plus(tickUnit.step, tickUnit.unit)) {
+            double x = Math.round(toX(tick.toEpochDay())) + 0.5;
+
+            gc.strokeLine(x, plotBottom, x, plotBottom + TICK_LENGTH);
+            gc.fillText(tick.format(tickUnit.formatter), x, plotBottom + TICK_LENGTH + TICK_LABEL_GAP);
+        }
+    }
+
+    /**
+     * Draws a series as a single path over the data points in view (and the one just outside each end). The data points
+     * falling within the same pixel column are reduced to their low, high, and last values.
+     *
+     * @param gc The graphics context of the canvas.
+     * @param s The series to be drawn.
+     */
+    private void renderSeries(GraphicsContext gc, Series s) {
+        int first = Math.max(s.ceilingIndex(viewFrom) - 1, 0);
+        int last = Math.min(s.floorIndex(viewTo) + 1, s.size() - 1);
+        int column = Integer.MIN_VALUE;
+        int numInColumn = 0;
+        double low = 0;
+        double high = 0;
+        double lastY = 0;
+
+        gc.beginPath();
+
+        for (int i = first; i <= last; i++) {
+            double value = s.getValue(i);
+
+            if (Double.isNaN(value)) {
+                continue;
+            }
+
+            double x = toX(s.getEpochDay(i));
+            double y = toY(value);
+            int col = (int) Math.floor(x);
+
+            if (col == column) {
+                low = Math.min(low, y);
+                high = Math.max(high, y);
+                lastY = y;
+                numInColumn++;
+
+                continue;
+            }
+
+            if (numInColumn > 1) {
+                gc.lineTo(column, low);
+                gc.lineTo(column, high);
+                gc.lineTo(column, lastY);
+            }
+
+            if (column == Integer.MIN_VALUE) {
+                gc.moveTo(x, y);
+            } else {
+                gc.lineTo(x, y);
+            }
+
+            column = col;
+            numInColumn = 1;
+            low = y;
+            high = y;
+            lastY = y;
+        }
+
+        if (numInColumn > 1) {
+            gc.lineTo(column, low);
+            gc.lineTo(column, high);
+            gc.lineTo(column, lastY);
+        }
+
+        gc.stroke();
+    }
+
+    /**
+     * Draws the name of each series next to its color in the top left corner of the plot.
+     *
+     * @param gc The graphics context of the canvas.
+     */
+    private void renderLegend(GraphicsContext gc) {
+        double x = plotLeft + 10;
+        double y = plotTop + LINE_HEIGHT / 2;
+
+        gc.setTextAlign(TextAlignment.LEFT);
+        gc.setTextBaseline(VPos.CENTER);
+        gc.setLineWidth(2);
+
+        for (int k = 0; k < series.size(); k++) {
+            String name = series.get(k).getName();
+
+            gc.setStroke(getColor(k));
+            gc.strokeLine(x, y, x + 12, y);
+            gc.setFill(AXIS_COLOR);
+            gc.fillText(name, x + 16, y);
+
+            x += 16 + measure(name) + 15;
+        }
+    }
+
+    /**
+     * Draws the crosshair at the data point of the first series nearest to the mouse, a marker on each series at that
+     * date, and a box listing the date and the value of each series.
+     *
+     * @param gc The graphics context of the canvas.
+     */
+    private void renderCrosshair(GraphicsContext gc) {
+        Series primary = series.get(0);
+        int index = primary.nearestIndex(toDay(crosshairX));
+
+        if (index < 0) {
+            return;
+        }
+
+        double day = primary.getEpochDay(index);
+        double x = Math.round(toX(day)) + 0.5;
+
+        if (day < viewFrom || day > viewTo) {
+            return;
+        }
+
+        String dateLabel = LocalDate.ofEpochDay((long) day).format(CROSSHAIR_FORMATTER);
+        List<String> lines = new ArrayList<>();
+        double boxWidth = measure(dateLabel);
+
+        lines.add(dateLabel);
+
+        gc.setStroke(CROSSHAIR_COLOR);
+        gc.setLineWidth(1);
+        gc.setLineDashes(4, 4);
+        gc.strokeLine(x, plotTop, x, plotBottom);
+        gc.setLineDashes(null);
+
+        for (int k = 0; k < series.size(); k++) {
+            Series s = series.get(k);
+            int i = s.nearestIndex(day);
+
+            // series which are not aligned with the first one are only marked where they have a data point that day
+            if (i < 0 || s.getEpochDay(i) != day || Double.isNaN(s.getValue(i))) {
+                continue;
+            }
+
+            double value = s.getValue(i);
+            String line = s.getName() + ": " + formatValue(Math.round(value * 100) / 100.0);
+
+            gc.setFill(getColor(k));
+            gc.fillOval(x - 3.5, toY(value) - 3.5, 7, 7);
+
+            lines.add(line);
+            boxWidth = Math.max(boxWidth, measure(line));
+        }
+
+        double boxHeight = lines.size() * LINE_HEIGHT + 8;
+        double boxX = x + 10 + boxWidth + 16 <= plotRight ? x + 10 : x - 10 - boxWidth - 16;
+        double boxY = plotTop + (legendVisible ? LINE_HEIGHT + 6 : 6);
+
+        gc.setFill(TOOLTIP_COLOR);
+        gc.fillRect(boxX, boxY, boxWidth + 16, boxHeight);
+        gc.setStroke(GRID_COLOR);
+        gc.strokeRect(boxX + 0.5, boxY + 0.5, boxWidth + 15, boxHeight - 1);
+        gc.setFill(AXIS_COLOR);
+        gc.setTextAlign(TextAlignment.LEFT);
+        gc.setTextBaseline(VPos.CENTER);
+
+        for (int j = 0; j < lines.size(); j++) {
+            gc.fillText(lines.get(j), boxX + 8, boxY + 4 + (j + 0.5) * LINE_HEIGHT);
+        }
+    }
+
+    /**
+     * Formats a value with the Y-axis tick label formatter, if one is set.
+     *
+     * @param value The value in question.
+     * @return The formatted value.
+     */
+    private String formatValue(double value) {
+        return yTickLabelFormatter == null ? String.valueOf(value) : yTickLabelFormatter.toString(value);
+    }
+
+    /**
+     * Measures the width of a piece of text in the label font.
+     *
+     * @param text The text in question.
+     * @return The width of the text in pixels.
+     */
+    private double measure(String text) {
+        textMeasurer.setText(text);
+
+        return textMeasurer.getLayoutBounds().getWidth();
+    }
+
+    private Color getColor(int k) {
+        return SERIES_COLORS[k % SERIES_COLORS.length];
+    }
+
+    private double getDaysPerPixel() {
+        return (viewTo - viewFrom) / Math.max(plotRight - plotLeft, 1);
+    }
+
+    private double toX(double day) {
+        return plotLeft + (day - viewFrom) / (viewTo - viewFrom) * (plotRight - plotLeft);
+    }
+
+    private double toY(double value) {
+        return plotBottom - (value - minValue) / (maxValue - minValue) * (plotBottom - plotTop);
+    }
+
+    private double toDay(double x) {
+        return viewFrom + (x - plotLeft) / (plotRight - plotLeft) * (viewTo - viewFrom);
+    }
+
+    /**
+     * A series of values graphed on the chart, held in primitive arrays sorted by date.
+     */
+    public static class Series {
+        private String name;
+        private double[] epochDays;
+        private double[] values;
+
+        /**
+         * Initializes class member variables.
+         *
+         * @param name The name of the series, shown in the legend and crosshair.
+         * @param epochDays The date of each data point as a number of days since the epoch, in ascending order.
+         * @param values The value of each data point; NaN where the series has no value.
+         */
+        public Series(String name, double[] epochDays, double[] values) {
+            this.name = name;
+            this.epochDays = epochDays;
+            this.values = values;
+        }
+
+        // getter methods for class member variables
+
+        public String getName() {
+            return name;
+        }
+
+        public int size() {
+            return epochDays.length;
+        }
+
+        public double getEpochDay(int index) {
+            return epochDays[index];
+        }
+
+        public double getValue(int index) {
+            return values[index];
+        }
+
+        /**
+         * Finds the last data point dated on or before a day using binary search.
+         *
+         * @param day The day in question.
+         * @return The index of the data point; -1 if there is none.
+         */
+        int floorIndex(double day) {
+            return ceilingIndex(Math.nextUp(day)) - 1;
+        }
+
+        /**
+         * Finds the first data point dated on or after a day using binary search.
+         *
+         * @param day The day in question.
+         * @return The index of the data point; the number of data points if there is none.
+         */
+        int ceilingIndex(double day) {
+            int low = 0;
+            int high = epochDays.length;
+
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+
+                if (epochDays[mid] < day) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+
+            return low;
+        }
+
+        /**
+         * Finds the data point dated nearest to a day using binary search.
+         *
+         * @param day The day in question.
+         * @return The index of the data point; -1 if the series is empty.
+         */
+        int nearestIndex(double day) {
+            int index = ceilingIndex(day);
+
+            if (index == epochDays.length || (index > 0 && day - epochDays[index - 1] < epochDays[index] - day)) {
+                index--;
+            }
+
+            return index;
+        }
+    }
+
+    /**
+     * A unit the date axis can be labeled in.
+     */
+    private static class TickUnit {
+        private ChronoUnit unit;
+        private int step;
+        private DateTimeFormatter formatter;
+
+        /**
+         * Initializes class member variables.
+         *
+         * @param unit The calendar unit of the ticks.
+         * @param step The number of calendar units between ticks.
+         * @param pattern The pattern the tick dates are formatted with.
+         */
+        TickUnit(ChronoUnit unit, int step, String pattern) {
+            this.unit = unit;
+            this.step = step;
+            this.formatter = DateTimeFormatter.ofPattern(pattern);
+        }
+
+        /**
+         * Gets the approximate number of days between ticks.
+         *
+         * @return The number of days.
+         */
+        double getDays() {
+            return unit.getDuration().getSeconds() / 86400.0 * step;
+        }
+
+        /**
+         * Finds the first tick on or after a date: the first Monday, first day of a month, or first day of a year
+         * which is a whole number of steps from the epoch.
+         *
+         * @param date The date in question.
+         * @return The date of the first tick.
+         */
+        LocalDate getFirstTick(LocalDate date) {
+            switch (unit) {
+                case DAYS:
+                case WEEKS:
+                    long stepDays = (long) getDays();
+                    long offset = unit == ChronoUnit.WEEKS ? 4 : 0; // the first Monday after the epoch
+
+                    return LocalDate.ofEpochDay(Math.floorDiv(date.toEpochDay() - offset + stepDays - 1, stepDays)
+                            * stepDays + offset);
+                case MONTHS:
+                    long month = date.getYear() * 12L + date.getMonthValue() - 1 + (date.getDayOfMonth() > 1 ? 1 : 0);
+
+                    month = Math.floorDiv(month + step - 1, step) * step;
+
+                    return LocalDate.of((int) Math.floorDiv(month, 12), (int) Math.floorMod(month, 12) + 1, 1);
+                default:
+                    long year = date.getYear() + (date.getDayOfYear() > 1 ? 1 : 0);
+
+                    year = Math.floorDiv(year + step - 1, step) * step;
+
+                    return LocalDate.of((int) year, 1, 1);
+            }
+        }
+    }
+}
@@ -1,9 +1,11 @@
 package viewmanagers;
 
+import analytics.CommandLog;
+import analytics.LedgerReplayer;
+import analytics.TaxLotLedger;
+import analytics.ValuationEngine;
 import controllers.PortfolioOverviewController;
 import data.datapoints.DataPoint;
-import data.datapoints.PortfolioDataPoint;
-import data.datapoints.StockDataPoint;
 import data.records.PortfolioRecord;
 import data.records.RecordType;
 import data.records.StockRecord;
@@ -14,26 +16,47 @@ import data.stockdata.StockDataCallback;
 import data.stockdata.StockDataFetcher;
 import error.PAException;
 import javafx.application.Platform;
+import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.beans.property.SimpleBooleanProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.scene.control.*;
 import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.input.MouseEvent;
+import javafx.util.Callback;
 import utils.Utils;
 
-import java.math.RoundingMode;
-import java.text.DecimalFormat;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
 
 /**
  * Created by scottreese on 6/17/19.
  *
- * The manager responsible for controlling and updating the transactions table.
+ * The manager responsible for controlling and updating the transactions table. The table only creates cells for the
+ * rows in view, so its rows are lightweight views of the transaction records; the "Undo" buttons belong to the cells
+ * of the undo column rather than to the rows, and updates are applied to the table's items as diffs.
  */
 public class TransactionsManager {
+    private static final double SHARE_TOLERANCE = 1e-9; // shares below which a position counts as closed
+    private static final double ROW_HEIGHT = 25; // fixed, so the table never has to measure its rows
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("M/d/yy");
+
     private PortfolioOverviewController overviewController;
     private TableView<TableRow> transactionsTable;
+    private ObservableList<TableRow> tableRows;
+    private BooleanProperty undoDisabled;
+    private ValuationEngine valuationEngine;
+    private TaxLotLedger taxLotLedger;
+    private CommandLog commandLog;
+    private String baseCurrency; // the currency the transactions' amounts are in
+
+    // the ways a command can be applied to the portfolio
+    private enum Action {
+        EXECUTE,
+        UNDO,
+        REDO
+    }
 
     /**
      * Initializes class member variables and does some visual formatting for the table.
@@ -44,8 +67,17 @@ public class TransactionsManager {
     public TransactionsManager(PortfolioOverviewController overviewController, TableView<TableRow> transactionsTable) {
         this.overviewController = overviewController;
         this.transactionsTable = transactionsTable;
+        this.tableRows = FXCollections.observableArrayList();
+        this.undoDisabled = new SimpleBooleanProperty(false);
+        this.valuationEngine = new ValuationEngine();
+        this.taxLotLedger = new TaxLotLedger(TaxLotLedger.Method.FIFO);
+        this.commandLog = new CommandLog();
+        this.baseCurrency = StockRecord.DEFAULT_CURRENCY;
 
         transactionsTable.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY);
+        transactionsTable.setFixedCellSize(ROW_HEIGHT);
+        transactionsTable.getStylesheets().add(getClass().getResource("../css/undo_button.css").toExternalForm());
+        transactionsTable.setItems(tableRows);
 
         TableColumn<TableRow, String> date = new TableColumn<>("Date");
         date.setCellValueFactory(new PropertyValueFactory<>("date"));
@@ -72,8 +104,9 @@ public class TransactionsManager {
         numShares.setSortable(false);
         numShares.impl_setReorderable(false);
 
-        TableColumn<TableRow, Button> undo = new TableColumn<>();
-        undo.setCellValueFactory(new PropertyValueFactory<>("undoButton"));
+        TableColumn<TableRow, TableRow> undo = new TableColumn<>();
+        undo.setCellValueFactory(cellData -> new ReadOnlyObjectWrapper<>(cellData.getValue()));
+        undo.setCellFactory(new UndoCellFactory());
         undo.setSortable(false);
         undo.impl_setReorderable(false);
 
@@ -86,6 +119,8 @@ public class TransactionsManager {
      * @param transactionRecords A list of transaction records associated with all previously made transactions.
      */
     public void initialize(List<TransactionRecord> transactionRecords) {
+        valuationEngine = new ValuationEngine(transactionRecords);
+        taxLotLedger.setTransactions(transactionRecords);
         updateTransactionsTable(false, transactionRecords);
     }
 
@@ -98,6 +133,16 @@ public class TransactionsManager {
         updateTransactionsTable(true, transactionRecords);
     }
 
+    /**
+     * Sets the currency the amounts in the transactions table are shown in, i.e. the portfolio's base currency.
+     *
+     * @param baseCurrency The portfolio's base currency.
+     */
+    public void setBaseCurrency(String baseCurrency) {
+        this.baseCurrency = baseCurrency;
+        transactionsTable.refresh();
+    }
+
     /**
      * Begins the transaction procedure. Fetches asset data if the transaction is for an asset not currently allocated
      * in the portfolio, then updates the portfolio. Otherwise, the portfolio is immediately updated to reflect the
@@ -107,57 +152,249 @@ public class TransactionsManager {
      * @param stockDataRecords A map of all records of assets currently allocated in the portfolio.
      * @param transactionRecords A list of transaction records for all previously made transactions.
      * @param transactionRecord The transaction record which contains all relevant data for this transaction.
-     * @param isUndo True if this transaction is meant to undo a previous one; false otherwise.
      */
     public void initiateTransaction(PortfolioRecord portRecord, Map<String, StockRecord> stockDataRecords,
-                                    List<TransactionRecord> transactionRecords, TransactionRecord transactionRecord, boolean isUndo) {
+                                    List<TransactionRecord> transactionRecords, TransactionRecord transactionRecord) {
+        applyCommand(portRecord, stockDataRecords, transactionRecords, new CommandLog.Command(transactionRecord), Action.EXECUTE);
+    }
+
+    /**
+     * Checks whether a transaction can be undone. Undoing a buy (or dividend reinvestment) is not allowed if fewer
+     * shares of the asset are currently held than it bought, since that would leave a negative position.
+     *
+     * @param portRecord The portfolio record containing the portfolio's allocations.
+     * @param transactionRecord The transaction record representing the transaction to be undone.
+     * @return True if the transaction can be undone; false otherwise.
+     */
+    public boolean canUndo(PortfolioRecord portRecord, TransactionRecord transactionRecord) {
+        if (!transactionRecord.isBuy()) {
+            return true;
+        }
+
+        PortfolioRecord.Allocation allocation = portRecord.getAllocations().get(transactionRecord.getTicker());
+        double numShares = allocation == null ? 0 : allocation.getNumShares();
+
+        return numShares - transactionRecord.getNumShares() > -SHARE_TOLERANCE;
+    }
+
+    /**
+     * Undoes a transaction by applying the opposite of the deltas it applied, from its date onward. The asset's data is
+     * only fetched if the transaction was not made in this session and the asset is no longer held.
+     *
+     * @param portRecord The portfolio record to be updated.
+     * @param stockDataRecords A map of all records of assets currently allocated in the portfolio.
+     * @param transactionRecords A list of transaction records for all previously made transactions.
+     * @param transactionRecord The transaction record representing the transaction to be undone.
+     */
+    public void undoTransaction(PortfolioRecord portRecord, Map<String, StockRecord> stockDataRecords,
+                                List<TransactionRecord> transactionRecords, TransactionRecord transactionRecord) {
+        applyCommand(portRecord, stockDataRecords, transactionRecords, commandLog.getCommand(transactionRecord), Action.UNDO);
+    }
+
+    /**
+     * Checks whether there is an undone transaction which can be redone.
+     *
+     * @return True if there is a transaction to redo; false otherwise.
+     */
+    public boolean canRedo() {
+        return commandLog.peekRedo() != null;
+    }
+
+    /**
+     * Redoes the most recently undone transaction by applying its deltas again. Can be repeated to redo each undone
+     * transaction in turn, until a new transaction is made.
+     *
+     * @param portRecord The portfolio record to be updated.
+     * @param stockDataRecords A map of all records of assets currently allocated in the portfolio.
+     * @param transactionRecords A list of transaction records for all previously made transactions.
+     */
+    public void redoTransaction(PortfolioRecord portRecord, Map<String, StockRecord> stockDataRecords,
+                                List<TransactionRecord> transactionRecords) {
+        CommandLog.Command command = commandLog.peekRedo();
+
+        if (command != null) {
+            applyCommand(portRecord, stockDataRecords, transactionRecords, command, Action.REDO);
+        }
+    }
+
+    /**
+     * Applies a command to the portfolio on a separate thread. If the asset is no longer allocated in the portfolio,
+     * the record kept from when its position was closed is reinstated as long as it is still current; otherwise the
+     * asset's data is fetched.
+     *
+     * @param portRecord The portfolio record to be updated.
+     * @param stockDataRecords A map of all records of assets currently allocated in the portfolio.
+     * @param transactionRecords A list of transaction records for all previously made transactions.
+     * @param command The command which applies the transaction.
+     * @param action Whether the command is being executed, undone, or redone.
+     */
+    private void applyCommand(PortfolioRecord portRecord, Map<String, StockRecord> stockDataRecords,
+                              List<TransactionRecord> transactionRecords, CommandLog.Command command, Action action) {
         Thread thread = new Thread(() -> {
-            String ticker = transactionRecord.getTicker();
+            String ticker = command.getTransactionRecord().getTicker();
+            TransactionRecord appliedRecord = action == Action.UNDO ? command.getInverseRecord() : command.getTransactionRecord();
+            StockRecord closedRecord = portRecord.getClosedRecords().get(ticker);
 
-            if (!stockDataRecords.containsKey(ticker)) {
-                fetchNewStockData(portRecord, stockDataRecords, transactionRecords, transactionRecord, isUndo);
+            if (stockDataRecords.containsKey(ticker)) {
+                PAException ex = updateHistories(portRecord, stockDataRecords, transactionRecords, command, action);
+                notifyOverviewController(appliedRecord, ex);
+            } else if (isCurrent(portRecord, closedRecord)) {
+                // the record stays with the closed positions until the transaction reopens the position
+                stockDataRecords.put(ticker, closedRecord);
+
+                PAException ex = updateHistories(portRecord, stockDataRecords, transactionRecords, command, action);
+
+                if (ex != null) {
+                    stockDataRecords.remove(ticker);
+                }
+
+                notifyOverviewController(appliedRecord, ex);
             } else {
-                PAException ex = updateHistories(portRecord, stockDataRecords, transactionRecords, transactionRecord, isUndo);
-                notifyOverviewController(transactionRecord, ex);
+                fetchNewStockData(portRecord, stockDataRecords, transactionRecords, command, action);
             }
         });
 
         thread.start();
     }
 
+    /**
+     * Checks whether a kept asset record still ends on the same day as the portfolio's history, i.e. whether it can be
+     * put back into the portfolio without fetching the asset's data again.
+     *
+     * @param portRecord The portfolio record.
+     * @param stockRecord The kept asset record.
+     * @return True if the asset record is current; false otherwise.
+     */
+    private boolean isCurrent(PortfolioRecord portRecord, StockRecord stockRecord) {
+        if (stockRecord == null || stockRecord.getHistory().isEmpty() || portRecord.getHistory().isEmpty()) {
+            return false;
+        }
+
+        List<DataPoint> stockHistory = stockRecord.getHistory();
+        List<DataPoint> portHistory = portRecord.getHistory();
+
+        return stockHistory.get(stockHistory.size() - 1).getDate().equals(portHistory.get(portHistory.size() - 1).getDate());
+    }
+
+    /**
+     * Rebuilds the histories of the portfolio and its assets from scratch by replaying the transaction ledger against
+     * the stored asset histories. Used to repair histories which no longer agree with the ledger. The data of any asset
+     * in the ledger whose record is not at hand (e.g. a position closed before closed positions kept their records) is
+     * fetched first.
+     *
+     * @param portRecord The portfolio record to be rebuilt.
+     * @param stockDataRecords A map of all records of assets currently allocated in the portfolio.
+     * @param transactionRecords A list of transaction records for all previously made transactions.
+     */
+    public void rebuildHistories(PortfolioRecord portRecord, Map<String, StockRecord> stockDataRecords,
+                                 List<TransactionRecord> transactionRecords) {
+        rebuildHistories(portRecord, stockDataRecords, transactionRecords, portRecord.getBaseCurrency(),
+                new HashMap<>(portRecord.getFXRecords()));
+    }
+
+    /**
+     * Changes the currency the portfolio is valued in. Fetches the exchange rates from each currency in the ledger into
+     * the new base currency, then rebuilds the histories of the portfolio and its assets from the transaction ledger so
+     * they are valued in it. The portfolio is only switched to the new base currency once the rebuild has succeeded.
+     *
+     * @param portRecord The portfolio record to be revalued.
+     * @param stockDataRecords A map of all records of assets currently allocated in the portfolio.
+     * @param transactionRecords A list of transaction records for all previously made transactions.
+     * @param baseCurrency The new base currency (e.g. "EUR").
+     */
+    public void changeBaseCurrency(PortfolioRecord portRecord, Map<String, StockRecord> stockDataRecords,
+                                   List<TransactionRecord> transactionRecords, String baseCurrency) {
+        Set<String> currencies = new LinkedHashSet<>();
+
+        for (StockRecord stockRecord : LedgerReplayer.getLedgerRecords(portRecord, stockDataRecords).values()) {
+            if (!stockRecord.getCurrency().equals(baseCurrency)) {
+                currencies.add(stockRecord.getCurrency());
+            }
+        }
+
+        if (currencies.size() == 0) {
+            rebuildHistories(portRecord, stockDataRecords, transactionRecords, baseCurrency, new HashMap<>());
+        } else {
+            StockDataFetcher stockDataFetcher = new StockDataFetcher();
+            BaseCurrencyFXDataCallback callback = new BaseCurrencyFXDataCallback(portRecord, stockDataRecords,
+                    transactionRecords, baseCurrency, currencies);
+
+            stockDataFetcher.fetchHistoricalFXData(new ArrayList<>(currencies), baseCurrency, new Date(0), new Date(), callback);
+        }
+    }
+
+    /**
+     * Gets the valuation engine, which holds the share and cash deltas of every transaction in the ledger and can
+     * value the portfolio's holdings on any date.
+     *
+     * @return The valuation engine.
+     */
+    public ValuationEngine getValuationEngine() {
+        return valuationEngine;
+    }
+
+    /**
+     * Gets the tax lot ledger, which holds the open tax lots and realized gains of every asset.
+     *
+     * @return The tax lot ledger.
+     */
+    public TaxLotLedger getTaxLotLedger() {
+        return taxLotLedger;
+    }
+
     /**
      * Disables the "Undo" button for each row in the transactions table.
      */
     public void disableUndoButtons() {
-        for (TableRow tableRow : transactionsTable.getItems()) {
-            tableRow.getUndoButton().setDisable(true);
-        }
+        undoDisabled.set(true);
     }
 
     /**
      * Enables the "Undo" button for each row in the transactions table.
      */
     public void enableUndoButtons() {
-        for (TableRow tableRow : transactionsTable.getItems()) {
-            tableRow.getUndoButton().setDisable(false);
-        }
+        undoDisabled.set(false);
     }
 
     /**
      * The function which actually updates the transactions table to reflect the current state of the portfolio's
-     * transactional history.
+     * transactional history. Only the rows between the longest common prefix and suffix of the old and new lists of
+     * transaction records (compared by identity) are replaced, so making or undoing a transaction inserts or removes a
+     * single row instead of rebuilding the whole table.
      *
      * @param isUpdate True if this transactions table manager is completing an update; false if it is initializing.
      * @param transactionRecords A list of transaction records for all previously made transactions.
      */
     private void updateTransactionsTable(boolean isUpdate, List<TransactionRecord> transactionRecords) {
-        ObservableList<TableRow> tableRows = FXCollections.observableArrayList();
+        int oldSize = tableRows.size();
+        int newSize = transactionRecords.size();
+        int prefix = 0;
+        int suffix = 0;
+
+        while (prefix < oldSize && prefix < newSize
+                && tableRows.get(prefix).getTransactionRecord() == transactionRecords.get(prefix)) {
+            prefix++;
+        }
 
-        for (TransactionRecord transactionRecord : transactionRecords) {
-            tableRows.add(new TableRow(transactionRecord));
+        while (suffix < oldSize - prefix && suffix < newSize - prefix
+                && tableRows.get(oldSize - 1 - suffix).getTransactionRecord() == transactionRecords.get(newSize - 1 - suffix)) {
+            suffix++;
+        }
+
+        List<TableRow> insertedRows = new ArrayList<>();
+
+        for (int i = prefix; i < newSize - suffix; i++) {
+            insertedRows.add(new TableRow(transactionRecords.get(i)));
+        }
+
+        if (oldSize - suffix > prefix) {
+            tableRows.remove(prefix, oldSize - suffix);
+        }
+
+        if (insertedRows.size() > 0) {
+            tableRows.addAll(prefix, insertedRows);
         }
 
-        transactionsTable.setItems(tableRows);
         overviewController.transactionsManagerFinished(isUpdate);
     }
 
@@ -168,18 +405,110 @@ public class TransactionsManager {
      * @param portRecord The portfolio record to be updated.
      * @param stockDataRecords A map of all records of assets currently allocated in the portfolio.
      * @param transactionRecords A list of transaction records for all previously made transactions.
-     * @param transactionRecord The transaction record which contains all relevant data for this transaction.
+     * @param command The command which applies the transaction.
+     * @param action Whether the command is being executed, undone, or redone.
      */
     private void fetchNewStockData(PortfolioRecord portRecord, Map<String, StockRecord> stockDataRecords,
-                                   List<TransactionRecord> transactionRecords, TransactionRecord transactionRecord, boolean isUndo) {
+                                   List<TransactionRecord> transactionRecords, CommandLog.Command command, Action action) {
         StockDataFetcher stockDataFetcher = new StockDataFetcher();
-        HistoricalStockDataCallback callback = new HistoricalStockDataCallback(portRecord, stockDataRecords, transactionRecords, transactionRecord, isUndo);
+        HistoricalStockDataCallback callback = new HistoricalStockDataCallback(portRecord, stockDataRecords, transactionRecords, command, action);
         List<String> ticker = new ArrayList<>();
 
-        ticker.add(transactionRecord.getTicker());
+        ticker.add(command.getTransactionRecord().getTicker());
         stockDataFetcher.fetchHistoricalStockData(ticker, new Date(0), new Date(), callback);
     }
 
+    /**
+     * Rebuilds the histories of the portfolio and its assets from the transaction ledger, valued in a base currency.
+     * The data of the assets in the ledger whose records are not at hand, and the exchange rates of any new currency
+     * they are quoted in, are fetched first.
+     *
+     * @param portRecord The portfolio record to be rebuilt.
+     * @param stockDataRecords A map of all records of assets currently allocated in the portfolio.
+     * @param transactionRecords A list of transaction records for all previously made transactions.
+     * @param baseCurrency The currency to value the portfolio in.
+     * @param fxRecords A map from each foreign currency held in the portfolio to its FX record into the base currency.
+     */
+    private void rebuildHistories(PortfolioRecord portRecord, Map<String, StockRecord> stockDataRecords,
+                                  List<TransactionRecord> transactionRecords, String baseCurrency,
+                                  Map<String, StockRecord> fxRecords) {
+        Map<String, StockRecord> ledgerRecords = LedgerReplayer.getLedgerRecords(portRecord, stockDataRecords);
+        List<String> missingTickers = LedgerReplayer.getMissingTickers(transactionRecords, ledgerRecords);
+
+        if (missingTickers.size() == 0) {
+            replayLedger(portRecord, stockDataRecords, transactionRecords, ledgerRecords, baseCurrency, fxRecords);
+        } else {
+            StockDataFetcher stockDataFetcher = new StockDataFetcher();
+            MissingStockDataCallback callback = new MissingStockDataCallback(portRecord, stockDataRecords,
+                    transactionRecords, ledgerRecords, baseCurrency, fxRecords);
+
+            stockDataFetcher.fetchHistoricalStockData(missingTickers, new Date(0), new Date(), callback);
+        }
+    }
+
+    /**
+     * Replays the transaction ledger on a separate thread. The records are only written to once the replay has
+     * succeeded, back on the UI thread, so the UI never reads them half rebuilt.
+     *
+     * @param portRecord The portfolio record to be rebuilt.
+     * @param stockDataRecords A map of all records of assets currently allocated in the portfolio.
+     * @param transactionRecords A list of transaction records for all previously made transactions.
+     * @param ledgerRecords A map containing the records of every asset involved in the ledger.
+     * @param baseCurrency The currency to value the portfolio in.
+     * @param fxRecords A map from each foreign currency in the ledger to its FX record into the base currency.
+     */
+    private void replayLedger(PortfolioRecord portRecord, Map<String, StockRecord> stockDataRecords,
+                              List<TransactionRecord> transactionRecords, Map<String, StockRecord> ledgerRecords,
+                              String baseCurrency, Map<String, StockRecord> fxRecords) {
+        Thread thread = new Thread(() -> {
+            LedgerReplayer ledgerReplayer = new LedgerReplayer();
+
+            try {
+                LedgerReplayer.ReplayResult result = ledgerReplayer.replay(transactionRecords, ledgerRecords,
+                        baseCurrency, fxRecords);
+
+                Platform.runLater(() -> {
+                    portRecord.setBaseCurrency(baseCurrency, fxRecords);
+                    ledgerReplayer.apply(result, portRecord, stockDataRecords, ledgerRecords);
+                    commandLog.clear();
+                    overviewController.historiesRebuilt(null);
+                });
+            } catch (PAException ex) {
+                Platform.runLater(() -> overviewController.historiesRebuilt(ex));
+            }
+        });
+
+        thread.start();
+    }
+
+    /**
+     * Creates the FX records of several currencies from their fetched historical exchange rates.
+     *
+     * @param data The fetched historical exchange rates.
+     * @param currencies The currencies whose exchange rates were requested.
+     * @param baseCurrency The currency the rates convert into.
+     * @return A map from each currency to its FX record.
+     */
+    private Map<String, StockRecord> getFXRecords(List<StockData> data, Set<String> currencies, String baseCurrency) {
+        Map<String, StockRecord> fxRecords = new HashMap<>();
+
+        // the data arrives in whatever order the requests complete, so each FX ticker is matched to its currency
+        for (String currency : currencies) {
+            String fxTicker = StockDataFetcher.getFXTicker(currency, baseCurrency);
+
+            for (StockData stockData : data) {
+                if (stockData.getTicker().equals(fxTicker)) {
+                    StockRecord fxRecord = new StockRecord(fxTicker, baseCurrency);
+
+                    fxRecord.addHistory(((HistoricalStockData) stockData).getHistory());
+                    fxRecords.put(currency, fxRecord);
+                }
+            }
+        }
+
+        return fxRecords;
+    }
+
     /**
      * Notifies the main screen controller that the transaction has been completed and the portfolio has been updated
      * accordingly.
@@ -192,99 +521,89 @@ public class TransactionsManager {
     }
 
     /**
-     * The function which actually updates the historical data for both the portfolio as a whole and the individual
-     * asset involved in the transaction.
+     * The function which actually applies a transaction to the portfolio. The transaction's deltas are recorded with the
+     * portfolio record and the valuation engine in O(log n) time, whatever its date; the portfolio's history is only
+     * revalued from the transaction's date onward when it is next read. The asset's history holds prices only, since
+     * the asset's holdings on any date are read from the valuation engine. The transaction is then recorded in (or
+     * removed from) the ledger.
      *
      * @param portRecord The portfolio record to be updated.
      * @param stockDataRecords A map of all records of assets currently allocated in the portfolio.
      * @param transactionRecords A list of transaction records for all previously made transactions.
-     * @param transactionRecord The transaction record representing the transaction just committed.
-     * @param isUndo True if the histories are being updated to undo a previous transaction; false otherwise.
+     * @param command The command which applies the transaction.
+     * @param action Whether the command is being executed, undone, or redone.
      */
     private PAException updateHistories(PortfolioRecord portRecord, Map<String, StockRecord> stockDataRecords,
-                                        List<TransactionRecord> transactionRecords, TransactionRecord transactionRecord, boolean isUndo) {
+                                        List<TransactionRecord> transactionRecords, CommandLog.Command command, Action action) {
+        boolean isUndo = action == Action.UNDO;
+        TransactionRecord transactionRecord = command.getTransactionRecord();
+        TransactionRecord appliedRecord = isUndo ? command.getInverseRecord() : transactionRecord;
         StockRecord stockRecord = stockDataRecords.get(transactionRecord.getTicker());
-        List<DataPoint> updatedPortfolioHistory = new ArrayList<>();
-        List<DataPoint> updatedStockHistory = new ArrayList<>();
-        List<DataPoint> currPortfolioHistory = portRecord.getHistory();
-        List<DataPoint> stockDataPoints = getStockDataPoints(stockRecord, transactionRecord);
+        DataPoint dataPoint = ValuationEngine.findDataPoint(stockRecord.getHistory(), transactionRecord.getDate());
 
-        if (stockDataPoints == null) {
+        if (dataPoint == null || !dataPoint.getDate().equals(transactionRecord.getDate())) {
             return new PAException(PAException.Type.INVALID_TRANSACTION_DATE, "Transaction date either on weekend, holiday, or in future.");
         }
 
-        adjustPortfolioAllocations(portRecord, stockDataRecords, transactionRecord);
-
-        boolean isBuy = transactionRecord.isBuy();
-        int portHistoryIndex = currPortfolioHistory.size() - stockDataPoints.size();
-        int stockHistoryIndex = stockRecord.getHistory().size() - stockDataPoints.size();
-        int j = 0;
+        adjustPortfolioAllocations(portRecord, stockDataRecords, appliedRecord);
+        portRecord.addTransaction(appliedRecord, stockRecord);
+        valuationEngine.addTransaction(appliedRecord);
 
-        for (int i = portHistoryIndex; i < currPortfolioHistory.size(); i++) {
-            StockDataPoint stockDataPoint = (StockDataPoint) stockDataPoints.get(j);
-            PortfolioDataPoint newPortfolioDataPoint;
-            StockDataPoint newStockDataPoint;
+        if (isUndo) {
+            taxLotLedger.undoTransaction(appliedRecord);
+            transactionRecords.remove(transactionRecord);
 
-            double portOpenValueDelta = stockDataPoint.getMarketOpenValue() * transactionRecord.getNumShares();
-            double portCloseValueDelta = stockDataPoint.getMarketCloseValue() * transactionRecord.getNumShares();
-            double moneyInvestedDelta = transactionRecord.getType() == RecordType.DIVIDEND_RECORD ? transactionRecord.getPrice()
-                    : transactionRecord.getPrice() * transactionRecord.getNumShares();
+            // the portfolio's history only needs to shrink if the undone transaction was its earliest
+            TransactionRecord earliestRecord = transactionRecords.isEmpty() ? null : transactionRecords.get(transactionRecords.size() - 1);
 
-            double updatedPortOpenValue;
-            double updatedPortCloseValue;
-            double updatedPortMoneyInvested;
-            double updatedStockMoneyInvested;
-            double updatedStockNumShares;
-
-            if (i >= 0) {
-                DataPoint currPortDataPoint = currPortfolioHistory.get(i);
-                double portOpenValue = currPortDataPoint.getMarketOpenValue();
-                double portCloseValue = currPortDataPoint.getMarketCloseValue();
-                double portMoneyInvested = currPortDataPoint.getMoneyInvested();
+            if (earliestRecord == null || transactionRecord.getDate().isBefore(earliestRecord.getDate())) {
+                portRecord.truncateHistory(earliestRecord == null ? null : earliestRecord.getDate());
+            }
 
-                updatedPortOpenValue = isBuy ? portOpenValue + portOpenValueDelta : portOpenValue - portOpenValueDelta;
-                updatedPortCloseValue = isBuy ? portCloseValue + portCloseValueDelta : portCloseValue - portCloseValueDelta;
-                updatedPortMoneyInvested = isBuy ? portMoneyInvested + moneyInvestedDelta : portMoneyInvested - moneyInvestedDelta;
+            commandLog.undone(command);
+        } else {
+            taxLotLedger.addTransaction(transactionRecord);
+            transactionRecords.add(getInsertionIndex(transactionRecords, transactionRecord), transactionRecord);
 
-                newPortfolioDataPoint = new PortfolioDataPoint(stockDataPoint.getDate(), updatedPortOpenValue, updatedPortCloseValue, updatedPortMoneyInvested);
+            if (action == Action.EXECUTE) {
+                commandLog.executed(command);
             } else {
-                updatedPortOpenValue = isBuy ? portOpenValueDelta : -portOpenValueDelta;
-                updatedPortCloseValue = isBuy ? portCloseValueDelta : -portCloseValueDelta;
-                updatedPortMoneyInvested = isBuy ? moneyInvestedDelta : -moneyInvestedDelta;
-
-                newPortfolioDataPoint = new PortfolioDataPoint(stockDataPoint.getDate(), updatedPortOpenValue, updatedPortCloseValue, updatedPortMoneyInvested);
+                commandLog.redone(command);
             }
+        }
 
-            double stockMoneyInvested = stockDataPoint.getMoneyInvested();
-            double stockNumShares = stockDataPoint.getNumShares();
-
-            updatedStockMoneyInvested = isBuy ? stockMoneyInvested + moneyInvestedDelta : stockMoneyInvested - moneyInvestedDelta;
-            updatedStockNumShares = isBuy ? stockNumShares + transactionRecord.getNumShares() : stockNumShares - transactionRecord.getNumShares();
-            newStockDataPoint = new StockDataPoint(stockDataPoint.getDate(), stockDataPoint.getMarketOpenValue(),
-                    stockDataPoint.getMarketCloseValue(), stockDataPoint.getMarketHighValue(), stockDataPoint.getMarketLowValue(),
-                    updatedStockMoneyInvested, updatedStockNumShares);
+        return null;
+    }
 
-            updatedPortfolioHistory.add(newPortfolioDataPoint);
-            updatedStockHistory.add(newStockDataPoint);
-            j++;
-        }
+    /**
+     * Finds where a transaction record belongs in the list of transaction records (sorted from latest to earliest) by
+     * binary search, after every record on the same date.
+     *
+     * @param transactionRecords A list of transaction records for all previously made transactions.
+     * @param transactionRecord The transaction record to be inserted.
+     * @return The index to insert the transaction record at.
+     */
+    private int getInsertionIndex(List<TransactionRecord> transactionRecords, TransactionRecord transactionRecord) {
+        int low = 0;
+        int high = transactionRecords.size();
 
-        portRecord.updateHistory(updatedPortfolioHistory, portHistoryIndex);
-        stockRecord.updateHistory(updatedStockHistory, stockHistoryIndex);
+        while (low < high) {
+            int mid = (low + high) >>> 1;
 
-        if (!isUndo) {
-            transactionRecords.add(transactionRecord);
-            transactionRecords.sort(new TransactionRecordComparator());
-        } else {
-            TransactionRecord earliestRecord = transactionRecords.size() == 0 ? null : transactionRecords.get(transactionRecords.size() - 1);
-            portRecord.truncateHistory(earliestRecord == null ? null : earliestRecord.getDate());
+            if (transactionRecords.get(mid).getDate().compareTo(transactionRecord.getDate()) >= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
         }
 
-        return null;
+        return low;
     }
 
     /**
      * Adjusts the portfolio's allocation after a transaction to reflect the new state of allocations in the portfolio.
+     * The record of an asset whose position the transaction closes is moved to the records of closed positions, and
+     * the record of one it reopens is moved back.
      *
      * @param portRecord The portfolio record whose allocations need to be adjusted.
      * @param stockDataRecords The stock data records.
@@ -301,80 +620,17 @@ public class TransactionsManager {
         }
 
         if (!portRecord.getAllocations().containsKey(ticker)) {
-            stockDataRecords.remove(ticker);
-        }
-    }
-
-    /**
-     * Retrieves the relevant segment of historical data that needs to be updated for the individual asset involved in
-     * the transaction.
-     *
-     * @param stockRecord The record for the asset whose historical data needs to be updated.
-     * @param transactionRecord The transaction record representing the transaction just committed.
-     *
-     * @return The segment of historical data that needs to be updated for the asset.
-     */
-    private List<DataPoint> getStockDataPoints(StockRecord stockRecord, TransactionRecord transactionRecord) {
-        List<DataPoint> stockHistory = stockRecord.getHistory();
-        List<DataPoint> dataPoints = new ArrayList<>();
-
-        for (int i = stockHistory.size() - 1; i >= 0; i--) {
-            DataPoint dataPoint = stockHistory.get(i);
-            dataPoints.add(dataPoint);
-
-            if (dataPoint.getDate().compareTo(transactionRecord.getDate()) == 0) {
-                Collections.reverse(dataPoints);
-                return dataPoints;
-            }
-        }
-
-        return null;
-    }
-
-    /**
-     * Kicks off the transaction undo process.
-     *
-     * @param transactionRecord The transaction record representing the transaction which needs to be undone.
-     */
-    private void undoTransaction(TransactionRecord transactionRecord) {
-        ObservableList<TableRow> tableRows = transactionsTable.getItems();
-        DecimalFormat df = new DecimalFormat("#.####");
-        double numShares = 0;
-
-        for (TableRow tableRow : tableRows) {
-            TransactionRecord record = tableRow.getTransactionRecord();
-
-            if (record.isBuy()) {
-                numShares += record.getNumShares();
-            } else {
-                numShares -= record.getNumShares();
-            }
-        }
-
-        df.setRoundingMode(RoundingMode.FLOOR);
-        String roundedNumShares = df.format(numShares);
-
-        if (transactionRecord.isBuy() && (roundedNumShares.equals("0") || roundedNumShares.equals("-0"))) {
-            return;
-        }
-
-        for (int i = tableRows.size() - 1; i >= 0; i--) {
-            if (transactionRecord.equals(tableRows.get(i).getTransactionRecord())) {
-                tableRows.remove(i);
-
-                break;
-            }
+            portRecord.getClosedRecords().put(ticker, stockDataRecords.remove(ticker));
+        } else {
+            portRecord.getClosedRecords().remove(ticker);
         }
-
-        overviewController.undoTransaction(transactionRecord);
     }
 
     /**
-     * Represents a single row of the transactions table.
+     * Represents a single row of the transactions table. Its values are only formatted when a cell in view shows them.
      */
     public class TableRow {
         private TransactionRecord transactionRecord;
-        private Button undoButton;
 
         /**
          * Initializes class member variable.
@@ -383,18 +639,12 @@ public class TransactionsManager {
          */
         TableRow(TransactionRecord transactionRecord) {
             this.transactionRecord = transactionRecord;
-            this.undoButton = new Button("Undo");
-
-            undoButton.getStylesheets().add(getClass().getResource("../css/undo_button.css").toExternalForm());
-            undoButton.setOnMouseClicked((MouseEvent event) -> undoTransaction(transactionRecord));
         }
 
         // getter methods for class member variables (stored within the transaction record)
 
         public String getDate() {
-            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("M/d/yy");
-
-            return transactionRecord.getDate().format(formatter);
+            return transactionRecord.getDate().format(DATE_FORMATTER);
         }
 
         public String getType() {
@@ -407,35 +657,58 @@ public class TransactionsManager {
         }
 
         public String getAmount() {
-            return Utils.formatDollars(transactionRecord.getPrice());
+            return Utils.formatMoney(transactionRecord.getPrice(), baseCurrency);
         }
 
         public String getNumShares() {
             return Utils.roundDecimal(transactionRecord.getNumShares(), 4);
         }
 
-        public Button getUndoButton() {
-            return undoButton;
-        }
-
         TransactionRecord getTransactionRecord() {
             return transactionRecord;
         }
     }
 
     /**
-     * Comparator class used to compare transaction records in order to sort them by date.
+     * Cell factory shared by every cell of the undo column.
+     */
+    private class UndoCellFactory implements Callback<TableColumn<TableRow, TableRow>, TableCell<TableRow, TableRow>> {
+
+        @Override
+        public TableCell<TableRow, TableRow> call(TableColumn<TableRow, TableRow> param) {
+            return new UndoCell();
+        }
+    }
+
+    /**
+     * Custom cell for the undo column, which owns a single "Undo" button and shows it for whichever row the cell is
+     * currently reused for. The button is disabled along with every other "Undo" button.
      */
-    private class TransactionRecordComparator implements Comparator<TransactionRecord> {
+    private class UndoCell extends TableCell<TableRow, TableRow> {
+        private Button undoButton;
+
+        /**
+         * Initializes class member variable.
+         */
+        UndoCell() {
+            this.undoButton = new Button("Undo");
+
+            undoButton.disableProperty().bind(undoDisabled);
+            undoButton.setOnMouseClicked((MouseEvent event) -> {
+                if (getItem() != null) {
+                    overviewController.undoTransaction(getItem().getTransactionRecord());
+                }
+            });
+        }
 
         @Override
-        public int compare(TransactionRecord o1, TransactionRecord o2) {
-            if (o1.getDate().compareTo(o2.getDate()) < 0) {
-                return 1;
-            } else if (o1.getDate().compareTo(o2.getDate()) > 0) {
-                return -1;
+        protected void updateItem(TableRow item, boolean empty) {
+            super.updateItem(item, empty);
+
+            if (item != null && !empty) {
+                setGraphic(undoButton);
             } else {
-                return 0;
+                setGraphic(null);
             }
         }
     }
@@ -448,8 +721,8 @@ public class TransactionsManager {
         private PortfolioRecord portRecord;
         private Map<String, StockRecord> stockDataRecords;
         private List<TransactionRecord> transactionRecords;
-        private TransactionRecord transactionRecord;
-        private boolean isUndo;
+        private CommandLog.Command command;
+        private Action action;
 
         /**
          * Initializes class member variables.
@@ -457,15 +730,16 @@ public class TransactionsManager {
          * @param portRecord The portfolio record.
          * @param stockDataRecords A map of all records of assets currently allocated in the portfolio.
          * @param transactionRecords A list of transaction records for all previously made transactions.
-         * @param transactionRecord The transaction record containing all relevant data for the transaction just made.
+         * @param command The command which applies the transaction.
+         * @param action Whether the command is being executed, undone, or redone.
          */
         HistoricalStockDataCallback(PortfolioRecord portRecord, Map<String, StockRecord> stockDataRecords,
-                                    List<TransactionRecord> transactionRecords, TransactionRecord transactionRecord, boolean isUndo) {
+                                    List<TransactionRecord> transactionRecords, CommandLog.Command command, Action action) {
             this.portRecord = portRecord;
             this.stockDataRecords = stockDataRecords;
             this.transactionRecords = transactionRecords;
-            this.transactionRecord = transactionRecord;
-            this.isUndo = isUndo;
+            this.command = command;
+            this.action = action;
         }
 
         @Override
@@ -475,20 +749,229 @@ public class TransactionsManager {
 
         @Override
         public void completed(List<StockData> data) {
-            String ticker = transactionRecord.getTicker();
+            String ticker = command.getTransactionRecord().getTicker();
             HistoricalStockData historicalStockData = (HistoricalStockData) data.get(0);
-            StockRecord stockRecord = new StockRecord(ticker);
+            StockRecord stockRecord = new StockRecord(ticker, historicalStockData.getCurrency());
+            String currency = stockRecord.getCurrency();
 
             stockRecord.addHistory(historicalStockData.getHistory());
+
+            // an asset quoted in a currency not yet held needs its exchange rates before the portfolio can value it
+            if (!currency.equals(portRecord.getBaseCurrency()) && !portRecord.getFXRecords().containsKey(currency)) {
+                StockDataFetcher stockDataFetcher = new StockDataFetcher();
+                List<String> currencies = new ArrayList<>();
+
+                currencies.add(currency);
+                stockDataFetcher.fetchHistoricalFXData(currencies, portRecord.getBaseCurrency(), new Date(0), new Date(),
+                        new HistoricalFXDataCallback(portRecord, stockRecord, this));
+            } else {
+                commitTransaction(stockRecord);
+            }
+        }
+
+        /**
+         * Adds the record of the asset involved in the transaction to the portfolio's asset records and commits the
+         * transaction.
+         *
+         * @param stockRecord The newly created record of the asset.
+         */
+        void commitTransaction(StockRecord stockRecord) {
+            String ticker = stockRecord.getTicker();
+
             stockDataRecords.put(ticker, stockRecord);
 
-            PAException ex = updateHistories(portRecord, stockDataRecords, transactionRecords, transactionRecord, isUndo);
+            PAException ex = updateHistories(portRecord, stockDataRecords, transactionRecords, command, action);
 
             if (ex != null) {
                 stockDataRecords.remove(ticker);
             }
 
-            notifyOverviewController(transactionRecord, ex);
+            notifyOverviewController(action == Action.UNDO ? command.getInverseRecord() : command.getTransactionRecord(), ex);
+        }
+    }
+
+    /**
+     * Callback class used to receive the historical exchange rates of the currency of an asset newly added to the
+     * portfolio, before the transaction involving the asset is committed.
+     */
+    private class HistoricalFXDataCallback implements StockDataCallback {
+        private PortfolioRecord portRecord;
+        private StockRecord stockRecord;
+        private HistoricalStockDataCallback stockDataCallback;
+
+        /**
+         * Initializes class member variables.
+         *
+         * @param portRecord The portfolio record.
+         * @param stockRecord The newly created record of the asset involved in the transaction.
+         * @param stockDataCallback The callback which received the asset's data and commits the transaction.
+         */
+        HistoricalFXDataCallback(PortfolioRecord portRecord, StockRecord stockRecord, HistoricalStockDataCallback stockDataCallback) {
+            this.portRecord = portRecord;
+            this.stockRecord = stockRecord;
+            this.stockDataCallback = stockDataCallback;
+        }
+
+        @Override
+        public void failed(PAException ex) {
+            notifyOverviewController(null, ex);
+        }
+
+        @Override
+        public void completed(List<StockData> data) {
+            HistoricalStockData historicalFXData = (HistoricalStockData) data.get(0);
+            StockRecord fxRecord = new StockRecord(historicalFXData.getTicker(), portRecord.getBaseCurrency());
+
+            fxRecord.addHistory(historicalFXData.getHistory());
+            portRecord.getFXRecords().put(stockRecord.getCurrency(), fxRecord);
+            stockDataCallback.commitTransaction(stockRecord);
+        }
+    }
+
+    /**
+     * Callback class used to receive the historical exchange rates from each currency held in the portfolio into a new
+     * base currency.
+     */
+    private class BaseCurrencyFXDataCallback implements StockDataCallback {
+        private PortfolioRecord portRecord;
+        private Map<String, StockRecord> stockDataRecords;
+        private List<TransactionRecord> transactionRecords;
+        private String baseCurrency;
+        private Set<String> currencies;
+
+        /**
+         * Initializes class member variables.
+         *
+         * @param portRecord The portfolio record to be revalued.
+         * @param stockDataRecords A map of all records of assets currently allocated in the portfolio.
+         * @param transactionRecords A list of transaction records for all previously made transactions.
+         * @param baseCurrency The new base currency.
+         * @param currencies The currencies whose exchange rates were requested.
+         */
+        BaseCurrencyFXDataCallback(PortfolioRecord portRecord, Map<String, StockRecord> stockDataRecords,
+                                   List<TransactionRecord> transactionRecords, String baseCurrency, Set<String> currencies) {
+            this.portRecord = portRecord;
+            this.stockDataRecords = stockDataRecords;
+            this.transactionRecords = transactionRecords;
+            this.baseCurrency = baseCurrency;
+            this.currencies = currencies;
+        }
+
+        @Override
+        public void failed(PAException ex) {
+            Platform.runLater(() -> overviewController.historiesRebuilt(ex));
+        }
+
+        @Override
+        public void completed(List<StockData> data) {
+            rebuildHistories(portRecord, stockDataRecords, transactionRecords, baseCurrency,
+                    getFXRecords(data, currencies, baseCurrency));
+        }
+    }
+
+    /**
+     * Callback class used to receive the historical data of the assets in the ledger whose records were not at hand,
+     * before the ledger is replayed.
+     */
+    private class MissingStockDataCallback implements StockDataCallback {
+        private PortfolioRecord portRecord;
+        private Map<String, StockRecord> stockDataRecords;
+        private List<TransactionRecord> transactionRecords;
+        private Map<String, StockRecord> ledgerRecords;
+        private String baseCurrency;
+        private Map<String, StockRecord> fxRecords;
+
+        /**
+         * Initializes class member variables.
+         *
+         * @param portRecord The portfolio record to be rebuilt.
+         * @param stockDataRecords A map of all records of assets currently allocated in the portfolio.
+         * @param transactionRecords A list of transaction records for all previously made transactions.
+         * @param ledgerRecords A map containing the records at hand of the assets involved in the ledger.
+         * @param baseCurrency The currency to value the portfolio in.
+         * @param fxRecords A map from each foreign currency held in the portfolio to its FX record into the base currency.
+         */
+        MissingStockDataCallback(PortfolioRecord portRecord, Map<String, StockRecord> stockDataRecords,
+                                 List<TransactionRecord> transactionRecords, Map<String, StockRecord> ledgerRecords,
+                                 String baseCurrency, Map<String, StockRecord> fxRecords) {
+            this.portRecord = portRecord;
+            this.stockDataRecords = stockDataRecords;
+            this.transactionRecords = transactionRecords;
+            this.ledgerRecords = ledgerRecords;
+            this.baseCurrency = baseCurrency;
+            this.fxRecords = fxRecords;
+        }
+
+        @Override
+        public void failed(PAException ex) {
+            Platform.runLater(() -> overviewController.historiesRebuilt(ex));
+        }
+
+        @Override
+        public void completed(List<StockData> data) {
+            Set<String> currencies = new LinkedHashSet<>();
+
+            for (StockData stockData : data) {
+                HistoricalStockData historicalStockData = (HistoricalStockData) stockData;
+                StockRecord stockRecord = new StockRecord(historicalStockData.getTicker(), historicalStockData.getCurrency());
+
+                stockRecord.addHistory(historicalStockData.getHistory());
+                ledgerRecords.put(stockRecord.getTicker(), stockRecord);
+
+                if (!stockRecord.getCurrency().equals(baseCurrency) && !fxRecords.containsKey(stockRecord.getCurrency())) {
+                    currencies.add(stockRecord.getCurrency());
+                }
+            }
+
+            // an asset quoted in a currency not yet held needs its exchange rates before the ledger can be replayed
+            if (currencies.size() == 0) {
+                replayLedger(portRecord, stockDataRecords, transactionRecords, ledgerRecords, baseCurrency, fxRecords);
+            } else {
+                StockDataFetcher stockDataFetcher = new StockDataFetcher();
+
+                stockDataFetcher.fetchHistoricalFXData(new ArrayList<>(currencies), baseCurrency, new Date(0), new Date(),
+                        new MissingFXDataCallback(this, currencies));
+            }
+        }
+
+        /**
+         * Adds the records of the exchange rates of the fetched assets' currencies and replays the ledger.
+         *
+         * @param newFXRecords A map from each new currency to its FX record into the base currency.
+         */
+        void replay(Map<String, StockRecord> newFXRecords) {
+            fxRecords.putAll(newFXRecords);
+            replayLedger(portRecord, stockDataRecords, transactionRecords, ledgerRecords, baseCurrency, fxRecords);
+        }
+    }
+
+    /**
+     * Callback class used to receive the historical exchange rates of the currencies of the assets fetched before the
+     * ledger is replayed.
+     */
+    private class MissingFXDataCallback implements StockDataCallback {
+        private MissingStockDataCallback stockDataCallback;
+        private Set<String> currencies;
+
+        /**
+         * Initializes class member variables.
+         *
+         * @param stockDataCallback The callback which received the assets' data and replays the ledger.
+         * @param currencies The currencies whose exchange rates were requested.
+         */
+        MissingFXDataCallback(MissingStockDataCallback stockDataCallback, Set<String> currencies) {
+            this.stockDataCallback = stockDataCallback;
+            this.currencies = currencies;
+        }
+
+        @Override
+        public void failed(PAException ex) {
+            Platform.runLater(() -> overviewController.historiesRebuilt(ex));
+        }
+
+        @Override
+        public void completed(List<StockData> data) {
+            stockDataCallback.replay(getFXRecords(data, currencies, stockDataCallback.baseCurrency));
         }
     }
 }